@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.benchmarks;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.opencb.datastore.core.NdJsonQueryResultWriter;
+import org.opencb.datastore.mongodb.MongoDBNdJsonQueryResultWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing MongoDB documents as newline-delimited JSON, with {@link MongoDBNdJsonQueryResultWriter} and with
+ * {@code DBObject.toString()}. Both write to a temporary file; no MongoDB server is needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NdJsonWriterBenchmark {
+
+    @Param({"1000"})
+    public int numDocuments;
+
+    private List<DBObject> documents;
+    private Path path;
+
+    @Setup
+    public void setup() throws IOException {
+        documents = new ArrayList<>(numDocuments);
+        for (int i = 0; i < numDocuments; i++) {
+            documents.add(new BasicDBObject("_id", new ObjectId())
+                    .append("id", "rs" + i)
+                    .append("chromosome", "1")
+                    .append("start", 100000 + i)
+                    .append("maf", i / (double) numDocuments)
+                    .append("genes", Arrays.asList("BRCA1", "BRCA2"))
+                    .append("date", new Date(1420070400000L + i))
+                    .append("stats", new BasicDBObject("count", i).append("frequency", 0.25)));
+        }
+        path = Files.createTempFile("datastore-benchmark-", ".json");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public long ndJsonWriter() throws IOException {
+        MongoDBNdJsonQueryResultWriter writer = new MongoDBNdJsonQueryResultWriter(path,
+                NdJsonQueryResultWriter.Compression.NONE, NdJsonQueryResultWriter.DEFAULT_BUFFER_SIZE);
+        writer.open();
+        writer.writeBatch(documents);
+        writer.close();
+        return Files.size(path);
+    }
+
+    @Benchmark
+    public long dbObjectToString() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (DBObject document : documents) {
+                writer.write(document.toString());
+                writer.write('\n');
+            }
+        }
+        return Files.size(path);
+    }
+
+}
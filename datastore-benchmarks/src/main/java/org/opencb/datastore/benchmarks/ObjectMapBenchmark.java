@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.benchmarks;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed getters, list parsing and JSON conversion of {@link ObjectMap}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectMapBenchmark {
+
+    @Param({"10", "1000"})
+    public int listSize;
+
+    private ObjectMap objectMap;
+    private ObjectMap cachedObjectMap;
+    private String json;
+
+    @Setup
+    public void setup() {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < listSize; i++) {
+            ids.append(i > 0 ? "," : "").append(100000 + i);
+        }
+        objectMap = new ObjectMap("int", 12)
+                .append("intString", "12")
+                .append("long", 1L << 40)
+                .append("double", 0.5)
+                .append("doubleString", "0.5")
+                .append("boolean", true)
+                .append("booleanString", "true")
+                .append("string", "chr1")
+                .append("ids", ids.toString())
+                .append("nested", new ObjectMap("id", "rs1").append("start", 100));
+        cachedObjectMap = new ObjectMap(objectMap);
+        cachedObjectMap.setParsedListCacheEnabled(true);
+        json = objectMap.toJson();
+    }
+
+    @Benchmark
+    public int getInt() {
+        return objectMap.getInt("int");
+    }
+
+    @Benchmark
+    public int getIntFromString() {
+        return objectMap.getInt("intString");
+    }
+
+    @Benchmark
+    public long getLong() {
+        return objectMap.getLong("long");
+    }
+
+    @Benchmark
+    public double getDouble() {
+        return objectMap.getDouble("double");
+    }
+
+    @Benchmark
+    public double getDoubleFromString() {
+        return objectMap.getDouble("doubleString");
+    }
+
+    @Benchmark
+    public boolean getBoolean() {
+        return objectMap.getBoolean("boolean");
+    }
+
+    @Benchmark
+    public boolean getBooleanFromString() {
+        return objectMap.getBoolean("booleanString");
+    }
+
+    @Benchmark
+    public String getString() {
+        return objectMap.getString("string");
+    }
+
+    @Benchmark
+    public List<Object> getAsList() {
+        return objectMap.getAsList("ids");
+    }
+
+    @Benchmark
+    public List<Integer> getAsIntegerList() {
+        return objectMap.getAsIntegerList("ids");
+    }
+
+    @Benchmark
+    public List<Integer> getAsIntegerListCached() {
+        return cachedObjectMap.getAsIntegerList("ids");
+    }
+
+    @Benchmark
+    public long[] getAsLongArray() {
+        return objectMap.getAsLongArray("ids");
+    }
+
+    @Benchmark
+    public ObjectMap fromJson() {
+        return new ObjectMap(json);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return objectMap.toJson();
+    }
+
+}
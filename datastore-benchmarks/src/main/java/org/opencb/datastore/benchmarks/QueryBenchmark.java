@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.benchmarks;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryParam;
+import org.opencb.datastore.core.QueryResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Validation of queries, list options and construction of query results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+    public enum VariantQueryParam implements QueryParam {
+        ID("id", Type.TEXT_ARRAY),
+        CHROMOSOME("chromosome", Type.TEXT),
+        START("start", Type.INTEGER),
+        POSITIONS("positions", Type.INTEGER_ARRAY),
+        MAF("maf", Type.DECIMAL),
+        SCORES("scores", Type.DECIMAL_ARRAY),
+        PASS("pass", Type.BOOLEAN);
+
+        private final String key;
+        private final Type type;
+
+        VariantQueryParam(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+
+        @Override public String key() {return key;}
+        @Override public String description() {return "";}
+        @Override public Type type() {return type;}
+    }
+
+    @Param({"10", "1000"})
+    public int listSize;
+
+    private Query query;
+    private String[] fields;
+    private List<ObjectMap> results;
+
+    @Setup
+    public void setup() {
+        StringBuilder positions = new StringBuilder();
+        StringBuilder scores = new StringBuilder();
+        for (int i = 0; i < listSize; i++) {
+            positions.append(i > 0 ? "," : "").append(100000 + i);
+            scores.append(i > 0 ? "," : "").append(i / 1000.0);
+        }
+        query = new Query("id", "rs1,rs2,rs3")
+                .append("chromosome", "1")
+                .append("start", "100")
+                .append("positions", positions.toString())
+                .append("maf", "0.01")
+                .append("scores", scores.toString())
+                .append("pass", "true");
+
+        fields = new String[listSize];
+        for (int i = 0; i < listSize; i++) {
+            // Repeated values, which are added again to the list
+            fields[i] = "field" + (i % 16);
+        }
+
+        results = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            results.add(new ObjectMap("id", "rs" + i).append("start", i));
+        }
+    }
+
+    /**
+     * Includes copying the query, as validation replaces its values.
+     */
+    @Benchmark
+    public Query validate() {
+        Query copy = new Query(query);
+        copy.validate(VariantQueryParam.class);
+        return copy;
+    }
+
+    /**
+     * The validation before {@link org.opencb.datastore.core.QueryParamSchema}: the key to enum map is rebuilt with
+     * streams on every call and each value is then read again through the typed getters.
+     */
+    @Benchmark
+    public Query validateBaseline() {
+        Query copy = new Query(query);
+        Map<String, VariantQueryParam> enumFields = Arrays.asList(VariantQueryParam.class.getEnumConstants()).stream()
+                .collect(Collectors.toMap(queryParam -> queryParam.key(), Function.<VariantQueryParam>identity()));
+        for (Map.Entry<String, Object> entry : copy.entrySet()) {
+            if (!enumFields.containsKey(entry.getKey())) {
+                throw new EnumConstantNotPresentException(VariantQueryParam.class, entry.getKey());
+            }
+            QueryParam queryParam = enumFields.get(entry.getKey());
+            switch (queryParam.type()) {
+                case TEXT:
+                    copy.put(queryParam.key(), copy.getString(queryParam.key()));
+                    break;
+                case TEXT_ARRAY:
+                    copy.put(queryParam.key(), copy.getAsStringList(queryParam.key()));
+                    break;
+                case INTEGER:
+                    copy.put(queryParam.key(), copy.getLong(queryParam.key()));
+                    break;
+                case INTEGER_ARRAY:
+                    copy.put(queryParam.key(), copy.getAsLongList(queryParam.key()));
+                    break;
+                case DECIMAL:
+                    copy.put(queryParam.key(), copy.getDouble(queryParam.key()));
+                    break;
+                case DECIMAL_ARRAY:
+                    copy.put(queryParam.key(), copy.getAsDoubleList(queryParam.key()));
+                    break;
+                case BOOLEAN:
+                    copy.put(queryParam.key(), copy.getBoolean(queryParam.key()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public Query validatePrimitiveArrays() {
+        Query copy = new Query(query);
+        copy.validate(VariantQueryParam.class, true);
+        return copy;
+    }
+
+    @Benchmark
+    public Query copy() {
+        return new Query(query);
+    }
+
+    @Benchmark
+    public QueryOptions addToListOption() {
+        QueryOptions queryOptions = new QueryOptions("exclude", "annotation");
+        for (String field : fields) {
+            queryOptions.addToListOption("include", field);
+        }
+        queryOptions.addToListOption("exclude", "sourceEntries");
+        return queryOptions;
+    }
+
+    @Benchmark
+    public QueryResult<ObjectMap> queryResult() {
+        return new QueryResult<>("variants", 10, results.size(), results.size(), null, null, results);
+    }
+
+}
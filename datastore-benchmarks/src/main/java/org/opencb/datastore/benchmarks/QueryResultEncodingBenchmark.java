@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.benchmarks;
+
+import org.opencb.datastore.core.JsonCodec;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.protobuf.ProtobufCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and speed of the JSON and protobuf encodings of a {@link QueryResult}. The encoded sizes are printed when the
+ * benchmark starts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryResultEncodingBenchmark {
+
+    @Param({"100", "10000"})
+    public int numResults;
+
+    private QueryResult<ObjectMap> queryResult;
+    private byte[] json;
+    private byte[] protobuf;
+
+    @Setup
+    public void setup() throws IOException {
+        List<ObjectMap> results = new ArrayList<>(numResults);
+        for (int i = 0; i < numResults; i++) {
+            results.add(new ObjectMap("id", "rs" + i)
+                    .append("chromosome", "1")
+                    .append("start", 100000 + i)
+                    .append("end", 100000L + i)
+                    .append("reference", "A")
+                    .append("alternate", "T")
+                    .append("maf", i / (double) numResults)
+                    .append("pass", i % 2 == 0)
+                    .append("genes", Arrays.asList("BRCA1", "BRCA2"))
+                    .append("stats", new ObjectMap("count", i).append("frequency", 0.25)));
+        }
+        queryResult = new QueryResult<>("variants", 12, numResults, 10L * numResults, null, null, results);
+        json = encodeJson();
+        protobuf = encodeProtobuf();
+        System.out.println("Encoded sizes of " + numResults + " results: JSON " + json.length
+                + " bytes, protobuf " + protobuf.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return JsonCodec.writer().writeValueAsBytes(queryResult);
+    }
+
+    @Benchmark
+    public byte[] encodeProtobuf() {
+        return ProtobufCodec.encode(queryResult);
+    }
+
+    @Benchmark
+    public QueryResult decodeJson() throws IOException {
+        return JsonCodec.reader(QueryResult.class).readValue(json);
+    }
+
+    @Benchmark
+    public QueryResult<Object> decodeProtobuf() throws IOException {
+        return ProtobufCodec.decodeQueryResult(protobuf);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.benchmarks;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.StringPool;
+import org.opencb.datastore.mongodb.MongoDBObjectMapConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Heap retained by a result of synthetic variant documents converted to {@link ObjectMap}s, with and without a
+ * {@link StringPool}. Documents are decoded from BSON by the driver, as read from a cursor, or parsed from JSON with
+ * {@code ObjectMap(String)}. It measures memory rather than time, so it is a plain program instead of a JMH suite:
+ *
+ *     java -Xmx3g -cp datastore-benchmarks/target/benchmarks.jar \
+ *         org.opencb.datastore.benchmarks.StringPoolFootprint [numDocuments]
+ */
+public class StringPoolFootprint {
+
+    private static final String[] CHROMOSOMES = new String[24];
+    private static final String[] BASES = {"A", "C", "G", "T"};
+
+    static {
+        for (int i = 0; i < 22; i++) {
+            CHROMOSOMES[i] = String.valueOf(i + 1);
+        }
+        CHROMOSOMES[22] = "X";
+        CHROMOSOMES[23] = "Y";
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numDocuments = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        long bsonPlain = retained(numDocuments, new Bson(new MongoDBObjectMapConverter()));
+        long bsonPooled = retained(numDocuments, new Bson(new MongoDBObjectMapConverter(new StringPool())));
+        long jsonPlain = retained(numDocuments, i -> new ObjectMap(json(i)));
+        StringPool.setDefault(new StringPool());
+        long jsonPooled = retained(numDocuments, i -> new ObjectMap(json(i)));
+        StringPool.setDefault(null);
+
+        System.out.printf("%d documents%n", numDocuments);
+        print("BSON, MongoDBObjectMapConverter", bsonPlain, bsonPooled);
+        print("JSON, ObjectMap(String)", jsonPlain, jsonPooled);
+    }
+
+    private static void print(String source, long plain, long pooled) {
+        System.out.printf("%-32s without pool %5d MB, with pool %5d MB, %.0f%% less%n", source, plain >> 20,
+                pooled >> 20, 100.0 * (plain - pooled) / plain);
+    }
+
+    private static long retained(int numDocuments, Source source) throws InterruptedException {
+        long before = usedHeap();
+        List<ObjectMap> result = new ArrayList<>(numDocuments);
+        for (int i = 0; i < numDocuments; i++) {
+            result.add(source.document(i));
+        }
+        long retained = usedHeap() - before;
+        // Keeps the result reachable until it has been measured
+        if (result.size() != numDocuments) {
+            throw new IllegalStateException();
+        }
+        return retained;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static DBObject document(int i) {
+        return new BasicDBObject("id", "rs" + i)
+                .append("chromosome", CHROMOSOMES[i % CHROMOSOMES.length])
+                .append("start", 100000 + i)
+                .append("end", 100000 + i)
+                .append("reference", BASES[i % 4])
+                .append("alternate", BASES[(i + 1) % 4])
+                .append("type", "SNV")
+                .append("filter", i % 10 == 0 ? "LowQual" : "PASS")
+                .append("genes", Arrays.asList("BRCA" + (i % 2 + 1)))
+                .append("sample", new BasicDBObject("id", "S" + (i % 500))
+                        .append("genotype", i % 3 == 0 ? "1/1" : "0/1")
+                        .append("quality", (double) (i % 100)));
+    }
+
+    private static String json(int i) {
+        return document(i).toString();
+    }
+
+    private interface Source {
+        ObjectMap document(int i);
+    }
+
+    /**
+     * Decodes every document from BSON, so its strings are new instances as when read from the database.
+     */
+    private static class Bson implements Source {
+        private final MongoDBObjectMapConverter converter;
+
+        Bson(MongoDBObjectMapConverter converter) {
+            this.converter = converter;
+        }
+
+        @Override
+        public ObjectMap document(int i) {
+            byte[] bson = new DefaultDBEncoder().encode(StringPoolFootprint.document(i));
+            return converter.convertToDataModelType(new DefaultDBDecoder().decode(bson, (DBCollection) null));
+        }
+    }
+
+}
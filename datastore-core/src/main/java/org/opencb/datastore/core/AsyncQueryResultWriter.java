@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorator that hands the elements over to a dedicated thread, which writes them to the wrapped writer. Reading from
+ * the database and writing to a slow sink are overlapped this way.
+ *
+ * Elements are grouped in batches, which are passed to {@link QueryResultWriter#writeBatch(List)} of the wrapped
+ * writer. At most {@code queueCapacity} batches are kept waiting, when the queue is full the calls to write block until
+ * the writer thread catches up.
+ *
+ * An error of the wrapped writer is thrown by the next call to write, writeBatch or close. The wrapped writer is opened
+ * by the calling thread and closed by {@link #close()} once every element has been written.
+ *
+ * The methods of this class must be called from a single thread.
+ *
+ * @param <T> the type of the elements
+ */
+public class AsyncQueryResultWriter<T> implements QueryResultWriter<T> {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10;
+
+    private static final List<Object> END = new ArrayList<>(0);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final QueryResultWriter<T> writer;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    private BlockingQueue<List<T>> queue;
+    private List<T> batch;
+    private Thread writerThread;
+    private volatile Throwable failure;
+
+    public AsyncQueryResultWriter(QueryResultWriter<T> writer) {
+        this(writer, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param writer the writer to decorate
+     * @param batchSize the number of elements handed over at once to the writer thread
+     * @param queueCapacity the number of batches waiting to be written before the calls to write block
+     */
+    public AsyncQueryResultWriter(QueryResultWriter<T> writer, int batchSize, int queueCapacity) {
+        if (batchSize <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Batch size and queue capacity must be positive");
+        }
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (writerThread != null) {
+            throw new IllegalStateException("Writer already open");
+        }
+        writer.open();
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        batch = new ArrayList<>(batchSize);
+        failure = null;
+        writerThread = new Thread(this::writeQueue, "AsyncQueryResultWriter-" + THREAD_COUNT.incrementAndGet());
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void write(T elem) throws IOException {
+        checkOpen();
+        batch.add(elem);
+        if (batch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    @Override
+    public void writeBatch(List<T> elems) throws IOException {
+        checkOpen();
+        if (!batch.isEmpty()) {
+            flushBatch();
+        }
+        if (!elems.isEmpty()) {
+            enqueue(new ArrayList<>(elems));
+        }
+    }
+
+    /**
+     * Waits until every element has been written and closes the wrapped writer.
+     *
+     * @throws IOException if the wrapped writer failed, or could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (writerThread == null) {
+            return;
+        }
+        try {
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+            }
+            queue.put((List<T>) END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+        } finally {
+            writerThread = null;
+            batch = null;
+            queue = null;
+            writer.close();
+        }
+        checkFailure();
+    }
+
+    private void checkOpen() throws IOException {
+        if (writerThread == null) {
+            throw new IllegalStateException("Writer not open");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw new IOException(t.getMessage(), t);
+        } else if (t != null) {
+            throw new IOException("Error writing query results", t);
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        List<T> full = batch;
+        batch = new ArrayList<>(batchSize);
+        enqueue(full);
+    }
+
+    private void enqueue(List<T> elems) throws IOException {
+        try {
+            queue.put(elems);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Body of the writer thread. After a failure the remaining batches are discarded, so the producer never blocks on a
+     * full queue.
+     */
+    private void writeQueue() {
+        BlockingQueue<List<T>> queue = this.queue;
+        try {
+            List<T> elems;
+            while ((elems = queue.take()) != END) {
+                if (failure == null) {
+                    try {
+                        writer.writeBatch(elems);
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = e;
+        }
+    }
+
+}
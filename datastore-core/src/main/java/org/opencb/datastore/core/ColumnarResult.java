@@ -0,0 +1,420 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.*;
+
+/**
+ * Column-oriented result of a query that projects a few fields, for analytics reading numeric fields from millions of
+ * documents. Each field is stored in a column of primitive values instead of a boxed value in a map per document:
+ * integers and dates as a {@code long[]}, decimals as a {@code double[]} and strings dictionary-encoded as an
+ * {@code int[]} of codes into a list of distinct values. Missing values are marked in a null bitmap.
+ *
+ * Column types are either declared when the result is created, or inferred from the first value that is not null. An
+ * inferred integer column becomes a decimal one if a decimal value is found later. Values of other types, like lists or
+ * nested documents, can not be stored.
+ *
+ * Rows are appended with {@link #addRow(Object...)}. This class is not thread-safe.
+ */
+public class ColumnarResult {
+
+    public enum Type {
+        LONG, DOUBLE, STRING
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final List<Column> columns;
+    private final Map<String, Column> columnsByName;
+    private int numRows;
+
+    /**
+     * @param fields the fields of the columns, whose types are inferred from their values
+     */
+    public ColumnarResult(List<String> fields) {
+        this.columns = new ArrayList<>(fields.size());
+        this.columnsByName = new HashMap<>();
+        for (String field : fields) {
+            addColumn(new Column(field, null, false));
+        }
+    }
+
+    /**
+     * @param types the fields of the columns and their types, in iteration order
+     */
+    public ColumnarResult(Map<String, Type> types) {
+        this.columns = new ArrayList<>(types.size());
+        this.columnsByName = new HashMap<>();
+        for (Map.Entry<String, Type> entry : types.entrySet()) {
+            addColumn(new Column(entry.getKey(), Objects.requireNonNull(entry.getValue()), true));
+        }
+    }
+
+    private void addColumn(Column column) {
+        if (columnsByName.put(column.name, column) != null) {
+            throw new IllegalArgumentException("Duplicated field " + column.name);
+        }
+        columns.add(column);
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param values the values of the row in the order of the columns, null if missing
+     * @throws IllegalArgumentException if a value can not be stored in its column
+     */
+    public void addRow(Object... values) {
+        if (values.length != columns.size()) {
+            throw new IllegalArgumentException("Expected " + columns.size() + " values, found " + values.length);
+        }
+        // Check every value first, so a rejected row leaves the columns aligned
+        for (int i = 0; i < values.length; i++) {
+            columns.get(i).check(values[i]);
+        }
+        for (int i = 0; i < values.length; i++) {
+            columns.get(i).append(values[i]);
+        }
+        numRows++;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public List<String> getFields() {
+        List<String> fields = new ArrayList<>(columns.size());
+        for (Column column : columns) {
+            fields.add(column.name);
+        }
+        return fields;
+    }
+
+    public List<Column> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no column for the field
+     */
+    public Column getColumn(String field) {
+        Column column = columnsByName.get(field);
+        if (column == null) {
+            throw new IllegalArgumentException("There is no column for field " + field);
+        }
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarResult{" +
+                "fields=" + getFields() +
+                ", numRows=" + numRows +
+                '}';
+    }
+
+    /**
+     * Values of a field. The arrays returned by the getters are the storage of the column, trimmed to the number of
+     * rows, and must not be modified.
+     */
+    public static final class Column {
+
+        private final String name;
+        private final boolean declared;
+        private Type type;
+        private int size;
+
+        private long[] longs;
+        private double[] doubles;
+        private int[] codes;
+        private List<String> dictionary;
+        private Map<String, Integer> dictionaryCodes;
+        private final BitSet nulls = new BitSet();
+
+        private Column(String name, Type type, boolean declared) {
+            this.name = name;
+            this.declared = declared;
+            if (type != null) {
+                setType(type, INITIAL_CAPACITY);
+            }
+        }
+
+        private void setType(Type type, int capacity) {
+            this.type = type;
+            switch (type) {
+                case LONG:
+                    longs = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles = new double[capacity];
+                    break;
+                case STRING:
+                    codes = new int[capacity];
+                    dictionary = new ArrayList<>();
+                    dictionaryCodes = new HashMap<>();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+        }
+
+        private void check(Object value) {
+            if (value instanceof Date) {
+                value = ((Date) value).getTime();
+            }
+            if (value == null) {
+                return;
+            } else if (type == null) {
+                typeOf(value);
+            } else if (type == Type.STRING) {
+                if (!(value instanceof String)) {
+                    throw unsupported(value);
+                }
+            } else {
+                number(value);
+            }
+        }
+
+        private void append(Object value) {
+            if (value instanceof Date) {
+                value = ((Date) value).getTime();
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else if (type == null) {
+                setType(typeOf(value), Math.max(INITIAL_CAPACITY, size + 1));
+            } else if (type == Type.LONG && !declared && (value instanceof Double || value instanceof Float)) {
+                // Inferred from an integer, but the field also holds decimals
+                doubles = new double[longs.length];
+                for (int i = 0; i < size; i++) {
+                    doubles[i] = longs[i];
+                }
+                longs = null;
+                type = Type.DOUBLE;
+            }
+            ensureCapacity(size + 1);
+            if (value != null) {
+                switch (type) {
+                    case LONG:
+                        longs[size] = number(value).longValue();
+                        break;
+                    case DOUBLE:
+                        doubles[size] = number(value).doubleValue();
+                        break;
+                    case STRING:
+                        codes[size] = code(value);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown type " + type);
+                }
+            }
+            size++;
+        }
+
+        private Type typeOf(Object value) {
+            if (value instanceof Double || value instanceof Float) {
+                return Type.DOUBLE;
+            } else if (value instanceof Number) {
+                return Type.LONG;
+            } else if (value instanceof String) {
+                return Type.STRING;
+            }
+            throw unsupported(value);
+        }
+
+        private Number number(Object value) {
+            if (!(value instanceof Number)) {
+                throw unsupported(value);
+            }
+            return (Number) value;
+        }
+
+        private int code(Object value) {
+            if (!(value instanceof String)) {
+                throw unsupported(value);
+            }
+            Integer code = dictionaryCodes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                dictionaryCodes.put((String) value, code);
+            }
+            return code;
+        }
+
+        private IllegalArgumentException unsupported(Object value) {
+            return new IllegalArgumentException("Value " + value + " of field " + name + " can not be stored in a "
+                    + (type == null ? "column" : type + " column"));
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (type == null) {
+                return;
+            }
+            switch (type) {
+                case LONG:
+                    if (longs.length < capacity) {
+                        longs = Arrays.copyOf(longs, Math.max(capacity, 2 * longs.length));
+                    }
+                    break;
+                case DOUBLE:
+                    if (doubles.length < capacity) {
+                        doubles = Arrays.copyOf(doubles, Math.max(capacity, 2 * doubles.length));
+                    }
+                    break;
+                case STRING:
+                    if (codes.length < capacity) {
+                        codes = Arrays.copyOf(codes, Math.max(capacity, 2 * codes.length));
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the type of the column, or null if it was inferred and every value is null
+         */
+        public Type getType() {
+            return type;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isNull(int row) {
+            checkRow(row);
+            return nulls.get(row);
+        }
+
+        /**
+         * @return the rows whose value is null
+         */
+        public BitSet getNulls() {
+            return (BitSet) nulls.clone();
+        }
+
+        /**
+         * @return the value of the row, 0 if it is null
+         */
+        public long getLong(int row) {
+            checkRow(row);
+            checkType(Type.LONG);
+            return longs[row];
+        }
+
+        /**
+         * @return the value of the row, of an integer or decimal column, 0 if it is null
+         */
+        public double getDouble(int row) {
+            checkRow(row);
+            if (type == Type.LONG) {
+                return longs[row];
+            }
+            checkType(Type.DOUBLE);
+            return doubles[row];
+        }
+
+        /**
+         * @return the value of the row, or null
+         */
+        public String getString(int row) {
+            checkRow(row);
+            checkType(Type.STRING);
+            return nulls.get(row) ? null : dictionary.get(codes[row]);
+        }
+
+        /**
+         * @return the value of the row, boxed, or null
+         */
+        public Object get(int row) {
+            checkRow(row);
+            if (type == null || nulls.get(row)) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    return longs[row];
+                case DOUBLE:
+                    return doubles[row];
+                default:
+                    return dictionary.get(codes[row]);
+            }
+        }
+
+        public long[] getLongs() {
+            checkType(Type.LONG);
+            if (longs.length != size) {
+                longs = Arrays.copyOf(longs, size);
+            }
+            return longs;
+        }
+
+        public double[] getDoubles() {
+            checkType(Type.DOUBLE);
+            if (doubles.length != size) {
+                doubles = Arrays.copyOf(doubles, size);
+            }
+            return doubles;
+        }
+
+        /**
+         * @return the codes of the values in the dictionary, 0 for nulls
+         */
+        public int[] getCodes() {
+            checkType(Type.STRING);
+            if (codes.length != size) {
+                codes = Arrays.copyOf(codes, size);
+            }
+            return codes;
+        }
+
+        /**
+         * @return the distinct values of a string column, indexed by their code
+         */
+        public List<String> getDictionary() {
+            checkType(Type.STRING);
+            return Collections.unmodifiableList(dictionary);
+        }
+
+        private void checkRow(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+            }
+        }
+
+        private void checkType(Type expected) {
+            if (type != expected) {
+                throw new IllegalStateException("Column " + name + " is of type " + type + ", not " + expected);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Column{" +
+                    "name='" + name + '\'' +
+                    ", type=" + type +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+
+}
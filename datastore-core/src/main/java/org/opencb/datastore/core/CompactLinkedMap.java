@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Insertion-ordered map that keeps up to {@link #MAX_COMPACT_SIZE} entries in a flat array, with keys and values
+ * interleaved, and looks them up with a linear scan. When it grows beyond that size the entries are moved to a
+ * {@link LinkedHashMap}, so big maps keep constant time lookups.
+ *
+ * Views returned by {@link #entrySet()}, {@link #keySet()} and {@link #values()} stay valid after the promotion.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class CompactLinkedMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    static final int MAX_COMPACT_SIZE = 8;
+
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final long serialVersionUID = 1L;
+
+    private Object[] table;
+    private int size;
+    private LinkedHashMap<K, V> delegate;
+
+    private transient int modCount;
+    private transient Set<Entry<K, V>> entrySet;
+
+    CompactLinkedMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    CompactLinkedMap(int capacity) {
+        table = new Object[2 * Math.max(1, Math.min(capacity, MAX_COMPACT_SIZE))];
+    }
+
+    /**
+     * @return whether the entries have been moved to a hash map
+     */
+    boolean isPromoted() {
+        return delegate != null;
+    }
+
+    @Override
+    public int size() {
+        return delegate == null ? size : delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return delegate == null ? indexOf(key) >= 0 : delegate.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (delegate != null) {
+            return delegate.get(key);
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : (V) table[2 * i + 1];
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (delegate != null) {
+            return delegate.put(key, value);
+        }
+        int i = indexOf(key);
+        if (i >= 0) {
+            V old = (V) table[2 * i + 1];
+            table[2 * i + 1] = value;
+            return old;
+        }
+        modCount++;
+        if (size == MAX_COMPACT_SIZE) {
+            promote();
+            return delegate.put(key, value);
+        }
+        if (2 * size == table.length) {
+            table = Arrays.copyOf(table, Math.min(2 * table.length, 2 * MAX_COMPACT_SIZE));
+        }
+        table[2 * size] = key;
+        table[2 * size + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (delegate != null) {
+            return delegate.remove(key);
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : removeAt(i);
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        if (delegate != null) {
+            delegate = null;
+            table = new Object[2 * DEFAULT_CAPACITY];
+        } else {
+            Arrays.fill(table, 0, 2 * size, null);
+        }
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        if (es == null) {
+            es = new EntrySet();
+            entrySet = es;
+        }
+        return es;
+    }
+
+    private int indexOf(Object key) {
+        Object[] table = this.table;
+        for (int i = 0; i < size; i++) {
+            Object k = table[2 * i];
+            if (k == key || k != null && k.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private V removeAt(int i) {
+        V old = (V) table[2 * i + 1];
+        int tail = 2 * (size - i - 1);
+        if (tail > 0) {
+            System.arraycopy(table, 2 * i + 2, table, 2 * i, tail);
+        }
+        size--;
+        table[2 * size] = null;
+        table[2 * size + 1] = null;
+        modCount++;
+        return old;
+    }
+
+    private void promote() {
+        LinkedHashMap<K, V> map = new LinkedHashMap<>(4 * MAX_COMPACT_SIZE);
+        for (int i = 0; i < size; i++) {
+            map.put((K) table[2 * i], (V) table[2 * i + 1]);
+        }
+        delegate = map;
+        table = null;
+        size = 0;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return delegate == null ? new ArrayIterator() : delegate.entrySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return CompactLinkedMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            CompactLinkedMap.this.clear();
+        }
+    }
+
+    private final class ArrayIterator implements Iterator<Entry<K, V>> {
+
+        private int next;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            // A concurrent modification is reported by next(), as the hash based maps do
+            return next < size || modCount != expectedModCount;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next++;
+            return new ArrayEntry((K) table[2 * lastReturned], (V) table[2 * lastReturned + 1]);
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(lastReturned);
+            next = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Entry writing through to the map. Replacing a value is not a structural modification, so it is safe while
+     * iterating.
+     */
+    private final class ArrayEntry extends SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        ArrayEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            CompactLinkedMap.this.put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+}
@@ -16,6 +16,9 @@
 
 package org.opencb.datastore.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Converts between a Java class and a type dependant of the storage system used.
  * 
@@ -26,5 +29,17 @@ public interface ComplexTypeConverter<DataModelType, StorageType> {
     public DataModelType convertToDataModelType(StorageType object);
     
     public StorageType convertToStorageType(DataModelType object);
-    
+
+    /**
+     * Converts a batch of objects, keeping their order. Converters that can share work between the objects of a batch
+     * should override it.
+     */
+    public default List<DataModelType> convertToDataModelTypes(List<StorageType> objects) {
+        List<DataModelType> converted = new ArrayList<>(objects.size());
+        for (StorageType object : objects) {
+            converted.add(convertToDataModelType(object));
+        }
+        return converted;
+    }
+
 }
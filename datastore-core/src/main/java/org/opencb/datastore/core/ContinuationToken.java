@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque token pointing right after the last result of a page, see {@link QueryOptions#CONTINUATION_TOKEN}. It holds
+ * the values that result was sorted by, like the sort fields and id of a document or the key of a row, as a JSON array
+ * in URL-safe Base64 so it can be passed as a request parameter.
+ *
+ * Values are strings, numbers, booleans, nulls, maps and lists, decoded as in {@link ObjectMap}: backends convert
+ * any other type before encoding it.
+ */
+public final class ContinuationToken {
+
+    private ContinuationToken() {
+    }
+
+    public static String encode(List<?> values) {
+        try {
+            byte[] json = JsonCodec.writer().writeValueAsBytes(values);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Values can not be encoded in a continuation token: " + values, e);
+        }
+    }
+
+    /**
+     * @param token a token returned by {@link #encode(List)}
+     * @return the values encoded in the token
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static List<Object> decode(String token) {
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(token.getBytes(StandardCharsets.US_ASCII));
+            List<?> values = JsonCodec.reader(ArrayList.class).readValue(json);
+            if (values == null) {
+                throw new IllegalArgumentException("Invalid continuation token: " + token);
+            }
+            return new ArrayList<>(values);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, e);
+        }
+    }
+
+    /**
+     * @return whether the options ask for a paginated query, that is, they contain a continuation token, maybe empty
+     */
+    public static boolean isRequested(QueryOptions options) {
+        return options != null && options.get(QueryOptions.CONTINUATION_TOKEN) != null;
+    }
+
+    /**
+     * @return the values of the token in the options, or null if there is none or it is empty and so asks for the first
+     * page
+     */
+    public static List<Object> get(QueryOptions options) {
+        String token = options == null ? null : options.getString(QueryOptions.CONTINUATION_TOKEN);
+        return token == null || token.isEmpty() ? null : decode(token);
+    }
+
+}
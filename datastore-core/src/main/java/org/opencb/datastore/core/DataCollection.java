@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Backend independent access to a collection of a datastore, like a MongoDB collection or an HBase table, whose elements
+ * are converted to T.
+ *
+ * The asynchronous methods run the blocking ones on the executor of the datastore, so several queries can be sent at
+ * once and combined with {@link CompletableFuture#allOf}. Errors thrown by a query complete its future exceptionally.
+ * Operations a backend does not support throw {@link UnsupportedOperationException}.
+ *
+ * @param <T> the type of the elements
+ */
+public interface DataCollection<T> {
+
+    QueryResult<T> find(Query query, QueryOptions options);
+
+    /**
+     * @return a QueryResult with the number of elements matching the query as its only result
+     */
+    QueryResult<Long> count(Query query);
+
+    QueryResult<Object> distinct(String field, Query query);
+
+    /**
+     * @return a QueryResult with the number of elements inserted as its only result
+     */
+    QueryResult<Long> insert(List<T> elements, QueryOptions options);
+
+    /**
+     * @return the executor of the datastore which runs the asynchronous methods
+     */
+    Executor getExecutor();
+
+    default CompletableFuture<QueryResult<T>> findAsync(Query query, QueryOptions options) {
+        return CompletableFuture.supplyAsync(() -> find(query, options), getExecutor());
+    }
+
+    default CompletableFuture<QueryResult<Long>> countAsync(Query query) {
+        return CompletableFuture.supplyAsync(() -> count(query), getExecutor());
+    }
+
+    default CompletableFuture<QueryResult<Object>> distinctAsync(String field, Query query) {
+        return CompletableFuture.supplyAsync(() -> distinct(field, query), getExecutor());
+    }
+
+    default CompletableFuture<QueryResult<Long>> insertAsync(List<T> elements, QueryOptions options) {
+        return CompletableFuture.supplyAsync(() -> insert(elements, options), getExecutor());
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run the asynchronous queries of a {@link DataCollection}, one per datastore.
+ *
+ * The executors have a fixed number of daemon threads and a bounded queue. When the queue is full the query is run by
+ * the calling thread, which slows down callers sending more queries than the database can serve instead of queueing
+ * them without limit. Once the executor is shut down, e.g. by closing its datastore, queries are rejected with a
+ * {@link RejectedExecutionException}.
+ */
+public final class DataStoreExecutors {
+
+    /**
+     * Configuration key of the number of threads running asynchronous queries.
+     */
+    public static final String ASYNC_THREADS = "asyncThreads";
+
+    /**
+     * Configuration key of the number of asynchronous queries waiting for a thread.
+     */
+    public static final String ASYNC_QUEUE_SIZE = "asyncQueueSize";
+
+    public static final int DEFAULT_ASYNC_THREADS = 16;
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 1024;
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private DataStoreExecutors() {
+    }
+
+    /**
+     * @param name the name of the datastore, used to name the threads
+     * @param configuration the configuration of the datastore, which may set {@link #ASYNC_THREADS} and
+     *                      {@link #ASYNC_QUEUE_SIZE}
+     * @return a new executor
+     */
+    public static ExecutorService newExecutor(String name, ObjectMap configuration) {
+        int threads = DEFAULT_ASYNC_THREADS;
+        int queueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+        if (configuration != null) {
+            threads = configuration.getInt(ASYNC_THREADS, DEFAULT_ASYNC_THREADS);
+            queueSize = configuration.getInt(ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE);
+        }
+        return newExecutor(name, threads, queueSize);
+    }
+
+    public static ExecutorService newExecutor(String name, int threads, int queueSize) {
+        if (threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("The number of threads and the queue size must be positive");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new DaemonThreadFactory(name),
+                new CallerRunsWhileRunningPolicy());
+        // Idle datastores do not keep threads alive
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Unlike {@link ThreadPoolExecutor.CallerRunsPolicy}, which silently drops the tasks of a shut down executor and
+     * would leave their futures incomplete forever.
+     */
+    private static final class CallerRunsWhileRunningPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The datastore executor has been shut down");
+            }
+            runnable.run();
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.prefix = "datastore-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Shared JSON codec used by {@link ObjectMap} and its subclasses. The underlying {@link ObjectMapper} is configured once
+ * and never exposed, so only the immutable (and therefore thread-safe) {@link ObjectReader} and {@link ObjectWriter}
+ * instances are handed out.
+ *
+ * Streams passed to the reader and writer are never closed by Jackson, that is left to the caller.
+ */
+public final class JsonCodec {
+
+    private static final ObjectMapper OBJECT_MAPPER;
+    private static final ObjectReader MAP_READER;
+    private static final ObjectWriter WRITER;
+
+    static {
+        OBJECT_MAPPER = new ObjectMapper();
+        OBJECT_MAPPER.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        OBJECT_MAPPER.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        MAP_READER = OBJECT_MAPPER.reader(LinkedHashMap.class);
+        WRITER = OBJECT_MAPPER.writer();
+    }
+
+    private JsonCodec() {
+    }
+
+    /**
+     * @return a reader that deserializes a JSON object into a {@link LinkedHashMap}, keeping the field order
+     */
+    public static ObjectReader mapReader() {
+        return MAP_READER;
+    }
+
+    /**
+     * @param clazz the class to deserialize into
+     * @return a reader for the given class, sharing the configuration of the codec
+     */
+    public static ObjectReader reader(Class<?> clazz) {
+        return OBJECT_MAPPER.reader(clazz);
+    }
+
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the results as newline-delimited JSON, one JSON document per line, to a file. The documents are serialized
+ * with a Jackson streaming generator straight into a buffered {@link FileChannel}, optionally compressed on the fly.
+ * Nothing is flushed between documents, the buffers are only emptied when full and on close.
+ *
+ * Results are serialized with {@link JsonCodec} by default, so {@link ObjectMap} and any other Map or bean can be
+ * written. A different {@link ObjectWriter} can be given for types needing custom serializers.
+ *
+ * @param <T> the type of the results
+ */
+public class NdJsonQueryResultWriter<T> implements QueryResultWriter<T> {
+
+    public enum Compression {
+        NONE, GZIP, DEFLATE
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final Compression compression;
+    private final int bufferSize;
+    private final ObjectWriter objectWriter;
+
+    private FileChannel channel;
+    private Deflater deflater;
+    private JsonGenerator generator;
+
+    public NdJsonQueryResultWriter(Path path) {
+        this(path, Compression.NONE, DEFAULT_BUFFER_SIZE);
+    }
+
+    public NdJsonQueryResultWriter(Path path, Compression compression, int bufferSize) {
+        this(path, compression, bufferSize, JsonCodec.writer());
+    }
+
+    /**
+     * @param path the file to write, it is replaced if it exists
+     * @param compression the compression of the file
+     * @param bufferSize the size in bytes of the output buffer, and of the compression buffer if any
+     * @param objectWriter the writer used to serialize each result
+     */
+    public NdJsonQueryResultWriter(Path path, Compression compression, int bufferSize, ObjectWriter objectWriter) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.path = Objects.requireNonNull(path);
+        this.compression = Objects.requireNonNull(compression);
+        this.bufferSize = bufferSize;
+        // Flushing after every document would issue one write to the channel per result
+        this.objectWriter = objectWriter.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("Writer already open");
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), bufferSize);
+            switch (compression) {
+                case GZIP:
+                    outputStream = new GZIPOutputStream(outputStream, bufferSize);
+                    break;
+                case DEFLATE:
+                    deflater = new Deflater();
+                    outputStream = new DeflaterOutputStream(outputStream, deflater, bufferSize);
+                    break;
+                default:
+                    break;
+            }
+            generator = objectWriter.getFactory().createGenerator(outputStream);
+            generator.enable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(T elem) throws IOException {
+        objectWriter.writeValue(generator, elem);
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Flushes the buffers, finishes the compressed stream if any, and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            generator.close();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() throws IOException {
+        generator = null;
+        if (deflater != null) {
+            // A Deflater given to DeflaterOutputStream is not released by it
+            deflater.end();
+            deflater = null;
+        }
+        channel.close();
+        channel = null;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+}
@@ -17,11 +17,12 @@
 package org.opencb.datastore.core;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.IOException;
-import java.io.Serializable;
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
@@ -30,43 +31,120 @@ import java.util.function.Function;
 public class ObjectMap implements Map<String, Object>, Serializable {
 
     private Map<String, Object> objectMap;
-    protected ObjectMapper jsonObjectMapper = new ObjectMapper();
 
+    /**
+     * Frozen maps are read-only and can be shared, see {@link #freeze()}.
+     */
+    private boolean frozen;
+
+    /**
+     * Parsed views of the delimited String values, only created when the cache is enabled.
+     */
+    private transient ConcurrentHashMap<String, ParsedList> parsedListCache;
+
+    /**
+     * Small maps, like most query options, are stored in a compact array that is promoted to a hash map when it grows.
+     */
     public ObjectMap() {
-        objectMap = new LinkedHashMap<>();
+        objectMap = new CompactLinkedMap<>();
     }
 
     public ObjectMap(int size) {
-        objectMap = new LinkedHashMap<>(size);
+        objectMap = newMap(size);
     }
 
     public ObjectMap(final String key, final Object value) {
-        objectMap = new LinkedHashMap<>();
+        objectMap = new CompactLinkedMap<>();
         objectMap.put(key, value);
     }
 
+    /**
+     * Copies the given map. If it is a frozen ObjectMap its entries are shared instead, as with {@link #derive()}.
+     */
     public ObjectMap(final Map<String, Object> map) {
-        objectMap = new LinkedHashMap<>(map);
+        if (map instanceof ObjectMap && ((ObjectMap) map).frozen) {
+            objectMap = new OverlayMap(((ObjectMap) map).objectMap);
+        } else {
+            objectMap = newMap(map.size());
+            objectMap.putAll(map);
+        }
+    }
+
+    private static Map<String, Object> newMap(int size) {
+        if (size <= CompactLinkedMap.MAX_COMPACT_SIZE) {
+            return new CompactLinkedMap<>(size);
+        } else {
+            return new LinkedHashMap<>(size);
+        }
     }
 
+    /**
+     * Parses a JSON object. Its string values are pooled in the {@link StringPool#getDefault() default pool}, if set.
+     */
     public ObjectMap(String json) {
         try {
-            objectMap = new LinkedHashMap<>();
-            objectMap.putAll(jsonObjectMapper.readValue(json, objectMap.getClass()));
+            objectMap = JsonCodec.mapReader().readValue(json);
+            if (objectMap == null) {
+                objectMap = new LinkedHashMap<>();
+            } else {
+                internValues(objectMap);
+            }
         } catch (IOException e) {
+            objectMap = new LinkedHashMap<>();
             e.printStackTrace();
         }
     }
 
+    /**
+     * Reads a JSON object from the stream without going through an intermediate String. The stream is not closed.
+     *
+     * @param inputStream stream containing a single JSON object
+     * @return a new ObjectMap with the content of the JSON object
+     * @throws IOException if the stream can not be read or does not contain a valid JSON object
+     */
+    public static ObjectMap readJson(InputStream inputStream) throws IOException {
+        Map<String, Object> map = JsonCodec.mapReader().readValue(inputStream);
+        ObjectMap objectMap = new ObjectMap(0);
+        if (map != null) {
+            internValues(map);
+            objectMap.objectMap = map;
+        }
+        return objectMap;
+    }
+
+    /**
+     * Field names are already deduplicated by the JSON parser, so only the values are pooled.
+     */
+    private static void internValues(Map<String, Object> map) {
+        StringPool stringPool = StringPool.getDefault();
+        if (stringPool != null) {
+            stringPool.internValues(map);
+        }
+    }
+
     public String toJson() {
         try {
-            return jsonObjectMapper.writeValueAsString(objectMap);
+            return JsonCodec.writer().writeValueAsString(objectMap);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Writes this map as JSON straight to the given stream. The stream is not closed.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if the content can not be serialized or written
+     */
+    public void writeJson(OutputStream outputStream) throws IOException {
+        JsonCodec.writer().writeValue(outputStream, objectMap);
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        JsonCodec.writer().writeValue(writer, objectMap);
+    }
+
     @Deprecated
     public String safeToString() {
         Iterator<String> iter = objectMap.keySet().iterator();
@@ -90,10 +168,11 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public String getString(String field, String defaultValue) {
-        if(field != null && objectMap.containsKey(field)) {
-            if(objectMap.get(field) != null) {
-                return objectMap.get(field).toString();
-            } else {
+        if(field != null) {
+            Object obj = objectMap.get(field);
+            if (obj != null) {
+                return obj.toString();
+            } else if (objectMap.containsKey(field)) {
                 return null;
             }
         }
@@ -106,7 +185,7 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public int getInt(String field, int defaultValue) {
-        if(field != null && objectMap.containsKey(field)) {
+        if(field != null) {
             Object obj = objectMap.get(field);
             if (obj instanceof Number) {
                 return ((Number) obj).intValue();
@@ -124,15 +203,19 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public long getLong(String field, long defaultValue) {
-        if(field != null && objectMap.containsKey(field)) {
-            Object obj = objectMap.get(field);
-            if (obj instanceof Number) {
-                return ((Number) obj).longValue();
-            } else if (obj instanceof String) {
-                try {
-                    return Long.parseLong((String) obj);
-                } catch (NumberFormatException ignored) { }
-            }
+        if(field != null) {
+            return toLong(objectMap.get(field), defaultValue);
+        }
+        return defaultValue;
+    }
+
+    static long toLong(Object obj, long defaultValue) {
+        if (obj instanceof Number) {
+            return ((Number) obj).longValue();
+        } else if (obj instanceof String) {
+            try {
+                return Long.parseLong((String) obj);
+            } catch (NumberFormatException ignored) { }
         }
         return defaultValue;
     }
@@ -143,7 +226,7 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public float getFloat(String field, float defaultValue) {
-        if(field != null && objectMap.containsKey(field)) {
+        if(field != null) {
             Object obj = objectMap.get(field);
             if (obj instanceof Number) {
                 return ((Number) obj).floatValue();
@@ -162,15 +245,19 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public double getDouble(String field, double defaultValue) {
-        if(field != null && objectMap.containsKey(field)) {
-            Object obj = objectMap.get(field);
-            if (obj instanceof Number) {
-                return ((Number) obj).doubleValue();
-            } else if (obj instanceof String) {
-                try {
-                    return Double.parseDouble((String) obj);
-                } catch (NumberFormatException ignored) { }
-            }
+        if(field != null) {
+            return toDouble(objectMap.get(field), defaultValue);
+        }
+        return defaultValue;
+    }
+
+    static double toDouble(Object obj, double defaultValue) {
+        if (obj instanceof Number) {
+            return ((Number) obj).doubleValue();
+        } else if (obj instanceof String) {
+            try {
+                return Double.parseDouble((String) obj);
+            } catch (NumberFormatException ignored) { }
         }
         return defaultValue;
     }
@@ -181,13 +268,17 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public boolean getBoolean(String field, boolean defaultValue) {
-        if(field != null && objectMap.containsKey(field)) {
-            Object obj = objectMap.get(field);
-            if (obj instanceof Boolean) {
-                return ((Boolean) obj);
-            } else if (obj instanceof String) {
-                return Boolean.parseBoolean((String) objectMap.get(field));
-            }
+        if(field != null) {
+            return toBoolean(objectMap.get(field), defaultValue);
+        }
+        return defaultValue;
+    }
+
+    static boolean toBoolean(Object obj, boolean defaultValue) {
+        if (obj instanceof Boolean) {
+            return ((Boolean) obj);
+        } else if (obj instanceof String) {
+            return Boolean.parseBoolean((String) obj);
         }
         return defaultValue;
     }
@@ -239,7 +330,21 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     }
 
     public List<String> getAsStringList(String field, String separator) {
-        List list = getAsList(field, separator);
+        if (parsedListCache != null) {
+            Object value = objectMap.get(field);
+            if (value instanceof String) {
+                List<String> list = getParsedList(field, String.class, separator, value);
+                if (list == null) {
+                    list = Collections.unmodifiableList(toStringList(toList(value, separator)));
+                    putParsedList(field, String.class, separator, value, list);
+                }
+                return list;
+            }
+        }
+        return toStringList(getAsList(field, separator));
+    }
+
+    static List<String> toStringList(List list) {
         if (!list.isEmpty() && list.get(0) instanceof String) {
             return ((List<String>) list);
         } else {
@@ -313,35 +418,341 @@ public class ObjectMap implements Map<String, Object>, Serializable {
     public List<Byte> getAsByteList(String field, String separator) {
         return getAsNumberList(field, Byte.class, Byte::parseByte, separator);
     }
+
+    public int[] getAsIntArray(String field) {
+        return getAsIntArray(field, ",");
+    }
+
+    /**
+     * Gets the field as an int array. Values are read straight from a List, a primitive array or a delimited String,
+     * without creating intermediate String arrays or boxed numbers. Unlike {@link #getAsIntegerList(String, String)},
+     * the separator is matched literally and not as a regular expression.
+     *
+     * If the field is already an array of the requested type that array is returned, not a copy, so modifying it
+     * modifies the map.
+     *
+     * @param field the field
+     * @param separator the separator used if the field is a String
+     * @return the values of the field, or an empty array if the field does not exist
+     * @throws NumberFormatException if any of the values is not an integer, or does not fit in an int
+     */
+    public int[] getAsIntArray(String field, String separator) {
+        return toIntArray(get(field), separator);
+    }
+
+    public long[] getAsLongArray(String field) {
+        return getAsLongArray(field, ",");
+    }
+
+    /**
+     * Gets the field as a long array. See {@link #getAsIntArray(String, String)}, the stored array is also returned if
+     * the field is a long array.
+     *
+     * @param field the field
+     * @param separator the separator used if the field is a String
+     * @return the values of the field, or an empty array if the field does not exist
+     * @throws NumberFormatException if any of the values is not an integer, or does not fit in a long
+     */
+    public long[] getAsLongArray(String field, String separator) {
+        return toLongArray(get(field), separator);
+    }
+
+    public double[] getAsDoubleArray(String field) {
+        return getAsDoubleArray(field, ",");
+    }
+
+    /**
+     * Gets the field as a double array. See {@link #getAsIntArray(String, String)}, the stored array is also returned
+     * if the field is a double array.
+     *
+     * @param field the field
+     * @param separator the separator used if the field is a String
+     * @return the values of the field, or an empty array if the field does not exist
+     * @throws NumberFormatException if any of the values is not a number
+     */
+    public double[] getAsDoubleArray(String field, String separator) {
+        return toDoubleArray(get(field), separator);
+    }
+
+    static int[] toIntArray(Object value, String separator) {
+        if (value instanceof int[]) {
+            return (int[]) value;
+        } else if (value instanceof String) {
+            String string = (String) value;
+            int end = trimTrailingSeparators(string, separator);
+            int[] array = new int[countTokens(string, separator, end)];
+            int start = 0;
+            for (int i = 0; i < array.length; i++) {
+                int tokenEnd = tokenEnd(string, separator, start, end);
+                array[i] = parseInt(string, start, tokenEnd);
+                start = tokenEnd + separator.length();
+            }
+            return array;
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            int[] array = new int[collection.size()];
+            int i = 0;
+            for (Object o : collection) {
+                if (o instanceof Number) {
+                    array[i++] = toIntExact((Number) o);
+                } else {
+                    String string = String.valueOf(o);
+                    array[i++] = parseInt(string, 0, string.length());
+                }
+            }
+            return array;
+        } else {
+            long[] longs = toLongArray(value, separator);
+            int[] array = new int[longs.length];
+            for (int i = 0; i < longs.length; i++) {
+                array[i] = toIntExact(longs[i]);
+            }
+            return array;
+        }
+    }
+
+    static long[] toLongArray(Object value, String separator) {
+        if (value == null) {
+            return new long[0];
+        } else if (value instanceof long[]) {
+            return (long[]) value;
+        } else if (value instanceof int[]) {
+            int[] ints = (int[]) value;
+            long[] array = new long[ints.length];
+            for (int i = 0; i < ints.length; i++) {
+                array[i] = ints[i];
+            }
+            return array;
+        } else if (value instanceof double[]) {
+            double[] doubles = (double[]) value;
+            long[] array = new long[doubles.length];
+            for (int i = 0; i < doubles.length; i++) {
+                array[i] = toLongExact(doubles[i]);
+            }
+            return array;
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            long[] array = new long[collection.size()];
+            int i = 0;
+            for (Object o : collection) {
+                if (o instanceof Number) {
+                    array[i++] = toLongExact((Number) o);
+                } else {
+                    String string = String.valueOf(o);
+                    array[i++] = parseLong(string, 0, string.length());
+                }
+            }
+            return array;
+        } else {
+            String string = value.toString();
+            int end = trimTrailingSeparators(string, separator);
+            long[] array = new long[countTokens(string, separator, end)];
+            int start = 0;
+            for (int i = 0; i < array.length; i++) {
+                int tokenEnd = tokenEnd(string, separator, start, end);
+                array[i] = parseLong(string, start, tokenEnd);
+                start = tokenEnd + separator.length();
+            }
+            return array;
+        }
+    }
+
+    static double[] toDoubleArray(Object value, String separator) {
+        if (value == null) {
+            return new double[0];
+        } else if (value instanceof double[]) {
+            return (double[]) value;
+        } else if (value instanceof int[] || value instanceof long[]) {
+            long[] longs = toLongArray(value, separator);
+            double[] array = new double[longs.length];
+            for (int i = 0; i < longs.length; i++) {
+                array[i] = longs[i];
+            }
+            return array;
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            double[] array = new double[collection.size()];
+            int i = 0;
+            for (Object o : collection) {
+                if (o instanceof Number) {
+                    array[i++] = ((Number) o).doubleValue();
+                } else {
+                    array[i++] = Double.parseDouble(String.valueOf(o));
+                }
+            }
+            return array;
+        } else {
+            String string = value.toString();
+            int end = trimTrailingSeparators(string, separator);
+            double[] array = new double[countTokens(string, separator, end)];
+            int start = 0;
+            for (int i = 0; i < array.length; i++) {
+                int tokenEnd = tokenEnd(string, separator, start, end);
+                array[i] = Double.parseDouble(string.substring(start, tokenEnd));
+                start = tokenEnd + separator.length();
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Trailing empty values are ignored, the same way {@link String#split(String)} does.
+     */
+    private static int trimTrailingSeparators(String string, String separator) {
+        if (separator.isEmpty()) {
+            throw new IllegalArgumentException("Separator can not be empty");
+        }
+        int end = string.length();
+        while (end >= separator.length() && string.startsWith(separator, end - separator.length())) {
+            end -= separator.length();
+        }
+        return end;
+    }
+
+    private static int countTokens(String string, String separator, int end) {
+        if (end == 0) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = string.indexOf(separator); i >= 0 && i < end; i = string.indexOf(separator, i + separator.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int tokenEnd(String string, String separator, int start, int end) {
+        int i = string.indexOf(separator, start);
+        return i < 0 || i > end ? end : i;
+    }
+
+    /**
+     * Same as {@link Long#parseLong(String)} applied to a region of the string, without creating a substring.
+     */
+    private static long parseLong(String string, int start, int end) {
+        if (start >= end) {
+            throw numberFormatException(string, start, end);
+        }
+        int i = start;
+        boolean negative = false;
+        long limit = -Long.MAX_VALUE;
+        char first = string.charAt(i);
+        if (first == '-' || first == '+') {
+            if (first == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+            }
+            if (++i == end) {
+                throw numberFormatException(string, start, end);
+            }
+        }
+        long multmin = limit / 10;
+        long result = 0;
+        while (i < end) {
+            int digit = Character.digit(string.charAt(i++), 10);
+            if (digit < 0 || result < multmin) {
+                throw numberFormatException(string, start, end);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(string, start, end);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * @throws NumberFormatException if the number is not an integer or does not fit in an int
+     */
+    private static int toIntExact(Number number) {
+        return toIntExact(toLongExact(number));
+    }
+
+    private static int toIntExact(long value) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value " + value + " does not fit in an int");
+        }
+        return (int) value;
+    }
+
+    /**
+     * @throws NumberFormatException if the number is not an integer or does not fit in a long
+     */
+    private static long toLongExact(Number number) {
+        if (number instanceof Double || number instanceof Float || number instanceof BigDecimal) {
+            return toLongExact(number.doubleValue());
+        } else if (number instanceof BigInteger && ((BigInteger) number).bitLength() > 63) {
+            throw new NumberFormatException("Value " + number + " does not fit in a long");
+        }
+        return number.longValue();
+    }
+
+    private static long toLongExact(double value) {
+        // Long.MAX_VALUE is rounded up to 2^63 as a double, which does not fit
+        if (value != Math.rint(value) || value < Long.MIN_VALUE || value >= Long.MAX_VALUE) {
+            throw new NumberFormatException("Value " + value + " is not an integer that fits in a long");
+        }
+        return (long) value;
+    }
+
+    private static int parseInt(String string, int start, int end) {
+        long l = parseLong(string, start, end);
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            throw numberFormatException(string, start, end);
+        }
+        return (int) l;
+    }
+
+    private static NumberFormatException numberFormatException(String string, int start, int end) {
+        return new NumberFormatException("For input string: \"" + string.substring(start, end) + "\"");
+    }
     
     protected <N extends Number> List<N> getAsNumberList(String field, Class<N> clazz, Function<String, N> parser, String separator) {
+        if (parsedListCache != null) {
+            Object value = objectMap.get(field);
+            if (value instanceof String) {
+                List<N> list = getParsedList(field, clazz, separator, value);
+                if (list == null) {
+                    list = Collections.unmodifiableList(toNumberList(toList(value, separator), clazz, parser));
+                    putParsedList(field, clazz, separator, value, list);
+                }
+                return list;
+            }
+        }
+
         List list = getAsList(field, separator);
 
         if (list.isEmpty()) {
             List<N> emptyList = Collections.<N>emptyList();
-            put(field, emptyList);
+            if (!frozen) {
+                put(field, emptyList);
+            }
             return emptyList;
         } else {
-            boolean valid = true;
-            for (Object o : list) {
-                if (!clazz.isInstance(o)) {
-                    valid = false;
-                    break;
-                }
+            return toNumberList(list, clazz, parser);
+        }
+    }
+
+    static <N extends Number> List<N> toNumberList(List list, Class<N> clazz, Function<String, N> parser) {
+        boolean valid = true;
+        for (Object o : list) {
+            if (!clazz.isInstance(o)) {
+                valid = false;
+                break;
             }
-            if (valid) {
-                return list;
-            } else {
-                List<N> numericList = new ArrayList<>(list.size());
-                for (Object o : list) {
-                    if (clazz.isInstance(o)) {
-                        numericList.add(clazz.cast(o));
-                    } else {
-                        numericList.add(parser.apply(o.toString()));
-                    }
+        }
+        if (valid) {
+            return list;
+        } else {
+            List<N> numericList = new ArrayList<>(list.size());
+            for (Object o : list) {
+                if (clazz.isInstance(o)) {
+                    numericList.add(clazz.cast(o));
+                } else {
+                    numericList.add(parser.apply(o.toString()));
                 }
-                return numericList;
             }
+            return numericList;
         }
     }
 
@@ -379,12 +790,33 @@ public class ObjectMap implements Map<String, Object>, Serializable {
      * @return
      */
     public List<Object> getAsList(String field, String separator) {
-        Object value = get(field);
+        return toList(get(field), separator);
+    }
+
+    static List<Object> toList(Object value, String separator) {
         if (value == null) {
             return Collections.emptyList();
         } else {
             if (value instanceof List) {
                 return (List) value;
+            } else if (value instanceof long[]) {
+                List<Object> list = new ArrayList<>(((long[]) value).length);
+                for (long l : (long[]) value) {
+                    list.add(l);
+                }
+                return list;
+            } else if (value instanceof double[]) {
+                List<Object> list = new ArrayList<>(((double[]) value).length);
+                for (double d : (double[]) value) {
+                    list.add(d);
+                }
+                return list;
+            } else if (value instanceof int[]) {
+                List<Object> list = new ArrayList<>(((int[]) value).length);
+                for (int i : (int[]) value) {
+                    list.add(i);
+                }
+                return list;
             } else {
                 return Arrays.<Object>asList(value.toString().split(separator));
             }
@@ -429,11 +861,134 @@ public class ObjectMap implements Map<String, Object>, Serializable {
         return defaultValue;
     }
 
+    public boolean isParsedListCacheEnabled() {
+        return parsedListCache != null;
+    }
+
+    /**
+     * Enables or disables the memoization of the list accessors ({@link #getAsStringList}, {@link #getAsIntegerList},
+     * {@link #getAsLongList}, {@link #getAsDoubleList}...) for fields stored as a delimited String. While enabled,
+     * repeated reads of the same field, type and separator return the same unmodifiable list without parsing again.
+     *
+     * A cached list is only returned while the field still holds the very same String it was parsed from, so any
+     * modification of the map makes it stale. Fields stored as a List are never cached, as they can change in place.
+     *
+     * @param enabled whether to cache the parsed lists
+     */
+    public void setParsedListCacheEnabled(boolean enabled) {
+        if (!enabled) {
+            parsedListCache = null;
+        } else if (parsedListCache == null) {
+            parsedListCache = new ConcurrentHashMap<>();
+        }
+    }
+
+    private <L> List<L> getParsedList(String field, Class<?> type, String separator, Object source) {
+        for (ParsedList parsedList = parsedListCache.get(field); parsedList != null; parsedList = parsedList.next) {
+            if (parsedList.source == source && parsedList.type == type && parsedList.separator.equals(separator)) {
+                return (List<L>) parsedList.values;
+            }
+        }
+        return null;
+    }
+
+    private void putParsedList(String field, Class<?> type, String separator, Object source, List<?> values) {
+        ParsedList head = parsedListCache.get(field);
+        if (head != null && head.source != source) {
+            head = null;
+        }
+        parsedListCache.put(field, new ParsedList(type, separator, source, values, head));
+    }
+
+    private void invalidateParsedList(Object field) {
+        if (parsedListCache != null && field != null) {
+            parsedListCache.remove(field);
+        }
+    }
+
+    /**
+     * Immutable node of the parsed list cache. All the nodes of a field share the same source value.
+     */
+    private static final class ParsedList {
+        private final Class<?> type;
+        private final String separator;
+        private final Object source;
+        private final List<?> values;
+        private final ParsedList next;
+
+        ParsedList(Class<?> type, String separator, Object source, List<?> values, ParsedList next) {
+            this.type = type;
+            this.separator = separator;
+            this.source = source;
+            this.values = values;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Puts the value and returns this map. On a frozen map the value is put in a new map derived from this one, which
+     * is returned instead, so chained calls keep working.
+     */
     public ObjectMap append(String key, Object value) {
+        if (frozen) {
+            return derive().append(key, value);
+        }
         put(key, value);
         return this;
     }
 
+    /**
+     * Makes this map read-only, so it can be shared by many threads and used as the base of derived maps without being
+     * copied. List values are wrapped in unmodifiable views, other values are left as they are and must not be changed
+     * either. Any later attempt to modify the map throws an {@link UnsupportedOperationException}.
+     *
+     * @return this map
+     */
+    public ObjectMap freeze() {
+        if (!frozen) {
+            if (objectMap instanceof OverlayMap) {
+                // Flatten the layers, so lookups do not get slower as maps are derived from derived maps
+                Map<String, Object> map = newMap(objectMap.size());
+                map.putAll(objectMap);
+                objectMap = map;
+            }
+            for (Entry<String, Object> entry : objectMap.entrySet()) {
+                if (entry.getValue() instanceof List) {
+                    entry.setValue(Collections.unmodifiableList((List<?>) entry.getValue()));
+                }
+            }
+            objectMap = Collections.unmodifiableMap(objectMap);
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Creates a modifiable map with the same entries. If this map is frozen the entries are not copied: the new map is
+     * an overlay that only stores its own changes, so deriving costs the same whatever the size of this map.
+     *
+     * Subclasses override this method to return their own type.
+     *
+     * @return a new modifiable map
+     */
+    public ObjectMap derive() {
+        return deriveInto(new ObjectMap());
+    }
+
+    protected <M extends ObjectMap> M deriveInto(M derived) {
+        if (frozen) {
+            derived.clear();
+            ((ObjectMap) derived).objectMap = new OverlayMap(objectMap);
+        } else {
+            derived.putAll(objectMap);
+        }
+        return derived;
+    }
+
     /**
      * Map methods implementation. Side effect of composition.
      */
@@ -464,21 +1019,29 @@ public class ObjectMap implements Map<String, Object>, Serializable {
 
     @Override
     public Object put(String key, Object value) {
+        invalidateParsedList(key);
         return objectMap.put(key, value);
     }
 
     @Override
     public Object remove(Object key) {
+        invalidateParsedList(key);
         return objectMap.remove(key);
     }
 
     @Override
     public void putAll(Map<? extends String, ?> m) {
+        if (parsedListCache != null) {
+            parsedListCache.clear();
+        }
         objectMap.putAll(m);
     }
 
     @Override
     public void clear() {
+        if (parsedListCache != null) {
+            parsedListCache.clear();
+        }
         objectMap.clear();
     }
 
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Map layered on top of an immutable base map, which is shared and never copied. Changes are kept aside: new values
+ * for keys of the base, keys added on top of it, and keys of the base that have been removed.
+ *
+ * Keys of the base keep their position when iterating, added keys are returned after them in insertion order.
+ */
+final class OverlayMap extends AbstractMap<String, Object> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, Object> base;
+    private final CompactLinkedMap<String, Object> overrides = new CompactLinkedMap<>(2);
+    private final CompactLinkedMap<String, Object> appended = new CompactLinkedMap<>(2);
+    private HashSet<Object> removed;
+
+    private transient Set<Entry<String, Object>> entrySet;
+
+    /**
+     * @param base an immutable map, it must not change while this overlay is in use
+     */
+    OverlayMap(Map<String, Object> base) {
+        this.base = base;
+    }
+
+    @Override
+    public int size() {
+        return base.size() - (removed == null ? 0 : removed.size()) + appended.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return appended.containsKey(key) || inBase(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (appended.containsKey(key)) {
+            return appended.get(key);
+        } else if (!inBase(key)) {
+            return null;
+        } else if (overrides.containsKey(key)) {
+            return overrides.get(key);
+        } else {
+            return base.get(key);
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (appended.containsKey(key) || !inBase(key)) {
+            return appended.put(key, value);
+        } else if (overrides.containsKey(key)) {
+            return overrides.put(key, value);
+        } else {
+            overrides.put(key, value);
+            return base.get(key);
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (appended.containsKey(key)) {
+            return appended.remove(key);
+        } else if (inBase(key)) {
+            Object old = overrides.containsKey(key) ? overrides.remove(key) : base.get(key);
+            if (removed == null) {
+                removed = new HashSet<>();
+            }
+            removed.add(key);
+            return old;
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        base = Collections.emptyMap();
+        overrides.clear();
+        appended.clear();
+        removed = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Set<Entry<String, Object>> es = entrySet;
+        if (es == null) {
+            es = new EntrySet();
+            entrySet = es;
+        }
+        return es;
+    }
+
+    /**
+     * @return whether the key belongs to the base and has not been removed
+     */
+    private boolean inBase(Object key) {
+        return (removed == null || !removed.contains(key)) && base.containsKey(key);
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new OverlayIterator();
+        }
+
+        @Override
+        public int size() {
+            return OverlayMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            OverlayMap.this.clear();
+        }
+    }
+
+    /**
+     * Iterates first the keys of the base, with their current values, and then the appended keys.
+     */
+    private final class OverlayIterator implements Iterator<Entry<String, Object>> {
+
+        private final Iterator<Entry<String, Object>> baseIterator = base.entrySet().iterator();
+        private Iterator<Entry<String, Object>> appendedIterator;
+        private String nextBaseKey;
+        private String lastBaseKey;
+
+        @Override
+        public boolean hasNext() {
+            if (appendedIterator == null) {
+                while (nextBaseKey == null && baseIterator.hasNext()) {
+                    String key = baseIterator.next().getKey();
+                    if (removed == null || !removed.contains(key)) {
+                        nextBaseKey = key;
+                    }
+                }
+                if (nextBaseKey != null) {
+                    return true;
+                }
+                appendedIterator = appended.entrySet().iterator();
+            }
+            return appendedIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (nextBaseKey != null) {
+                lastBaseKey = nextBaseKey;
+                nextBaseKey = null;
+                return new OverlayEntry(lastBaseKey, get(lastBaseKey));
+            }
+            lastBaseKey = null;
+            return appendedIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastBaseKey != null) {
+                OverlayMap.this.remove(lastBaseKey);
+                lastBaseKey = null;
+            } else if (appendedIterator != null) {
+                appendedIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private final class OverlayEntry extends SimpleEntry<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        OverlayEntry(String key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            OverlayMap.this.put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Converts the objects read from a database in batches, on a ForkJoinPool, while the following batches are still
+ * being read. Several batches are converted at the same time, but the converted objects keep the order they were read
+ * in.
+ *
+ * Each batch is converted with {@link ComplexTypeConverter#convertToDataModelTypes(List)}. The number of batches being
+ * converted is bounded, so reading stops until the oldest one is done if the conversion is the bottleneck.
+ *
+ * @param <DataModelType> the type of the converted objects
+ * @param <StorageType> the type of the objects read from the database
+ */
+public class ParallelConverter<DataModelType, StorageType> {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final ComplexTypeConverter<DataModelType, StorageType> converter;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final int maxPendingBatches;
+
+    public ParallelConverter(ComplexTypeConverter<DataModelType, StorageType> converter, ForkJoinPool pool) {
+        this(converter, pool, DEFAULT_BATCH_SIZE);
+    }
+
+    public ParallelConverter(ComplexTypeConverter<DataModelType, StorageType> converter, ForkJoinPool pool,
+                             int batchSize) {
+        this(converter, pool, batchSize, 2 * pool.getParallelism());
+    }
+
+    /**
+     * @param converter converts each batch
+     * @param pool where the batches are converted
+     * @param batchSize the number of objects in each batch
+     * @param maxPendingBatches the maximum number of batches read but not yet added to the result
+     */
+    public ParallelConverter(ComplexTypeConverter<DataModelType, StorageType> converter, ForkJoinPool pool,
+                             int batchSize, int maxPendingBatches) {
+        if (batchSize <= 0 || maxPendingBatches <= 0) {
+            throw new IllegalArgumentException("Batch size and number of pending batches must be positive");
+        }
+        this.converter = Objects.requireNonNull(converter);
+        this.pool = Objects.requireNonNull(pool);
+        this.batchSize = batchSize;
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    public List<DataModelType> convert(Iterator<? extends StorageType> source) {
+        List<DataModelType> converted = new ArrayList<>();
+        convert(source, converted);
+        return converted;
+    }
+
+    /**
+     * Adds the converted objects to the given collection, in the same order they are returned by the iterator.
+     * Exceptions thrown by the converter are rethrown, the batches not yet converted are then cancelled.
+     */
+    public void convert(Iterator<? extends StorageType> source, Collection<? super DataModelType> target) {
+        Deque<ForkJoinTask<List<DataModelType>>> pending = new ArrayDeque<>(maxPendingBatches);
+        try {
+            while (source.hasNext()) {
+                List<StorageType> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && source.hasNext()) {
+                    batch.add(source.next());
+                }
+                if (pending.size() == maxPendingBatches) {
+                    target.addAll(pending.removeFirst().join());
+                }
+                pending.addLast(pool.submit(() -> converter.convertToDataModelTypes(batch)));
+            }
+            while (!pending.isEmpty()) {
+                target.addAll(pending.removeFirst().join());
+            }
+        } finally {
+            for (ForkJoinTask<List<DataModelType>> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+}
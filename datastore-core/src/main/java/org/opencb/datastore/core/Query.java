@@ -1,8 +1,6 @@
 package org.opencb.datastore.core;
 
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 /**
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
@@ -30,43 +28,36 @@ public class Query extends ObjectMap {
 
     public <E extends Enum<E> & QueryParam> void validate (Class<E> enumType)
             throws EnumConstantNotPresentException, NumberFormatException {
-        Objects.requireNonNull(enumType);
-        Map<String, E> enumFields = Arrays.asList(enumType.getEnumConstants()).stream().collect(
-                Collectors.toMap(queryParam -> queryParam.key(), Function.<E>identity()));
-        for (Entry<String, Object> entry : entrySet()) {
-            if (!enumFields.containsKey(entry.getKey())) {
-                throw new EnumConstantNotPresentException(enumType, entry.getKey());
-            } else {
-                QueryParam queryParam = enumFields.get(entry.getKey());
-                switch (queryParam.type()) {
-                    case TEXT:
-                        put(queryParam.key(), getString(queryParam.key()));
-                        break;
-                    case TEXT_ARRAY:
-                        put(queryParam.key(), getAsStringList(queryParam.key()));
-                        break;
-                    case INTEGER:
-                        put(queryParam.key(), getLong(queryParam.key()));
-                        break;
-                    case INTEGER_ARRAY:
-                        put(queryParam.key(), getAsLongList(queryParam.key()));
-                        break;
-                    case DECIMAL:
-                        put(queryParam.key(), getDouble(queryParam.key()));
-                        break;
-                    case DECIMAL_ARRAY:
-                        put(queryParam.key(), getAsDoubleList(queryParam.key()));
-                        break;
-                    case BOOLEAN:
-                        put(queryParam.key(), getBoolean(queryParam.key()));
-                        break;
-                }
-            }
-        }
+        QueryParamSchema.of(enumType).validate(this);
+    }
+
+    /**
+     * Validates the query against the given parameters, optionally storing INTEGER_ARRAY and DECIMAL_ARRAY values as
+     * {@code long[]} and {@code double[]}, which avoids boxing for large lists of ids or positions.
+     *
+     * @param enumType the parameters accepted by the query
+     * @param primitiveArrays whether to store numeric arrays as primitive arrays
+     * @param <E> the enum type
+     * @throws EnumConstantNotPresentException if a key is not a parameter of the enum
+     * @throws NumberFormatException if an array parameter contains non numeric values
+     */
+    public <E extends Enum<E> & QueryParam> void validate (Class<E> enumType, boolean primitiveArrays)
+            throws EnumConstantNotPresentException, NumberFormatException {
+        QueryParamSchema.of(enumType).validate(this, primitiveArrays);
     }
 
     @Override
     public Query append(String key, Object value) {
         return (Query) super.append(key, value);
     }
+
+    @Override
+    public Query freeze() {
+        return (Query) super.freeze();
+    }
+
+    @Override
+    public Query derive() {
+        return deriveInto(new Query());
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Translates queries of a {@link QueryParam} enum into the native queries of a backend, called plans. Each parameter is
+ * bound to a field of the backend and an {@link Operator}, and the parameters of a query become predicates on their
+ * fields.
+ *
+ * The structure of a plan only depends on the {@link QueryShape} of the query, so it is compiled once per shape into a
+ * {@link Template} and cached: compiling a query then validates its values and binds them to the cached template. The
+ * cache keeps the most recently used shapes.
+ *
+ * Bindings must be set up before compiling queries, afterwards instances are thread-safe.
+ *
+ * @param <E> the enum of the query parameters
+ * @param <P> the type of the plans
+ */
+public abstract class QueryCompiler<E extends Enum<E> & QueryParam, P> {
+
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    public enum Operator {
+        /**
+         * Equal to the value or, for array parameters, to any of the values.
+         */
+        EQ,
+        NE,
+        GT,
+        GTE,
+        LT,
+        LTE,
+        IN,
+        NIN,
+        /**
+         * Text starting with the value.
+         */
+        PREFIX,
+        /**
+         * Text matching the value as a regular expression.
+         */
+        REGEX,
+        /**
+         * The field exists if the value is true, does not if false.
+         */
+        EXISTS
+    }
+
+    /**
+     * A compiled shape, binding the typed values of each query to a new plan. Templates are shared by all the queries
+     * of the shape, so they must be immutable.
+     */
+    @FunctionalInterface
+    protected interface Template<E, P> {
+
+        P bind(Map<E, Object> values, QueryOptions options);
+
+    }
+
+    /**
+     * The field and operator a parameter is translated to.
+     */
+    public static final class Binding<E> {
+
+        private final E param;
+        private final String field;
+        private final Operator operator;
+
+        private Binding(E param, String field, Operator operator) {
+            this.param = param;
+            this.field = field;
+            this.operator = operator;
+        }
+
+        public E getParam() {
+            return param;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        @Override
+        public String toString() {
+            return param + " -> " + field + " " + operator;
+        }
+    }
+
+    private final QueryParamSchema<E> schema;
+    private final EnumMap<E, Binding<E>> bindings;
+    private final LinkedHashMap<QueryShape<E>, Template<E, P>> templates;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    protected QueryCompiler(Class<E> enumType, int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.schema = QueryParamSchema.of(enumType);
+        this.bindings = new EnumMap<>(enumType);
+        this.templates = new LinkedHashMap<QueryShape<E>, Template<E, P>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QueryShape<E>, Template<E, P>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Binds a parameter to a field of the backend. Binding a parameter again replaces its binding and clears the
+     * cached plans.
+     *
+     * @throws IllegalArgumentException if the backend does not support the operator on the field
+     */
+    public QueryCompiler<E, P> bind(E param, String field, Operator operator) {
+        Objects.requireNonNull(param);
+        Objects.requireNonNull(field);
+        Objects.requireNonNull(operator);
+        checkBinding(param, field, operator);
+        synchronized (templates) {
+            bindings.put(param, new Binding<>(param, field, operator));
+            templates.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Validates the query and translates it to a plan.
+     *
+     * @param query the query, with values of any type accepted by {@link QueryParamSchema}
+     * @param options the options of the query, which may modify the plan
+     * @return a new plan, which the caller is free to modify
+     * @throws EnumConstantNotPresentException if a key of the query is not a parameter of the enum
+     * @throws IllegalArgumentException if a parameter of the query is not bound to any field
+     */
+    public P compile(Query query, QueryOptions options) {
+        EnumMap<E, Object> values = schema.coerce(query == null ? new Query() : query);
+        QueryShape<E> shape = QueryShape.of(values.keySet(), options);
+        Template<E, P> template;
+        synchronized (templates) {
+            template = templates.get(shape);
+        }
+        if (template != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            List<Binding<E>> shapeBindings = new ArrayList<>(shape.getParams().size());
+            synchronized (templates) {
+                for (E param : shape.getParams()) {
+                    Binding<E> binding = bindings.get(param);
+                    if (binding == null) {
+                        throw new IllegalArgumentException("Query parameter " + param.key()
+                                + " is not bound to any field");
+                    }
+                    shapeBindings.add(binding);
+                }
+            }
+            template = compileTemplate(shape, shapeBindings);
+            synchronized (templates) {
+                templates.put(shape, template);
+            }
+        }
+        return template.bind(values, options);
+    }
+
+    /**
+     * Compiles a shape.
+     *
+     * @param shape the shape of the queries
+     * @param bindings the bindings of the parameters of the shape, in the order of the enum
+     * @return the template of the plans of the shape
+     */
+    protected abstract Template<E, P> compileTemplate(QueryShape<E> shape, List<Binding<E>> bindings);
+
+    /**
+     * Checks that the backend supports the binding, by default all are supported.
+     *
+     * @throws IllegalArgumentException if the binding is not supported
+     */
+    protected void checkBinding(E param, String field, Operator operator) {
+    }
+
+    public QueryParamSchema<E> getSchema() {
+        return schema;
+    }
+
+    public Binding<E> getBinding(E param) {
+        synchronized (templates) {
+            return bindings.get(param);
+        }
+    }
+
+    /**
+     * @return the number of compiled queries whose plan template was cached
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return the number of compiled queries whose shape had to be compiled
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the number of shapes whose template is cached
+     */
+    public int getCacheSize() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    /**
+     * Values of array parameters as lists, including the primitive arrays of validated queries, or null if the value
+     * is not an array. Lists are not copied.
+     */
+    @SuppressWarnings("unchecked")
+    protected static List<Object> asList(Object value) {
+        if (value instanceof List) {
+            return (List<Object>) value;
+        }
+        if (value instanceof long[]) {
+            List<Object> list = new ArrayList<>(((long[]) value).length);
+            for (long l : (long[]) value) {
+                list.add(l);
+            }
+            return list;
+        }
+        if (value instanceof double[]) {
+            List<Object> list = new ArrayList<>(((double[]) value).length);
+            for (double d : (double[]) value) {
+                list.add(d);
+            }
+            return list;
+        }
+        return null;
+    }
+
+}
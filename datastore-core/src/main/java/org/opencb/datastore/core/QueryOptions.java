@@ -26,6 +26,12 @@ import java.util.Map;
  */
 public class QueryOptions extends ObjectMap {
 
+    /**
+     * Key of the token returned in {@link QueryResult#getContinuationToken()}, to read the page that follows it. An
+     * empty token asks for the first page. Backends supporting it seek to the page instead of skipping results, so every
+     * page costs the same as the first one.
+     */
+    public static final String CONTINUATION_TOKEN = "continuationToken";
 
     public QueryOptions() {
 
@@ -111,4 +117,14 @@ public class QueryOptions extends ObjectMap {
     public QueryOptions append(String key, Object value) {
         return (QueryOptions) super.append(key, value);
     }
+
+    @Override
+    public QueryOptions freeze() {
+        return (QueryOptions) super.freeze();
+    }
+
+    @Override
+    public QueryOptions derive() {
+        return deriveInto(new QueryOptions());
+    }
 }
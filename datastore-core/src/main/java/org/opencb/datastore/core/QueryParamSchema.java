@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Precompiled description of a {@link QueryParam} enum. The key to parameter table and the value coercer of each
+ * parameter are built once per enum class and cached, so validating a {@link Query} is a single pass over its entries.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public final class QueryParamSchema<E extends Enum<E> & QueryParam> {
+
+    private static final ConcurrentMap<Class<?>, QueryParamSchema<?>> SCHEMAS = new ConcurrentHashMap<>();
+
+    private final Class<E> enumType;
+    private final Map<String, Param<E>> params;
+
+    private QueryParamSchema(Class<E> enumType) {
+        this.enumType = enumType;
+        E[] constants = enumType.getEnumConstants();
+        this.params = new HashMap<>(constants.length * 2);
+        for (E param : constants) {
+            params.put(param.key(), new Param<>(param, coercer(param.type(), false), coercer(param.type(), true)));
+        }
+    }
+
+    /**
+     * Returns the schema of the given enum, building it the first time the enum is used.
+     *
+     * @param enumType the {@link QueryParam} enum
+     * @param <E> the enum type
+     * @return the cached schema
+     */
+    @SuppressWarnings("unchecked")
+    public static <E extends Enum<E> & QueryParam> QueryParamSchema<E> of(Class<E> enumType) {
+        Objects.requireNonNull(enumType);
+        QueryParamSchema<?> schema = SCHEMAS.get(enumType);
+        if (schema == null) {
+            schema = SCHEMAS.computeIfAbsent(enumType, clazz -> new QueryParamSchema<>(enumType));
+        }
+        return (QueryParamSchema<E>) schema;
+    }
+
+    /**
+     * Checks that every key of the query is a parameter of this schema and replaces each value by its typed
+     * representation, in place.
+     *
+     * @param query the query to validate
+     * @throws EnumConstantNotPresentException if a key is not a parameter of this schema
+     * @throws NumberFormatException if an array parameter contains non numeric values
+     */
+    public void validate(Query query) throws EnumConstantNotPresentException, NumberFormatException {
+        validate(query, false);
+    }
+
+    /**
+     * Same as {@link #validate(Query)}, optionally storing INTEGER_ARRAY and DECIMAL_ARRAY parameters as
+     * {@code long[]} and {@code double[]} instead of boxed lists.
+     *
+     * @param query the query to validate
+     * @param primitiveArrays whether to store numeric arrays as primitive arrays
+     * @throws EnumConstantNotPresentException if a key is not a parameter of this schema
+     * @throws NumberFormatException if an array parameter contains non numeric values
+     */
+    public void validate(Query query, boolean primitiveArrays) throws EnumConstantNotPresentException, NumberFormatException {
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            entry.setValue(param(entry.getKey()).coercer(primitiveArrays).apply(entry.getValue()));
+        }
+    }
+
+    /**
+     * Builds an immutable and typed copy of the query, leaving the query untouched.
+     *
+     * @param query the query to validate
+     * @return an unmodifiable map from parameter to its typed value
+     * @throws EnumConstantNotPresentException if a key is not a parameter of this schema
+     * @throws NumberFormatException if an array parameter contains non numeric values
+     */
+    public Map<E, Object> snapshot(Query query) throws EnumConstantNotPresentException, NumberFormatException {
+        return snapshot(query, false);
+    }
+
+    /**
+     * Same as {@link #snapshot(Query)}, optionally storing numeric arrays as primitive arrays. Primitive arrays are
+     * copied, but remain mutable.
+     *
+     * @param query the query to validate
+     * @param primitiveArrays whether to store numeric arrays as primitive arrays
+     * @return an unmodifiable map from parameter to its typed value
+     * @throws EnumConstantNotPresentException if a key is not a parameter of this schema
+     * @throws NumberFormatException if an array parameter contains non numeric values
+     */
+    public Map<E, Object> snapshot(Query query, boolean primitiveArrays)
+            throws EnumConstantNotPresentException, NumberFormatException {
+        EnumMap<E, Object> snapshot = new EnumMap<>(enumType);
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            Param<E> param = param(entry.getKey());
+            Object value = param.coercer(primitiveArrays).apply(entry.getValue());
+            if (value instanceof List) {
+                value = Collections.unmodifiableList(new ArrayList<>((List<?>) value));
+            } else if (value == entry.getValue() && value instanceof long[]) {
+                value = ((long[]) value).clone();
+            } else if (value == entry.getValue() && value instanceof double[]) {
+                value = ((double[]) value).clone();
+            }
+            snapshot.put(param.param, value);
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Typed values of the query without copying them, the query is left untouched. Meant for callers that only read
+     * the values while handling the query, like {@link QueryCompiler}.
+     *
+     * @param query the query to validate
+     * @return a modifiable map from parameter to its typed value
+     * @throws EnumConstantNotPresentException if a key is not a parameter of this schema
+     * @throws NumberFormatException if an array parameter contains non numeric values
+     */
+    public EnumMap<E, Object> coerce(Query query) throws EnumConstantNotPresentException, NumberFormatException {
+        EnumMap<E, Object> values = new EnumMap<>(enumType);
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            Param<E> param = param(entry.getKey());
+            values.put(param.param, param.coercer(false).apply(entry.getValue()));
+        }
+        return values;
+    }
+
+    /**
+     * @param key the key of a parameter
+     * @return the parameter with the given key, or null if the schema has no such parameter
+     */
+    public E get(String key) {
+        Param<E> param = params.get(key);
+        return param == null ? null : param.param;
+    }
+
+    public Class<E> getEnumType() {
+        return enumType;
+    }
+
+    private Param<E> param(String key) {
+        Param<E> param = params.get(key);
+        if (param == null) {
+            throw new EnumConstantNotPresentException(enumType, key);
+        }
+        return param;
+    }
+
+    private static Function<Object, Object> coercer(QueryParam.Type type, boolean primitiveArrays) {
+        switch (type) {
+            case TEXT:
+                return value -> value == null ? null : value.toString();
+            case TEXT_ARRAY:
+                return value -> ObjectMap.toStringList(ObjectMap.toList(value, ","));
+            case INTEGER:
+                return value -> ObjectMap.toLong(value, 0L);
+            case INTEGER_ARRAY:
+                if (primitiveArrays) {
+                    return value -> ObjectMap.toLongArray(value, ",");
+                }
+                return value -> toNumberList(value, Long.class, Long::parseLong);
+            case DECIMAL:
+                return value -> ObjectMap.toDouble(value, 0.0);
+            case DECIMAL_ARRAY:
+                if (primitiveArrays) {
+                    return value -> ObjectMap.toDoubleArray(value, ",");
+                }
+                return value -> toNumberList(value, Double.class, Double::parseDouble);
+            case BOOLEAN:
+                return value -> ObjectMap.toBoolean(value, false);
+            default:
+                throw new IllegalArgumentException("Unknown QueryParam type " + type);
+        }
+    }
+
+    private static <N extends Number> List<N> toNumberList(Object value, Class<N> clazz, Function<String, N> parser) {
+        List<Object> list = ObjectMap.toList(value, ",");
+        return list.isEmpty() ? Collections.<N>emptyList() : ObjectMap.toNumberList(list, clazz, parser);
+    }
+
+    private static final class Param<E> {
+        private final E param;
+        private final Function<Object, Object> coercer;
+        private final Function<Object, Object> primitiveCoercer;
+
+        Param(E param, Function<Object, Object> coercer, Function<Object, Object> primitiveCoercer) {
+            this.param = param;
+            this.coercer = coercer;
+            this.primitiveCoercer = primitiveCoercer;
+        }
+
+        Function<Object, Object> coercer(boolean primitiveArrays) {
+            return primitiveArrays ? primitiveCoercer : coercer;
+        }
+    }
+
+}
@@ -50,6 +50,10 @@ public class QueryResponse<T>{
         this.time = time;
     }
 
+    public int getTime() {
+        return time;
+    }
+
     public void setTime(int time) {
         this.time = time;
     }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Serializes a {@link QueryResponse} as JSON straight to a stream, so the response is never held in memory nor
+ * serialized as a whole. The envelope is written and flushed first, then each QueryResult is written as its results
+ * are read: the results of a {@link StreamingQueryResult} are pulled from its cursor one by one and the QueryResults
+ * themselves can come from a lazy iterator, e.g. one running each query when it is reached.
+ *
+ * The JSON has the properties written by Jackson for QueryResponse and QueryResult, except for the class of the
+ * results. In each QueryResult the results are written right after the id and are followed by the other properties,
+ * as the counters and timings of a StreamingQueryResult are only known once its results have been read.
+ *
+ * If reading a result fails the exception is thrown and the JSON is left unfinished, so the client can tell that the
+ * response is incomplete. The stream is flushed but not closed. Instances are immutable and thread-safe.
+ */
+public class QueryResponseJsonWriter {
+
+    private final ObjectWriter objectWriter;
+
+    public QueryResponseJsonWriter() {
+        this(JsonCodec.writer());
+    }
+
+    /**
+     * @param objectWriter the writer used to serialize the query options, timings and results
+     */
+    public QueryResponseJsonWriter(ObjectWriter objectWriter) {
+        // Flushing after every result would issue one write to the stream per result
+        this.objectWriter = objectWriter.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Writes a response, reading the results of its streaming QueryResults while they are written.
+     */
+    public void write(QueryResponse<?> queryResponse, OutputStream outputStream) throws IOException {
+        Iterator<?> response = queryResponse.getResponse() == null ? null : queryResponse.getResponse().iterator();
+        write(queryResponse, response, outputStream);
+    }
+
+    /**
+     * Writes the envelope of a response with the given elements as its response list. Elements are written as they
+     * are returned by the iterator, those which are AutoCloseable are closed once written.
+     *
+     * @param envelope the response whose time, version, warning, error and options are written, its response list is
+     *                 ignored
+     * @param response the elements of the response list, usually QueryResults, or null to write a null list
+     */
+    public void write(QueryResponse<?> envelope, Iterator<?> response, OutputStream outputStream) throws IOException {
+        JsonGenerator generator = objectWriter.getFactory().createGenerator(outputStream);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        generator.writeNumberField("time", envelope.getTime());
+        generator.writeStringField("apiVersion", envelope.getApiVersion());
+        generator.writeStringField("warning", envelope.getWarning());
+        generator.writeStringField("error", envelope.getError());
+        generator.writeFieldName("queryOptions");
+        objectWriter.writeValue(generator, envelope.getQueryOptions());
+        generator.writeFieldName("response");
+        if (response == null) {
+            generator.writeNull();
+        } else {
+            generator.writeStartArray();
+            // Send the envelope before waiting for the first query
+            generator.flush();
+            while (response.hasNext()) {
+                Object element = response.next();
+                try {
+                    if (element instanceof QueryResult) {
+                        writeQueryResult((QueryResult<?>) element, generator);
+                    } else {
+                        objectWriter.writeValue(generator, element);
+                    }
+                } finally {
+                    if (element instanceof AutoCloseable) {
+                        close((AutoCloseable) element);
+                    }
+                }
+                generator.flush();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writeQueryResult(QueryResult<?> queryResult, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", queryResult.getId());
+
+        String resultType = queryResult.getResultType();
+        generator.writeFieldName("result");
+        Iterator<?> results = results(queryResult);
+        if (results == null) {
+            generator.writeNull();
+        } else {
+            generator.writeStartArray();
+            while (results.hasNext()) {
+                Object result = results.next();
+                if ((resultType == null || resultType.isEmpty()) && result != null) {
+                    resultType = result.getClass().getCanonicalName();
+                }
+                objectWriter.writeValue(generator, result);
+            }
+            generator.writeEndArray();
+        }
+        if (queryResult instanceof StreamingQueryResult) {
+            // Sets the counters and timings
+            ((StreamingQueryResult<?>) queryResult).close();
+        }
+
+        generator.writeNumberField("time", queryResult.getTime());
+        generator.writeNumberField("dbTime", queryResult.getDbTime());
+        generator.writeFieldName("timings");
+        objectWriter.writeValue(generator, queryResult.getTimings());
+        generator.writeNumberField("numResults", queryResult.getNumResults());
+        generator.writeNumberField("numTotalResults", queryResult.getNumTotalResults());
+        generator.writeStringField("warningMsg", queryResult.getWarningMsg());
+        generator.writeStringField("errorMsg", queryResult.getErrorMsg());
+        generator.writeStringField("continuationToken", queryResult.getContinuationToken());
+        generator.writeStringField("featureType", queryResult.getFeatureType());
+        generator.writeStringField("resultType", resultType);
+        generator.writeEndObject();
+    }
+
+    private static Iterator<?> results(QueryResult<?> queryResult) {
+        if (queryResult instanceof StreamingQueryResult && !((StreamingQueryResult<?>) queryResult).isConsumed()) {
+            return ((StreamingQueryResult<?>) queryResult).iterator();
+        }
+        return queryResult.getResult() == null ? null : queryResult.getResult().iterator();
+    }
+
+    private static void close(AutoCloseable closeable) throws IOException {
+        try {
+            closeable.close();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+}
@@ -29,10 +29,12 @@ public class QueryResult<T> {
     @Deprecated
     private int time;
     private int dbTime;
+    private QueryTimings timings;
     private int numResults;
     private long numTotalResults;
     private String warningMsg;
     private String errorMsg;
+    private String continuationToken;
     @Deprecated
     private String featureType;
 
@@ -72,9 +74,11 @@ public class QueryResult<T> {
         return "QueryResult{\n" +
                 "id='" + id + '\'' + "\n" +
                 ", dbTime=" + dbTime + "\n" +
+                ", timings=" + timings + "\n" +
                 ", numResults=" + numResults + "\n" +
                 ", warningMsg='" + warningMsg + '\'' + "\n" +
                 ", errorMsg='" + errorMsg + '\'' + "\n" +
+                ", continuationToken='" + continuationToken + '\'' + "\n" +
                 ", resultType='" + resultType + '\'' + "\n" +
                 ", result=" + result + "\n" +
                 '}';
@@ -106,6 +110,17 @@ public class QueryResult<T> {
         this.dbTime = dbTime;
     }
 
+    /**
+     * @return the breakdown of the time spent by the database, or null if it was not measured
+     */
+    public QueryTimings getTimings() {
+        return timings;
+    }
+
+    public void setTimings(QueryTimings timings) {
+        this.timings = timings;
+    }
+
     public int getNumResults() {
         return numResults;
     }
@@ -138,6 +153,18 @@ public class QueryResult<T> {
         this.errorMsg = errorMsg;
     }
 
+    /**
+     * @return the token to pass back with {@link QueryOptions#CONTINUATION_TOKEN} to read the next page, or null if
+     * there are no more results or the query was not paginated with tokens
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
     @Deprecated
     public String getFeatureType() {
         return featureType;
@@ -28,6 +28,19 @@ public interface QueryResultWriter<T> {
 
     public void write(T elem) throws IOException;
 
+    /**
+     * Writes a batch of elements. Writers that can do better than one call per element, like those sending the elements
+     * over the network, should override it.
+     *
+     * @param batch the elements to write, in order
+     * @throws IOException if an element can not be written
+     */
+    public default void writeBatch(List<T> batch) throws IOException {
+        for (T elem : batch) {
+            write(elem);
+        }
+    }
+
     public void close() throws IOException;
 
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.*;
+
+/**
+ * The structure of a query, regardless of its values: the parameters it uses and the fields included or excluded by
+ * its options. Queries of the same shape compile to the same plan, see {@link QueryCompiler}.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public final class QueryShape<E extends Enum<E> & QueryParam> {
+
+    private final Set<E> params;
+    private final List<String> include;
+    private final List<String> exclude;
+    private final int hashCode;
+
+    private QueryShape(Set<E> params, List<String> include, List<String> exclude) {
+        this.params = params;
+        this.include = include;
+        this.exclude = exclude;
+        this.hashCode = Objects.hash(params, include, exclude);
+    }
+
+    /**
+     * @param params the parameters used by the query
+     * @param options the options of the query, only their include and exclude lists are part of the shape
+     */
+    public static <E extends Enum<E> & QueryParam> QueryShape<E> of(Set<E> params, QueryOptions options) {
+        List<String> include = Collections.emptyList();
+        List<String> exclude = Collections.emptyList();
+        if (options != null) {
+            include = fields(options.getAsStringList("include", ","));
+            exclude = include.isEmpty() ? fields(options.getAsStringList("exclude", ",")) : exclude;
+        }
+        Set<E> copy = params.isEmpty()
+                ? Collections.<E>emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(params));
+        return new QueryShape<>(copy, include, exclude);
+    }
+
+    private static List<String> fields(List<String> fields) {
+        return fields == null || fields.isEmpty()
+                ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(fields));
+    }
+
+    /**
+     * @return the parameters of the query, in the order of their declaration
+     */
+    public Set<E> getParams() {
+        return params;
+    }
+
+    /**
+     * @return the included fields, empty if the options do not include any
+     */
+    public List<String> getInclude() {
+        return include;
+    }
+
+    /**
+     * @return the excluded fields, empty if the options do not exclude any or include some
+     */
+    public List<String> getExclude() {
+        return exclude;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueryShape)) {
+            return false;
+        }
+        QueryShape<?> that = (QueryShape<?>) o;
+        return hashCode == that.hashCode && params.equals(that.params) && include.equals(that.include)
+                && exclude.equals(that.exclude);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryShape{" +
+                "params=" + params +
+                ", include=" + include +
+                ", exclude=" + exclude +
+                '}';
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.Iterator;
+
+/**
+ * Breakdown of the time spent running a query, in nanoseconds measured with {@link System#nanoTime()}:
+ * <ul>
+ *     <li>dispatch: building and sending the query, e.g. creating the cursor</li>
+ *     <li>firstBatch: waiting for the first results</li>
+ *     <li>fetch: reading the rest of the results</li>
+ *     <li>conversion: converting the results to the requested type</li>
+ *     <li>count: counting the total number of results</li>
+ *     <li>writer: sending the results to a {@link QueryResultWriter}</li>
+ * </ul>
+ * Phases a query does not go through are 0. The total is measured on its own, so it also includes the time not
+ * attributed to any phase.
+ *
+ * An instance created with {@link #start()} is the context of a single query, not to be shared between threads.
+ */
+public class QueryTimings {
+
+    private final long startNanos;
+
+    private long dispatchNanos;
+    private long firstBatchNanos;
+    private long fetchNanos;
+    private long conversionNanos;
+    private long countNanos;
+    private long writerNanos;
+    private long totalNanos;
+
+    public QueryTimings() {
+        this(0);
+    }
+
+    private QueryTimings(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @param timings the timings to copy
+     */
+    public QueryTimings(QueryTimings timings) {
+        this.startNanos = timings.startNanos;
+        this.dispatchNanos = timings.dispatchNanos;
+        this.firstBatchNanos = timings.firstBatchNanos;
+        this.fetchNanos = timings.fetchNanos;
+        this.conversionNanos = timings.conversionNanos;
+        this.countNanos = timings.countNanos;
+        this.writerNanos = timings.writerNanos;
+        this.totalNanos = timings.totalNanos;
+    }
+
+    /**
+     * @return new timings whose total is measured from now
+     */
+    public static QueryTimings start() {
+        return new QueryTimings(System.nanoTime());
+    }
+
+    /**
+     * @return the nanoseconds elapsed since {@link #start()}
+     */
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Sets the total to the time elapsed since {@link #start()}.
+     *
+     * @return the total time in nanoseconds
+     */
+    public long stop() {
+        totalNanos = elapsedNanos();
+        return totalNanos;
+    }
+
+    /**
+     * Wraps an iterator over the results of a query to measure the time spent in it: the first call is the first batch
+     * latency and the following ones are added to the fetch time.
+     */
+    public <T> Iterator<T> timeFetch(Iterator<T> iterator) {
+        return new Iterator<T>() {
+            private boolean started;
+
+            @Override
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                boolean hasNext = iterator.hasNext();
+                addFetch(System.nanoTime() - start);
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                long start = System.nanoTime();
+                T next = iterator.next();
+                addFetch(System.nanoTime() - start);
+                return next;
+            }
+
+            private void addFetch(long nanos) {
+                if (started) {
+                    fetchNanos += nanos;
+                } else {
+                    firstBatchNanos += nanos;
+                    started = true;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the time spent waiting for results, which is the sum of the first batch and fetch times
+     */
+    public long fetchedNanos() {
+        return firstBatchNanos + fetchNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryTimings{" +
+                "dispatchNanos=" + dispatchNanos +
+                ", firstBatchNanos=" + firstBatchNanos +
+                ", fetchNanos=" + fetchNanos +
+                ", conversionNanos=" + conversionNanos +
+                ", countNanos=" + countNanos +
+                ", writerNanos=" + writerNanos +
+                ", totalNanos=" + totalNanos +
+                '}';
+    }
+
+    public long getDispatchNanos() {
+        return dispatchNanos;
+    }
+
+    public void setDispatchNanos(long dispatchNanos) {
+        this.dispatchNanos = dispatchNanos;
+    }
+
+    public long getFirstBatchNanos() {
+        return firstBatchNanos;
+    }
+
+    public void setFirstBatchNanos(long firstBatchNanos) {
+        this.firstBatchNanos = firstBatchNanos;
+    }
+
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    public void setFetchNanos(long fetchNanos) {
+        this.fetchNanos = fetchNanos;
+    }
+
+    public long getConversionNanos() {
+        return conversionNanos;
+    }
+
+    public void setConversionNanos(long conversionNanos) {
+        this.conversionNanos = conversionNanos;
+    }
+
+    public long getCountNanos() {
+        return countNanos;
+    }
+
+    public void setCountNanos(long countNanos) {
+        this.countNanos = countNanos;
+    }
+
+    public long getWriterNanos() {
+        return writerNanos;
+    }
+
+    public void setWriterNanos(long writerNanos) {
+        this.writerNanos = writerNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Append-only list that keeps its first elements on the heap and serializes the following ones to a memory-mapped
+ * temporary file, so huge query results do not have to fit in the heap. Spilled elements are deserialized every time
+ * they are read.
+ *
+ * The temporary file is deleted by {@link #close()}, which should be called once the results are no longer needed. On
+ * Unix the file is unlinked as soon as it is opened, elsewhere it is also deleted when the JVM exits as a safety net.
+ * Elements can be appended, but not replaced or removed.
+ *
+ * Reading from several threads is safe once all the elements have been added.
+ *
+ * @param <T> the type of the elements
+ */
+public class SpillableResultList<T> extends AbstractList<T> implements RandomAccess, AutoCloseable {
+
+    /**
+     * Converts the spilled elements to bytes and back.
+     *
+     * @param <T> the type of the elements
+     */
+    public interface Serializer<T> {
+
+        byte[] serialize(T value) throws IOException;
+
+        T deserialize(byte[] bytes) throws IOException;
+
+    }
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final int heapThreshold;
+    private final Serializer<T> serializer;
+    private final int segmentSize;
+    private final Path directory;
+
+    private final List<T> heap;
+
+    private Path path;
+    private FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long[] offsets = new long[0];
+    private int spilledCount;
+    private long spilledBytes;
+
+    /**
+     * @param heapThreshold the number of elements kept on the heap
+     * @param serializer converts the elements written to the temporary file
+     */
+    public SpillableResultList(int heapThreshold, Serializer<T> serializer) {
+        this(heapThreshold, serializer, null, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param heapThreshold the number of elements kept on the heap
+     * @param serializer converts the elements written to the temporary file
+     * @param directory where the temporary file is created, or null for the default temporary directory
+     * @param segmentSize the size of each memory-mapped region of the file
+     */
+    public SpillableResultList(int heapThreshold, Serializer<T> serializer, Path directory, int segmentSize) {
+        if (heapThreshold < 0 || segmentSize <= 0) {
+            throw new IllegalArgumentException("Threshold can not be negative and segment size must be positive");
+        }
+        this.heapThreshold = heapThreshold;
+        this.serializer = Objects.requireNonNull(serializer);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.heap = new ArrayList<>(Math.min(heapThreshold, 1024));
+    }
+
+    @Override
+    public boolean add(T value) {
+        if (heap.size() < heapThreshold) {
+            heap.add(value);
+        } else {
+            try {
+                spill(serializer.serialize(value));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Appends an element given as the source it is converted from, like a document read from the database. The source
+     * is only converted if the element is kept on the heap. Otherwise the source itself is written, and the serializer
+     * of this list must read it back as an element, converting it every time it is read.
+     *
+     * @param source the source of the element
+     * @param converter converts the source to the element kept on the heap
+     * @param sourceSerializer writes the source to the temporary file
+     * @param <S> the type of the source
+     * @return true
+     */
+    public <S> boolean add(S source, Function<? super S, ? extends T> converter, Serializer<S> sourceSerializer) {
+        if (heap.size() < heapThreshold) {
+            heap.add(converter.apply(source));
+        } else {
+            try {
+                spill(sourceSerializer.serialize(source));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> values) {
+        for (T value : values) {
+            add(value);
+        }
+        return !values.isEmpty();
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < heap.size()) {
+            return heap.get(index);
+        }
+        int i = index - heap.size();
+        if (index < 0 || i >= spilledCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        long start = offsets[i];
+        long end = i + 1 < spilledCount ? offsets[i + 1] : spilledBytes;
+        byte[] bytes = new byte[(int) (end - start)];
+        read(start, bytes);
+        try {
+            return serializer.deserialize(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return heap.size() + spilledCount;
+    }
+
+    /**
+     * @return whether any element has been written to disk
+     */
+    public boolean isSpilled() {
+        return spilledCount > 0;
+    }
+
+    /**
+     * @return the number of bytes written to disk
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Deletes the temporary file. Elements are removed from the list.
+     */
+    @Override
+    public void close() {
+        heap.clear();
+        segments.clear();
+        offsets = new long[0];
+        spilledCount = 0;
+        spilledBytes = 0;
+        modCount++;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                channel = null;
+                path = null;
+            }
+        }
+    }
+
+    private void spill(byte[] bytes) throws IOException {
+        if (channel == null) {
+            path = directory == null
+                    ? Files.createTempFile("datastore-results-", ".tmp")
+                    : Files.createTempFile(directory, "datastore-results-", ".tmp");
+            path.toFile().deleteOnExit();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        if (spilledCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(16, 2 * offsets.length));
+        }
+        offsets[spilledCount++] = spilledBytes;
+
+        int written = 0;
+        while (written < bytes.length) {
+            ByteBuffer segment = segment((int) (spilledBytes / segmentSize)).duplicate();
+            segment.position((int) (spilledBytes % segmentSize));
+            int length = Math.min(bytes.length - written, segment.remaining());
+            segment.put(bytes, written, length);
+            written += length;
+            spilledBytes += length;
+        }
+    }
+
+    private void read(long position, byte[] bytes) {
+        int read = 0;
+        while (read < bytes.length) {
+            ByteBuffer segment = segments.get((int) (position / segmentSize)).duplicate();
+            segment.position((int) (position % segmentSize));
+            int length = Math.min(bytes.length - read, segment.remaining());
+            segment.get(bytes, read, length);
+            read += length;
+            position += length;
+        }
+    }
+
+    /**
+     * Maps the segments up to the given one, mapping beyond the end of the file extends it.
+     */
+    private MappedByteBuffer segment(int index) throws IOException {
+        while (segments.size() <= index) {
+            long position = (long) segments.size() * segmentSize;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, segmentSize));
+        }
+        return segments.get(index);
+    }
+
+}
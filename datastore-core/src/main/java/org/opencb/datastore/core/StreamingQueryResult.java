@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * QueryResult whose results are pulled lazily from a backend cursor instead of being loaded in memory. The results can
+ * be consumed once, either with {@link #iterator()} or {@link #stream()}, and the cursor must be released by closing
+ * this object, preferably with a try-with-resources block. The cursor is also closed as soon as the last result has
+ * been read.
+ *
+ * The number of results, the total number of results and the database time are only known once the query has been
+ * consumed, so they are set when this object is closed. The database time, and the total of the {@link QueryTimings},
+ * includes the time the caller spends between reads; the fetch, conversion and count timings do not.
+ *
+ * Calling {@link #getResult()} reads all the remaining results into a list, which makes this object behave as a
+ * regular QueryResult, so it can still be passed to code that expects the whole result.
+ *
+ * This class is not thread-safe.
+ *
+ * @param <T> the type of the results
+ */
+public class StreamingQueryResult<T> extends QueryResult<T> implements Iterable<T>, AutoCloseable {
+
+    private final Iterator<T> source;
+    private final Closeable cursor;
+    private final LongSupplier numTotalResultsCounter;
+    private final QueryTimings timings = QueryTimings.start();
+
+    private int numRead;
+    private boolean consumed;
+    private boolean closed;
+
+    /**
+     * @param id the id of the query result
+     * @param source the results, read from the cursor
+     * @param cursor the cursor to release on close, may be null
+     * @param numTotalResultsCounter counts the total number of results on close, before releasing the cursor. If null,
+     *                               the total number of results is the number of results read
+     */
+    public StreamingQueryResult(String id, Iterator<T> source, Closeable cursor, LongSupplier numTotalResultsCounter) {
+        super(id, -1, -1, -1, "", "", new ArrayList<T>());
+        this.source = Objects.requireNonNull(source);
+        this.cursor = cursor;
+        this.numTotalResultsCounter = numTotalResultsCounter;
+        setTimings(timings);
+    }
+
+    /**
+     * @param id the id of the query result
+     * @param source the raw results, read from the cursor
+     * @param converter converts each raw result when it is read
+     * @param cursor the cursor to release on close, may be null
+     * @param numTotalResultsCounter counts the total number of results on close, may be null
+     * @param <S> the type of the raw results
+     */
+    public <S> StreamingQueryResult(String id, Iterator<S> source, Function<? super S, ? extends T> converter,
+                                    Closeable cursor, LongSupplier numTotalResultsCounter) {
+        this(id, new ConvertingIterator<>(source, converter), cursor, numTotalResultsCounter);
+    }
+
+    /**
+     * Returns the results not read yet. It can only be called once, and not after {@link #getResult()}.
+     *
+     * @return an iterator over the results, which closes this object once exhausted
+     * @throws IllegalStateException if the results have already been consumed
+     */
+    @Override
+    public Iterator<T> iterator() {
+        if (consumed) {
+            throw new IllegalStateException("The results of the query have already been consumed");
+        }
+        consumed = true;
+        Iterator<T> timedSource = timings.timeFetch(source);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                if (closed) {
+                    return false;
+                }
+                if (!timedSource.hasNext()) {
+                    close();
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T next = timedSource.next();
+                numRead++;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #iterator()}, as a sequential stream. Closing the stream closes this object.
+     *
+     * @return a stream over the results
+     * @throws IllegalStateException if the results have already been consumed
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * @return whether the results have been read, or are being read, through {@link #iterator()} or
+     * {@link #getResult()}
+     */
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Reads all the remaining results, closes the cursor and returns them.
+     *
+     * @return the results of the query
+     */
+    @Override
+    public List<T> getResult() {
+        if (!consumed) {
+            List<T> result = super.getResult();
+            for (Iterator<T> iterator = iterator(); iterator.hasNext(); ) {
+                result.add(iterator.next());
+            }
+            if (!result.isEmpty()) {
+                setResultType(result.get(0).getClass().getCanonicalName());
+            }
+        }
+        close();
+        return super.getResult();
+    }
+
+    /**
+     * Releases the cursor and sets the number of results, the total number of results and the database time. Results
+     * not read yet are discarded. Calling this method more than once has no effect.
+     *
+     * @throws UncheckedIOException if the cursor can not be closed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        consumed = true;
+        try {
+            setNumResults(numRead);
+            if (numTotalResultsCounter != null) {
+                long countStart = System.nanoTime();
+                setNumTotalResults(numTotalResultsCounter.getAsLong());
+                timings.setCountNanos(System.nanoTime() - countStart);
+            } else {
+                setNumTotalResults(numRead);
+            }
+        } finally {
+            if (source instanceof ConvertingIterator) {
+                // Reading a result includes its conversion
+                long conversionNanos = ((ConvertingIterator) source).conversionNanos;
+                timings.setConversionNanos(conversionNanos);
+                timings.setFetchNanos(timings.getFetchNanos() - conversionNanos);
+            }
+            long totalNanos = timings.stop();
+            setDbTime((int) TimeUnit.NANOSECONDS.toMillis(totalNanos));
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private static final class ConvertingIterator<S, T> implements Iterator<T> {
+        private final Iterator<S> source;
+        private final Function<? super S, ? extends T> converter;
+        private long conversionNanos;
+
+        ConvertingIterator(Iterator<S> source, Function<? super S, ? extends T> converter) {
+            this.source = Objects.requireNonNull(source);
+            this.converter = Objects.requireNonNull(converter);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public T next() {
+            S next = source.next();
+            long start = System.nanoTime();
+            T converted = converter.apply(next);
+            conversionNanos += System.nanoTime() - start;
+            return converted;
+        }
+    }
+
+}
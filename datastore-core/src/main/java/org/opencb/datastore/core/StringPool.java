@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Bounded pool that deduplicates the strings repeated across documents, like field names and low-cardinality values
+ * such as chromosomes, filters or sample ids, so a large result holds one instance of each instead of one per
+ * document.
+ *
+ * The pool is a fixed-size table indexed by the hash of the strings, where a string replaces the one in its slot: it
+ * never grows, frequent strings stay in the table and unique ones are soon replaced. Strings longer than the maximum
+ * length are not pooled, they are rarely repeated. Unlike {@link String#intern()} pooled strings are not guaranteed to
+ * be the same instance, only likely to.
+ *
+ * The pool is thread-safe without locking: strings are immutable, so a thread may at worst miss a string just added
+ * by another one.
+ */
+public class StringPool {
+
+    public static final int DEFAULT_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    private static volatile StringPool defaultPool;
+
+    private final String[] table;
+    private final int mask;
+    private final int maxLength;
+
+    public StringPool() {
+        this(DEFAULT_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param size the number of strings kept, rounded up to a power of two
+     * @param maxLength the length of the longest string pooled
+     */
+    public StringPool(int size, int maxLength) {
+        if (size <= 0 || maxLength < 0) {
+            throw new IllegalArgumentException("Size must be positive and maximum length can not be negative");
+        }
+        int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        this.table = new String[capacity];
+        this.mask = capacity - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the pool used by {@link ObjectMap#ObjectMap(String)}, or null if strings parsed from JSON are not pooled
+     */
+    public static StringPool getDefault() {
+        return defaultPool;
+    }
+
+    public static void setDefault(StringPool stringPool) {
+        defaultPool = stringPool;
+    }
+
+    /**
+     * @return the pooled string equal to the given one, or the given one if there was none
+     */
+    public String intern(String string) {
+        if (string == null || string.length() > maxLength) {
+            return string;
+        }
+        int hash = string.hashCode();
+        int slot = (hash ^ hash >>> 16) & mask;
+        String pooled = table[slot];
+        if (string.equals(pooled)) {
+            return pooled;
+        }
+        table[slot] = string;
+        return string;
+    }
+
+    /**
+     * Pools the strings of a value and of the maps and lists nested in it, replacing them in place. Map keys are not
+     * replaced, maps can not change their keys in place.
+     *
+     * @return the pooled value
+     */
+    public Object internValues(Object value) {
+        if (value instanceof String) {
+            return intern((String) value);
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, Object> entry : ((Map<?, Object>) value).entrySet()) {
+                Object entryValue = entry.getValue();
+                Object pooled = internValues(entryValue);
+                if (pooled != entryValue) {
+                    entry.setValue(pooled);
+                }
+            }
+        } else if (value instanceof List) {
+            for (ListIterator<Object> iterator = ((List<Object>) value).listIterator(); iterator.hasNext(); ) {
+                Object element = iterator.next();
+                Object pooled = internValues(element);
+                if (pooled != element) {
+                    iterator.set(pooled);
+                }
+            }
+        }
+        return value;
+    }
+
+}
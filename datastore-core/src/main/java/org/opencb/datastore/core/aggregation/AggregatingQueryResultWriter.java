@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.aggregation;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryResultWriter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Aggregates the results of a query while they are written, so they are never held in memory. Set as the
+ * QueryResultWriter of a collection, the rows are aggregated as they are read from the cursor instead of after the
+ * whole result has been loaded.
+ *
+ * With a ForkJoinPool, the batches passed to {@link #writeBatch(List)} are aggregated on the pool while the following
+ * ones are read, and the partial states are merged on close. Otherwise the rows are aggregated in the calling thread.
+ *
+ * Each call to {@link #open()} starts a new aggregation, whose result is available once the writer is closed. The
+ * methods of this class must be called from a single thread, so a writer can not be shared by concurrent queries.
+ *
+ * @param <T> the type of the rows
+ */
+public class AggregatingQueryResultWriter<T> implements QueryResultWriter<T> {
+
+    private final Aggregation<T> aggregation;
+    private final ForkJoinPool pool;
+    private final int maxPendingBatches;
+
+    private AggregationState<T> state;
+    private Deque<ForkJoinTask<AggregationState<T>>> pending;
+    private List<ObjectMap> result;
+
+    public AggregatingQueryResultWriter(Aggregation<T> aggregation) {
+        this(aggregation, null);
+    }
+
+    /**
+     * @param pool where the batches are aggregated, or null to aggregate them in the calling thread
+     */
+    public AggregatingQueryResultWriter(Aggregation<T> aggregation, ForkJoinPool pool) {
+        this.aggregation = aggregation;
+        this.pool = pool;
+        this.maxPendingBatches = pool != null ? 2 * pool.getParallelism() : 0;
+    }
+
+    @Override
+    public void open() throws IOException {
+        state = aggregation.newState();
+        pending = new ArrayDeque<>();
+        result = null;
+    }
+
+    @Override
+    public void write(T elem) throws IOException {
+        checkOpen();
+        state.add(elem);
+    }
+
+    @Override
+    public void writeBatch(List<T> batch) throws IOException {
+        checkOpen();
+        if (pool == null) {
+            for (T elem : batch) {
+                state.add(elem);
+            }
+            return;
+        }
+        if (pending.size() == maxPendingBatches) {
+            state.merge(join(pending.removeFirst()));
+        }
+        // The caller may reuse the list once this method returns
+        List<T> rows = new ArrayList<>(batch);
+        pending.addLast(pool.submit(() -> aggregation.aggregateBatch(rows)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        checkOpen();
+        while (!pending.isEmpty()) {
+            state.merge(join(pending.removeFirst()));
+        }
+        result = state.getResult();
+        state = null;
+        pending = null;
+    }
+
+    private AggregationState<T> join(ForkJoinTask<AggregationState<T>> task) {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (ForkJoinTask<AggregationState<T>> other : pending) {
+                other.cancel(false);
+            }
+            pending.clear();
+            throw e;
+        }
+    }
+
+    private void checkOpen() {
+        if (state == null) {
+            throw new IllegalStateException("Writer not open");
+        }
+    }
+
+    /**
+     * @return a row per group of the rows written between the last open and close, null if not closed yet
+     */
+    public List<ObjectMap> getResult() {
+        return result;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.aggregation;
+
+import org.opencb.datastore.core.ObjectMap;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+
+/**
+ * Group-by aggregation computed on the client while the rows of a query are read, for the operations that can not be
+ * pushed to the database. Rows are grouped by the values of the group-by fields and each group gets a row in the
+ * result with those values followed by its metrics:
+ * <ul>
+ *     <li>count: number of rows</li>
+ *     <li>sum(field): sum of the values, 0 if there are none</li>
+ *     <li>min(field) and max(field): smallest and largest values, numbers or other comparable values</li>
+ *     <li>avg(field): mean of the values, null if there are none</li>
+ *     <li>histogram(field): number of values in each bin of the given width, as a list of {start, count} sorted by
+ *     start</li>
+ * </ul>
+ * Null or missing values are ignored by every metric but count, as done by MongoDB. Numbers compare and group by value,
+ * whatever their class.
+ *
+ * The partial states of an aggregation, see {@link #newState()}, can be merged, so the rows can be aggregated in
+ * batches on a ForkJoinPool with {@link #aggregate(Iterator, ForkJoinPool)}, or as they are written with an
+ * {@link AggregatingQueryResultWriter}.
+ *
+ * An aggregation is configured by adding its metrics and is then thread-safe.
+ *
+ * @param <T> the type of the rows
+ */
+public class Aggregation<T> {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final BiFunction<? super T, String, Object> fieldReader;
+    private final List<String> groupBy;
+    private final List<Metric> metrics = new ArrayList<>();
+
+    /**
+     * @param fieldReader reads the value of a field of a row, e.g. {@code DBObject::get}
+     * @param groupBy the fields whose values define the groups, none to aggregate all the rows together
+     */
+    public Aggregation(BiFunction<? super T, String, Object> fieldReader, List<String> groupBy) {
+        this.fieldReader = Objects.requireNonNull(fieldReader);
+        this.groupBy = new ArrayList<>(groupBy);
+    }
+
+    /**
+     * Aggregation of maps, like ObjectMaps or BasicDBObjects, whose fields can be dotted paths into nested maps.
+     */
+    public static <T extends Map<String, ?>> Aggregation<T> ofMaps(String... groupBy) {
+        return new Aggregation<>(Aggregation::readPath, Arrays.asList(groupBy));
+    }
+
+    private static Object readPath(Map<String, ?> map, String field) {
+        Object value = map.get(field);
+        if (value != null || field.indexOf('.') < 0) {
+            return value;
+        }
+        value = map;
+        for (String key : field.split("\\.")) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(key);
+        }
+        return value;
+    }
+
+    public Aggregation<T> count() {
+        return add(new Metric(Metric.Kind.COUNT, null, "count", 0));
+    }
+
+    public Aggregation<T> sum(String field) {
+        return add(new Metric(Metric.Kind.SUM, field, "sum(" + field + ")", 0));
+    }
+
+    public Aggregation<T> min(String field) {
+        return add(new Metric(Metric.Kind.MIN, field, "min(" + field + ")", 0));
+    }
+
+    public Aggregation<T> max(String field) {
+        return add(new Metric(Metric.Kind.MAX, field, "max(" + field + ")", 0));
+    }
+
+    public Aggregation<T> avg(String field) {
+        return add(new Metric(Metric.Kind.AVG, field, "avg(" + field + ")", 0));
+    }
+
+    /**
+     * @param width the width of the bins, which start at the multiples of it
+     */
+    public Aggregation<T> histogram(String field, double width) {
+        if (!(width > 0)) {
+            throw new IllegalArgumentException("The width of the bins must be positive");
+        }
+        return add(new Metric(Metric.Kind.HISTOGRAM, field, "histogram(" + field + ")", width));
+    }
+
+    private Aggregation<T> add(Metric metric) {
+        for (Metric other : metrics) {
+            if (other.name.equals(metric.name)) {
+                throw new IllegalArgumentException("Metric " + metric.name + " already added");
+            }
+        }
+        metrics.add(metric);
+        return this;
+    }
+
+    public List<String> getGroupBy() {
+        return Collections.unmodifiableList(groupBy);
+    }
+
+    /**
+     * @return an empty partial state of this aggregation
+     */
+    public AggregationState<T> newState() {
+        return new AggregationState<>(this);
+    }
+
+    /**
+     * Aggregates the rows in the calling thread.
+     *
+     * @return a row per group, in the order the groups were found
+     */
+    public List<ObjectMap> aggregate(Iterator<? extends T> rows) {
+        AggregationState<T> state = newState();
+        while (rows.hasNext()) {
+            state.add(rows.next());
+        }
+        return state.getResult();
+    }
+
+    public List<ObjectMap> aggregate(Iterator<? extends T> rows, ForkJoinPool pool) {
+        return aggregate(rows, pool, DEFAULT_BATCH_SIZE, 2 * pool.getParallelism());
+    }
+
+    /**
+     * Aggregates the rows in batches on a ForkJoinPool while the following batches are read, then merges the partial
+     * states. The number of batches being aggregated is bounded, so reading stops until the oldest one is done if the
+     * aggregation is the bottleneck. Exceptions are rethrown, the batches not yet aggregated are then cancelled.
+     *
+     * @param batchSize the number of rows in each batch
+     * @param maxPendingBatches the maximum number of batches read but not yet merged
+     * @return a row per group, in the order the groups were found
+     */
+    public List<ObjectMap> aggregate(Iterator<? extends T> rows, ForkJoinPool pool, int batchSize,
+                                     int maxPendingBatches) {
+        if (batchSize <= 0 || maxPendingBatches <= 0) {
+            throw new IllegalArgumentException("Batch size and number of pending batches must be positive");
+        }
+        AggregationState<T> state = newState();
+        Deque<ForkJoinTask<AggregationState<T>>> pending = new ArrayDeque<>(maxPendingBatches);
+        try {
+            while (rows.hasNext()) {
+                List<T> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && rows.hasNext()) {
+                    batch.add(rows.next());
+                }
+                if (pending.size() == maxPendingBatches) {
+                    state.merge(pending.removeFirst().join());
+                }
+                pending.addLast(pool.submit(() -> aggregateBatch(batch)));
+            }
+            while (!pending.isEmpty()) {
+                state.merge(pending.removeFirst().join());
+            }
+        } finally {
+            for (ForkJoinTask<AggregationState<T>> task : pending) {
+                task.cancel(false);
+            }
+        }
+        return state.getResult();
+    }
+
+    AggregationState<T> aggregateBatch(List<? extends T> batch) {
+        AggregationState<T> state = newState();
+        for (T row : batch) {
+            state.add(row);
+        }
+        return state;
+    }
+
+    Object read(T row, String field) {
+        return fieldReader.apply(row, field);
+    }
+
+    List<String> groupBy() {
+        return groupBy;
+    }
+
+    List<Metric> metrics() {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.aggregation;
+
+import org.opencb.datastore.core.ObjectMap;
+
+import java.util.*;
+
+/**
+ * Partial state of an {@link Aggregation}: the groups found in the rows added so far and the partial values of their
+ * metrics. States of the same aggregation computed over different rows are combined with {@link #merge}, so each
+ * thread can aggregate its rows on its own.
+ *
+ * This class is not thread-safe.
+ *
+ * @param <T> the type of the rows
+ */
+public final class AggregationState<T> {
+
+    private final Aggregation<T> aggregation;
+    private final List<String> groupBy;
+    private final Metric[] metrics;
+    private final Map<List<Object>, Metric.Accumulator[]> groups = new LinkedHashMap<>();
+
+    AggregationState(Aggregation<T> aggregation) {
+        this.aggregation = aggregation;
+        this.groupBy = aggregation.groupBy();
+        this.metrics = aggregation.metrics().toArray(new Metric[0]);
+    }
+
+    public void add(T row) {
+        List<Object> key = new ArrayList<>(groupBy.size());
+        for (String field : groupBy) {
+            key.add(normalize(aggregation.read(row, field)));
+        }
+        Metric.Accumulator[] accumulators = groups.get(key);
+        if (accumulators == null) {
+            accumulators = new Metric.Accumulator[metrics.length];
+            for (int i = 0; i < metrics.length; i++) {
+                accumulators[i] = metrics[i].newAccumulator();
+            }
+            groups.put(key, accumulators);
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            accumulators[i].add(metrics[i].field == null ? null : aggregation.read(row, metrics[i].field));
+        }
+    }
+
+    /**
+     * Numbers of different classes but the same value fall in the same group: integers and decimals without a
+     * fractional part become longs, other decimals doubles.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Number && Metric.isIntegral((Number) value)) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && number >= Long.MIN_VALUE && number < Long.MAX_VALUE) {
+                return (long) number;
+            }
+            return number;
+        }
+        return value;
+    }
+
+    /**
+     * Adds the groups of another state of the same aggregation, which must not be used afterwards.
+     */
+    public AggregationState<T> merge(AggregationState<T> other) {
+        if (other.aggregation != aggregation || other.metrics.length != metrics.length) {
+            throw new IllegalArgumentException("States of different aggregations can not be merged");
+        }
+        for (Map.Entry<List<Object>, Metric.Accumulator[]> entry : other.groups.entrySet()) {
+            Metric.Accumulator[] accumulators = groups.get(entry.getKey());
+            if (accumulators == null) {
+                groups.put(entry.getKey(), entry.getValue());
+            } else {
+                for (int i = 0; i < accumulators.length; i++) {
+                    accumulators[i].merge(entry.getValue()[i]);
+                }
+            }
+        }
+        return this;
+    }
+
+    public int getNumGroups() {
+        return groups.size();
+    }
+
+    /**
+     * @return a row per group with the values of the group-by fields and the metrics, in the order the groups were
+     * found
+     */
+    public List<ObjectMap> getResult() {
+        List<ObjectMap> result = new ArrayList<>(groups.size());
+        for (Map.Entry<List<Object>, Metric.Accumulator[]> entry : groups.entrySet()) {
+            ObjectMap row = new ObjectMap(groupBy.size() + metrics.length);
+            for (int i = 0; i < groupBy.size(); i++) {
+                row.put(groupBy.get(i), entry.getKey().get(i));
+            }
+            for (int i = 0; i < metrics.length; i++) {
+                row.put(metrics[i].name, entry.getValue()[i].result());
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.aggregation;
+
+import org.opencb.datastore.core.ObjectMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A metric of an {@link Aggregation} and the accumulators of its partial values, one per group.
+ */
+final class Metric {
+
+    enum Kind {
+        COUNT, SUM, MIN, MAX, AVG, HISTOGRAM
+    }
+
+    final Kind kind;
+    final String field;
+    final String name;
+    private final double width;
+
+    Metric(Kind kind, String field, String name, double width) {
+        this.kind = kind;
+        this.field = field;
+        this.name = name;
+        this.width = width;
+    }
+
+    Accumulator newAccumulator() {
+        switch (kind) {
+            case COUNT:
+                return new Count();
+            case SUM:
+                return new Sum(false);
+            case MIN:
+                return new Extreme(-1);
+            case MAX:
+                return new Extreme(1);
+            case AVG:
+                return new Sum(true);
+            case HISTOGRAM:
+                return new Histogram();
+            default:
+                throw new IllegalStateException("Unknown metric " + kind);
+        }
+    }
+
+    private Number number(Object value) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Value " + value + " of field " + field + " is not a number, "
+                    + name + " can not be computed");
+        }
+        return (Number) value;
+    }
+
+    static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    /**
+     * Compares numbers by value and other values by their natural order.
+     */
+    static int compare(Object a, Object b, String field) {
+        if (a instanceof Number && b instanceof Number) {
+            Number x = (Number) a;
+            Number y = (Number) b;
+            return isIntegral(x) && isIntegral(y)
+                    ? Long.compare(x.longValue(), y.longValue())
+                    : Double.compare(x.doubleValue(), y.doubleValue());
+        }
+        if (a instanceof Comparable && a.getClass().isInstance(b)) {
+            @SuppressWarnings("unchecked")
+            int comparison = ((Comparable<Object>) a).compareTo(b);
+            return comparison;
+        }
+        throw new IllegalArgumentException("Values " + a + " and " + b + " of field " + field + " can not be compared");
+    }
+
+    /**
+     * Partial value of a metric for a group. The value is null for the count, which counts rows.
+     */
+    interface Accumulator {
+
+        void add(Object value);
+
+        /**
+         * Adds the partial value of the same metric computed over other rows.
+         */
+        void merge(Accumulator other);
+
+        Object result();
+    }
+
+    private static final class Count implements Accumulator {
+        private long count;
+
+        @Override
+        public void add(Object value) {
+            count++;
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            count += ((Count) other).count;
+        }
+
+        @Override
+        public Object result() {
+            return count;
+        }
+    }
+
+    /**
+     * Sum and average. Integers are summed exactly, the sum is decimal once a decimal value is found.
+     */
+    private final class Sum implements Accumulator {
+        private final boolean average;
+        private long count;
+        private long longSum;
+        private double doubleSum;
+        private boolean decimal;
+
+        Sum(boolean average) {
+            this.average = average;
+        }
+
+        @Override
+        public void add(Object value) {
+            if (value == null) {
+                return;
+            }
+            Number number = number(value);
+            if (isIntegral(number)) {
+                longSum += number.longValue();
+            } else {
+                doubleSum += number.doubleValue();
+                decimal = true;
+            }
+            count++;
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            Sum sum = (Sum) other;
+            count += sum.count;
+            longSum += sum.longSum;
+            doubleSum += sum.doubleSum;
+            decimal |= sum.decimal;
+        }
+
+        @Override
+        public Object result() {
+            if (average) {
+                return count == 0 ? null : (longSum + doubleSum) / count;
+            }
+            return decimal ? (Object) (longSum + doubleSum) : (Object) longSum;
+        }
+    }
+
+    /**
+     * Minimum, for a sign of -1, or maximum, for 1.
+     */
+    private final class Extreme implements Accumulator {
+        private final int sign;
+        private Object value;
+
+        Extreme(int sign) {
+            this.sign = sign;
+        }
+
+        @Override
+        public void add(Object value) {
+            if (value != null && (this.value == null || sign * compare(value, this.value, field) > 0)) {
+                this.value = value;
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            add(((Extreme) other).value);
+        }
+
+        @Override
+        public Object result() {
+            return value;
+        }
+    }
+
+    private final class Histogram implements Accumulator {
+        private final Map<Long, long[]> counts = new TreeMap<>();
+
+        @Override
+        public void add(Object value) {
+            if (value != null) {
+                add((long) Math.floor(number(value).doubleValue() / width), 1);
+            }
+        }
+
+        private void add(long bin, long count) {
+            long[] binCount = counts.get(bin);
+            if (binCount == null) {
+                counts.put(bin, new long[]{count});
+            } else {
+                binCount[0] += count;
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            for (Map.Entry<Long, long[]> entry : ((Histogram) other).counts.entrySet()) {
+                add(entry.getKey(), entry.getValue()[0]);
+            }
+        }
+
+        @Override
+        public Object result() {
+            boolean integralWidth = width == Math.rint(width);
+            List<ObjectMap> bins = new ArrayList<>(counts.size());
+            for (Map.Entry<Long, long[]> entry : counts.entrySet()) {
+                Object start = integralWidth
+                        ? (Object) (entry.getKey() * (long) width) : (Object) (entry.getKey() * width);
+                bins.add(new ObjectMap("start", start).append("count", entry.getValue()[0]));
+            }
+            return bins;
+        }
+    }
+
+}
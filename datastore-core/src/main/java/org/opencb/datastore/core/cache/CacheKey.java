@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.core.cache;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Identifies a query in a {@link QueryResultCache}: the collection it was sent to and a canonical representation of
+ * its parameters.
+ *
+ * Parameters are usually the query, projection and options of a find. The keys of the parameters that are maps are
+ * sorted, so queries and options that only differ in the order of their fields have the same key. Nested maps keep
+ * their order, as it matters for sort specifications and embedded documents, and so do lists. Strings
+ * are quoted and dates are written as milliseconds, other values as their {@code toString()}, so they must be
+ * unique for different values for the cache to be correct.
+ */
+public final class CacheKey {
+
+    private final String collection;
+    private final String parameters;
+    private final int hashCode;
+
+    private CacheKey(String collection, String parameters) {
+        this.collection = Objects.requireNonNull(collection);
+        this.parameters = parameters;
+        this.hashCode = 31 * collection.hashCode() + parameters.hashCode();
+    }
+
+    /**
+     * @param collection the name of the collection
+     * @param operation the kind of query, like find or count
+     * @param parameters the parameters of the query, in a fixed order
+     */
+    public static CacheKey of(String collection, String operation, Object... parameters) {
+        StringBuilder builder = new StringBuilder(operation);
+        for (Object parameter : parameters) {
+            builder.append('|');
+            if (parameter instanceof Map) {
+                appendMap(builder, (Map<?, ?>) parameter, true);
+            } else {
+                append(builder, parameter);
+            }
+        }
+        return new CacheKey(collection, builder.toString());
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return the canonical representation of the operation and its parameters
+     */
+    public String getParameters() {
+        return parameters;
+    }
+
+    private static void append(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            appendString(builder, value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else if (value instanceof Map) {
+            appendMap(builder, (Map<?, ?>) value, false);
+        } else if (value instanceof Set) {
+            // Sets are compared regardless of their iteration order
+            List<String> elements = new ArrayList<>(((Set<?>) value).size());
+            for (Object element : (Set<?>) value) {
+                StringBuilder elementBuilder = new StringBuilder();
+                append(elementBuilder, element);
+                elements.add(elementBuilder.toString());
+            }
+            Collections.sort(elements);
+            builder.append('<');
+            for (int i = 0; i < elements.size(); i++) {
+                builder.append(i > 0 ? "," : "").append(elements.get(i));
+            }
+            builder.append('>');
+        } else if (value instanceof Iterable) {
+            builder.append('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                builder.append(first ? "" : ",");
+                append(builder, element);
+                first = false;
+            }
+            builder.append(']');
+        } else if (value.getClass().isArray()) {
+            builder.append('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                builder.append(i > 0 ? "," : "");
+                append(builder, Array.get(value, i));
+            }
+            builder.append(']');
+        } else if (value instanceof Date) {
+            builder.append("Date(").append(((Date) value).getTime()).append(')');
+        } else if (value instanceof Pattern) {
+            builder.append("Pattern(").append(((Pattern) value).flags()).append(',');
+            appendString(builder, ((Pattern) value).pattern());
+            builder.append(')');
+        } else if (value instanceof Enum) {
+            builder.append(value.getClass().getName()).append('.').append(((Enum<?>) value).name());
+        } else {
+            builder.append(value.getClass().getName()).append('(');
+            appendString(builder, value.toString());
+            builder.append(')');
+        }
+    }
+
+    private static void appendMap(StringBuilder builder, Map<?, ?> map, boolean sortKeys) {
+        List<Map.Entry<?, ?>> entries = new ArrayList<>(map.entrySet());
+        if (sortKeys) {
+            entries.sort(Comparator.comparing(entry -> String.valueOf(entry.getKey())));
+        }
+        builder.append('{');
+        for (int i = 0; i < entries.size(); i++) {
+            builder.append(i > 0 ? "," : "");
+            appendString(builder, String.valueOf(entries.get(i).getKey()));
+            builder.append(':');
+            append(builder, entries.get(i).getValue());
+        }
+        builder.append('}');
+    }
+
+    private static void appendString(StringBuilder builder, String string) {
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        builder.append('"');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey cacheKey = (CacheKey) o;
+        return hashCode == cacheKey.hashCode
+                && collection.equals(cacheKey.collection)
+                && parameters.equals(cacheKey.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return collection + ":" + parameters;
+    }
+}
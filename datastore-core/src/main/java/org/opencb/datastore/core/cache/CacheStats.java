@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.core.cache;
+
+/**
+ * Snapshot of the counters of a {@link QueryResultCache}.
+ */
+public final class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long invalidationCount;
+    private final int size;
+    private final long weight;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long invalidationCount, int size,
+                      long weight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the ratio of lookups that found a result, or 0 if there has been none
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    /**
+     * @return the number of results removed to make room for others, or because they expired
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of results removed because their collection was written
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the estimated size in bytes of the cached results
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                ", invalidationCount=" + invalidationCount +
+                ", size=" + size +
+                ", weight=" + weight +
+                '}';
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.core.cache;
+
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory {@link QueryResultCache} bounded by the estimated size in bytes of its results, which are evicted in least
+ * recently used order. Results also expire after a fixed time since they were cached.
+ *
+ * Results are copied when cached and when returned, but the objects of their result lists are shared. The size of a
+ * result is estimated with {@link #estimateSize(QueryResult)} unless another weigher is given; results bigger than the
+ * cache are not cached.
+ *
+ * Each collection has an invalidation generation, so the result of a query that was running while the collection was
+ * invalidated is not cached.
+ */
+public class LruQueryResultCache implements QueryResultCache {
+
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongFunction<QueryResult<?>> weigher;
+    private final LongSupplier ticker;
+
+    private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> generations = new HashMap<>();
+    private long globalGeneration;
+    private long weight;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    /**
+     * @param maxWeight the maximum estimated size in bytes of the cached results
+     * @param ttl how long results are kept, or 0 to keep them until they are evicted
+     * @param unit the unit of the ttl
+     */
+    public LruQueryResultCache(long maxWeight, long ttl, TimeUnit unit) {
+        this(maxWeight, ttl, unit, LruQueryResultCache::estimateSize);
+    }
+
+    public LruQueryResultCache(long maxWeight, long ttl, TimeUnit unit, ToLongFunction<QueryResult<?>> weigher) {
+        this(maxWeight, ttl, unit, weigher, System::nanoTime);
+    }
+
+    LruQueryResultCache(long maxWeight, long ttl, TimeUnit unit, ToLongFunction<QueryResult<?>> weigher,
+                        LongSupplier ticker) {
+        if (maxWeight <= 0 || ttl < 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive and ttl can not be negative");
+        }
+        this.maxWeight = maxWeight;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.weigher = Objects.requireNonNull(weigher);
+        this.ticker = Objects.requireNonNull(ticker);
+    }
+
+    @Override
+    public synchronized <T> QueryResult<T> get(CacheKey key) {
+        Entry entry = entries.get(key);
+        if (entry != null && ttlNanos > 0 && ticker.getAsLong() - entry.created >= ttlNanos) {
+            remove(key);
+            evictionCount++;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        QueryResult<T> cached = (QueryResult<T>) entry.queryResult;
+        return copy(cached, cached.getResult());
+    }
+
+    @Override
+    public void put(CacheKey key, QueryResult<?> queryResult) {
+        put(key, queryResult, -1);
+    }
+
+    @Override
+    public void put(CacheKey key, QueryResult<?> queryResult, long generation) {
+        // Copied and weighed outside the lock
+        QueryResult<Object> original = (QueryResult<Object>) queryResult;
+        List<Object> result = original.getResult() != null ? new ArrayList<>(original.getResult()) : new ArrayList<>();
+        QueryResult<?> copy = copy(original, Collections.unmodifiableList(result));
+        long entryWeight = 2L * key.getParameters().length() + weigher.applyAsLong(copy);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        synchronized (this) {
+            if (generation >= 0 && generation != getGeneration(key.getCollection())) {
+                return;
+            }
+            remove(key);
+            entries.put(key, new Entry(copy, entryWeight, ticker.getAsLong()));
+            weight += entryWeight;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (weight > maxWeight) {
+                weight -= iterator.next().weight;
+                iterator.remove();
+                evictionCount++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getGeneration(String collection) {
+        return globalGeneration + generations.getOrDefault(collection, 0L);
+    }
+
+    @Override
+    public synchronized void invalidate(String collection) {
+        generations.merge(collection, 1L, Long::sum);
+        Iterator<Map.Entry<CacheKey, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<CacheKey, Entry> entry = iterator.next();
+            if (entry.getKey().getCollection().equals(collection)) {
+                weight -= entry.getValue().weight;
+                iterator.remove();
+                invalidationCount++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        globalGeneration++;
+        invalidationCount += entries.size();
+        entries.clear();
+        weight = 0;
+    }
+
+    @Override
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hitCount, missCount, evictionCount, invalidationCount, entries.size(), weight);
+    }
+
+    private void remove(CacheKey key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    /**
+     * Copies every field of the query result, timings included, but the result list, which is replaced by the given one.
+     */
+    @SuppressWarnings("deprecation")
+    static <T> QueryResult<T> copy(QueryResult<T> queryResult, List<T> result) {
+        QueryResult<T> copy = new QueryResult<>(queryResult.getId(), queryResult.getDbTime(),
+                queryResult.getNumResults(), queryResult.getNumTotalResults(), queryResult.getWarningMsg(),
+                queryResult.getErrorMsg(), result);
+        copy.setTime(queryResult.getTime());
+        copy.setFeatureType(queryResult.getFeatureType());
+        copy.setResultType(queryResult.getResultType());
+        copy.setTimings(queryResult.getTimings() != null ? new QueryTimings(queryResult.getTimings()) : null);
+        copy.setContinuationToken(queryResult.getContinuationToken());
+        copy.clazz = queryResult.clazz;
+        return copy;
+    }
+
+    /**
+     * Rough estimation of the heap used by a QueryResult, assuming a 64-bit JVM with compressed pointers. Maps,
+     * collections, arrays, strings and boxed primitives are measured, any other object is counted as 64 bytes.
+     */
+    public static long estimateSize(QueryResult<?> queryResult) {
+        return 64 + estimateSize(queryResult.getId()) + estimateSize(queryResult.getWarningMsg())
+                + estimateSize(queryResult.getErrorMsg()) + estimateSize(queryResult.getResult());
+    }
+
+    private static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 16;
+        } else if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 40 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection<?>) value) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            if (value.getClass().getComponentType().isPrimitive()) {
+                return 16 + 8L * length;
+            }
+            long size = 16;
+            for (int i = 0; i < length; i++) {
+                size += 4 + estimateSize(Array.get(value, i));
+            }
+            return size;
+        } else {
+            return 64;
+        }
+    }
+
+    private static class Entry {
+        private final QueryResult<?> queryResult;
+        private final long weight;
+        private final long created;
+
+        Entry(QueryResult<?> queryResult, long weight, long created) {
+            this.queryResult = queryResult;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opencb.datastore.core.cache;
+
+import org.opencb.datastore.core.QueryResult;
+
+/**
+ * Cache of query results, that can be shared by several collections. Results are looked up by a {@link CacheKey},
+ * built from the collection name and the parameters of the query.
+ *
+ * The results returned by a cache must not be modified, their result lists are unmodifiable.
+ */
+public interface QueryResultCache {
+
+    /**
+     * @return the cached result, or null if there is none
+     */
+    <T> QueryResult<T> get(CacheKey key);
+
+    void put(CacheKey key, QueryResult<?> queryResult);
+
+    /**
+     * Caches the result of a query unless its collection has been invalidated since the query started, as the result
+     * may then be stale.
+     *
+     * @param generation the generation of the collection read with {@link #getGeneration(String)} before running the
+     *                   query
+     */
+    void put(CacheKey key, QueryResult<?> queryResult, long generation);
+
+    /**
+     * @return the invalidation generation of a collection, which changes every time its results are invalidated
+     */
+    long getGeneration(String collection);
+
+    /**
+     * Removes the results of every query to the given collection, called after writing to it.
+     */
+    void invalidate(String collection);
+
+    void invalidateAll();
+
+    CacheStats getStats();
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.cache;
+
+import org.opencb.datastore.core.QueryResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical queries running at the same time: the first call for a {@link CacheKey} runs the query and the
+ * calls with the same key made while it runs wait for it and share its result, instead of sending the same query to
+ * the database again. Unlike a {@link QueryResultCache} nothing is kept once the query has finished, so results are
+ * never stale.
+ *
+ * The result list is copied once into an unmodifiable list, whether or not other calls waited for the query, and every
+ * caller receives its own copy of the other fields; the objects in the list are shared. A result list that is
+ * {@link AutoCloseable}, like one spilled to disk, is read into the heap and closed. A query that throws an exception
+ * throws it to every caller waiting for it.
+ *
+ * An instance can be shared by several collections, keys include the name of the collection.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<CacheKey, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder executionCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * Runs the query, or waits for the identical query already running.
+     *
+     * @param key identifies the query
+     * @param query runs the query
+     * @return the result of the query, shared with the concurrent calls with the same key
+     */
+    public <T> QueryResult<T> execute(CacheKey key, Supplier<QueryResult<T>> query) {
+        Flight[] joined = new Flight[1];
+        Flight flight = flights.compute(key, (k, running) -> {
+            if (running == null) {
+                return new Flight();
+            }
+            joined[0] = running;
+            return running;
+        });
+        if (joined[0] != null) {
+            coalescedCount.increment();
+            return await(joined[0]);
+        }
+
+        executionCount.increment();
+        QueryResult<T> queryResult;
+        try {
+            queryResult = query.get();
+        } catch (RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flights.remove(key, flight);
+        // Shared even without followers, so callers do not receive a different kind of list depending on the timing
+        QueryResult<T> shared = share(queryResult);
+        flight.result.complete(shared);
+        return LruQueryResultCache.copy(shared, shared.getResult());
+    }
+
+    private static <T> QueryResult<T> await(Flight flight) {
+        try {
+            QueryResult<T> shared = (QueryResult<T>) flight.result.join();
+            return LruQueryResultCache.copy(shared, shared.getResult());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <T> QueryResult<T> share(QueryResult<T> queryResult) {
+        List<T> result = queryResult.getResult() != null ? new ArrayList<>(queryResult.getResult()) : new ArrayList<>();
+        if (queryResult.getResult() instanceof AutoCloseable) {
+            // Like a list spilled to disk, which nobody else can close once copied
+            try {
+                ((AutoCloseable) queryResult.getResult()).close();
+            } catch (Exception e) {
+                throw new IllegalStateException("Error closing the result list", e);
+            }
+        }
+        return LruQueryResultCache.copy(queryResult, Collections.unmodifiableList(result));
+    }
+
+    /**
+     * @return the number of queries run
+     */
+    public long getExecutionCount() {
+        return executionCount.sum();
+    }
+
+    /**
+     * @return the number of calls that waited for an identical query instead of running it
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * @return the number of queries running
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{" +
+                "executionCount=" + getExecutionCount() +
+                ", coalescedCount=" + getCoalescedCount() +
+                ", inFlightCount=" + getInFlightCount() +
+                '}';
+    }
+
+    private static final class Flight {
+        private final CompletableFuture<QueryResult<?>> result = new CompletableFuture<>();
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates MongoDB queries against documents. The supported operators are $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin,
+ * $exists, $regex with $options, $not, $size, $all, $elemMatch, $and, $or and $nor. Field names can be dotted paths,
+ * which go through nested documents, list indexes and the documents of lists.
+ *
+ * As in MongoDB, a condition on a list field matches if it matches the list or any of its elements, and equality to
+ * null matches missing fields.
+ */
+final class DocumentMatcher {
+
+    private DocumentMatcher() {
+    }
+
+    static boolean matches(Map<String, Object> document, Map<String, Object> query) {
+        if (query == null) {
+            return true;
+        }
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            if (!matches(document, entry.getKey(), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Map<String, Object> document, String key, Object condition) {
+        switch (key) {
+            case "$and":
+                for (Object subquery : Values.asList(condition)) {
+                    if (!matches(document, asQuery(subquery))) {
+                        return false;
+                    }
+                }
+                return true;
+            case "$or":
+                for (Object subquery : Values.asList(condition)) {
+                    if (matches(document, asQuery(subquery))) {
+                        return true;
+                    }
+                }
+                return false;
+            case "$nor":
+                for (Object subquery : Values.asList(condition)) {
+                    if (matches(document, asQuery(subquery))) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                if (key.startsWith("$")) {
+                    throw new IllegalArgumentException("Unsupported query operator " + key);
+                }
+                return matchesCondition(resolve(document, key), condition);
+        }
+    }
+
+    /**
+     * @return the values found at the path, none if the field is missing
+     */
+    static List<Object> resolve(Map<String, Object> document, String path) {
+        if (path.indexOf('.') < 0) {
+            // Fast path for top level fields
+            return document.containsKey(path)
+                    ? Collections.singletonList(document.get(path))
+                    : Collections.emptyList();
+        }
+        List<Object> values = new ArrayList<>(1);
+        resolve(document, path.split("\\."), 0, values);
+        return values;
+    }
+
+    private static void resolve(Object value, String[] path, int index, List<Object> values) {
+        if (index == path.length) {
+            values.add(value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.containsKey(path[index])) {
+                resolve(map.get(path[index]), path, index + 1, values);
+            }
+        } else if (Values.rank(value) == Values.LIST_RANK) {
+            List<?> list = Values.asList(value);
+            if (isIndex(path[index])) {
+                int position = Integer.parseInt(path[index]);
+                if (position < list.size()) {
+                    resolve(list.get(position), path, index + 1, values);
+                }
+            } else {
+                for (Object element : list) {
+                    if (element instanceof Map) {
+                        resolve(element, path, index, values);
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean matchesCondition(List<Object> values, Object condition) {
+        if (isOperatorMap(condition)) {
+            Map<?, ?> operators = (Map<?, ?>) condition;
+            for (Map.Entry<?, ?> entry : operators.entrySet()) {
+                if (!matchesOperator(values, (String) entry.getKey(), entry.getValue(), operators)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return matchesEquality(values, condition);
+    }
+
+    private static boolean matchesOperator(List<Object> values, String operator, Object operand, Map<?, ?> operators) {
+        switch (operator) {
+            case "$eq":
+                return matchesEquality(values, operand);
+            case "$ne":
+                return !matchesEquality(values, operand);
+            case "$gt":
+                return matchesComparison(values, operand, c -> c > 0);
+            case "$gte":
+                return matchesComparison(values, operand, c -> c >= 0);
+            case "$lt":
+                return matchesComparison(values, operand, c -> c < 0);
+            case "$lte":
+                return matchesComparison(values, operand, c -> c <= 0);
+            case "$in":
+                return matchesIn(values, operand);
+            case "$nin":
+                return !matchesIn(values, operand);
+            case "$exists":
+                return !values.isEmpty() == isTrue(operand);
+            case "$regex":
+                return matchesPattern(values, toPattern(operand, operators.get("$options")));
+            case "$options":
+                // Read with $regex
+                return true;
+            case "$not":
+                return !(operand instanceof Pattern
+                        ? matchesPattern(values, (Pattern) operand)
+                        : matchesCondition(values, operand));
+            case "$size":
+                for (Object value : values) {
+                    if (Values.rank(value) == Values.LIST_RANK
+                            && Values.asList(value).size() == ((Number) operand).intValue()) {
+                        return true;
+                    }
+                }
+                return false;
+            case "$all":
+                for (Object element : Values.asList(operand)) {
+                    if (!matchesEquality(values, element)) {
+                        return false;
+                    }
+                }
+                return true;
+            case "$elemMatch":
+                return matchesElement(values, operand);
+            default:
+                throw new IllegalArgumentException("Unsupported query operator " + operator);
+        }
+    }
+
+    private static boolean matchesEquality(List<Object> values, Object operand) {
+        if (operand instanceof Pattern) {
+            return matchesPattern(values, (Pattern) operand);
+        }
+        if (operand == null && values.isEmpty()) {
+            return true;
+        }
+        for (Object value : values) {
+            if (Values.equal(value, operand)) {
+                return true;
+            }
+            if (Values.rank(value) == Values.LIST_RANK) {
+                for (Object element : Values.asList(value)) {
+                    if (Values.equal(element, operand)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private interface ComparisonTest {
+        boolean test(int comparison);
+    }
+
+    /**
+     * Values are only compared to operands of the same type, e.g. {"$gt": 1} does not match strings.
+     */
+    private static boolean matchesComparison(List<Object> values, Object operand, ComparisonTest test) {
+        int rank = Values.rank(operand);
+        for (Object value : values) {
+            if (Values.rank(value) == rank && test.test(Values.compare(value, operand))) {
+                return true;
+            }
+            if (Values.rank(value) == Values.LIST_RANK && rank != Values.LIST_RANK) {
+                for (Object element : Values.asList(value)) {
+                    if (Values.rank(element) == rank && test.test(Values.compare(element, operand))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesIn(List<Object> values, Object operand) {
+        for (Object element : Values.asList(operand)) {
+            if (matchesEquality(values, element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesPattern(List<Object> values, Pattern pattern) {
+        for (Object value : values) {
+            if (value instanceof String && pattern.matcher((String) value).find()) {
+                return true;
+            }
+            if (Values.rank(value) == Values.LIST_RANK) {
+                for (Object element : Values.asList(value)) {
+                    if (element instanceof String && pattern.matcher((String) element).find()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesElement(List<Object> values, Object operand) {
+        boolean operators = isOperatorMap(operand);
+        for (Object value : values) {
+            if (Values.rank(value) != Values.LIST_RANK) {
+                continue;
+            }
+            for (Object element : Values.asList(value)) {
+                if (operators) {
+                    if (matchesCondition(Collections.singletonList(element), operand)) {
+                        return true;
+                    }
+                } else if (element instanceof Map && matches(asQuery(element), asQuery(operand))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static Pattern toPattern(Object regex, Object options) {
+        if (regex instanceof Pattern) {
+            return (Pattern) regex;
+        }
+        int flags = 0;
+        if (options != null) {
+            String optionString = options.toString();
+            if (optionString.contains("i")) {
+                flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            }
+            if (optionString.contains("m")) {
+                flags |= Pattern.MULTILINE;
+            }
+            if (optionString.contains("s")) {
+                flags |= Pattern.DOTALL;
+            }
+            if (optionString.contains("x")) {
+                flags |= Pattern.COMMENTS;
+            }
+        }
+        return Pattern.compile(regex.toString(), flags);
+    }
+
+    static boolean isOperatorMap(Object condition) {
+        if (!(condition instanceof Map) || ((Map<?, ?>) condition).isEmpty()) {
+            return false;
+        }
+        for (Object key : ((Map<?, ?>) condition).keySet()) {
+            if (!(key instanceof String) || !((String) key).startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIndex(String key) {
+        if (key.isEmpty() || key.length() > 9) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (!Character.isDigit(key.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTrue(Object operand) {
+        if (operand instanceof Boolean) {
+            return (Boolean) operand;
+        }
+        return operand instanceof Number && ((Number) operand).intValue() != 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asQuery(Object query) {
+        if (!(query instanceof Map)) {
+            throw new IllegalArgumentException("Expected a query document, found " + query);
+        }
+        return (Map<String, Object>) query;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import org.opencb.datastore.core.ObjectMap;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Applies MongoDB updates to frozen documents, returning new frozen documents that share the unchanged values. An
+ * update is either a replacement document or a set of the operators $set, $unset, $inc, $push, $addToSet and $pull,
+ * the last three also accepting $each.
+ */
+final class DocumentUpdater {
+
+    /**
+     * Returned by a modification to remove the field.
+     */
+    private static final Object REMOVE = new Object();
+
+    private DocumentUpdater() {
+    }
+
+    static ObjectMap apply(ObjectMap document, Map<String, Object> update) {
+        if (!DocumentMatcher.isOperatorMap(update)) {
+            ObjectMap replacement = new ObjectMap(update.size() + 1);
+            if (document.containsKey("_id")) {
+                replacement.put("_id", document.get("_id"));
+            }
+            replacement.putAll(update);
+            return (ObjectMap) Values.freeze(replacement);
+        }
+
+        ObjectMap updated = new ObjectMap(document);
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            if (!(entry.getValue() instanceof Map)) {
+                throw new IllegalArgumentException("The value of " + entry.getKey() + " must be a document");
+            }
+            for (Map.Entry<?, ?> field : ((Map<?, ?>) entry.getValue()).entrySet()) {
+                String path = field.getKey().toString();
+                Object operand = field.getValue();
+                switch (entry.getKey()) {
+                    case "$set":
+                        modify(updated, path, value -> Values.freeze(operand));
+                        break;
+                    case "$unset":
+                        modify(updated, path, value -> REMOVE);
+                        break;
+                    case "$inc":
+                        modify(updated, path, value -> increment(path, value, operand));
+                        break;
+                    case "$push":
+                        modify(updated, path, value -> push(path, value, operand, false));
+                        break;
+                    case "$addToSet":
+                        modify(updated, path, value -> push(path, value, operand, true));
+                        break;
+                    case "$pull":
+                        modify(updated, path, value -> pull(value, operand));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported update operator " + entry.getKey());
+                }
+            }
+        }
+        return (ObjectMap) Values.freeze(updated);
+    }
+
+    /**
+     * Creates the document inserted by an upsert: the equality conditions of the query updated with the update.
+     */
+    static ObjectMap upsert(Map<String, Object> query, Map<String, Object> update) {
+        ObjectMap document = new ObjectMap();
+        if (DocumentMatcher.isOperatorMap(update) && query != null) {
+            for (Map.Entry<String, Object> entry : query.entrySet()) {
+                Object condition = entry.getValue();
+                if (entry.getKey().startsWith("$")) {
+                    continue;
+                }
+                if (DocumentMatcher.isOperatorMap(condition)) {
+                    if (((Map<?, ?>) condition).containsKey("$eq")) {
+                        modify(document, entry.getKey(), value -> Values.freeze(((Map<?, ?>) condition).get("$eq")));
+                    }
+                } else {
+                    modify(document, entry.getKey(), value -> Values.freeze(condition));
+                }
+            }
+        }
+        return apply((ObjectMap) Values.freeze(document), update);
+    }
+
+    /**
+     * Replaces the value at the path, copying the documents on the way. The modification receives null for missing
+     * fields.
+     */
+    private static void modify(Map<String, Object> document, String path, UnaryOperator<Object> modification) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            Object value = modification.apply(document.get(path));
+            if (value == REMOVE) {
+                document.remove(path);
+            } else {
+                document.put(path, value);
+            }
+            return;
+        }
+        String key = path.substring(0, dot);
+        Object child = document.get(key);
+        if (child != null && !(child instanceof Map)) {
+            throw new IllegalArgumentException("Field " + key + " is not a document, it can not be updated");
+        }
+        @SuppressWarnings("unchecked")
+        ObjectMap copy = child == null ? new ObjectMap() : new ObjectMap((Map<String, Object>) child);
+        modify(copy, path.substring(dot + 1), modification);
+        document.put(key, copy);
+    }
+
+    private static Object increment(String path, Object value, Object operand) {
+        if (!(operand instanceof Number)) {
+            throw new IllegalArgumentException("$inc needs a number, found " + operand);
+        }
+        if (value == null) {
+            return operand;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Field " + path + " is not a number, it can not be incremented");
+        }
+        Number a = (Number) value;
+        Number b = (Number) operand;
+        if (a instanceof Integer && b instanceof Integer) {
+            long sum = (long) a.intValue() + b.intValue();
+            return sum == (int) sum ? (Object) (int) sum : (Object) sum;
+        }
+        if (isIntegral(a) && isIntegral(b)) {
+            return a.longValue() + b.longValue();
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+
+    private static Object push(String path, Object value, Object operand, boolean unique) {
+        if (value != null && !(value instanceof List)) {
+            throw new IllegalArgumentException("Field " + path + " is not a list, values can not be added");
+        }
+        List<Object> list = value == null ? new ArrayList<>() : new ArrayList<>((List<?>) value);
+        List<?> added = operand instanceof Map && ((Map<?, ?>) operand).containsKey("$each")
+                ? Values.asList(((Map<?, ?>) operand).get("$each"))
+                : Collections.singletonList(operand);
+        for (Object element : added) {
+            if (!unique || !contains(list, element)) {
+                list.add(Values.freeze(element));
+            }
+        }
+        return list;
+    }
+
+    private static Object pull(Object value, Object operand) {
+        if (!(value instanceof List)) {
+            return value == null ? REMOVE : value;
+        }
+        boolean condition = DocumentMatcher.isOperatorMap(operand);
+        List<Object> list = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            boolean matches;
+            if (condition) {
+                matches = DocumentMatcher.matchesCondition(Collections.singletonList(element), operand);
+            } else if (operand instanceof Map && element instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> query = (Map<String, Object>) operand;
+                @SuppressWarnings("unchecked")
+                Map<String, Object> elementDocument = (Map<String, Object>) element;
+                matches = DocumentMatcher.matches(elementDocument, query);
+            } else {
+                matches = Values.equal(element, operand);
+            }
+            if (!matches) {
+                list.add(element);
+            }
+        }
+        return list;
+    }
+
+    private static boolean contains(List<?> list, Object element) {
+        for (Object e : list) {
+            if (Values.equal(e, element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIntegral(Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+}
@@ -0,0 +1,675 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import org.opencb.datastore.core.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Collection of {@link ObjectMap} documents kept in the heap, with the find, count, distinct, insert, update and remove
+ * semantics of a MongoDB collection for the query operators implemented by {@link DocumentMatcher} and the update
+ * operators implemented by {@link DocumentUpdater}. It is meant for tests, local development and as a tier for hot
+ * data, and is accessed like a MongoDBCollection: queries are ObjectMaps with the structure of MongoDB query documents
+ * and the options are read with the same keys.
+ *
+ * Stored documents are frozen copies of the inserted ones, so they are returned without copying them again, and
+ * updates replace them with updated copies. Queries on fields with a secondary index, see {@link #createIndex}, only
+ * check the documents found in the index: equalities and $in use any index, ranges a {@link IndexType#SORTED} one.
+ *
+ * As in MongoDBCollection, the _id field is not included in the results. It is not created if missing, but it must be
+ * unique when given. Results are returned in insertion order unless sorted.
+ *
+ * Thread-safe: queries run concurrently and modifications are serialized.
+ */
+public class InMemoryCollection implements DataCollection<ObjectMap> {
+
+    public enum IndexType {
+        /**
+         * Hash index, for equality queries.
+         */
+        HASH,
+        /**
+         * Skip-list index, for equality and range queries.
+         */
+        SORTED
+    }
+
+    public static final String INCLUDE = "include";
+    public static final String EXCLUDE = "exclude";
+    public static final String LIMIT = "limit";
+    public static final String SKIP = "skip";
+    public static final String SORT = "sort";
+    public static final String SKIP_COUNT = "skipCount";
+
+    public static final String UPSERT = "upsert";
+    public static final String MULTI = "multi";
+
+    private final String name;
+    private final Executor executor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LinkedHashMap<Long, ObjectMap> documents = new LinkedHashMap<>();
+    private final Map<Object, Long> ids = new HashMap<>();
+    private final Map<String, InMemoryIndex> indexes = new ConcurrentHashMap<>();
+    private long nextSeq;
+
+    private volatile QueryResultWriter<ObjectMap> queryResultWriter;
+
+    InMemoryCollection(String name, Executor executor) {
+        this.name = Objects.requireNonNull(name);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Indexes the values of a field, which may be a dotted path. Creating an index that already exists does nothing,
+     * creating one of another type replaces it.
+     */
+    public void createIndex(String field, IndexType type) {
+        lock.writeLock().lock();
+        try {
+            InMemoryIndex index = indexes.get(field);
+            if (index != null && index.getType() == type) {
+                return;
+            }
+            index = new InMemoryIndex(field, type);
+            for (Map.Entry<Long, ObjectMap> entry : documents.entrySet()) {
+                index.add(entry.getKey(), entry.getValue());
+            }
+            indexes.put(field, index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void dropIndex(String field) {
+        lock.writeLock().lock();
+        try {
+            indexes.remove(field);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the indexed fields and the type of their indexes
+     */
+    public Map<String, IndexType> getIndexes() {
+        Map<String, IndexType> types = new TreeMap<>();
+        for (InMemoryIndex index : indexes.values()) {
+            types.put(index.getField(), index.getType());
+        }
+        return types;
+    }
+
+    @Override
+    public QueryResult<ObjectMap> find(Query query, QueryOptions options) {
+        return find(query, null, options);
+    }
+
+    /**
+     * Finds the documents matching the query and converts them with the given converter, or sends them to the
+     * QueryResultWriter if one is set.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> QueryResult<T> find(Map<String, Object> query, ComplexTypeConverter<T, ObjectMap> converter,
+                                   QueryOptions options) {
+        QueryTimings timings = QueryTimings.start();
+        options = options == null ? new QueryOptions() : options;
+        int skip = Math.max(options.getInt(SKIP, 0), 0);
+        int limit = options.getInt(LIMIT, 0);
+        Object sort = options.get(SORT);
+
+        // Without sorting nor counting, the scan can stop as soon as the requested page is found
+        int max = limit > 0 && sort == null && options.getBoolean(SKIP_COUNT) ? skip + limit : Integer.MAX_VALUE;
+        List<ObjectMap> matches = select(query, max);
+        int numMatches = matches.size();
+        if (sort != null) {
+            matches.sort(comparator(sort));
+        }
+        int from = Math.min(skip, numMatches);
+        int to = limit > 0 ? Math.min(from + limit, numMatches) : numMatches;
+        matches = matches.subList(from, to);
+        timings.setFetchNanos(timings.elapsedNanos());
+
+        Projection projection = new Projection(options);
+        List<T> list = new ArrayList<>(matches.size());
+        QueryResultWriter<ObjectMap> writer = queryResultWriter;
+        long readStart = System.nanoTime();
+        if (writer != null) {
+            try {
+                for (ObjectMap document : matches) {
+                    writer.write(projection.apply(document));
+                }
+            } catch (IOException e) {
+                QueryResult<T> queryResult = endQuery(Collections.<T>emptyList(), 0, timings);
+                queryResult.setErrorMsg(e.getMessage() + " " + Arrays.toString(e.getStackTrace()));
+                return queryResult;
+            } finally {
+                timings.setWriterNanos(System.nanoTime() - readStart);
+            }
+            return endQuery(list, 0, timings);
+        }
+        for (ObjectMap document : matches) {
+            ObjectMap projected = projection.apply(document);
+            list.add(converter != null ? converter.convertToDataModelType(projected) : (T) projected);
+        }
+        timings.setConversionNanos(System.nanoTime() - readStart);
+
+        if (limit > 0) {
+            return endQuery(list, options.getBoolean(SKIP_COUNT) ? -1 : numMatches, timings);
+        }
+        return endQuery(list, list.size(), timings);
+    }
+
+    @Override
+    public QueryResult<Long> count(Query query) {
+        return count((Map<String, Object>) query);
+    }
+
+    public QueryResult<Long> count(Map<String, Object> query) {
+        QueryTimings timings = QueryTimings.start();
+        long count = select(query, Integer.MAX_VALUE).size();
+        timings.setCountNanos(timings.elapsedNanos());
+        return endQuery(Collections.singletonList(count), 1, timings);
+    }
+
+    /**
+     * Like MongoDB, the elements of list values are returned as distinct values.
+     */
+    @Override
+    public QueryResult<Object> distinct(String field, Query query) {
+        return distinct(field, (Map<String, Object>) query);
+    }
+
+    public QueryResult<Object> distinct(String field, Map<String, Object> query) {
+        QueryTimings timings = QueryTimings.start();
+        Set<Object> scalars = new HashSet<>();
+        List<Object> values = new ArrayList<>();
+        for (ObjectMap document : select(query, Integer.MAX_VALUE)) {
+            for (Object value : DocumentMatcher.resolve(document, field)) {
+                if (Values.rank(value) == Values.LIST_RANK) {
+                    for (Object element : Values.asList(value)) {
+                        addDistinct(element, scalars, values);
+                    }
+                } else {
+                    addDistinct(value, scalars, values);
+                }
+            }
+        }
+        timings.setFetchNanos(timings.elapsedNanos());
+        return endQuery(values, values.size(), timings);
+    }
+
+    /**
+     * Inserts copies of the documents. If the _id of any of them is already used none is inserted.
+     *
+     * @return a QueryResult with the number of documents inserted as its only result
+     * @throws IllegalArgumentException if the _id of a document is already used
+     */
+    @Override
+    public QueryResult<Long> insert(List<ObjectMap> elements, QueryOptions options) {
+        QueryTimings timings = QueryTimings.start();
+        List<ObjectMap> frozen = new ArrayList<>(elements.size());
+        for (ObjectMap element : elements) {
+            frozen.add((ObjectMap) Values.freeze(element));
+        }
+        lock.writeLock().lock();
+        try {
+            Set<Object> newIds = new HashSet<>();
+            for (ObjectMap document : frozen) {
+                Object id = idKey(document);
+                if (id != null && (ids.containsKey(id) || !newIds.add(id))) {
+                    throw new IllegalArgumentException("Duplicate _id " + document.get("_id") + " in " + name);
+                }
+            }
+            for (ObjectMap document : frozen) {
+                add(nextSeq++, document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return endQuery(Collections.singletonList((long) frozen.size()), 1, timings);
+    }
+
+    public QueryResult<Long> insert(ObjectMap document, QueryOptions options) {
+        return insert(Collections.singletonList(document), options);
+    }
+
+    /**
+     * Updates the first document matching the query, or all of them with the {@link #MULTI} option. With the
+     * {@link #UPSERT} option, a document is inserted if none matches.
+     *
+     * @param update a replacement document or a document of update operators
+     * @return a QueryResult with the number of documents updated or inserted as its only result
+     */
+    public QueryResult<Long> update(Map<String, Object> query, Map<String, Object> update, QueryOptions options) {
+        QueryTimings timings = QueryTimings.start();
+        boolean multi = options != null && options.getBoolean(MULTI);
+        boolean upsert = options != null && options.getBoolean(UPSERT);
+        long updated = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, ObjectMap> entry : scan(query, multi ? Integer.MAX_VALUE : 1)) {
+                ObjectMap document = DocumentUpdater.apply(entry.getValue(), update);
+                Object id = idKey(document);
+                Long owner = id == null ? null : ids.get(id);
+                if (owner != null && owner != entry.getKey().longValue()) {
+                    throw new IllegalArgumentException("Duplicate _id " + document.get("_id") + " in " + name);
+                }
+                // Replaced in place, so the document keeps its position in insertion order
+                unindex(entry.getKey(), entry.getValue());
+                documents.put(entry.getKey(), document);
+                index(entry.getKey(), document);
+                updated++;
+            }
+            if (updated == 0 && upsert) {
+                ObjectMap document = DocumentUpdater.upsert(query, update);
+                Object id = idKey(document);
+                if (id != null && ids.containsKey(id)) {
+                    throw new IllegalArgumentException("Duplicate _id " + document.get("_id") + " in " + name);
+                }
+                add(nextSeq++, document);
+                updated++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return endQuery(Collections.singletonList(updated), 1, timings);
+    }
+
+    /**
+     * Removes all the documents matching the query.
+     *
+     * @return a QueryResult with the number of documents removed as its only result
+     */
+    public QueryResult<Long> remove(Map<String, Object> query, QueryOptions options) {
+        QueryTimings timings = QueryTimings.start();
+        long removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, ObjectMap> entry : scan(query, Integer.MAX_VALUE)) {
+                remove(entry.getKey(), entry.getValue());
+                removed++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return endQuery(Collections.singletonList(removed), 1, timings);
+    }
+
+    public void setQueryResultWriter(QueryResultWriter<ObjectMap> queryResultWriter) {
+        this.queryResultWriter = queryResultWriter;
+    }
+
+    public QueryResultWriter<ObjectMap> getQueryResultWriter() {
+        return queryResultWriter;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of documents in the collection
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            documents.clear();
+            ids.clear();
+            for (InMemoryIndex index : indexes.values()) {
+                indexes.put(index.getField(), new InMemoryIndex(index.getField(), index.getType()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<ObjectMap> select(Map<String, Object> query, int max) {
+        lock.readLock().lock();
+        try {
+            List<ObjectMap> matches = new ArrayList<>();
+            for (Map.Entry<Long, ObjectMap> entry : scan(query, max)) {
+                matches.add(entry.getValue());
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the documents matching the query, in insertion order, looking them up in the most selective index if
+     * any can be used. Must be called holding the lock.
+     */
+    private List<Map.Entry<Long, ObjectMap>> scan(Map<String, Object> query, int max) {
+        Map<String, Object> q = query == null ? Collections.<String, Object>emptyMap() : query;
+        List<Map.Entry<Long, ObjectMap>> matches = new ArrayList<>();
+        long[] candidates = candidates(q);
+        if (candidates == null) {
+            for (Map.Entry<Long, ObjectMap> entry : documents.entrySet()) {
+                if (matches.size() >= max) {
+                    break;
+                }
+                if (DocumentMatcher.matches(entry.getValue(), q)) {
+                    matches.add(entry);
+                }
+            }
+        } else {
+            for (long seq : candidates) {
+                if (matches.size() >= max) {
+                    break;
+                }
+                ObjectMap document = documents.get(seq);
+                if (DocumentMatcher.matches(document, q)) {
+                    matches.add(new AbstractMap.SimpleImmutableEntry<>(seq, document));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return the sorted sequence numbers of the documents found in the most selective usable index, or null if no
+     * index can be used
+     */
+    private long[] candidates(Map<String, Object> query) {
+        Collection<Set<Long>> best = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            InMemoryIndex index = indexes.get(entry.getKey());
+            if (index == null) {
+                continue;
+            }
+            Collection<Set<Long>> found = lookup(index, entry.getValue());
+            if (found == null) {
+                continue;
+            }
+            int size = size(found);
+            if (size < bestSize) {
+                best = found;
+                bestSize = size;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        long[] seqs = new long[bestSize];
+        int i = 0;
+        for (Set<Long> set : best) {
+            for (Long seq : set) {
+                seqs[i++] = seq;
+            }
+        }
+        // Restore insertion order and drop the documents found under several values
+        Arrays.sort(seqs);
+        int n = 0;
+        for (int j = 0; j < seqs.length; j++) {
+            if (n == 0 || seqs[j] != seqs[n - 1]) {
+                seqs[n++] = seqs[j];
+            }
+        }
+        return Arrays.copyOf(seqs, n);
+    }
+
+    /**
+     * @return the documents which may match the condition according to the index, or null if it can not be used
+     */
+    private static Collection<Set<Long>> lookup(InMemoryIndex index, Object condition) {
+        if (!DocumentMatcher.isOperatorMap(condition)) {
+            return isIndexable(condition) ? Collections.singletonList(index.find(condition)) : null;
+        }
+        Map<?, ?> operators = (Map<?, ?>) condition;
+        if (operators.containsKey("$eq")) {
+            Object operand = operators.get("$eq");
+            return isIndexable(operand) ? Collections.singletonList(index.find(operand)) : null;
+        }
+        if (operators.containsKey("$in")) {
+            List<Set<Long>> found = new ArrayList<>();
+            for (Object operand : Values.asList(operators.get("$in"))) {
+                if (!isIndexable(operand)) {
+                    return null;
+                }
+                found.add(index.find(operand));
+            }
+            return found;
+        }
+        if (index.getType() != IndexType.SORTED) {
+            return null;
+        }
+        Object lower = operators.containsKey("$gt") ? operators.get("$gt") : operators.get("$gte");
+        Object upper = operators.containsKey("$lt") ? operators.get("$lt") : operators.get("$lte");
+        if (lower == null && upper == null
+                || lower != null && !isIndexable(lower) || upper != null && !isIndexable(upper)) {
+            return null;
+        }
+        if (lower != null && upper != null) {
+            // Each bound may be satisfied by a different element of a list, so the documents are looked up by the
+            // most selective bound alone and the other one is checked by the matcher
+            Collection<Set<Long>> above = index.findRange(lower, !operators.containsKey("$gt"), null, false);
+            Collection<Set<Long>> below = index.findRange(null, false, upper, !operators.containsKey("$lt"));
+            return size(above) <= size(below) ? above : below;
+        }
+        return index.findRange(lower, !operators.containsKey("$gt"), upper, !operators.containsKey("$lt"));
+    }
+
+    private static int size(Collection<Set<Long>> found) {
+        int size = 0;
+        for (Set<Long> seqs : found) {
+            size += seqs.size();
+        }
+        return size;
+    }
+
+    private static boolean isIndexable(Object value) {
+        return Values.isScalar(value) && !(value instanceof java.util.regex.Pattern);
+    }
+
+    private void add(long seq, ObjectMap document) {
+        documents.put(seq, document);
+        index(seq, document);
+    }
+
+    private void remove(long seq, ObjectMap document) {
+        documents.remove(seq);
+        unindex(seq, document);
+    }
+
+    /**
+     * Adds the document to the _id map and the indexes.
+     */
+    private void index(long seq, ObjectMap document) {
+        Object id = idKey(document);
+        if (id != null) {
+            ids.put(id, seq);
+        }
+        for (InMemoryIndex index : indexes.values()) {
+            index.add(seq, document);
+        }
+    }
+
+    private void unindex(long seq, ObjectMap document) {
+        Object id = idKey(document);
+        if (id != null) {
+            ids.remove(id);
+        }
+        for (InMemoryIndex index : indexes.values()) {
+            index.remove(seq, document);
+        }
+    }
+
+    /**
+     * @return the key of the _id in the unique id map, or null if the document has no scalar _id
+     */
+    private static Object idKey(Map<String, Object> document) {
+        Object id = document.get("_id");
+        return Values.isScalar(id) ? Values.hashKey(id) : null;
+    }
+
+    private static void addDistinct(Object value, Set<Object> scalars, List<Object> values) {
+        if (Values.isScalar(value)) {
+            if (scalars.add(Values.hashKey(value))) {
+                values.add(value);
+            }
+            return;
+        }
+        for (Object v : values) {
+            if (Values.equal(v, value)) {
+                return;
+            }
+        }
+        values.add(value);
+    }
+
+    /**
+     * Sorts by a single field given as a String or by several ones given as a map of the fields to 1 or -1, like the
+     * sort documents of MongoDB. Missing fields are sorted as null and lists by their smallest element.
+     */
+    private static Comparator<ObjectMap> comparator(Object sort) {
+        Map<?, ?> fields = sort instanceof Map ? (Map<?, ?>) sort : Collections.singletonMap(sort.toString(), 1);
+        Comparator<ObjectMap> comparator = (a, b) -> 0;
+        for (Map.Entry<?, ?> field : fields.entrySet()) {
+            String path = field.getKey().toString();
+            boolean descending = field.getValue() instanceof Number && ((Number) field.getValue()).intValue() < 0;
+            Comparator<ObjectMap> byField = Comparator.comparing(document -> sortKey(document, path, descending),
+                    Values.COMPARATOR);
+            comparator = comparator.thenComparing(descending ? byField.reversed() : byField);
+        }
+        return comparator;
+    }
+
+    private static Object sortKey(ObjectMap document, String path, boolean descending) {
+        Object key = null;
+        boolean first = true;
+        for (Object value : DocumentMatcher.resolve(document, path)) {
+            List<?> elements = Values.rank(value) == Values.LIST_RANK
+                    ? Values.asList(value) : Collections.singletonList(value);
+            for (Object element : elements) {
+                int comparison = first ? 0 : Values.compare(element, key);
+                if (first || (descending ? comparison > 0 : comparison < 0)) {
+                    key = element;
+                    first = false;
+                }
+            }
+        }
+        return key;
+    }
+
+    private <T> QueryResult<T> endQuery(List<T> result, long numTotalResults, QueryTimings timings) {
+        long totalNanos = timings.stop();
+        QueryResult<T> queryResult = new QueryResult<>(name, (int) TimeUnit.NANOSECONDS.toMillis(totalNanos),
+                result.size(), numTotalResults, null, null, result);
+        queryResult.setTimings(timings);
+        return queryResult;
+    }
+
+    /**
+     * The include or exclude option of a query. The _id is always excluded.
+     */
+    private static final class Projection {
+
+        private final List<String> include;
+        private final List<String> exclude;
+
+        Projection(QueryOptions options) {
+            List<String> include = options.getAsStringList(INCLUDE, ",");
+            List<String> exclude = options.getAsStringList(EXCLUDE, ",");
+            this.include = include == null || include.isEmpty() ? null : include;
+            this.exclude = this.include != null || exclude == null || exclude.isEmpty() ? null : exclude;
+        }
+
+        ObjectMap apply(ObjectMap document) {
+            if (include != null) {
+                ObjectMap projected = new ObjectMap();
+                for (String path : include) {
+                    if (!path.equals("_id")) {
+                        copy(document, projected, path);
+                    }
+                }
+                return projected;
+            }
+            // The stored document is frozen, deriving it gives the caller a modifiable view without copying it
+            ObjectMap projected = document.derive();
+            projected.remove("_id");
+            if (exclude != null) {
+                for (String path : exclude) {
+                    remove(projected, path);
+                }
+            }
+            return projected;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void copy(Map<String, Object> from, Map<String, Object> to, String path) {
+            int dot = path.indexOf('.');
+            if (dot < 0) {
+                if (from.containsKey(path)) {
+                    to.put(path, from.get(path));
+                }
+                return;
+            }
+            String key = path.substring(0, dot);
+            Object child = from.get(key);
+            if (child instanceof Map) {
+                Object target = to.get(key);
+                if (!(target instanceof ObjectMap) || target == child) {
+                    target = new ObjectMap();
+                    to.put(key, target);
+                }
+                copy((Map<String, Object>) child, (ObjectMap) target, path.substring(dot + 1));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void remove(Map<String, Object> document, String path) {
+            int dot = path.indexOf('.');
+            if (dot < 0) {
+                document.remove(path);
+                return;
+            }
+            String key = path.substring(0, dot);
+            Object child = document.get(key);
+            if (child instanceof Map) {
+                ObjectMap copy = new ObjectMap((Map<String, Object>) child);
+                remove(copy, path.substring(dot + 1));
+                document.put(key, copy);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import org.opencb.datastore.core.DataStoreExecutors;
+import org.opencb.datastore.core.ObjectMap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Datastore whose collections are kept in the heap, see {@link InMemoryCollection}. Collections are created the first
+ * time they are requested and live until they are dropped or the datastore is discarded.
+ */
+public class InMemoryDataStore implements AutoCloseable {
+
+    private final String name;
+    private final Map<String, InMemoryCollection> collections = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public InMemoryDataStore(String name) {
+        this(name, new ObjectMap());
+    }
+
+    /**
+     * @param configuration sizes the executor of the asynchronous queries, see {@link DataStoreExecutors}
+     */
+    public InMemoryDataStore(String name, ObjectMap configuration) {
+        this.name = Objects.requireNonNull(name);
+        this.executor = DataStoreExecutors.newExecutor(name, configuration);
+    }
+
+    public InMemoryCollection getCollection(String collectionName) {
+        return collections.computeIfAbsent(collectionName, n -> new InMemoryCollection(n, executor));
+    }
+
+    /**
+     * Removes all the documents of the collection and the collection itself. Instances already returned by
+     * {@link #getCollection} are emptied too.
+     */
+    public void dropCollection(String collectionName) {
+        InMemoryCollection collection = collections.remove(collectionName);
+        if (collection != null) {
+            collection.clear();
+        }
+    }
+
+    public List<String> getCollectionNames() {
+        List<String> names = new ArrayList<>(collections.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Shuts down the executor of the asynchronous queries. The documents are kept.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary index of a field: maps its values to the sequence numbers of the documents having them. Like MongoDB
+ * multikey indexes, every element of a list value is indexed. Only scalar values are indexed, so documents where the
+ * field is missing, null, a document or empty are not found through the index.
+ *
+ * Not thread-safe, {@link InMemoryCollection} guards it with its lock.
+ */
+final class InMemoryIndex {
+
+    private final String field;
+    private final InMemoryCollection.IndexType type;
+    private final Map<Object, Set<Long>> entries;
+
+    InMemoryIndex(String field, InMemoryCollection.IndexType type) {
+        this.field = field;
+        this.type = type;
+        this.entries = type == InMemoryCollection.IndexType.SORTED
+                ? new ConcurrentSkipListMap<>(Values.COMPARATOR)
+                : new HashMap<>();
+    }
+
+    void add(long seq, Map<String, Object> document) {
+        for (Object key : keys(document)) {
+            entries.computeIfAbsent(key, k -> new HashSet<>(2)).add(seq);
+        }
+    }
+
+    void remove(long seq, Map<String, Object> document) {
+        for (Object key : keys(document)) {
+            Set<Long> seqs = entries.get(key);
+            if (seqs != null) {
+                seqs.remove(seq);
+                if (seqs.isEmpty()) {
+                    entries.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the documents whose value, or any element of it, is equal to the given scalar
+     */
+    Set<Long> find(Object value) {
+        Set<Long> seqs = entries.get(Values.hashKey(value));
+        return seqs == null ? Collections.<Long>emptySet() : seqs;
+    }
+
+    /**
+     * Looks up a range in a sorted index. Missing bounds are replaced by the limits of the type of the other one.
+     *
+     * @return the sets of documents of every value in the range
+     */
+    Collection<Set<Long>> findRange(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        if (type != InMemoryCollection.IndexType.SORTED) {
+            throw new IllegalStateException("Ranges can only be looked up in sorted indexes");
+        }
+        Object from = lower != null ? Values.hashKey(lower) : new Values.Bound(Values.rank(upper), false);
+        Object to = upper != null ? Values.hashKey(upper) : new Values.Bound(Values.rank(lower), true);
+        if (Values.compare(from, to) > 0) {
+            return Collections.emptyList();
+        }
+        return ((NavigableMap<Object, Set<Long>>) entries).subMap(from, lowerInclusive || lower == null, to,
+                upperInclusive || upper == null).values();
+    }
+
+    private List<Object> keys(Map<String, Object> document) {
+        List<Object> keys = new ArrayList<>(1);
+        for (Object value : DocumentMatcher.resolve(document, field)) {
+            if (Values.rank(value) == Values.LIST_RANK) {
+                for (Object element : Values.asList(value)) {
+                    addKey(keys, element);
+                }
+            } else {
+                addKey(keys, value);
+            }
+        }
+        return keys;
+    }
+
+    private static void addKey(List<Object> keys, Object value) {
+        if (Values.isScalar(value)) {
+            keys.add(Values.hashKey(value));
+        }
+    }
+
+    String getField() {
+        return field;
+    }
+
+    InMemoryCollection.IndexType getType() {
+        return type;
+    }
+
+}
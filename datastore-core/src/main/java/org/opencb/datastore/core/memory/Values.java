@@ -0,0 +1,269 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import org.opencb.datastore.core.ObjectMap;
+
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * Comparison of document values following MongoDB: numbers of any type are compared by value, and values of different
+ * types are ordered by type, null first, then numbers, strings, documents, lists, booleans and dates.
+ */
+final class Values {
+
+    static final int NULL_RANK = 0;
+    static final int NUMBER_RANK = 1;
+    static final int STRING_RANK = 2;
+    static final int MAP_RANK = 3;
+    static final int LIST_RANK = 4;
+    static final int BOOLEAN_RANK = 5;
+    static final int DATE_RANK = 6;
+    static final int OTHER_RANK = 7;
+
+    /**
+     * Orders any two values, including the {@link Bound}s used to delimit the values of a type in sorted indexes.
+     */
+    static final Comparator<Object> COMPARATOR = Values::compare;
+
+    /**
+     * Lower or upper limit of the values of a type, so a range can be restricted to the type of its bound.
+     */
+    static final class Bound {
+        private final int rank;
+        private final boolean upper;
+
+        Bound(int rank, boolean upper) {
+            this.rank = rank;
+            this.upper = upper;
+        }
+    }
+
+    private Values() {
+    }
+
+    static int rank(Object value) {
+        if (value == null) {
+            return NULL_RANK;
+        } else if (value instanceof Number) {
+            return NUMBER_RANK;
+        } else if (value instanceof String) {
+            return STRING_RANK;
+        } else if (value instanceof Map) {
+            return MAP_RANK;
+        } else if (value instanceof Collection || value.getClass().isArray()) {
+            return LIST_RANK;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN_RANK;
+        } else if (value instanceof Date) {
+            return DATE_RANK;
+        } else if (value instanceof Bound) {
+            return ((Bound) value).rank;
+        }
+        return OTHER_RANK;
+    }
+
+    static int compare(Object a, Object b) {
+        if (a instanceof Bound || b instanceof Bound) {
+            return compareBounds(a, b);
+        }
+        int rankA = rank(a);
+        int rankB = rank(b);
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+        switch (rankA) {
+            case NULL_RANK:
+                return 0;
+            case NUMBER_RANK:
+                return compareNumbers((Number) a, (Number) b);
+            case STRING_RANK:
+                return ((String) a).compareTo((String) b);
+            case MAP_RANK:
+                return compareMaps((Map<?, ?>) a, (Map<?, ?>) b);
+            case LIST_RANK:
+                return compareLists(asList(a), asList(b));
+            case BOOLEAN_RANK:
+                return Boolean.compare((Boolean) a, (Boolean) b);
+            case DATE_RANK:
+                return ((Date) a).compareTo((Date) b);
+            default:
+                return a.toString().compareTo(b.toString());
+        }
+    }
+
+    /**
+     * Same as {@code compare(a, b) == 0}, without ordering maps.
+     */
+    static boolean equal(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return compareNumbers((Number) a, (Number) b) == 0;
+        }
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> mapA = (Map<?, ?>) a;
+            Map<?, ?> mapB = (Map<?, ?>) b;
+            if (mapA.size() != mapB.size()) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : mapA.entrySet()) {
+                if (!mapB.containsKey(entry.getKey()) || !equal(entry.getValue(), mapB.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (rank(a) == LIST_RANK && rank(b) == LIST_RANK) {
+            List<?> listA = asList(a);
+            List<?> listB = asList(b);
+            if (listA.size() != listB.size()) {
+                return false;
+            }
+            for (int i = 0; i < listA.size(); i++) {
+                if (!equal(listA.get(i), listB.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a != null && a.equals(b);
+    }
+
+    /**
+     * Returns a key for hash indexes, equal for values that are {@link #equal}: integral numbers are Longs and other
+     * numbers Doubles. Only scalar values can be hashed, null is returned for documents and lists.
+     */
+    static Object hashKey(Object value) {
+        if (value instanceof Number) {
+            if (isIntegral(value)) {
+                return ((Number) value).longValue();
+            }
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 0x1p63) {
+                return (long) d;
+            }
+            return d;
+        }
+        return rank(value) == MAP_RANK || rank(value) == LIST_RANK ? null : value;
+    }
+
+    static boolean isScalar(Object value) {
+        int rank = rank(value);
+        return rank != NULL_RANK && rank != MAP_RANK && rank != LIST_RANK;
+    }
+
+    /**
+     * Views lists, sets and arrays, including the primitive arrays created by {@code Query.validate}, as lists.
+     */
+    static List<?> asList(Object value) {
+        if (value instanceof List) {
+            return (List<?>) value;
+        } else if (value instanceof Collection) {
+            return new ArrayList<>((Collection<?>) value);
+        } else if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        } else if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<Object> list = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                list.add(Array.get(value, i));
+            }
+            return list;
+        }
+        return Collections.singletonList(value);
+    }
+
+    /**
+     * Copies a value so it can be stored: maps become frozen ObjectMaps and lists unmodifiable lists, recursively.
+     * Frozen ObjectMaps are already immutable and are kept.
+     */
+    static Object freeze(Object value) {
+        if (value instanceof ObjectMap && ((ObjectMap) value).isFrozen()) {
+            return value;
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            ObjectMap frozen = new ObjectMap(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                frozen.put(String.valueOf(entry.getKey()), freeze(entry.getValue()));
+            }
+            return frozen.freeze();
+        } else if (value instanceof Collection) {
+            List<Object> list = new ArrayList<>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                list.add(freeze(element));
+            }
+            return Collections.unmodifiableList(list);
+        }
+        return value;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    private static int compareMaps(Map<?, ?> a, Map<?, ?> b) {
+        Iterator<? extends Map.Entry<?, ?>> iteratorA = a.entrySet().iterator();
+        Iterator<? extends Map.Entry<?, ?>> iteratorB = b.entrySet().iterator();
+        while (iteratorA.hasNext() && iteratorB.hasNext()) {
+            Map.Entry<?, ?> entryA = iteratorA.next();
+            Map.Entry<?, ?> entryB = iteratorB.next();
+            int c = String.valueOf(entryA.getKey()).compareTo(String.valueOf(entryB.getKey()));
+            if (c == 0) {
+                c = compare(entryA.getValue(), entryB.getValue());
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Boolean.compare(iteratorA.hasNext(), iteratorB.hasNext());
+    }
+
+    private static int compareLists(List<?> a, List<?> b) {
+        for (int i = 0; i < a.size() && i < b.size(); i++) {
+            int c = compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    private static int compareBounds(Object a, Object b) {
+        int c = Integer.compare(rank(a), rank(b));
+        if (c != 0) {
+            return c;
+        }
+        if (a instanceof Bound && b instanceof Bound) {
+            return Boolean.compare(((Bound) a).upper, ((Bound) b).upper);
+        }
+        if (a instanceof Bound) {
+            return ((Bound) a).upper ? 1 : -1;
+        }
+        return ((Bound) b).upper ? -1 : 1;
+    }
+
+}
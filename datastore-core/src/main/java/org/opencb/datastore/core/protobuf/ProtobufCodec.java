@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Protocol buffers encoding of {@link QueryResult}, {@link QueryResponse}, {@link ObjectMap} and {@link QueryOptions},
+ * following the messages declared in {@code src/main/proto/datastore.proto}.
+ *
+ * Results and map values are encoded with a generic Value message: strings, numbers, booleans, byte arrays, nested
+ * maps and lists, and the primitive arrays created by {@code Query.validate}. Values of any other type, like beans,
+ * are embedded as JSON. When decoded, nested maps are {@link java.util.LinkedHashMap} and lists are
+ * {@link java.util.ArrayList}.
+ *
+ * The results of a QueryResult can also be written one by one, see {@link ProtobufQueryResultWriter}.
+ *
+ * Streams are neither closed nor wrapped in a buffer, that is left to the caller.
+ */
+public final class ProtobufCodec {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ProtobufCodec() {
+    }
+
+    public static void write(QueryResult<?> queryResult, OutputStream outputStream) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(outputStream, BUFFER_SIZE);
+        new ProtobufEncoder().writeQueryResult(queryResult, true, out);
+        out.flush();
+    }
+
+    public static void write(QueryResponse<?> queryResponse, OutputStream outputStream) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(outputStream, BUFFER_SIZE);
+        new ProtobufEncoder().writeQueryResponse(queryResponse, out);
+        out.flush();
+    }
+
+    /**
+     * Writes an ObjectMap, or a QueryOptions, as a MapValue message.
+     */
+    public static void write(ObjectMap objectMap, OutputStream outputStream) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(outputStream, BUFFER_SIZE);
+        new ProtobufEncoder().writeMap(objectMap, out);
+        out.flush();
+    }
+
+    /**
+     * Writes every field of the QueryResult except the results. Appended to results written by a
+     * {@link ProtobufQueryResultWriter}, it makes a complete QueryResult message.
+     */
+    public static void writeWithoutResults(QueryResult<?> queryResult, OutputStream outputStream) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(outputStream, BUFFER_SIZE);
+        new ProtobufEncoder().writeQueryResult(queryResult, false, out);
+        out.flush();
+    }
+
+    public static byte[] encode(QueryResult<?> queryResult) {
+        try {
+            return new ProtobufEncoder().encodeQueryResult(queryResult);
+        } catch (IOException e) {
+            // Never thrown when writing to an array of the measured size
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] encode(QueryResponse<?> queryResponse) {
+        try {
+            return new ProtobufEncoder().encodeQueryResponse(queryResponse);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a QueryResult until the end of the stream.
+     */
+    public static QueryResult<Object> readQueryResult(InputStream inputStream) throws IOException {
+        return ProtobufDecoder.readQueryResult(input(inputStream));
+    }
+
+    public static QueryResult<Object> decodeQueryResult(byte[] bytes) throws IOException {
+        return ProtobufDecoder.readQueryResult(CodedInputStream.newInstance(bytes));
+    }
+
+    /**
+     * Reads a QueryResponse until the end of the stream.
+     */
+    public static QueryResponse<QueryResult<Object>> readQueryResponse(InputStream inputStream) throws IOException {
+        return ProtobufDecoder.readQueryResponse(input(inputStream));
+    }
+
+    public static QueryResponse<QueryResult<Object>> decodeQueryResponse(byte[] bytes) throws IOException {
+        return ProtobufDecoder.readQueryResponse(CodedInputStream.newInstance(bytes));
+    }
+
+    public static ObjectMap readObjectMap(InputStream inputStream) throws IOException {
+        return ProtobufDecoder.readMap(input(inputStream), new ObjectMap());
+    }
+
+    public static QueryOptions readQueryOptions(InputStream inputStream) throws IOException {
+        return ProtobufDecoder.readMap(input(inputStream), new QueryOptions());
+    }
+
+    private static CodedInputStream input(InputStream inputStream) {
+        CodedInputStream in = CodedInputStream.newInstance(inputStream);
+        // The default limit of 64MB is meant for untrusted input, query results can be bigger
+        in.setSizeLimit(Integer.MAX_VALUE);
+        return in;
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import org.opencb.datastore.core.JsonCodec;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.opencb.datastore.core.protobuf.WireFields.*;
+
+/**
+ * Decodes the messages written by {@link ProtobufEncoder}. Nested maps are read as {@link LinkedHashMap}, lists as
+ * {@link ArrayList} and packed arrays as primitive arrays. Unknown fields are skipped.
+ */
+final class ProtobufDecoder {
+
+    private ProtobufDecoder() {
+    }
+
+    static QueryResponse<QueryResult<Object>> readQueryResponse(CodedInputStream in) throws IOException {
+        QueryResponse<QueryResult<Object>> queryResponse = new QueryResponse<>(null, new ArrayList<>());
+        queryResponse.setApiVersion(null);
+        queryResponse.setWarning(null);
+        queryResponse.setError(null);
+        queryResponse.setTime(0);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case RESPONSE_TIME_TAG:
+                    queryResponse.setTime(in.readSInt32());
+                    break;
+                case RESPONSE_API_VERSION_TAG:
+                    queryResponse.setApiVersion(in.readString());
+                    break;
+                case RESPONSE_WARNING_TAG:
+                    queryResponse.setWarning(in.readString());
+                    break;
+                case RESPONSE_ERROR_TAG:
+                    queryResponse.setError(in.readString());
+                    break;
+                case RESPONSE_QUERY_OPTIONS_TAG: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    QueryOptions queryOptions = queryResponse.getQueryOptions();
+                    if (queryOptions == null) {
+                        queryOptions = new QueryOptions();
+                        queryResponse.setQueryOptions(queryOptions);
+                    }
+                    readMap(in, queryOptions);
+                    in.popLimit(limit);
+                    break;
+                }
+                case RESPONSE_RESPONSE_TAG: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    queryResponse.getResponse().add(readQueryResult(in));
+                    in.popLimit(limit);
+                    break;
+                }
+                default:
+                    in.skipField(tag);
+                    break;
+            }
+        }
+        return queryResponse;
+    }
+
+    @SuppressWarnings("deprecation")
+    static QueryResult<Object> readQueryResult(CodedInputStream in) throws IOException {
+        QueryResult<Object> queryResult = new QueryResult<>(null, 0, 0, 0, null, null, new ArrayList<>());
+        queryResult.setResultType(null);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case RESULT_ID_TAG:
+                    queryResult.setId(in.readString());
+                    break;
+                case RESULT_DB_TIME_TAG:
+                    queryResult.setDbTime(in.readSInt32());
+                    break;
+                case RESULT_NUM_RESULTS_TAG:
+                    queryResult.setNumResults(in.readSInt32());
+                    break;
+                case RESULT_NUM_TOTAL_RESULTS_TAG:
+                    queryResult.setNumTotalResults(in.readSInt64());
+                    break;
+                case RESULT_WARNING_MSG_TAG:
+                    queryResult.setWarningMsg(in.readString());
+                    break;
+                case RESULT_ERROR_MSG_TAG:
+                    queryResult.setErrorMsg(in.readString());
+                    break;
+                case RESULT_RESULT_TYPE_TAG:
+                    queryResult.setResultType(in.readString());
+                    break;
+                case RESULT_RESULT_TAG: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    queryResult.getResult().add(readValue(in));
+                    in.popLimit(limit);
+                    break;
+                }
+                case RESULT_TIME_TAG:
+                    queryResult.setTime(in.readSInt32());
+                    break;
+                case RESULT_FEATURE_TYPE_TAG:
+                    queryResult.setFeatureType(in.readString());
+                    break;
+                case RESULT_TIMINGS_TAG: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    queryResult.setTimings(readTimings(in));
+                    in.popLimit(limit);
+                    break;
+                }
+                case RESULT_CONTINUATION_TOKEN_TAG:
+                    queryResult.setContinuationToken(in.readString());
+                    break;
+                default:
+                    in.skipField(tag);
+                    break;
+            }
+        }
+        return queryResult;
+    }
+
+    private static QueryTimings readTimings(CodedInputStream in) throws IOException {
+        QueryTimings timings = new QueryTimings();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case TIMINGS_DISPATCH_TAG:
+                    timings.setDispatchNanos(in.readSInt64());
+                    break;
+                case TIMINGS_FIRST_BATCH_TAG:
+                    timings.setFirstBatchNanos(in.readSInt64());
+                    break;
+                case TIMINGS_FETCH_TAG:
+                    timings.setFetchNanos(in.readSInt64());
+                    break;
+                case TIMINGS_CONVERSION_TAG:
+                    timings.setConversionNanos(in.readSInt64());
+                    break;
+                case TIMINGS_COUNT_TAG:
+                    timings.setCountNanos(in.readSInt64());
+                    break;
+                case TIMINGS_WRITER_TAG:
+                    timings.setWriterNanos(in.readSInt64());
+                    break;
+                case TIMINGS_TOTAL_TAG:
+                    timings.setTotalNanos(in.readSInt64());
+                    break;
+                default:
+                    in.skipField(tag);
+                    break;
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Reads the entries of a MapValue into the given map.
+     */
+    static <M extends Map<String, Object>> M readMap(CodedInputStream in, M map) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ITEMS_TAG) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readEntry(in, map);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return map;
+    }
+
+    private static void readEntry(CodedInputStream in, Map<String, Object> map) throws IOException {
+        String key = null;
+        Object value = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case ENTRY_KEY_TAG:
+                    key = in.readString();
+                    break;
+                case ENTRY_VALUE_TAG: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    value = readValue(in);
+                    in.popLimit(limit);
+                    break;
+                }
+                default:
+                    in.skipField(tag);
+                    break;
+            }
+        }
+        map.put(key, value);
+    }
+
+    private static List<Object> readList(CodedInputStream in) throws IOException {
+        List<Object> list = new ArrayList<>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ITEMS_TAG) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                list.add(readValue(in));
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return list;
+    }
+
+    private static Object readValue(CodedInputStream in) throws IOException {
+        Object value = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case STRING_VALUE_TAG:
+                    value = in.readString();
+                    break;
+                case INT32_VALUE_TAG:
+                    value = in.readSInt32();
+                    break;
+                case INT64_VALUE_TAG:
+                    value = in.readSInt64();
+                    break;
+                case DOUBLE_VALUE_TAG:
+                    value = in.readDouble();
+                    break;
+                case FLOAT_VALUE_TAG:
+                    value = in.readFloat();
+                    break;
+                case BOOL_VALUE_TAG:
+                    value = in.readBool();
+                    break;
+                case BYTES_VALUE_TAG:
+                    value = in.readByteArray();
+                    break;
+                case JSON_VALUE_TAG:
+                    value = JsonCodec.reader(Object.class).readValue(in.readByteArray());
+                    break;
+                case MAP_VALUE_TAG:
+                case LIST_VALUE_TAG:
+                case INT32_ARRAY_TAG:
+                case INT64_ARRAY_TAG:
+                case DOUBLE_ARRAY_TAG: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    value = readNestedValue(in, tag);
+                    in.popLimit(limit);
+                    break;
+                }
+                default:
+                    in.skipField(tag);
+                    break;
+            }
+        }
+        return value;
+    }
+
+    private static Object readNestedValue(CodedInputStream in, int tag) throws IOException {
+        switch (tag) {
+            case MAP_VALUE_TAG:
+                return readMap(in, new LinkedHashMap<>());
+            case LIST_VALUE_TAG:
+                return readList(in);
+            case INT32_ARRAY_TAG:
+                return readInt32Array(in);
+            case INT64_ARRAY_TAG:
+                return readInt64Array(in);
+            default:
+                return readDoubleArray(in);
+        }
+    }
+
+    /*
+     * Packed arrays, the unpacked encoding is accepted too as protobuf requires
+     */
+
+    private static int[] readInt32Array(CodedInputStream in) throws IOException {
+        int[] values = new int[16];
+        int size = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == PACKED_TAG) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                while (in.getBytesUntilLimit() > 0) {
+                    if (size == values.length) {
+                        values = Arrays.copyOf(values, 2 * size);
+                    }
+                    values[size++] = in.readSInt32();
+                }
+                in.popLimit(limit);
+            } else if (tag == UNPACKED_VARINT_TAG) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, 2 * size);
+                }
+                values[size++] = in.readSInt32();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    private static long[] readInt64Array(CodedInputStream in) throws IOException {
+        long[] values = new long[16];
+        int size = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == PACKED_TAG) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                while (in.getBytesUntilLimit() > 0) {
+                    if (size == values.length) {
+                        values = Arrays.copyOf(values, 2 * size);
+                    }
+                    values[size++] = in.readSInt64();
+                }
+                in.popLimit(limit);
+            } else if (tag == UNPACKED_VARINT_TAG) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, 2 * size);
+                }
+                values[size++] = in.readSInt64();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    private static double[] readDoubleArray(CodedInputStream in) throws IOException {
+        double[] values = new double[16];
+        int size = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == PACKED_TAG) {
+                int length = in.readRawVarint32();
+                int limit = in.pushLimit(length);
+                if (size + length / 8 > values.length) {
+                    values = Arrays.copyOf(values, Math.max(2 * values.length, size + length / 8));
+                }
+                while (in.getBytesUntilLimit() > 0) {
+                    values[size++] = in.readDouble();
+                }
+                in.popLimit(limit);
+            } else if (tag == UNPACKED_FIXED64_TAG) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, 2 * size);
+                }
+                values[size++] = in.readDouble();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+}
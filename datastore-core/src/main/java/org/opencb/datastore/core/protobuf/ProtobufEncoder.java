@@ -0,0 +1,543 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.protobuf;
+
+import com.google.protobuf.CodedOutputStream;
+import org.opencb.datastore.core.JsonCodec;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import static com.google.protobuf.CodedOutputStream.*;
+import static org.opencb.datastore.core.protobuf.WireFields.*;
+
+/**
+ * Encodes messages in two passes over the objects. The first one measures the size of every nested message, which
+ * protobuf writes before its content, and the UTF-8 bytes of every string. The second one writes them, taking the
+ * sizes and strings in the same order, so nothing is measured or encoded twice.
+ *
+ * Instances are not thread-safe, but can be reused for several messages.
+ */
+final class ProtobufEncoder {
+
+    private int[] sizes = new int[32];
+    private int sizeCount;
+    private int sizeCursor;
+
+    // UTF-8 bytes of the strings, one after the other, and their lengths
+    private byte[] stringBytes = new byte[1024];
+    private int stringBytesSize;
+    private int stringBytesCursor;
+    private int[] stringLengths = new int[32];
+    private int stringCount;
+    private int stringCursor;
+
+    /*
+     * Top level messages
+     */
+
+    void writeQueryResult(QueryResult<?> queryResult, boolean withResults, CodedOutputStream out) throws IOException {
+        reset();
+        measureQueryResult(queryResult, withResults);
+        writeQueryResultFields(queryResult, withResults, out);
+    }
+
+    void writeQueryResponse(QueryResponse<?> queryResponse, CodedOutputStream out) throws IOException {
+        reset();
+        measureQueryResponse(queryResponse);
+        writeQueryResponseFields(queryResponse, out);
+    }
+
+    /**
+     * Encodes into an array of the exact size, without the copies of a growing stream.
+     */
+    byte[] encodeQueryResult(QueryResult<?> queryResult) throws IOException {
+        reset();
+        byte[] bytes = new byte[measureQueryResult(queryResult, true)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeQueryResultFields(queryResult, true, out);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    byte[] encodeQueryResponse(QueryResponse<?> queryResponse) throws IOException {
+        reset();
+        byte[] bytes = new byte[measureQueryResponse(queryResponse)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeQueryResponseFields(queryResponse, out);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    void writeMap(Map<?, ?> map, CodedOutputStream out) throws IOException {
+        reset();
+        measureMap(map);
+        writeMapFields(map, out);
+    }
+
+    /**
+     * Writes a single element of the result list of a QueryResult.
+     */
+    void writeResult(Object result, CodedOutputStream out) throws IOException {
+        reset();
+        int slot = reserve();
+        int bodySize = measureValue(result);
+        sizes[slot] = bodySize;
+        writeNested(RESULT_RESULT, out);
+        writeValue(result, out);
+    }
+
+    /*
+     * Measuring pass
+     */
+
+    private int measureQueryResponse(QueryResponse<?> queryResponse) {
+        int size = computeSInt32Size(RESPONSE_TIME, queryResponse.getTime());
+        size += measureString(RESPONSE_API_VERSION, queryResponse.getApiVersion());
+        size += measureString(RESPONSE_WARNING, queryResponse.getWarning());
+        size += measureString(RESPONSE_ERROR, queryResponse.getError());
+        if (queryResponse.getQueryOptions() != null) {
+            int slot = reserve();
+            int bodySize = measureMap(queryResponse.getQueryOptions());
+            sizes[slot] = bodySize;
+            size += nestedSize(RESPONSE_QUERY_OPTIONS, bodySize);
+        }
+        if (queryResponse.getResponse() != null) {
+            for (Object queryResult : queryResponse.getResponse()) {
+                int slot = reserve();
+                int bodySize = measureQueryResult(asQueryResult(queryResult), true);
+                sizes[slot] = bodySize;
+                size += nestedSize(RESPONSE_RESPONSE, bodySize);
+            }
+        }
+        return size;
+    }
+
+    @SuppressWarnings("deprecation")
+    private int measureQueryResult(QueryResult<?> queryResult, boolean withResults) {
+        int size = measureString(RESULT_ID, queryResult.getId());
+        size += computeSInt32Size(RESULT_DB_TIME, queryResult.getDbTime());
+        size += computeSInt32Size(RESULT_NUM_RESULTS, queryResult.getNumResults());
+        size += computeSInt64Size(RESULT_NUM_TOTAL_RESULTS, queryResult.getNumTotalResults());
+        size += measureString(RESULT_WARNING_MSG, queryResult.getWarningMsg());
+        size += measureString(RESULT_ERROR_MSG, queryResult.getErrorMsg());
+        size += measureString(RESULT_RESULT_TYPE, queryResult.getResultType());
+        if (withResults && queryResult.getResult() != null) {
+            for (Object result : queryResult.getResult()) {
+                int slot = reserve();
+                int bodySize = measureValue(result);
+                sizes[slot] = bodySize;
+                size += nestedSize(RESULT_RESULT, bodySize);
+            }
+        }
+        size += computeSInt32Size(RESULT_TIME, queryResult.getTime());
+        size += measureString(RESULT_FEATURE_TYPE, queryResult.getFeatureType());
+        if (queryResult.getTimings() != null) {
+            size += nestedSize(RESULT_TIMINGS, measureTimings(queryResult.getTimings()));
+        }
+        size += measureString(RESULT_CONTINUATION_TOKEN, queryResult.getContinuationToken());
+        return size;
+    }
+
+    private static int measureTimings(QueryTimings timings) {
+        return computeSInt64Size(TIMINGS_DISPATCH, timings.getDispatchNanos())
+                + computeSInt64Size(TIMINGS_FIRST_BATCH, timings.getFirstBatchNanos())
+                + computeSInt64Size(TIMINGS_FETCH, timings.getFetchNanos())
+                + computeSInt64Size(TIMINGS_CONVERSION, timings.getConversionNanos())
+                + computeSInt64Size(TIMINGS_COUNT, timings.getCountNanos())
+                + computeSInt64Size(TIMINGS_WRITER, timings.getWriterNanos())
+                + computeSInt64Size(TIMINGS_TOTAL, timings.getTotalNanos());
+    }
+
+    private int measureMap(Map<?, ?> map) {
+        int size = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            int entrySlot = reserve();
+            int entrySize = measureString(ENTRY_KEY, entry.getKey() == null ? null : entry.getKey().toString());
+            int valueSlot = reserve();
+            int valueSize = measureValue(entry.getValue());
+            sizes[valueSlot] = valueSize;
+            entrySize += nestedSize(ENTRY_VALUE, valueSize);
+            sizes[entrySlot] = entrySize;
+            size += nestedSize(ITEMS, entrySize);
+        }
+        return size;
+    }
+
+    private int measureList(Iterable<?> list) {
+        int size = 0;
+        for (Object value : list) {
+            int slot = reserve();
+            int bodySize = measureValue(value);
+            sizes[slot] = bodySize;
+            size += nestedSize(ITEMS, bodySize);
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the Value message holding the given value
+     */
+    private int measureValue(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return measureString(STRING_VALUE, (String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return computeSInt32Size(INT32_VALUE, ((Number) value).intValue());
+        } else if (value instanceof Long) {
+            return computeSInt64Size(INT64_VALUE, (Long) value);
+        } else if (value instanceof Double) {
+            return computeDoubleSize(DOUBLE_VALUE, (Double) value);
+        } else if (value instanceof Float) {
+            return computeFloatSize(FLOAT_VALUE, (Float) value);
+        } else if (value instanceof Boolean) {
+            return computeBoolSize(BOOL_VALUE, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            return computeByteArraySize(BYTES_VALUE, (byte[]) value);
+        } else if (value instanceof Map) {
+            int slot = reserve();
+            int bodySize = measureMap((Map<?, ?>) value);
+            sizes[slot] = bodySize;
+            return nestedSize(MAP_VALUE, bodySize);
+        } else if (value instanceof Collection) {
+            int slot = reserve();
+            int bodySize = measureList((Collection<?>) value);
+            sizes[slot] = bodySize;
+            return nestedSize(LIST_VALUE, bodySize);
+        } else if (value instanceof Object[]) {
+            int slot = reserve();
+            int bodySize = measureList(Arrays.asList((Object[]) value));
+            sizes[slot] = bodySize;
+            return nestedSize(LIST_VALUE, bodySize);
+        } else if (value instanceof int[]) {
+            int slot = reserve();
+            int dataSlot = reserve();
+            int dataSize = 0;
+            for (int i : (int[]) value) {
+                dataSize += computeSInt32SizeNoTag(i);
+            }
+            sizes[dataSlot] = dataSize;
+            sizes[slot] = packedSize(dataSize);
+            return nestedSize(INT32_ARRAY, sizes[slot]);
+        } else if (value instanceof long[]) {
+            int slot = reserve();
+            int dataSlot = reserve();
+            int dataSize = 0;
+            for (long l : (long[]) value) {
+                dataSize += computeSInt64SizeNoTag(l);
+            }
+            sizes[dataSlot] = dataSize;
+            sizes[slot] = packedSize(dataSize);
+            return nestedSize(INT64_ARRAY, sizes[slot]);
+        } else if (value instanceof double[]) {
+            int slot = reserve();
+            int dataSlot = reserve();
+            int dataSize = 8 * ((double[]) value).length;
+            sizes[dataSlot] = dataSize;
+            sizes[slot] = packedSize(dataSize);
+            return nestedSize(DOUBLE_ARRAY, sizes[slot]);
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            return measureString(STRING_VALUE, value.toString());
+        } else if (value instanceof Enum) {
+            return measureString(STRING_VALUE, ((Enum<?>) value).name());
+        } else {
+            byte[] json = toJson(value);
+            return lengthDelimitedSize(JSON_VALUE, record(json, 0, json.length));
+        }
+    }
+
+    private int measureString(int field, String value) {
+        return value == null ? 0 : lengthDelimitedSize(field, recordUtf8(value));
+    }
+
+    /*
+     * Writing pass, it must visit the objects in the same order as the measuring pass
+     */
+
+    private void writeQueryResponseFields(QueryResponse<?> queryResponse, CodedOutputStream out) throws IOException {
+        out.writeSInt32(RESPONSE_TIME, queryResponse.getTime());
+        writeString(RESPONSE_API_VERSION, queryResponse.getApiVersion(), out);
+        writeString(RESPONSE_WARNING, queryResponse.getWarning(), out);
+        writeString(RESPONSE_ERROR, queryResponse.getError(), out);
+        if (queryResponse.getQueryOptions() != null) {
+            writeNested(RESPONSE_QUERY_OPTIONS, out);
+            writeMapFields(queryResponse.getQueryOptions(), out);
+        }
+        if (queryResponse.getResponse() != null) {
+            for (Object queryResult : queryResponse.getResponse()) {
+                writeNested(RESPONSE_RESPONSE, out);
+                writeQueryResultFields(asQueryResult(queryResult), true, out);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writeQueryResultFields(QueryResult<?> queryResult, boolean withResults, CodedOutputStream out)
+            throws IOException {
+        writeString(RESULT_ID, queryResult.getId(), out);
+        out.writeSInt32(RESULT_DB_TIME, queryResult.getDbTime());
+        out.writeSInt32(RESULT_NUM_RESULTS, queryResult.getNumResults());
+        out.writeSInt64(RESULT_NUM_TOTAL_RESULTS, queryResult.getNumTotalResults());
+        writeString(RESULT_WARNING_MSG, queryResult.getWarningMsg(), out);
+        writeString(RESULT_ERROR_MSG, queryResult.getErrorMsg(), out);
+        writeString(RESULT_RESULT_TYPE, queryResult.getResultType(), out);
+        if (withResults && queryResult.getResult() != null) {
+            for (Object result : queryResult.getResult()) {
+                writeNested(RESULT_RESULT, out);
+                writeValue(result, out);
+            }
+        }
+        out.writeSInt32(RESULT_TIME, queryResult.getTime());
+        writeString(RESULT_FEATURE_TYPE, queryResult.getFeatureType(), out);
+        if (queryResult.getTimings() != null) {
+            writeTimings(queryResult.getTimings(), out);
+        }
+        writeString(RESULT_CONTINUATION_TOKEN, queryResult.getContinuationToken(), out);
+    }
+
+    /**
+     * The size of the timings is measured again instead of being recorded, it only takes a few computations.
+     */
+    private static void writeTimings(QueryTimings timings, CodedOutputStream out) throws IOException {
+        out.writeTag(RESULT_TIMINGS, LENGTH_DELIMITED);
+        out.writeRawVarint32(measureTimings(timings));
+        out.writeSInt64(TIMINGS_DISPATCH, timings.getDispatchNanos());
+        out.writeSInt64(TIMINGS_FIRST_BATCH, timings.getFirstBatchNanos());
+        out.writeSInt64(TIMINGS_FETCH, timings.getFetchNanos());
+        out.writeSInt64(TIMINGS_CONVERSION, timings.getConversionNanos());
+        out.writeSInt64(TIMINGS_COUNT, timings.getCountNanos());
+        out.writeSInt64(TIMINGS_WRITER, timings.getWriterNanos());
+        out.writeSInt64(TIMINGS_TOTAL, timings.getTotalNanos());
+    }
+
+    private void writeMapFields(Map<?, ?> map, CodedOutputStream out) throws IOException {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeNested(ITEMS, out);
+            writeString(ENTRY_KEY, entry.getKey() == null ? null : entry.getKey().toString(), out);
+            writeNested(ENTRY_VALUE, out);
+            writeValue(entry.getValue(), out);
+        }
+    }
+
+    private void writeListFields(Iterable<?> list, CodedOutputStream out) throws IOException {
+        for (Object value : list) {
+            writeNested(ITEMS, out);
+            writeValue(value, out);
+        }
+    }
+
+    private void writeValue(Object value, CodedOutputStream out) throws IOException {
+        if (value == null) {
+            return;
+        } else if (value instanceof String) {
+            writeString(STRING_VALUE, (String) value, out);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeSInt32(INT32_VALUE, ((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeSInt64(INT64_VALUE, (Long) value);
+        } else if (value instanceof Double) {
+            out.writeDouble(DOUBLE_VALUE, (Double) value);
+        } else if (value instanceof Float) {
+            out.writeFloat(FLOAT_VALUE, (Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeBool(BOOL_VALUE, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            out.writeByteArray(BYTES_VALUE, (byte[]) value);
+        } else if (value instanceof Map) {
+            writeNested(MAP_VALUE, out);
+            writeMapFields((Map<?, ?>) value, out);
+        } else if (value instanceof Collection) {
+            writeNested(LIST_VALUE, out);
+            writeListFields((Collection<?>) value, out);
+        } else if (value instanceof Object[]) {
+            writeNested(LIST_VALUE, out);
+            writeListFields(Arrays.asList((Object[]) value), out);
+        } else if (value instanceof int[]) {
+            writeNested(INT32_ARRAY, out);
+            if (writePackedHeader(out)) {
+                for (int i : (int[]) value) {
+                    out.writeSInt32NoTag(i);
+                }
+            }
+        } else if (value instanceof long[]) {
+            writeNested(INT64_ARRAY, out);
+            if (writePackedHeader(out)) {
+                for (long l : (long[]) value) {
+                    out.writeSInt64NoTag(l);
+                }
+            }
+        } else if (value instanceof double[]) {
+            writeNested(DOUBLE_ARRAY, out);
+            if (writePackedHeader(out)) {
+                for (double d : (double[]) value) {
+                    out.writeDoubleNoTag(d);
+                }
+            }
+        } else if (value instanceof CharSequence || value instanceof Character || value instanceof Enum) {
+            writeRecorded(STRING_VALUE, out);
+        } else {
+            writeRecorded(JSON_VALUE, out);
+        }
+    }
+
+    private void writeString(int field, String value, CodedOutputStream out) throws IOException {
+        if (value != null) {
+            writeRecorded(field, out);
+        }
+    }
+
+    private void writeRecorded(int field, CodedOutputStream out) throws IOException {
+        int length = stringLengths[stringCursor++];
+        out.writeTag(field, LENGTH_DELIMITED);
+        out.writeRawVarint32(length);
+        out.writeRawBytes(stringBytes, stringBytesCursor, length);
+        stringBytesCursor += length;
+    }
+
+    private void writeNested(int field, CodedOutputStream out) throws IOException {
+        out.writeTag(field, LENGTH_DELIMITED);
+        out.writeRawVarint32(sizes[sizeCursor++]);
+    }
+
+    /**
+     * @return whether the array has any element
+     */
+    private boolean writePackedHeader(CodedOutputStream out) throws IOException {
+        int dataSize = sizes[sizeCursor++];
+        if (dataSize == 0) {
+            return false;
+        }
+        out.writeTag(ITEMS, LENGTH_DELIMITED);
+        out.writeRawVarint32(dataSize);
+        return true;
+    }
+
+    /*
+     * Helpers
+     */
+
+    private static QueryResult<?> asQueryResult(Object queryResult) {
+        if (!(queryResult instanceof QueryResult)) {
+            throw new IllegalArgumentException("Only QueryResponses of QueryResults can be encoded, found "
+                    + (queryResult == null ? "null" : queryResult.getClass().getName()));
+        }
+        return (QueryResult<?>) queryResult;
+    }
+
+    private static byte[] toJson(Object value) {
+        try {
+            return JsonCodec.writer().writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Value of type " + value.getClass().getName() + " can not be encoded", e);
+        }
+    }
+
+    private static int nestedSize(int field, int size) {
+        return computeTagSize(field) + computeRawVarint32Size(size) + size;
+    }
+
+    private static int lengthDelimitedSize(int field, int length) {
+        return computeTagSize(field) + computeRawVarint32Size(length) + length;
+    }
+
+    private static int packedSize(int dataSize) {
+        return dataSize == 0 ? 0 : nestedSize(ITEMS, dataSize);
+    }
+
+    private void reset() {
+        sizeCount = 0;
+        sizeCursor = 0;
+        stringBytesSize = 0;
+        stringBytesCursor = 0;
+        stringCount = 0;
+        stringCursor = 0;
+    }
+
+    private int reserve() {
+        if (sizeCount == sizes.length) {
+            sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+        }
+        return sizeCount++;
+    }
+
+    /**
+     * @return the length of the recorded bytes
+     */
+    private int record(byte[] bytes, int offset, int length) {
+        ensureStringCapacity(length);
+        System.arraycopy(bytes, offset, stringBytes, stringBytesSize, length);
+        stringBytesSize += length;
+        stringLengths[stringCount++] = length;
+        return length;
+    }
+
+    /**
+     * Records the UTF-8 encoding of a string. Unlike {@link String#getBytes}, it does not allocate anything once the
+     * buffer is big enough. Unpaired surrogates are replaced by '?', as String does.
+     *
+     * @return the length of the encoded string
+     */
+    private int recordUtf8(String value) {
+        int length = value.length();
+        // At most 3 bytes per char, surrogate pairs take 4 bytes for 2 chars
+        ensureStringCapacity(3 * length);
+        byte[] buffer = stringBytes;
+        int start = stringBytesSize;
+        int position = start;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                buffer[position++] = (byte) (0xE0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else {
+                buffer[position++] = '?';
+            }
+        }
+        int encodedLength = position - start;
+        stringBytesSize = position;
+        stringLengths[stringCount++] = encodedLength;
+        return encodedLength;
+    }
+
+    private void ensureStringCapacity(int length) {
+        if (stringBytesSize + length > stringBytes.length) {
+            stringBytes = Arrays.copyOf(stringBytes, Math.max(2 * stringBytes.length, stringBytesSize + length));
+        }
+        if (stringCount == stringLengths.length) {
+            stringLengths = Arrays.copyOf(stringLengths, 2 * stringLengths.length);
+        }
+    }
+
+}
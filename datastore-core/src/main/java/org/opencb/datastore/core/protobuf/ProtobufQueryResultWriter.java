@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.protobuf;
+
+import com.google.protobuf.CodedOutputStream;
+import org.opencb.datastore.core.QueryResultWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Encodes the results as they are read from the database, each one as an element of the repeated result field of a
+ * protobuf QueryResult message, so the whole result list is never held in memory.
+ *
+ * The stream is flushed but not closed on {@link #close()}. The other fields of the QueryResult, which are only known
+ * once the query has finished, can then be appended with {@link ProtobufCodec#writeWithoutResults}: protobuf parsers
+ * merge them with the results into a single message.
+ *
+ * @param <T> the type of the results
+ */
+public class ProtobufQueryResultWriter<T> implements QueryResultWriter<T> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream outputStream;
+    private final int bufferSize;
+    private final ProtobufEncoder encoder = new ProtobufEncoder();
+
+    private CodedOutputStream out;
+
+    public ProtobufQueryResultWriter(OutputStream outputStream) {
+        this(outputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ProtobufQueryResultWriter(OutputStream outputStream, int bufferSize) {
+        this.outputStream = Objects.requireNonNull(outputStream);
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void open() throws IOException {
+        out = CodedOutputStream.newInstance(outputStream, bufferSize);
+    }
+
+    @Override
+    public void write(T elem) throws IOException {
+        encoder.writeResult(elem, out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.flush();
+            out = null;
+        }
+    }
+
+}
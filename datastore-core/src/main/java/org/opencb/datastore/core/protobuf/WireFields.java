@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.protobuf;
+
+import com.google.protobuf.WireFormat;
+
+/**
+ * Field numbers and tags of the messages declared in {@code datastore.proto}.
+ */
+final class WireFields {
+
+    static final int VARINT = WireFormat.WIRETYPE_VARINT;
+    static final int FIXED32 = WireFormat.WIRETYPE_FIXED32;
+    static final int FIXED64 = WireFormat.WIRETYPE_FIXED64;
+    static final int LENGTH_DELIMITED = WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    // Value
+    static final int STRING_VALUE = 2;
+    static final int INT32_VALUE = 3;
+    static final int INT64_VALUE = 4;
+    static final int DOUBLE_VALUE = 5;
+    static final int FLOAT_VALUE = 6;
+    static final int BOOL_VALUE = 7;
+    static final int BYTES_VALUE = 8;
+    static final int MAP_VALUE = 9;
+    static final int LIST_VALUE = 10;
+    static final int INT32_ARRAY = 11;
+    static final int INT64_ARRAY = 12;
+    static final int DOUBLE_ARRAY = 13;
+    static final int JSON_VALUE = 14;
+
+    static final int STRING_VALUE_TAG = STRING_VALUE << 3 | LENGTH_DELIMITED;
+    static final int INT32_VALUE_TAG = INT32_VALUE << 3 | VARINT;
+    static final int INT64_VALUE_TAG = INT64_VALUE << 3 | VARINT;
+    static final int DOUBLE_VALUE_TAG = DOUBLE_VALUE << 3 | FIXED64;
+    static final int FLOAT_VALUE_TAG = FLOAT_VALUE << 3 | FIXED32;
+    static final int BOOL_VALUE_TAG = BOOL_VALUE << 3 | VARINT;
+    static final int BYTES_VALUE_TAG = BYTES_VALUE << 3 | LENGTH_DELIMITED;
+    static final int MAP_VALUE_TAG = MAP_VALUE << 3 | LENGTH_DELIMITED;
+    static final int LIST_VALUE_TAG = LIST_VALUE << 3 | LENGTH_DELIMITED;
+    static final int INT32_ARRAY_TAG = INT32_ARRAY << 3 | LENGTH_DELIMITED;
+    static final int INT64_ARRAY_TAG = INT64_ARRAY << 3 | LENGTH_DELIMITED;
+    static final int DOUBLE_ARRAY_TAG = DOUBLE_ARRAY << 3 | LENGTH_DELIMITED;
+    static final int JSON_VALUE_TAG = JSON_VALUE << 3 | LENGTH_DELIMITED;
+
+    // MapValue, ListValue and the arrays have a single field
+    static final int ITEMS = 1;
+    static final int ITEMS_TAG = ITEMS << 3 | LENGTH_DELIMITED;
+    static final int PACKED_TAG = ITEMS << 3 | LENGTH_DELIMITED;
+    static final int UNPACKED_VARINT_TAG = ITEMS << 3 | VARINT;
+    static final int UNPACKED_FIXED64_TAG = ITEMS << 3 | FIXED64;
+
+    // MapValue.Entry
+    static final int ENTRY_KEY = 1;
+    static final int ENTRY_VALUE = 2;
+    static final int ENTRY_KEY_TAG = ENTRY_KEY << 3 | LENGTH_DELIMITED;
+    static final int ENTRY_VALUE_TAG = ENTRY_VALUE << 3 | LENGTH_DELIMITED;
+
+    // QueryResult
+    static final int RESULT_ID = 1;
+    static final int RESULT_DB_TIME = 2;
+    static final int RESULT_NUM_RESULTS = 3;
+    static final int RESULT_NUM_TOTAL_RESULTS = 4;
+    static final int RESULT_WARNING_MSG = 5;
+    static final int RESULT_ERROR_MSG = 6;
+    static final int RESULT_RESULT_TYPE = 7;
+    static final int RESULT_RESULT = 8;
+    static final int RESULT_TIME = 9;
+    static final int RESULT_FEATURE_TYPE = 10;
+    static final int RESULT_TIMINGS = 11;
+    static final int RESULT_CONTINUATION_TOKEN = 12;
+
+    static final int RESULT_ID_TAG = RESULT_ID << 3 | LENGTH_DELIMITED;
+    static final int RESULT_DB_TIME_TAG = RESULT_DB_TIME << 3 | VARINT;
+    static final int RESULT_NUM_RESULTS_TAG = RESULT_NUM_RESULTS << 3 | VARINT;
+    static final int RESULT_NUM_TOTAL_RESULTS_TAG = RESULT_NUM_TOTAL_RESULTS << 3 | VARINT;
+    static final int RESULT_WARNING_MSG_TAG = RESULT_WARNING_MSG << 3 | LENGTH_DELIMITED;
+    static final int RESULT_ERROR_MSG_TAG = RESULT_ERROR_MSG << 3 | LENGTH_DELIMITED;
+    static final int RESULT_RESULT_TYPE_TAG = RESULT_RESULT_TYPE << 3 | LENGTH_DELIMITED;
+    static final int RESULT_RESULT_TAG = RESULT_RESULT << 3 | LENGTH_DELIMITED;
+    static final int RESULT_TIME_TAG = RESULT_TIME << 3 | VARINT;
+    static final int RESULT_FEATURE_TYPE_TAG = RESULT_FEATURE_TYPE << 3 | LENGTH_DELIMITED;
+    static final int RESULT_TIMINGS_TAG = RESULT_TIMINGS << 3 | LENGTH_DELIMITED;
+    static final int RESULT_CONTINUATION_TOKEN_TAG = RESULT_CONTINUATION_TOKEN << 3 | LENGTH_DELIMITED;
+
+    // QueryTimings
+    static final int TIMINGS_DISPATCH = 1;
+    static final int TIMINGS_FIRST_BATCH = 2;
+    static final int TIMINGS_FETCH = 3;
+    static final int TIMINGS_CONVERSION = 4;
+    static final int TIMINGS_COUNT = 5;
+    static final int TIMINGS_WRITER = 6;
+    static final int TIMINGS_TOTAL = 7;
+
+    static final int TIMINGS_DISPATCH_TAG = TIMINGS_DISPATCH << 3 | VARINT;
+    static final int TIMINGS_FIRST_BATCH_TAG = TIMINGS_FIRST_BATCH << 3 | VARINT;
+    static final int TIMINGS_FETCH_TAG = TIMINGS_FETCH << 3 | VARINT;
+    static final int TIMINGS_CONVERSION_TAG = TIMINGS_CONVERSION << 3 | VARINT;
+    static final int TIMINGS_COUNT_TAG = TIMINGS_COUNT << 3 | VARINT;
+    static final int TIMINGS_WRITER_TAG = TIMINGS_WRITER << 3 | VARINT;
+    static final int TIMINGS_TOTAL_TAG = TIMINGS_TOTAL << 3 | VARINT;
+
+    // QueryResponse
+    static final int RESPONSE_TIME = 1;
+    static final int RESPONSE_API_VERSION = 2;
+    static final int RESPONSE_WARNING = 3;
+    static final int RESPONSE_ERROR = 4;
+    static final int RESPONSE_QUERY_OPTIONS = 5;
+    static final int RESPONSE_RESPONSE = 6;
+
+    static final int RESPONSE_TIME_TAG = RESPONSE_TIME << 3 | VARINT;
+    static final int RESPONSE_API_VERSION_TAG = RESPONSE_API_VERSION << 3 | LENGTH_DELIMITED;
+    static final int RESPONSE_WARNING_TAG = RESPONSE_WARNING << 3 | LENGTH_DELIMITED;
+    static final int RESPONSE_ERROR_TAG = RESPONSE_ERROR << 3 | LENGTH_DELIMITED;
+    static final int RESPONSE_QUERY_OPTIONS_TAG = RESPONSE_QUERY_OPTIONS << 3 | LENGTH_DELIMITED;
+    static final int RESPONSE_RESPONSE_TAG = RESPONSE_RESPONSE << 3 | LENGTH_DELIMITED;
+
+    private WireFields() {
+    }
+
+}
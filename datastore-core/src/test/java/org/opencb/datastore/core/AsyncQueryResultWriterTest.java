@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncQueryResultWriterTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testWrite() throws Exception {
+        ListWriter listWriter = new ListWriter();
+        AsyncQueryResultWriter<Integer> writer = new AsyncQueryResultWriter<>(listWriter, 3, 2);
+        writer.open();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            writer.write(i);
+            expected.add(i);
+        }
+        writer.writeBatch(Arrays.asList(10, 11));
+        expected.addAll(Arrays.asList(10, 11));
+        writer.write(12);
+        expected.add(12);
+        writer.close();
+
+        assertTrue(listWriter.opened);
+        assertTrue(listWriter.closed);
+        assertEquals(expected, listWriter.elems);
+        assertEquals(Arrays.asList(3, 3, 3, 1, 2, 1), listWriter.batchSizes);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ListWriter listWriter = new ListWriter() {
+            @Override
+            public void writeBatch(List<Integer> batch) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.writeBatch(batch);
+            }
+        };
+        AsyncQueryResultWriter<Integer> writer = new AsyncQueryResultWriter<>(listWriter, 1, 1);
+        writer.open();
+        CountDownLatch written = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 5; i++) {
+                    writer.write(i);
+                }
+                written.countDown();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+        // One batch is being written and one is waiting in the queue, so the producer must be blocked
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        producer.join();
+        writer.close();
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), listWriter.elems);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        ListWriter listWriter = new ListWriter() {
+            @Override
+            public void write(Integer elem) throws IOException {
+                if (elem == 3) {
+                    throw new IOException("Sink failed");
+                }
+                super.write(elem);
+            }
+        };
+        AsyncQueryResultWriter<Integer> writer = new AsyncQueryResultWriter<>(listWriter, 2, 1);
+        writer.open();
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Sink failed");
+        // The failure is thrown by the last write if the writer thread is fast enough, otherwise by close
+        try {
+            for (int i = 0; i < 4; i++) {
+                writer.write(i);
+            }
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                assertTrue(listWriter.closed);
+            }
+        }
+    }
+
+    private static class ListWriter implements QueryResultWriter<Integer> {
+        final List<Integer> elems = new ArrayList<>();
+        final List<Integer> batchSizes = new ArrayList<>();
+        boolean opened;
+        boolean closed;
+
+        @Override
+        public void open() throws IOException {
+            opened = true;
+        }
+
+        @Override
+        public void write(Integer elem) throws IOException {
+            elems.add(elem);
+        }
+
+        @Override
+        public void writeBatch(List<Integer> batch) throws IOException {
+            batchSizes.add(batch.size());
+            QueryResultWriter.super.writeBatch(batch);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+}
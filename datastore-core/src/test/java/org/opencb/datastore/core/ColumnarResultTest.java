@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ColumnarResultTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testInferredColumns() throws Exception {
+        ColumnarResult columnarResult = new ColumnarResult(Arrays.asList("id", "score", "name", "empty"));
+        // More rows than the initial capacity, so the columns grow
+        for (int i = 0; i < 3000; i++) {
+            columnarResult.addRow(i, i % 3 == 0 ? null : i / 2.0, "name" + i % 10, null);
+        }
+        columnarResult.addRow(new Date(5L), 1, null, null);
+        assertEquals(3001, columnarResult.getNumRows());
+
+        ColumnarResult.Column id = columnarResult.getColumn("id");
+        assertEquals(ColumnarResult.Type.LONG, id.getType());
+        assertEquals(3001, id.getLongs().length);
+        assertEquals(2999, id.getLong(2999));
+        assertEquals(5, id.getLong(3000));
+        assertEquals(2999.0, id.getDouble(2999), 0);
+
+        ColumnarResult.Column score = columnarResult.getColumn("score");
+        assertEquals(ColumnarResult.Type.DOUBLE, score.getType());
+        assertTrue(score.isNull(0));
+        assertNull(score.get(0));
+        assertEquals(0.5, score.getDouble(1), 0);
+        assertEquals(1.0, score.getDoubles()[3000], 0);
+        assertEquals(1000, score.getNulls().cardinality());
+
+        ColumnarResult.Column name = columnarResult.getColumn("name");
+        assertEquals(ColumnarResult.Type.STRING, name.getType());
+        assertEquals(10, name.getDictionary().size());
+        assertEquals("name7", name.getString(17));
+        assertEquals(name.getCodes()[7], name.getCodes()[17]);
+        assertNull(name.getString(3000));
+
+        ColumnarResult.Column empty = columnarResult.getColumn("empty");
+        assertNull(empty.getType());
+        assertEquals(3001, empty.size());
+        assertNull(empty.get(10));
+    }
+
+    @Test
+    public void testPromotion() throws Exception {
+        // An integer column holding a decimal becomes a decimal column
+        ColumnarResult columnarResult = new ColumnarResult(Collections.singletonList("value"));
+        columnarResult.addRow((Object) null);
+        columnarResult.addRow(1);
+        columnarResult.addRow(2L);
+        columnarResult.addRow(2.5);
+        columnarResult.addRow(3);
+        ColumnarResult.Column column = columnarResult.getColumn("value");
+        assertEquals(ColumnarResult.Type.DOUBLE, column.getType());
+        assertArrayEquals(new double[]{0, 1, 2, 2.5, 3}, column.getDoubles(), 0);
+        assertTrue(column.isNull(0));
+        assertFalse(column.isNull(1));
+    }
+
+    @Test
+    public void testDeclaredColumns() throws Exception {
+        Map<String, ColumnarResult.Type> types = new LinkedHashMap<>();
+        types.put("count", ColumnarResult.Type.LONG);
+        types.put("ratio", ColumnarResult.Type.DOUBLE);
+        ColumnarResult columnarResult = new ColumnarResult(types);
+        columnarResult.addRow(1.9, 1);
+        assertEquals(Arrays.asList("count", "ratio"), columnarResult.getFields());
+        assertEquals(1, columnarResult.getColumn("count").getLong(0));
+        assertEquals(1.0, columnarResult.getColumn("ratio").getDouble(0), 0);
+
+        thrown.expect(IllegalArgumentException.class);
+        columnarResult.addRow("one", 1);
+    }
+
+    @Test
+    public void testRejectedRow() throws Exception {
+        // A row with a value that can not be stored is not appended to any column
+        ColumnarResult columnarResult = new ColumnarResult(Arrays.asList("count", "name"));
+        columnarResult.addRow(1, "one");
+        try {
+            columnarResult.addRow(2, 2);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        columnarResult.addRow(3, "three");
+        assertEquals(2, columnarResult.getNumRows());
+        for (ColumnarResult.Column column : columnarResult.getColumns()) {
+            assertEquals(2, column.size());
+        }
+        assertArrayEquals(new long[]{1, 3}, columnarResult.getColumn("count").getLongs());
+        assertEquals("three", columnarResult.getColumn("name").getString(1));
+    }
+
+    @Test
+    public void testUnsupportedValue() throws Exception {
+        ColumnarResult columnarResult = new ColumnarResult(Collections.singletonList("list"));
+        thrown.expect(IllegalArgumentException.class);
+        columnarResult.addRow(Arrays.asList(1, 2));
+    }
+
+}
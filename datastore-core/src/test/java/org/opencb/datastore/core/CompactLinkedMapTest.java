@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompactLinkedMapTest {
+
+    @Test
+    public void testInsertionOrder() throws Exception {
+        CompactLinkedMap<String, Object> map = new CompactLinkedMap<>();
+        map.put("b", 1);
+        map.put("a", 2);
+        map.put("c", 3);
+        map.put("a", 4);
+        assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<>(map.keySet()));
+        assertEquals(Arrays.<Object>asList(1, 4, 3), new ArrayList<>(map.values()));
+        assertFalse(map.isPromoted());
+
+        assertEquals(4, map.remove("a"));
+        assertNull(map.remove("a"));
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<>(map.keySet()));
+    }
+
+    @Test
+    public void testPromotion() throws Exception {
+        CompactLinkedMap<String, Object> map = new CompactLinkedMap<>();
+        Set<String> keys = map.keySet();
+        LinkedHashMap<String, Object> expected = new LinkedHashMap<>();
+        for (int i = 0; i < CompactLinkedMap.MAX_COMPACT_SIZE + 4; i++) {
+            map.put("key" + i, i);
+            expected.put("key" + i, i);
+            assertEquals(i >= CompactLinkedMap.MAX_COMPACT_SIZE, map.isPromoted());
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.keySet(), keys);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(keys));
+
+        map.clear();
+        assertTrue(keys.isEmpty());
+        assertFalse(map.isPromoted());
+    }
+
+    @Test
+    public void testIteratorRemoveAndSetValue() throws Exception {
+        CompactLinkedMap<String, Object> map = new CompactLinkedMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        map.put(null, 4);
+        for (Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if ("b".equals(entry.getKey())) {
+                iterator.remove();
+            } else {
+                entry.setValue(((Integer) entry.getValue()) * 10);
+            }
+        }
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", 10);
+        expected.put("c", 30);
+        expected.put(null, 40);
+        assertEquals(expected, map);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testConcurrentModification() throws Exception {
+        CompactLinkedMap<String, Object> map = new CompactLinkedMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        for (String key : map.keySet()) {
+            map.remove(key);
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        QueryOptions options = new QueryOptions("limit", 10).append("include", Arrays.asList("id", "name"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(options);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            QueryOptions copy = (QueryOptions) in.readObject();
+            assertEquals(10, copy.getInt("limit"));
+            assertEquals(Arrays.asList("id", "name"), copy.getAsStringList("include"));
+            assertEquals(options.toJson(), copy.toJson());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ContinuationTokenTest {
+
+    @Test
+    public void testEncode() throws Exception {
+        List<Object> values = Arrays.asList("chr1", 100, 1L << 40, 0.5, true, null,
+                Collections.singletonMap("$oid", "0123456789abcdef01234567"));
+        String token = ContinuationToken.encode(values);
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+        assertEquals(values, ContinuationToken.decode(token));
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        assertFalse(ContinuationToken.isRequested(null));
+        assertFalse(ContinuationToken.isRequested(new QueryOptions("limit", 10)));
+        QueryOptions options = new QueryOptions(QueryOptions.CONTINUATION_TOKEN, "");
+        assertTrue(ContinuationToken.isRequested(options));
+        assertNull(ContinuationToken.get(options));
+        options.put(QueryOptions.CONTINUATION_TOKEN, ContinuationToken.encode(Arrays.asList("a", 1)));
+        assertEquals(Arrays.asList("a", 1), ContinuationToken.get(options));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidToken() throws Exception {
+        ContinuationToken.decode("not a token");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenNotList() throws Exception {
+        ContinuationToken.decode(ContinuationToken.encode(null));
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class DataCollectionTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = DataStoreExecutors.newExecutor("test", 4, 16);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        // Every query waits for all the others, so they only complete if they run concurrently
+        CountDownLatch latch = new CountDownLatch(4);
+        ListDataCollection dataCollection = new ListDataCollection(executor, latch);
+        dataCollection.insert(Collections.singletonList("a"), null);
+
+        List<CompletableFuture<QueryResult<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(dataCollection.findAsync(new Query(), null));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<QueryResult<String>> future : futures) {
+            assertEquals(Collections.singletonList("a"), future.get().getResult());
+        }
+        assertTrue(dataCollection.threads.stream().allMatch(name -> name.startsWith("datastore-test-")));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        ListDataCollection dataCollection = new ListDataCollection(executor, null);
+        assertEquals(2L, dataCollection.insertAsync(Arrays.asList("a", "b"), null).get().first().longValue());
+        assertEquals(2L, dataCollection.countAsync(null).get().first().longValue());
+        assertEquals(Arrays.asList("a", "b"), dataCollection.distinctAsync("value", null).get().getResult());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        ListDataCollection dataCollection = new ListDataCollection(executor, null);
+        CompletableFuture<QueryResult<String>> future = dataCollection.findAsync(new Query("fail", true), null);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    private static class ListDataCollection implements DataCollection<String> {
+        private final List<String> elements = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        private final Executor executor;
+        private final CountDownLatch latch;
+
+        ListDataCollection(Executor executor, CountDownLatch latch) {
+            this.executor = executor;
+            this.latch = latch;
+        }
+
+        @Override
+        public QueryResult<String> find(Query query, QueryOptions options) {
+            if (query.getBoolean("fail")) {
+                throw new UnsupportedOperationException();
+            }
+            threads.add(Thread.currentThread().getName());
+            if (latch != null) {
+                latch.countDown();
+                try {
+                    assertTrue(latch.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return result(new ArrayList<>(elements));
+        }
+
+        @Override
+        public QueryResult<Long> count(Query query) {
+            return result(Collections.singletonList((long) elements.size()));
+        }
+
+        @Override
+        public QueryResult<Object> distinct(String field, Query query) {
+            return result(elements.stream().distinct().collect(Collectors.<Object>toList()));
+        }
+
+        @Override
+        public QueryResult<Long> insert(List<String> elements, QueryOptions options) {
+            this.elements.addAll(elements);
+            return result(Collections.singletonList((long) elements.size()));
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        private static <R> QueryResult<R> result(List<R> result) {
+            return new QueryResult<>(null, 0, result.size(), result.size(), null, null, result);
+        }
+    }
+}
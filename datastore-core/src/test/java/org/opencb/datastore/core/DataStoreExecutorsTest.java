@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DataStoreExecutorsTest {
+
+    @Test
+    public void testConfiguration() throws Exception {
+        ObjectMap configuration = new ObjectMap(DataStoreExecutors.ASYNC_THREADS, 3)
+                .append(DataStoreExecutors.ASYNC_QUEUE_SIZE, 5);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) DataStoreExecutors.newExecutor("test", configuration);
+        try {
+            assertEquals(3, executor.getMaximumPoolSize());
+            assertEquals(5, executor.getQueue().remainingCapacity());
+        } finally {
+            executor.shutdown();
+        }
+
+        executor = (ThreadPoolExecutor) DataStoreExecutors.newExecutor("test", null);
+        try {
+            assertEquals(DataStoreExecutors.DEFAULT_ASYNC_THREADS, executor.getMaximumPoolSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallerRunsWhenFull() throws Exception {
+        ExecutorService executor = DataStoreExecutors.newExecutor("test", 1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            // Fills the queue
+            executor.execute(() -> { });
+
+            AtomicReference<Thread> thread = new AtomicReference<>();
+            executor.execute(() -> thread.set(Thread.currentThread()));
+            assertSame(Thread.currentThread(), thread.get());
+        } finally {
+            blocked.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testRejectedWhenShutDown() throws Exception {
+        ExecutorService executor = DataStoreExecutors.newExecutor("test", 1, 1);
+        executor.shutdown();
+        try {
+            CompletableFuture.supplyAsync(() -> 1, executor);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // The caller is told instead of getting a future that never completes
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() throws Exception {
+        DataStoreExecutors.newExecutor("test", 0, 1);
+    }
+}
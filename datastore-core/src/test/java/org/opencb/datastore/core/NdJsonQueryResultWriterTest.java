@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class NdJsonQueryResultWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWrite() throws Exception {
+        Path path = temporaryFolder.newFile("results.json").toPath();
+        List<ObjectMap> results = write(path, NdJsonQueryResultWriter.Compression.NONE, 1000);
+
+        assertLines(results, Files.readAllLines(path, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteGzip() throws Exception {
+        Path path = temporaryFolder.newFile("results.json.gz").toPath();
+        // A small buffer, so it is filled many times
+        List<ObjectMap> results = write(path, NdJsonQueryResultWriter.Compression.GZIP, 16);
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(path))) {
+            assertLines(results, read(inputStream));
+        }
+    }
+
+    @Test
+    public void testWriteDeflate() throws Exception {
+        Path path = temporaryFolder.newFile("results.json.z").toPath();
+        List<ObjectMap> results = write(path, NdJsonQueryResultWriter.Compression.DEFLATE, 512);
+        try (InputStream inputStream = new InflaterInputStream(Files.newInputStream(path))) {
+            assertLines(results, read(inputStream));
+        }
+    }
+
+    private List<ObjectMap> write(Path path, NdJsonQueryResultWriter.Compression compression, int bufferSize)
+            throws IOException {
+        List<ObjectMap> results = new ArrayList<>();
+        NdJsonQueryResultWriter<ObjectMap> writer = new NdJsonQueryResultWriter<>(path, compression, bufferSize);
+        writer.open();
+        for (int i = 0; i < 200; i++) {
+            ObjectMap result = new ObjectMap("id", i).append("name", "name \"" + i + "\"\n")
+                    .append("values", Arrays.asList(i, i + 1));
+            writer.write(result);
+            results.add(result);
+        }
+        writer.close();
+        return results;
+    }
+
+    private List<String> read(InputStream inputStream) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private void assertLines(List<ObjectMap> expected, List<String> lines) {
+        assertEquals(expected.size(), lines.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toJson(), lines.get(i));
+        }
+    }
+}
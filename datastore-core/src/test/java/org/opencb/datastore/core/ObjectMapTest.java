@@ -22,9 +22,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.util.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -68,6 +73,29 @@ public class ObjectMapTest {
 
     }
 
+    @Test
+    public void testJsonConstructor() throws Exception {
+        ObjectMap parsed = new ObjectMap(objectMap.toJson());
+        assertEquals(objectMap.keySet(), parsed.keySet());
+        assertEquals("hello", parsed.getString("string"));
+        assertEquals(123_456_789_000L, parsed.getLong("long"));
+        assertEquals(Arrays.asList("elem1", "elem2"), parsed.getList("list"));
+    }
+
+    @Test
+    public void testWriteReadJson() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        objectMap.writeJson(outputStream);
+        assertEquals(objectMap.toJson(), outputStream.toString("UTF-8"));
+
+        StringWriter writer = new StringWriter();
+        objectMap.writeJson(writer);
+        assertEquals(objectMap.toJson(), writer.toString());
+
+        ObjectMap parsed = ObjectMap.readJson(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals(objectMap.toJson(), parsed.toJson());
+    }
+
     @Test
     public void testSafeToString() throws Exception {
 
@@ -165,6 +193,75 @@ public class ObjectMapTest {
         assertTrue(list.isEmpty());
     }
 
+    @Test
+    public void testParsedListCache() throws Exception {
+        objectMap.setParsedListCacheEnabled(true);
+
+        List<Integer> integers = objectMap.getAsIntegerList("listCsv");
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), integers);
+        assertSame(integers, objectMap.getAsIntegerList("listCsv"));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), objectMap.getAsLongList("listCsv"));
+        assertSame(objectMap.getAsStringList("listCsv"), objectMap.getAsStringList("listCsv"));
+        assertEquals(Collections.singletonList("1,2,3,4,5"), objectMap.getAsStringList("listCsv", ":"));
+
+        objectMap.put("listCsv", "6,7");
+        assertEquals(Arrays.asList(6, 7), objectMap.getAsIntegerList("listCsv"));
+
+        objectMap.entrySet().stream().filter(entry -> entry.getKey().equals("listCsv")).forEach(entry -> entry.setValue("8"));
+        assertEquals(Collections.singletonList(8), objectMap.getAsIntegerList("listCsv"));
+
+        objectMap.remove("listCsv");
+        assertTrue(objectMap.getAsIntegerList("listCsv").isEmpty());
+
+        thrown.expect(UnsupportedOperationException.class);
+        objectMap.getAsStringList("stringInteger").add("2");
+    }
+
+    @Test
+    public void testGetAsPrimitiveArrays() throws Exception {
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, objectMap.getAsIntArray("listCsv"));
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, objectMap.getAsLongArray("listCsv"));
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5}, objectMap.getAsDoubleArray("listCsv"), 0.0);
+        assertArrayEquals(new long[]{1, 2}, objectMap.append("trailing", "1::2::::").getAsLongArray("trailing", "::"));
+        assertArrayEquals(new long[]{-1, 123_456_789_000L}, objectMap.append("signed", "-1,+123456789000").getAsLongArray("signed"));
+        assertArrayEquals(new int[]{1, 2}, objectMap.append("numbers", Arrays.asList(1L, "2")).getAsIntArray("numbers"));
+        assertArrayEquals(new double[]{1.5, 2}, objectMap.append("doubles", "1.5,2").getAsDoubleArray("doubles"), 0.0);
+        assertEquals(0, objectMap.getAsIntArray("unExisting").length);
+        assertEquals(0, objectMap.append("empty", "").getAsLongArray("empty").length);
+
+        long[] longs = objectMap.append("longs", new long[]{3, 4}).getAsLongArray("longs");
+        assertSame(longs, objectMap.getAsLongArray("longs"));
+        assertEquals(Arrays.asList(3L, 4L), objectMap.getAsLongList("longs"));
+    }
+
+    @Test
+    public void getBadPrimitiveArray() {
+        thrown.expect(NumberFormatException.class);
+        objectMap.getAsIntArray("listCsvBad");
+    }
+
+    @Test
+    public void getOverflowPrimitiveArray() {
+        objectMap.put("overflow", "1," + Long.toString(Integer.MAX_VALUE + 1L));
+        thrown.expect(NumberFormatException.class);
+        objectMap.getAsIntArray("overflow");
+    }
+
+    @Test
+    public void getNotIntegerPrimitiveArray() {
+        objectMap.put("decimals", Arrays.asList(1, 1.7));
+        thrown.expect(NumberFormatException.class);
+        objectMap.getAsLongArray("decimals");
+    }
+
+    @Test
+    public void getOverflowListPrimitiveArray() {
+        objectMap.put("overflow", Arrays.asList(1, 3_000_000_000L));
+        assertArrayEquals(new long[]{1, 3_000_000_000L}, objectMap.getAsLongArray("overflow"));
+        thrown.expect(NumberFormatException.class);
+        objectMap.getAsIntArray("overflow");
+    }
+
     @Test
     public void getBadList() {
         thrown.expect(NumberFormatException.class);
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+public class ParallelConverterTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+    private final ComplexTypeConverter<String, Integer> converter = new ComplexTypeConverter<String, Integer>() {
+        @Override
+        public String convertToDataModelType(Integer object) {
+            threads.add(Thread.currentThread().getName());
+            try {
+                // Later batches are often converted before the earlier ones
+                Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (object < 0) {
+                throw new IllegalArgumentException("Negative " + object);
+            }
+            return "value" + object;
+        }
+
+        @Override
+        public Integer convertToStorageType(String object) {
+            return Integer.valueOf(object.substring("value".length()));
+        }
+    };
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testConvertToDataModelTypes() {
+        assertEquals(Arrays.asList("value1", "value2"), converter.convertToDataModelTypes(Arrays.asList(1, 2)));
+        assertTrue(converter.convertToDataModelTypes(Collections.<Integer>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testConvert() {
+        List<Integer> source = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1003; i++) {
+            source.add(i);
+            expected.add("value" + i);
+        }
+
+        List<String> converted = new ParallelConverter<>(converter, pool, 10, 4).convert(source.iterator());
+
+        assertEquals(expected, converted);
+        assertFalse(threads.contains(Thread.currentThread().getName()));
+        assertTrue(threads.size() > 1);
+    }
+
+    @Test
+    public void testConvertEmpty() {
+        List<String> target = new LinkedList<>();
+        new ParallelConverter<>(converter, pool).convert(Collections.<Integer>emptyIterator(), target);
+        assertTrue(target.isEmpty());
+    }
+
+    @Test
+    public void testConverterFailure() {
+        List<Integer> source = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            source.add(i == 50 ? -1 : i);
+        }
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Negative -1");
+        new ParallelConverter<>(converter, pool, 10).convert(source.iterator());
+    }
+
+}
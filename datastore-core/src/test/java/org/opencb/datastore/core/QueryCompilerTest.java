@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QueryCompilerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    enum TestQueryParam implements QueryParam {
+        CHROMOSOME("chromosome", Type.TEXT),
+        START("start", Type.INTEGER),
+        IDS("ids", Type.INTEGER_ARRAY),
+        UNBOUND("unbound", Type.BOOLEAN);
+
+        private final String key;
+        private final Type type;
+
+        TestQueryParam(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+
+        @Override public String key() {return key;}
+        @Override public String description() {return "";}
+        @Override public Type type() {return type;}
+    }
+
+    /**
+     * Compiles queries into a textual list of predicates, counting the compiled shapes.
+     */
+    static class TextQueryCompiler extends QueryCompiler<TestQueryParam, String> {
+
+        final AtomicInteger compiled = new AtomicInteger();
+
+        TextQueryCompiler(int cacheSize) {
+            super(TestQueryParam.class, cacheSize);
+        }
+
+        @Override
+        protected Template<TestQueryParam, String> compileTemplate(QueryShape<TestQueryParam> shape,
+                                                                   List<Binding<TestQueryParam>> bindings) {
+            compiled.incrementAndGet();
+            return (Map<TestQueryParam, Object> values, QueryOptions options) -> {
+                List<String> predicates = new ArrayList<>();
+                for (Binding<TestQueryParam> binding : bindings) {
+                    List<Object> list = asList(values.get(binding.getParam()));
+                    predicates.add(binding.getField() + " " + binding.getOperator() + " "
+                            + (list != null ? list : values.get(binding.getParam())));
+                }
+                return predicates + " " + shape.getInclude();
+            };
+        }
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        TextQueryCompiler compiler = new TextQueryCompiler(QueryCompiler.DEFAULT_CACHE_SIZE);
+        compiler.bind(TestQueryParam.CHROMOSOME, "chr", QueryCompiler.Operator.EQ)
+                .bind(TestQueryParam.START, "pos", QueryCompiler.Operator.GTE)
+                .bind(TestQueryParam.IDS, "id", QueryCompiler.Operator.IN);
+
+        assertEquals("[chr EQ 1, pos GTE 100] []",
+                compiler.compile(new Query("start", "100").append("chromosome", 1), null));
+        // Same shape, only the values change
+        assertEquals("[chr EQ X, pos GTE 5] []", compiler.compile(new Query("chromosome", "X").append("start", 5), null));
+        assertEquals(1, compiler.compiled.get());
+        assertEquals(1, compiler.getHitCount());
+        assertEquals(1, compiler.getMissCount());
+
+        // Other parameters or projections are other shapes
+        assertEquals("[id IN [1, 2]] []", compiler.compile(new Query("ids", "1,2"), new QueryOptions()));
+        assertEquals("[id IN [3]] [chr]", compiler.compile(new Query("ids", 3), new QueryOptions("include", "chr")));
+        assertEquals("[] []", compiler.compile(null, null));
+        assertEquals(4, compiler.compiled.get());
+        assertEquals(4, compiler.getCacheSize());
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        TextQueryCompiler compiler = new TextQueryCompiler(2);
+        compiler.bind(TestQueryParam.CHROMOSOME, "chr", QueryCompiler.Operator.EQ)
+                .bind(TestQueryParam.START, "pos", QueryCompiler.Operator.GTE);
+
+        compiler.compile(new Query("chromosome", "1"), null);
+        compiler.compile(new Query("start", 1), null);
+        compiler.compile(new Query("chromosome", "2"), null);
+        // The least recently used shape is evicted
+        compiler.compile(new Query(), null);
+        compiler.compile(new Query("chromosome", "3"), null);
+        assertEquals(3, compiler.compiled.get());
+        compiler.compile(new Query("start", 2), null);
+        assertEquals(4, compiler.compiled.get());
+        assertEquals(2, compiler.getCacheSize());
+
+        // Binding again clears the cache
+        compiler.bind(TestQueryParam.START, "start", QueryCompiler.Operator.GT);
+        assertEquals(0, compiler.getCacheSize());
+        assertEquals("[start GT 2] []", compiler.compile(new Query("start", 2), null));
+    }
+
+    @Test
+    public void testUnboundParam() throws Exception {
+        TextQueryCompiler compiler = new TextQueryCompiler(QueryCompiler.DEFAULT_CACHE_SIZE);
+        thrown.expect(IllegalArgumentException.class);
+        compiler.compile(new Query("unbound", true), null);
+    }
+
+    @Test
+    public void testUnknownParam() throws Exception {
+        TextQueryCompiler compiler = new TextQueryCompiler(QueryCompiler.DEFAULT_CACHE_SIZE);
+        thrown.expect(EnumConstantNotPresentException.class);
+        compiler.compile(new Query("unknown", true), null);
+    }
+
+}
@@ -70,4 +70,62 @@ public class QueryOptionsTest {
         thrown.expect(UnsupportedOperationException.class);
         options.addToListOption("include", "value1");
     }
+
+    @Test
+    public void frozenIsReadOnly() {
+        QueryOptions defaults = new QueryOptions("limit", 10).append("include", new ArrayList<>(Arrays.asList("a", "b")));
+        Assert.assertSame(defaults, defaults.freeze());
+        Assert.assertTrue(defaults.isFrozen());
+        thrown.expect(UnsupportedOperationException.class);
+        defaults.getList("include").add("c");
+    }
+
+    @Test
+    public void frozenPut() {
+        QueryOptions defaults = new QueryOptions("limit", 10).freeze();
+        thrown.expect(UnsupportedOperationException.class);
+        defaults.put("skip", 5);
+    }
+
+    @Test
+    public void deriveFromFrozen() {
+        QueryOptions defaults = new QueryOptions("limit", 10)
+                .append("include", "a,b")
+                .append("sort", "name")
+                .freeze();
+        String json = defaults.toJson();
+
+        QueryOptions options = defaults.append("skip", 20).append("limit", 5);
+        Assert.assertNotSame(defaults, options);
+        Assert.assertFalse(options.isFrozen());
+        options.remove("sort");
+        options.addToListOption("include", "c");
+
+        Assert.assertEquals(json, defaults.toJson());
+        Assert.assertEquals(3, options.size());
+        Assert.assertEquals(Arrays.asList("limit", "include", "skip"), new ArrayList<>(options.keySet()));
+        Assert.assertEquals(5, options.getInt("limit"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), options.getAsStringList("include"));
+        Assert.assertNull(options.get("sort"));
+
+        options.put("sort", "id");
+        Assert.assertEquals(Arrays.asList("limit", "include", "skip", "sort"), new ArrayList<>(options.keySet()));
+        Assert.assertEquals("{\"limit\":5,\"include\":[\"a\",\"b\",\"c\"],\"skip\":20,\"sort\":\"id\"}",
+                options.toJson());
+
+        QueryOptions copy = new QueryOptions(defaults);
+        Assert.assertEquals(json, copy.toJson());
+        copy.clear();
+        Assert.assertTrue(copy.isEmpty());
+        Assert.assertEquals(3, defaults.size());
+    }
+
+    @Test
+    public void deriveQuery() {
+        Query base = new Query("id", "rs1").freeze();
+        Query query = base.append("chromosome", "1");
+        Assert.assertEquals(1, base.size());
+        Assert.assertEquals(2, query.size());
+        Assert.assertEquals(2, query.freeze().derive().size());
+    }
 }
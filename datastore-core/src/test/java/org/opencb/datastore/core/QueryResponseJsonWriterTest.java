@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QueryResponseJsonWriterTest {
+
+    private final QueryResponseJsonWriter writer = new QueryResponseJsonWriter();
+
+    @Test
+    public void testWrite() throws Exception {
+        QueryResult<ObjectMap> queryResult = new QueryResult<>("id", 12, 2, 100, "warning", null,
+                Arrays.asList(new ObjectMap("id", 1), new ObjectMap("id", 2).append("list", Arrays.asList(1, 2))));
+        queryResult.setTimings(new QueryTimings());
+        QueryResponse<QueryResult<?>> queryResponse = new QueryResponse<>(new QueryOptions("limit", 2),
+                Arrays.<QueryResult<?>>asList(queryResult, new QueryResult<>("empty")));
+        queryResponse.setTime(34);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writer.write(queryResponse, outputStream);
+
+        // Same properties as the whole response serialized by Jackson, except the class of the results
+        Map<String, Object> expected = parse(JsonCodec.writer().writeValueAsString(queryResponse));
+        for (Object element : (List<?>) expected.get("response")) {
+            ((Map<?, ?>) element).remove("clazz");
+        }
+        assertEquals(expected, parse(outputStream.toString("UTF-8")));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int numResults = 10000;
+        AtomicInteger closed = new AtomicInteger();
+        Iterator<ObjectMap> source = new Iterator<ObjectMap>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < numResults;
+            }
+
+            @Override
+            public ObjectMap next() {
+                if (i == 0) {
+                    // The envelope is sent before the first result is read
+                    assertTrue(outputStream.toString().endsWith("\"response\":["));
+                } else if (i == numResults - 1) {
+                    // and the results as they are read, not all at the end
+                    assertTrue(outputStream.size() > numResults * 10);
+                }
+                return new ObjectMap("id", i++).append("name", "result");
+            }
+        };
+        StreamingQueryResult<ObjectMap> queryResult = new StreamingQueryResult<>("streaming", source,
+                closed::incrementAndGet, () -> 123456);
+        writer.write(new QueryResponse<>(null, Collections.singletonList(queryResult)), outputStream);
+
+        assertEquals(1, closed.get());
+        Map<String, Object> written = parse(outputStream.toString("UTF-8"));
+        Map<?, ?> first = (Map<?, ?>) ((List<?>) written.get("response")).get(0);
+        assertEquals("streaming", first.get("id"));
+        assertEquals(numResults, ((List<?>) first.get("result")).size());
+        assertEquals(numResults, first.get("numResults"));
+        assertEquals(123456, first.get("numTotalResults"));
+        assertEquals(ObjectMap.class.getCanonicalName(), first.get("resultType"));
+        assertNotNull(first.get("timings"));
+    }
+
+    @Test
+    public void testLazyQueryResults() throws Exception {
+        AtomicInteger run = new AtomicInteger();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Iterator<QueryResult<String>> queries = new Iterator<QueryResult<String>>() {
+            @Override
+            public boolean hasNext() {
+                return run.get() < 3;
+            }
+
+            @Override
+            public QueryResult<String> next() {
+                int i = run.incrementAndGet();
+                if (i == 3) {
+                    // The previous QueryResults have been sent
+                    assertTrue(outputStream.toString().contains("\"id\":\"query2\""));
+                }
+                return new QueryResult<>("query" + i, 0, 1, 1, "", "", Collections.singletonList("r" + i));
+            }
+        };
+        QueryResponse<QueryResult<String>> envelope = new QueryResponse<>();
+        envelope.setError("none");
+        writer.write(envelope, queries, outputStream);
+
+        Map<String, Object> written = parse(outputStream.toString("UTF-8"));
+        assertEquals("none", written.get("error"));
+        assertNull(written.get("queryOptions"));
+        assertEquals(3, ((List<?>) written.get("response")).size());
+    }
+
+    @Test
+    public void testReadError() throws Exception {
+        Iterator<String> source = Arrays.asList("a", "b").iterator();
+        AtomicInteger closed = new AtomicInteger();
+        StreamingQueryResult<String> queryResult = new StreamingQueryResult<>("failing", source, s -> {
+            if (s.equals("b")) {
+                throw new IllegalStateException("Cursor lost");
+            }
+            return s;
+        }, closed::incrementAndGet, null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            writer.write(new QueryResponse<>(null, Collections.singletonList(queryResult)), outputStream);
+            fail();
+        } catch (IllegalStateException e) {
+            // The response is left unfinished and the cursor released
+            try {
+                parse(outputStream.toString("UTF-8"));
+                fail();
+            } catch (IOException expected) {
+            }
+            assertEquals(1, closed.get());
+        }
+    }
+
+    private static Map<String, Object> parse(String json) throws IOException {
+        return JsonCodec.mapReader().readValue(json);
+    }
+
+}
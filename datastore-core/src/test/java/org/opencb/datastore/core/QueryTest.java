@@ -4,6 +4,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
 /**
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
@@ -62,4 +69,48 @@ public class QueryTest {
         thrown.expect(EnumConstantNotPresentException.class);
         query.validate(TestQueryParam.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testValidateTypes() throws Exception {
+        Query query = new Query(TestQueryParam.TEST_PARAM_BOOLEAN.key(), "true")
+                .append(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key(), "1,2,3")
+                .append(TestQueryParam.TEST_PARAM_DECIMAL.key(), "0.5")
+                .append(TestQueryParam.TEST_PARAM_TEXT.key(), 7);
+
+        query.validate(TestQueryParam.class);
+        assertEquals(true, query.get(TestQueryParam.TEST_PARAM_BOOLEAN.key()));
+        assertEquals(Arrays.asList(1L, 2L, 3L), query.get(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key()));
+        assertEquals(0.5, query.get(TestQueryParam.TEST_PARAM_DECIMAL.key()));
+        assertEquals("7", query.get(TestQueryParam.TEST_PARAM_TEXT.key()));
+    }
+
+    @Test
+    public void testValidatePrimitiveArrays() throws Exception {
+        Query query = new Query(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key(), "1,2,3")
+                .append(TestQueryParam.TEST_PARAM_DECIMAL.key(), 2);
+
+        query.validate(TestQueryParam.class, true);
+        assertArrayEquals(new long[]{1, 2, 3}, (long[]) query.get(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key()));
+        assertArrayEquals(new long[]{1, 2, 3}, query.getAsLongArray(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key()));
+        assertEquals(2.0, query.get(TestQueryParam.TEST_PARAM_DECIMAL.key()));
+    }
+
+    @Test
+    public void testSchemaIsCached() throws Exception {
+        assertSame(QueryParamSchema.of(TestQueryParam.class), QueryParamSchema.of(TestQueryParam.class));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        Query query = new Query(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key(), "1,2,3")
+                .append(TestQueryParam.TEST_PARAM_TEXT.key(), "asdf");
+
+        Map<TestQueryParam, Object> snapshot = QueryParamSchema.of(TestQueryParam.class).snapshot(query);
+        assertEquals(Arrays.asList(1L, 2L, 3L), snapshot.get(TestQueryParam.TEST_PARAM_INTEGER_ARRAY));
+        assertEquals("asdf", snapshot.get(TestQueryParam.TEST_PARAM_TEXT));
+        assertEquals("Snapshot must not modify the query", "1,2,3", query.get(TestQueryParam.TEST_PARAM_INTEGER_ARRAY.key()));
+
+        thrown.expect(UnsupportedOperationException.class);
+        snapshot.put(TestQueryParam.TEST_PARAM_BOOLEAN, true);
+    }
+}
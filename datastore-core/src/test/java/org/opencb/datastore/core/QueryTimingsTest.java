@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QueryTimingsTest {
+
+    @Test
+    public void testTimeFetch() throws Exception {
+        QueryTimings timings = new QueryTimings();
+        Iterator<Integer> source = Arrays.asList(1, 2, 3).iterator();
+        Iterator<Integer> iterator = timings.timeFetch(new Iterator<Integer>() {
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                if (first) {
+                    // The first call waits for the first batch
+                    first = false;
+                    sleep(5);
+                }
+                return source.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                sleep(1);
+                return source.next();
+            }
+        });
+
+        int sum = 0;
+        while (iterator.hasNext()) {
+            sum += iterator.next();
+        }
+        assertEquals(6, sum);
+        assertTrue(timings.getFirstBatchNanos() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(timings.getFetchNanos() >= TimeUnit.MILLISECONDS.toNanos(3));
+        assertEquals(timings.getFirstBatchNanos() + timings.getFetchNanos(), timings.fetchedNanos());
+        assertEquals(0, timings.getConversionNanos());
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        QueryTimings timings = new QueryTimings();
+        timings.setDispatchNanos(10);
+        timings.setTotalNanos(20);
+        String json = JsonCodec.writer().writeValueAsString(timings);
+        assertEquals("{\"dispatchNanos\":10,\"firstBatchNanos\":0,\"fetchNanos\":0,\"conversionNanos\":0,"
+                + "\"countNanos\":0,\"writerNanos\":0,\"totalNanos\":20}", json);
+        QueryTimings read = JsonCodec.reader(QueryTimings.class).readValue(json);
+        assertEquals(10, read.getDispatchNanos());
+        assertEquals(20, read.getTotalNanos());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
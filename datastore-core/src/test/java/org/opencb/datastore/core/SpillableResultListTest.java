@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpillableResultListTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final SpillableResultList.Serializer<String> SERIALIZER =
+            new SpillableResultList.Serializer<String>() {
+                @Override
+                public byte[] serialize(String value) {
+                    return value.getBytes(StandardCharsets.UTF_8);
+                }
+
+                @Override
+                public String deserialize(byte[] bytes) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+            };
+
+    @Test
+    public void testHeapOnly() throws Exception {
+        try (SpillableResultList<String> list = new SpillableResultList<>(10, SERIALIZER,
+                temporaryFolder.getRoot().toPath(), 64)) {
+            list.add("a");
+            list.add("b");
+            assertFalse(list.isSpilled());
+            assertEquals(0, list.getSpilledBytes());
+            assertEquals(2, list.size());
+            assertEquals("b", list.get(1));
+            assertEquals(0, temporaryFolder.getRoot().list().length);
+        }
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        List<String> expected = new ArrayList<>();
+        // Small segments, so values are split between them
+        SpillableResultList<String> list = new SpillableResultList<>(5, SERIALIZER,
+                temporaryFolder.getRoot().toPath(), 7);
+        for (int i = 0; i < 1000; i++) {
+            String value = "value" + i + (i % 3 == 0 ? "" : "-á中");
+            list.add(value);
+            expected.add(value);
+        }
+        list.addAll(Arrays.asList("", "last"));
+        expected.addAll(Arrays.asList("", "last"));
+
+        assertTrue(list.isSpilled());
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, list);
+        assertEquals(expected, new ArrayList<>(list));
+        assertEquals("value998-á中", list.get(998));
+
+        list.close();
+        assertEquals(0, temporaryFolder.getRoot().list().length);
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void testZeroThreshold() throws Exception {
+        try (SpillableResultList<String> list = new SpillableResultList<>(0, SERIALIZER)) {
+            list.add("spilled");
+            assertTrue(list.isSpilled());
+            assertEquals("spilled", list.get(0));
+        }
+    }
+
+    @Test
+    public void testSpillSource() throws Exception {
+        // Lengths are spilled as the strings they come from, and only computed when read
+        SpillableResultList.Serializer<Integer> lengths = new SpillableResultList.Serializer<Integer>() {
+            @Override
+            public byte[] serialize(Integer value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Integer deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8).length();
+            }
+        };
+        try (SpillableResultList<Integer> list = new SpillableResultList<>(2, lengths)) {
+            for (String value : Arrays.asList("a", "bb", "ccc", "dddd")) {
+                list.add(value, String::length, SERIALIZER);
+            }
+            assertTrue(list.isSpilled());
+            assertEquals(7, list.getSpilledBytes());
+            assertEquals(Arrays.asList(1, 2, 3, 4), list);
+        }
+    }
+
+    @Test
+    public void testIndexOutOfBounds() throws Exception {
+        try (SpillableResultList<String> list = new SpillableResultList<>(1, SERIALIZER)) {
+            list.add("a");
+            list.add("b");
+            thrown.expect(IndexOutOfBoundsException.class);
+            list.get(2);
+        }
+    }
+
+    @Test
+    public void testReadOnlyElements() throws Exception {
+        try (SpillableResultList<String> list = new SpillableResultList<>(1, SERIALIZER)) {
+            list.add("a");
+            thrown.expect(UnsupportedOperationException.class);
+            list.set(0, "b");
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class StreamingQueryResultTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testIterator() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        StreamingQueryResult<String> queryResult = new StreamingQueryResult<>("test",
+                Arrays.asList("a", "b", "c").iterator(), closed::incrementAndGet, () -> 42);
+        assertEquals(-1, queryResult.getNumResults());
+
+        Iterator<String> iterator = queryResult.iterator();
+        assertEquals("a", iterator.next());
+        assertEquals("b", iterator.next());
+        assertEquals(0, closed.get());
+        assertEquals("c", iterator.next());
+        assertFalse(iterator.hasNext());
+
+        assertEquals(1, closed.get());
+        assertEquals(3, queryResult.getNumResults());
+        assertEquals(42, queryResult.getNumTotalResults());
+        assertTrue(queryResult.getDbTime() >= 0);
+
+        queryResult.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        StreamingQueryResult<Integer> queryResult = new StreamingQueryResult<>("test",
+                Arrays.asList("1", "2", "3", "4").iterator(), Integer::valueOf, closed::incrementAndGet, null);
+        try (Stream<Integer> stream = queryResult.stream()) {
+            assertEquals(Arrays.asList(2, 4), stream.filter(i -> i % 2 == 0).collect(Collectors.toList()));
+        }
+        assertEquals(1, closed.get());
+        assertEquals(4, queryResult.getNumResults());
+        assertEquals(4, queryResult.getNumTotalResults());
+    }
+
+    @Test
+    public void testTimings() throws Exception {
+        StreamingQueryResult<Integer> queryResult = new StreamingQueryResult<>("test",
+                Arrays.asList("1", "2").iterator(), s -> {
+                    sleep(2);
+                    return Integer.valueOf(s);
+                }, null, () -> {
+                    sleep(2);
+                    return 2;
+                });
+        queryResult.getResult();
+
+        QueryTimings timings = queryResult.getTimings();
+        assertTrue(timings.getConversionNanos() >= TimeUnit.MILLISECONDS.toNanos(4));
+        assertTrue(timings.getFetchNanos() < timings.getConversionNanos());
+        assertTrue(timings.getCountNanos() >= TimeUnit.MILLISECONDS.toNanos(2));
+        assertTrue(timings.getTotalNanos() >= timings.fetchedNanos() + timings.getConversionNanos()
+                + timings.getCountNanos());
+        assertEquals(TimeUnit.NANOSECONDS.toMillis(timings.getTotalNanos()), queryResult.getDbTime());
+    }
+
+    @Test
+    public void testCloseBeforeEnd() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        try (StreamingQueryResult<String> queryResult = new StreamingQueryResult<>("test",
+                Arrays.asList("a", "b", "c").iterator(), closed::incrementAndGet, null)) {
+            Iterator<String> iterator = queryResult.iterator();
+            iterator.next();
+            queryResult.close();
+            assertFalse(iterator.hasNext());
+            assertEquals(1, queryResult.getNumResults());
+        }
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testGetResult() throws Exception {
+        Closeable cursor = () -> { };
+        StreamingQueryResult<String> queryResult = new StreamingQueryResult<>("test",
+                Arrays.asList("a", "b").iterator(), cursor, null);
+        assertEquals(Arrays.asList("a", "b"), queryResult.getResult());
+        assertEquals("a", queryResult.first());
+        assertEquals(2, queryResult.getNumResults());
+        assertEquals(String.class.getCanonicalName(), queryResult.getResultType());
+    }
+
+    @Test
+    public void testConsumeTwice() throws Exception {
+        StreamingQueryResult<String> queryResult = new StreamingQueryResult<>("test",
+                Arrays.asList("a", "b").iterator(), null, null);
+        queryResult.iterator();
+        thrown.expect(IllegalStateException.class);
+        queryResult.stream();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
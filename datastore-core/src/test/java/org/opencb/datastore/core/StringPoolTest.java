@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StringPoolTest {
+
+    @After
+    public void tearDown() {
+        StringPool.setDefault(null);
+    }
+
+    @Test
+    public void testIntern() throws Exception {
+        StringPool stringPool = new StringPool(16, 8);
+        String pass = new String("PASS");
+        assertSame(pass, stringPool.intern(pass));
+        assertSame(pass, stringPool.intern(new String("PASS")));
+        assertNull(stringPool.intern(null));
+
+        String longString = "longer than the maximum length";
+        assertSame(longString, stringPool.intern(longString));
+        assertNotSame(longString, stringPool.intern(new String(longString)));
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        // Strings replace the one in their slot instead of growing the pool
+        StringPool stringPool = new StringPool(1, 8);
+        String a = stringPool.intern(new String("a"));
+        String b = stringPool.intern(new String("b"));
+        assertNotSame(a, stringPool.intern(new String("a")));
+        assertNotSame(b, stringPool.intern(new String("b")));
+    }
+
+    @Test
+    public void testObjectMapFromJson() throws Exception {
+        String json = "{\"chromosome\": \"1\", \"filter\": \"PASS\", \"samples\": [{\"gt\": \"0/1\"}, {\"gt\": \"0/1\"}]}";
+        ObjectMap first = new ObjectMap(json);
+        ObjectMap second = new ObjectMap(json);
+        assertNotSame(first.getString("filter"), second.getString("filter"));
+
+        StringPool.setDefault(new StringPool());
+        first = new ObjectMap(json);
+        second = new ObjectMap(json);
+        assertEquals("PASS", first.getString("filter"));
+        assertSame(first.getString("filter"), second.getString("filter"));
+        List<?> samples = (List<?>) first.get("samples");
+        assertSame(((Map<?, ?>) samples.get(0)).get("gt"), ((Map<?, ?>) samples.get(1)).get("gt"));
+        // Field names are deduplicated by the JSON parser
+        assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.aggregation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.datastore.core.JsonCodec;
+import org.opencb.datastore.core.ObjectMap;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class AggregationTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testAggregate() throws Exception {
+        List<ObjectMap> rows = Arrays.asList(
+                new ObjectMap("chr", "1").append("length", 10).append("score", new ObjectMap("value", 0.5)),
+                new ObjectMap("chr", "2").append("length", 5L).append("score", new ObjectMap("value", 1.5)),
+                new ObjectMap("chr", "1").append("length", 25L).append("score", new ObjectMap("value", 2.0)),
+                new ObjectMap("chr", "1").append("length", null));
+        List<ObjectMap> result = Aggregation.<ObjectMap>ofMaps("chr")
+                .count()
+                .sum("length")
+                .min("length")
+                .max("length")
+                .avg("score.value")
+                .histogram("length", 10)
+                .aggregate(rows.iterator());
+
+        assertEquals(2, result.size());
+        ObjectMap first = result.get(0);
+        assertEquals("1", first.get("chr"));
+        assertEquals(3L, first.get("count"));
+        assertEquals(35L, first.get("sum(length)"));
+        assertEquals(10, first.get("min(length)"));
+        assertEquals(25L, first.get("max(length)"));
+        assertEquals(1.25, first.getDouble("avg(score.value)"), 0);
+        assertEquals("[{\"start\":10,\"count\":1},{\"start\":20,\"count\":1}]", json(first.get("histogram(length)")));
+
+        ObjectMap second = result.get(1);
+        assertEquals("2", second.get("chr"));
+        assertEquals(1L, second.get("count"));
+        assertEquals(5L, second.get("sum(length)"));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        List<ObjectMap> rows = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            // Integers and longs of the same value fall in the same group
+            rows.add(new ObjectMap("group", i % 2 == 0 ? (Object) (i % 7) : (Object) (long) (i % 7))
+                    .append("value", i % 3 == 0 ? i : i / 4.0));
+        }
+        Aggregation<ObjectMap> aggregation = Aggregation.<ObjectMap>ofMaps("group")
+                .count().sum("value").min("value").max("value").avg("value").histogram("value", 0.5);
+        List<ObjectMap> sequential = aggregation.aggregate(rows.iterator());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(7, sequential.size());
+            assertEquals(json(sequential), json(aggregation.aggregate(rows.iterator(), pool, 100, 3)));
+
+            AggregatingQueryResultWriter<ObjectMap> writer = new AggregatingQueryResultWriter<>(aggregation, pool);
+            writer.open();
+            for (int i = 0; i < rows.size(); i += 300) {
+                writer.writeBatch(rows.subList(i, Math.min(i + 300, rows.size())));
+            }
+            assertNull(writer.getResult());
+            writer.close();
+            assertEquals(json(sequential), json(writer.getResult()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testGroupNumbersByValue() throws Exception {
+        List<ObjectMap> rows = Arrays.asList(new ObjectMap("value", 1), new ObjectMap("value", 1L),
+                new ObjectMap("value", 1.0), new ObjectMap("value", 1.0f), new ObjectMap("value", 1.5),
+                new ObjectMap("value", 1.5f));
+        List<ObjectMap> result = Aggregation.<ObjectMap>ofMaps("value").count().aggregate(rows.iterator());
+        assertEquals(2, result.size());
+        assertEquals(1L, result.get(0).get("value"));
+        assertEquals(4L, result.get(0).get("count"));
+        assertEquals(1.5, result.get(1).get("value"));
+        assertEquals(2L, result.get(1).get("count"));
+    }
+
+    @Test
+    public void testWriter() throws Exception {
+        // No group-by fields, all the rows are in a single group
+        AggregatingQueryResultWriter<ObjectMap> writer = new AggregatingQueryResultWriter<>(
+                Aggregation.<ObjectMap>ofMaps().count().max("name"));
+        writer.open();
+        writer.write(new ObjectMap("name", "a"));
+        writer.write(new ObjectMap("name", "c"));
+        writer.write(new ObjectMap("name", "b"));
+        writer.close();
+        assertEquals(1, writer.getResult().size());
+        assertEquals(3L, writer.getResult().get(0).get("count"));
+        assertEquals("c", writer.getResult().get(0).get("max(name)"));
+    }
+
+    @Test
+    public void testNotANumber() throws Exception {
+        Aggregation<ObjectMap> aggregation = Aggregation.<ObjectMap>ofMaps().sum("name");
+        thrown.expect(IllegalArgumentException.class);
+        aggregation.aggregate(Collections.singletonList(new ObjectMap("name", "a")).iterator());
+    }
+
+    /**
+     * ObjectMap does not implement equals, so values are compared by their JSON representation.
+     */
+    private static String json(Object value) throws Exception {
+        return JsonCodec.writer().writeValueAsString(value);
+    }
+
+}
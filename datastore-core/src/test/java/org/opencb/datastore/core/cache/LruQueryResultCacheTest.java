@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.cache;
+
+import org.junit.Test;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LruQueryResultCacheTest {
+
+    private final AtomicLong ticker = new AtomicLong();
+
+    @Test
+    public void testCacheKey() {
+        Query query = new Query("chromosome", "1").append("start", 100);
+        Query sameQuery = new Query("start", 100).append("chromosome", "1");
+        QueryOptions options = new QueryOptions("limit", 10).append("include", Arrays.asList("id", "name"));
+        QueryOptions sameOptions = new QueryOptions("include", Arrays.asList("id", "name")).append("limit", 10);
+
+        assertEquals(CacheKey.of("genes", "find", query, options), CacheKey.of("genes", "find", sameQuery, sameOptions));
+        assertEquals(CacheKey.of("genes", "find", new HashSet<>(Arrays.asList("a", "b", "c"))),
+                CacheKey.of("genes", "find", new LinkedHashSet<>(Arrays.asList("c", "b", "a"))));
+
+        assertNotEquals(CacheKey.of("genes", "find", query), CacheKey.of("variants", "find", query));
+        assertNotEquals(CacheKey.of("genes", "find", query), CacheKey.of("genes", "count", query));
+        assertNotEquals(CacheKey.of("genes", "find", Arrays.asList("id", "name")),
+                CacheKey.of("genes", "find", Arrays.asList("name", "id")));
+        assertNotEquals(CacheKey.of("genes", "find", new ObjectMap("start", 1)),
+                CacheKey.of("genes", "find", new ObjectMap("start", "1")));
+        assertNotEquals(CacheKey.of("genes", "find", new ObjectMap("id", "a\",\"b")),
+                CacheKey.of("genes", "find", new ObjectMap("id", "a").append("b", null)));
+        assertNotEquals(CacheKey.of("genes", "find", new Date(1000)), CacheKey.of("genes", "find", new Date(1001)));
+        assertNotEquals(CacheKey.of("genes", "find", Pattern.compile("^a")),
+                CacheKey.of("genes", "find", Pattern.compile("^a", Pattern.CASE_INSENSITIVE)));
+        assertNotEquals(CacheKey.of("genes", "find", new int[]{1, 2}), CacheKey.of("genes", "find", new int[]{1}));
+    }
+
+    @Test
+    public void testCacheKeyOfNestedMaps() {
+        // The order of the fields of a sort or an embedded document matters
+        QueryOptions ascending = new QueryOptions("sort", new ObjectMap("a", 1).append("b", -1)).append("limit", 10);
+        QueryOptions descending = new QueryOptions("limit", 10).append("sort", new ObjectMap("b", -1).append("a", 1));
+        assertNotEquals(CacheKey.of("genes", "find", new Query(), ascending),
+                CacheKey.of("genes", "find", new Query(), descending));
+        assertNotEquals(CacheKey.of("genes", "find", new Query("location", new ObjectMap("chr", "1").append("pos", 5))),
+                CacheKey.of("genes", "find", new Query("location", new ObjectMap("pos", 5).append("chr", "1"))));
+    }
+
+    @Test
+    public void testGetAndPut() {
+        LruQueryResultCache cache = new LruQueryResultCache(1 << 20, 0, TimeUnit.SECONDS);
+        CacheKey key = CacheKey.of("genes", "find", new Query("id", "BRCA2"));
+        assertNull(cache.get(key));
+
+        QueryResult<ObjectMap> queryResult = queryResult("BRCA2", 1);
+        cache.put(key, queryResult);
+        queryResult.getResult().clear();
+
+        QueryResult<ObjectMap> cached = cache.get(key);
+        assertEquals("BRCA2", cached.getId());
+        assertEquals(1, cached.getNumResults());
+        assertEquals(1, cached.getResult().size());
+        assertEquals(ObjectMap.class.getCanonicalName(), cached.getResultType());
+        assertNotSame(cached, cache.get(key));
+
+        CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2.0 / 3, stats.getHitRate(), 0);
+        assertEquals(1, stats.getSize());
+        assertTrue(stats.getWeight() > 0);
+    }
+
+    @Test
+    public void testCachedTimingsAreCopied() {
+        LruQueryResultCache cache = new LruQueryResultCache(1 << 20, 0, TimeUnit.SECONDS);
+        CacheKey key = CacheKey.of("genes", "count");
+        QueryResult<ObjectMap> queryResult = queryResult("count", 1);
+        QueryTimings timings = new QueryTimings();
+        timings.setTotalNanos(1000);
+        queryResult.setTimings(timings);
+        cache.put(key, queryResult);
+        timings.setTotalNanos(2000);
+
+        QueryResult<ObjectMap> cached = cache.get(key);
+        assertEquals(1000, cached.getTimings().getTotalNanos());
+        cached.getTimings().setTotalNanos(3000);
+        assertEquals(1000, cache.get(key).getTimings().getTotalNanos());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedResultsAreReadOnly() {
+        LruQueryResultCache cache = new LruQueryResultCache(1 << 20, 0, TimeUnit.SECONDS);
+        CacheKey key = CacheKey.of("genes", "count");
+        cache.put(key, queryResult("count", 1));
+        cache.<ObjectMap>get(key).getResult().add(new ObjectMap());
+    }
+
+    @Test
+    public void testLruEviction() {
+        // Each result weighs 1000, there is room for three of them
+        LruQueryResultCache cache = new LruQueryResultCache(3500, 0, TimeUnit.SECONDS, queryResult -> 1000,
+                ticker::get);
+        CacheKey[] keys = new CacheKey[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = CacheKey.of("genes", "find", i);
+        }
+        cache.put(keys[0], queryResult("0", 1));
+        cache.put(keys[1], queryResult("1", 1));
+        cache.put(keys[2], queryResult("2", 1));
+        assertNotNull(cache.get(keys[0]));
+        cache.put(keys[3], queryResult("3", 1));
+
+        assertNotNull(cache.get(keys[0]));
+        assertNull(cache.get(keys[1]));
+        assertNotNull(cache.get(keys[2]));
+        assertNotNull(cache.get(keys[3]));
+        assertEquals(1, cache.getStats().getEvictionCount());
+        assertEquals(3, cache.getStats().getSize());
+    }
+
+    @Test
+    public void testWeight() {
+        LruQueryResultCache cache = new LruQueryResultCache(10000, 0, TimeUnit.SECONDS);
+        CacheKey small = CacheKey.of("genes", "find", "small");
+        CacheKey big = CacheKey.of("genes", "find", "big");
+        cache.put(small, queryResult("small", 1));
+        long weight = cache.getStats().getWeight();
+        assertTrue(weight > 0 && weight < 1000);
+
+        // Bigger than the whole cache, not cached and nothing is evicted
+        cache.put(big, queryResult("big", 1000));
+        assertNull(cache.get(big));
+        assertNotNull(cache.get(small));
+        assertEquals(weight, cache.getStats().getWeight());
+    }
+
+    @Test
+    public void testTtl() {
+        LruQueryResultCache cache = new LruQueryResultCache(1 << 20, 10, TimeUnit.SECONDS,
+                LruQueryResultCache::estimateSize, ticker::get);
+        CacheKey key = CacheKey.of("genes", "count");
+        cache.put(key, queryResult("count", 1));
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertNotNull(cache.get(key));
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getStats().getEvictionCount());
+        assertEquals(0, cache.getStats().getWeight());
+    }
+
+    @Test
+    public void testInvalidate() {
+        LruQueryResultCache cache = new LruQueryResultCache(1 << 20, 0, TimeUnit.SECONDS);
+        CacheKey genes = CacheKey.of("genes", "count");
+        CacheKey genesFind = CacheKey.of("genes", "find", new Query());
+        CacheKey variants = CacheKey.of("variants", "count");
+        cache.put(genes, queryResult("genes", 1));
+        cache.put(genesFind, queryResult("genes", 1));
+        cache.put(variants, queryResult("variants", 1));
+
+        cache.invalidate("genes");
+        assertNull(cache.get(genes));
+        assertNull(cache.get(genesFind));
+        assertNotNull(cache.get(variants));
+        assertEquals(2, cache.getStats().getInvalidationCount());
+
+        cache.invalidateAll();
+        assertNull(cache.get(variants));
+        assertEquals(0, cache.getStats().getSize());
+        assertEquals(0, cache.getStats().getWeight());
+    }
+
+    @Test
+    public void testInvalidateWhileQuerying() {
+        LruQueryResultCache cache = new LruQueryResultCache(1 << 20, 0, TimeUnit.SECONDS);
+        CacheKey key = CacheKey.of("genes", "find", new Query());
+
+        // A find starts, the collection is written and invalidated, then the find ends with a stale result
+        long generation = cache.getGeneration("genes");
+        cache.invalidate("genes");
+        cache.put(key, queryResult("stale", 1), generation);
+        assertNull(cache.get(key));
+
+        generation = cache.getGeneration("genes");
+        cache.invalidateAll();
+        cache.put(key, queryResult("stale", 1), generation);
+        assertNull(cache.get(key));
+
+        // Other collections are not affected
+        generation = cache.getGeneration("genes");
+        cache.invalidate("variants");
+        cache.put(key, queryResult("fresh", 1), generation);
+        assertEquals("fresh", cache.get(key).getId());
+    }
+
+    private static QueryResult<ObjectMap> queryResult(String id, int numResults) {
+        List<ObjectMap> result = new ArrayList<>();
+        for (int i = 0; i < numResults; i++) {
+            result.add(new ObjectMap("id", id).append("position", i));
+        }
+        return new QueryResult<>(id, 10, numResults, numResults, null, null, result);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.cache;
+
+import org.junit.Test;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    public void testCoalesce() throws Exception {
+        int threads = 8;
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<QueryResult<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                // Same query and options, in a different order
+                CacheKey key = i % 2 == 0
+                        ? CacheKey.of("genes", "find", new Query("id", "BRCA2").append("species", "hsapiens"),
+                                new QueryOptions("limit", 10))
+                        : CacheKey.of("genes", "find", new Query("species", "hsapiens").append("id", "BRCA2"),
+                                new QueryOptions("limit", 10));
+                futures.add(executor.submit(() -> singleFlight.execute(key, () -> {
+                    executions.incrementAndGet();
+                    await(release);
+                    return new QueryResult<>("BRCA2", 5, 1, 1, null, null, new ArrayList<>(Arrays.asList("BRCA2")));
+                })));
+            }
+            while (singleFlight.getCoalescedCount() < threads - 1) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, singleFlight.getInFlightCount());
+            release.countDown();
+
+            Set<QueryResult<String>> results = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Future<QueryResult<String>> future : futures) {
+                QueryResult<String> queryResult = future.get();
+                assertEquals("BRCA2", queryResult.getId());
+                assertEquals(Collections.singletonList("BRCA2"), queryResult.getResult());
+                results.add(queryResult);
+            }
+            // Every caller has its own copy of the shared result
+            assertEquals(threads, results.size());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, executions.get());
+        assertEquals(1, singleFlight.getExecutionCount());
+        assertEquals(threads - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        CacheKey key = CacheKey.of("genes", "count");
+        List<Long> result = new ArrayList<>(Collections.singletonList(10L));
+        QueryResult<Long> queryResult = singleFlight.execute(key,
+                () -> new QueryResult<>("count", 1, 1, 1, null, null, result));
+        // A query nobody else waited for returns its own result, unmodifiable like a shared one
+        assertEquals(result, queryResult.getResult());
+        try {
+            queryResult.getResult().add(20L);
+            fail();
+        } catch (UnsupportedOperationException ignored) {
+        }
+        singleFlight.execute(key, () -> new QueryResult<>("count", 1, 1, 1, null, null, result));
+        assertEquals(2, singleFlight.getExecutionCount());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CacheKey key = CacheKey.of("genes", "count");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<QueryResult<Long>> leader = executor.submit(() -> singleFlight.execute(key, () -> {
+                await(release);
+                throw new IllegalStateException("Connection lost");
+            }));
+            while (singleFlight.getInFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Future<QueryResult<Long>> follower = executor.submit(() -> singleFlight.execute(key,
+                    () -> new QueryResult<Long>("count")));
+            while (singleFlight.getCoalescedCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<QueryResult<Long>> future : Arrays.asList(leader, follower)) {
+                try {
+                    future.get();
+                    fail();
+                } catch (ExecutionException e) {
+                    assertEquals("Connection lost", e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.datastore.core.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class InMemoryCollectionTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private InMemoryDataStore dataStore;
+    private InMemoryCollection collection;
+
+    @Before
+    public void setUp() throws Exception {
+        dataStore = new InMemoryDataStore("test");
+        collection = dataStore.getCollection("variants");
+        List<ObjectMap> documents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            documents.add(new ObjectMap("_id", i)
+                    .append("chr", i % 2 == 0 ? "1" : "X")
+                    .append("pos", i * 10)
+                    .append("score", i / 10.0)
+                    .append("genes", Arrays.asList("g" + i % 3, "g" + i % 5))
+                    .append("annot", new ObjectMap("ct", i % 4 == 0 ? "missense" : "synonymous").append("n", i)));
+        }
+        collection.insert(documents, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataStore.close();
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        for (Map.Entry<Query, List<Integer>> entry : queries().entrySet()) {
+            assertEquals(entry.getKey().toJson(), entry.getValue(), ids(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testFindWithIndexes() throws Exception {
+        collection.createIndex("chr", InMemoryCollection.IndexType.HASH);
+        collection.createIndex("genes", InMemoryCollection.IndexType.HASH);
+        collection.createIndex("pos", InMemoryCollection.IndexType.SORTED);
+        collection.createIndex("score", InMemoryCollection.IndexType.SORTED);
+        collection.createIndex("annot.ct", InMemoryCollection.IndexType.SORTED);
+        assertEquals(5, collection.getIndexes().size());
+        for (Map.Entry<Query, List<Integer>> entry : queries().entrySet()) {
+            assertEquals(entry.getKey().toJson(), entry.getValue(), ids(entry.getKey()));
+        }
+
+        // Indexes follow the modifications
+        collection.update(new Query("_id", 1), new ObjectMap("$set", new ObjectMap("pos", 5)), null);
+        collection.remove(new Query("_id", 2), null);
+        collection.insert(new ObjectMap("_id", 100).append("pos", 15L).append("annot", new ObjectMap("n", 100)), null);
+        assertEquals(Arrays.asList(1, 100), ids(new Query("pos", new ObjectMap("$gt", 0).append("$lte", 15))));
+        assertEquals(Collections.emptyList(), ids(new Query("pos", 20)));
+    }
+
+    @Test
+    public void testIndexedAndUnindexedResultsAgree() throws Exception {
+        InMemoryCollection plain = dataStore.getCollection("plain");
+        InMemoryCollection indexed = dataStore.getCollection("indexed");
+        indexed.createIndex("a", InMemoryCollection.IndexType.SORTED);
+        List<Object> values = Arrays.asList(1, 2, Arrays.asList(1, 2), Arrays.asList(0, 3), Arrays.asList(1, "b"),
+                Arrays.asList(5), "a", 1.5, Collections.emptyList(), null);
+        for (int i = 0; i < values.size(); i++) {
+            ObjectMap document = new ObjectMap("_id", i).append("n", i).append("a", values.get(i));
+            plain.insert(document, null);
+            indexed.insert(document, null);
+        }
+        // Moves documents in the index, the order of the results must not change
+        for (InMemoryCollection collection : Arrays.asList(plain, indexed)) {
+            collection.update(new Query("_id", 1), new ObjectMap("$set", new ObjectMap("a", 1)), null);
+        }
+
+        List<Query> queries = Arrays.asList(
+                new Query("a", new ObjectMap("$gt", 1).append("$lt", 2)),
+                new Query("a", new ObjectMap("$gte", 1).append("$lte", 1)),
+                new Query("a", new ObjectMap("$gt", 0).append("$lt", "c")),
+                new Query("a", new ObjectMap("$gt", 3).append("$lt", 1)),
+                new Query("a", new ObjectMap("$gte", 1)),
+                new Query("a", new ObjectMap("$lt", 2)),
+                new Query("a", new ObjectMap("$in", Arrays.asList(1, "a"))));
+        for (Query query : queries) {
+            List<Integer> expected = numbers(plain.find(query, null).getResult());
+            assertEquals(query.toJson(), expected, numbers(indexed.find(query, null).getResult()));
+        }
+        // Each bound can be satisfied by a different element of a list
+        assertEquals(Arrays.asList(2, 3, 7), numbers(indexed.find(queries.get(0), null).getResult()));
+    }
+
+    @Test
+    public void testUpdateKeepsInsertionOrder() throws Exception {
+        collection.createIndex("pos", InMemoryCollection.IndexType.SORTED);
+        collection.update(new Query("_id", 1), new ObjectMap("$set", new ObjectMap("pos", 15)), null);
+        Query query = new Query("pos", new ObjectMap("$lte", 20));
+        assertEquals(Arrays.asList(0, 1, 2), ids(query));
+        assertEquals(Arrays.asList(0, 1, 2), ids(collection.find(null, new QueryOptions("limit", 3)).getResult()));
+    }
+
+    @Test
+    public void testFindOptions() throws Exception {
+        QueryResult<ObjectMap> queryResult = collection.find(new Query("chr", "1"),
+                new QueryOptions("sort", new ObjectMap("pos", -1)).append("skip", 1).append("limit", 3));
+        assertEquals(Arrays.asList(46, 44, 42), ids(queryResult.getResult()));
+        assertEquals(3, queryResult.getNumResults());
+        assertEquals(25, queryResult.getNumTotalResults());
+        assertNotNull(queryResult.getTimings());
+
+        queryResult = collection.find(null, new QueryOptions("limit", 2).append("skipCount", true));
+        assertEquals(Arrays.asList(0, 1), ids(queryResult.getResult()));
+        assertEquals(-1, queryResult.getNumTotalResults());
+
+        // Sorted by the first field, then by the second one
+        queryResult = collection.find(new Query("pos", new ObjectMap("$lt", 50)),
+                new QueryOptions("sort", new ObjectMap("chr", 1).append("score", -1)));
+        assertEquals(Arrays.asList(4, 2, 0, 3, 1), ids(queryResult.getResult()));
+        assertEquals(Arrays.asList(0, 1, 2), ids(collection.find(new Query("pos", new ObjectMap("$lt", 30)),
+                new QueryOptions("sort", "score")).getResult()));
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        ObjectMap first = collection.find(new Query("_id", 0), null).first();
+        assertFalse(first.containsKey("_id"));
+        assertEquals(5, first.size());
+
+        first = collection.find(new Query("_id", 0), new QueryOptions("include", "chr,annot.ct")).first();
+        assertEquals("{\"chr\":\"1\",\"annot\":{\"ct\":\"missense\"}}", first.toJson());
+
+        first = collection.find(new Query("_id", 0), new QueryOptions("exclude", Arrays.asList("genes", "annot.n")))
+                .first();
+        assertEquals("{\"chr\":\"1\",\"pos\":0,\"score\":0.0,\"annot\":{\"ct\":\"missense\"}}", first.toJson());
+
+        // Results can be modified without changing the stored documents
+        first.put("chr", "2");
+        assertEquals(1, collection.count(new Query("_id", 0).append("chr", "1")).first().longValue());
+    }
+
+    @Test
+    public void testCountAndDistinct() throws Exception {
+        assertEquals(50, collection.count(new Query()).first().longValue());
+        assertEquals(13, collection.count(new Query("annot.ct", "missense")).first().longValue());
+        assertEquals(Arrays.asList("1", "X"), collection.distinct("chr", new Query()).getResult());
+        assertEquals(Arrays.asList("g0", "g1", "g2", "g3", "g4"), collection.distinct("genes", null).getResult());
+        assertEquals(Arrays.asList("missense"), collection.distinct("annot.ct", new Query("_id", 4)).getResult());
+    }
+
+    @Test
+    public void testInsertDuplicateId() throws Exception {
+        try {
+            collection.insert(Arrays.asList(new ObjectMap("_id", 100), new ObjectMap("_id", 1L)), null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Nothing is inserted
+            assertEquals(50, collection.size());
+        }
+        thrown.expect(IllegalArgumentException.class);
+        collection.insert(Arrays.asList(new ObjectMap("_id", 100), new ObjectMap("_id", 100)), null);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        ObjectMap update = new ObjectMap("$set", new ObjectMap("annot.ct", "stop"))
+                .append("$inc", new ObjectMap("pos", 5).append("count", 1))
+                .append("$push", new ObjectMap("genes", "g9"))
+                .append("$unset", new ObjectMap("score", ""));
+        assertEquals(1, collection.update(new Query("_id", 0), update, null).first().longValue());
+        assertEquals("{\"chr\":\"1\",\"pos\":5,\"genes\":[\"g0\",\"g0\",\"g9\"],\"annot\":{\"ct\":\"stop\",\"n\":0},"
+                + "\"count\":1}", collection.find(new Query("_id", 0), null).first().toJson());
+
+        update = new ObjectMap("$addToSet", new ObjectMap("genes", new ObjectMap("$each", Arrays.asList("g9", "g8"))))
+                .append("$pull", new ObjectMap("genes", "g0"));
+        collection.update(new Query("_id", 0), update, null);
+        assertEquals(Arrays.asList("g9", "g8"), collection.find(new Query("_id", 0), null).first().get("genes"));
+
+        // Only the first matching document is updated unless multi is set
+        ObjectMap flag = new ObjectMap("$set", new ObjectMap("flag", true));
+        assertEquals(1, collection.update(new Query("chr", "X"), flag, null).first().longValue());
+        assertEquals(25, collection.update(new Query("chr", "X"), flag, new QueryOptions("multi", true)).first()
+                .longValue());
+        assertEquals(25, collection.count(new Query("flag", true)).first().longValue());
+
+        // Replacements keep the _id
+        collection.update(new Query("_id", 1), new ObjectMap("replaced", true), null);
+        assertEquals("{\"replaced\":true}", collection.find(new Query("_id", 1), null).first().toJson());
+
+        assertEquals(0, collection.update(new Query("_id", 100), flag, null).first().longValue());
+        assertEquals(1, collection.update(new Query("_id", 100).append("chr", "Y"), flag,
+                new QueryOptions("upsert", true)).first().longValue());
+        assertEquals(51, collection.size());
+        assertEquals("{\"chr\":\"Y\",\"flag\":true}", collection.find(new Query("_id", 100), null).first().toJson());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        assertEquals(25, collection.remove(new Query("chr", "1"), null).first().longValue());
+        assertEquals(25, collection.size());
+        assertEquals(0, collection.count(new Query("chr", "1")).first().longValue());
+        // The _id of removed documents can be used again
+        collection.insert(new ObjectMap("_id", 0), null);
+        assertEquals(26, collection.size());
+    }
+
+    @Test
+    public void testConverterAndWriter() throws Exception {
+        ComplexTypeConverter<String, ObjectMap> converter = new ComplexTypeConverter<String, ObjectMap>() {
+            @Override
+            public String convertToDataModelType(ObjectMap object) {
+                return object.getString("chr") + ":" + object.getInt("pos");
+            }
+
+            @Override
+            public ObjectMap convertToStorageType(String object) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        assertEquals(Arrays.asList("1:0", "X:10"),
+                collection.find(new Query("pos", new ObjectMap("$lte", 10)), converter, null).getResult());
+
+        List<ObjectMap> written = new ArrayList<>();
+        collection.setQueryResultWriter(new QueryResultWriter<ObjectMap>() {
+            @Override
+            public void open() throws IOException {
+            }
+
+            @Override
+            public void write(ObjectMap elem) throws IOException {
+                written.add(elem);
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        });
+        QueryResult<ObjectMap> queryResult = collection.find(new Query("chr", "X"), null);
+        assertTrue(queryResult.getResult().isEmpty());
+        assertEquals(25, written.size());
+    }
+
+    @Test
+    public void testDataStore() throws Exception {
+        assertSame(collection, dataStore.getCollection("variants"));
+        assertEquals(50, collection.countAsync(new Query()).get().first().longValue());
+        dataStore.getCollection("genes");
+        assertEquals(Arrays.asList("genes", "variants"), dataStore.getCollectionNames());
+        dataStore.dropCollection("variants");
+        assertEquals(0, collection.size());
+        assertEquals(Collections.singletonList("genes"), dataStore.getCollectionNames());
+    }
+
+    /**
+     * Queries on the test documents and the ids they match.
+     */
+    private static Map<Query, List<Integer>> queries() {
+        Map<Query, List<Integer>> queries = new LinkedHashMap<>();
+        queries.put(new Query("chr", "X").append("pos", new ObjectMap("$gte", 100).append("$lt", 200)),
+                Arrays.asList(11, 13, 15, 17, 19));
+        queries.put(new Query("pos", new ObjectMap("$in", Arrays.asList(0L, 100, 200.0))), Arrays.asList(0, 10, 20));
+        queries.put(new Query("pos", new ObjectMap("$gt", 460)), Arrays.asList(47, 48, 49));
+        queries.put(new Query("pos", new ObjectMap("$gt", "a")), Collections.emptyList());
+        queries.put(new Query("pos", new ObjectMap("$gt", 100).append("$lt", "z")), Collections.emptyList());
+        queries.put(new Query("score", new ObjectMap("$lte", 0.2)), Arrays.asList(0, 1, 2));
+        queries.put(new Query("annot.ct", "missense").append("pos", new ObjectMap("$lt", 100)),
+                Arrays.asList(0, 4, 8));
+        queries.put(new Query("annot.ct", new ObjectMap("$gt", "s")).append("_id", new ObjectMap("$lt", 4)),
+                Arrays.asList(1, 2, 3));
+        queries.put(new Query("genes", new ObjectMap("$all", Arrays.asList("g0", "g1"))),
+                Arrays.asList(6, 10, 21, 25, 36, 40));
+        queries.put(new Query("genes", "g4").append("chr", "1"), Arrays.asList(4, 14, 24, 34, 44));
+        queries.put(new Query("genes", new ObjectMap("$size", 2)).append("_id", new ObjectMap("$lt", 2)),
+                Arrays.asList(0, 1));
+        queries.put(new Query("chr", Pattern.compile("^x$", Pattern.CASE_INSENSITIVE)).append("_id", 1),
+                Collections.singletonList(1));
+        queries.put(new Query("chr", new ObjectMap("$regex", "^x$").append("$options", "i")).append("_id", 1),
+                Collections.singletonList(1));
+        queries.put(new Query("$or", Arrays.asList(new ObjectMap("pos", 10), new ObjectMap("pos", 30))),
+                Arrays.asList(1, 3));
+        queries.put(new Query("$nor", Arrays.asList(new ObjectMap("chr", "1"), new ObjectMap("pos",
+                new ObjectMap("$gt", 20)))), Collections.singletonList(1));
+        queries.put(new Query("missing", null).append("_id", new ObjectMap("$lte", 1)), Arrays.asList(0, 1));
+        queries.put(new Query("annot.n", new ObjectMap("$exists", false)), Collections.emptyList());
+        queries.put(new Query("chr", new ObjectMap("$ne", "1")).append("pos", new ObjectMap("$not",
+                new ObjectMap("$gte", 40))), Arrays.asList(1, 3));
+        return queries;
+    }
+
+    private List<Integer> ids(Query query) {
+        return ids(collection.find(query, new QueryOptions("include", "annot.n")).getResult());
+    }
+
+    private static List<Integer> numbers(List<ObjectMap> documents) {
+        List<Integer> numbers = new ArrayList<>();
+        for (ObjectMap document : documents) {
+            numbers.add(document.getInt("n"));
+        }
+        return numbers;
+    }
+
+    private static List<Integer> ids(List<ObjectMap> documents) {
+        List<Integer> ids = new ArrayList<>();
+        for (ObjectMap document : documents) {
+            ids.add(document.getInt("annot.n", -1) >= 0 ? document.getInt("annot.n")
+                    : ((ObjectMap) document.get("annot")).getInt("n"));
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.core.protobuf;
+
+import com.google.protobuf.UnknownFieldSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.datastore.core.JsonCodec;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ProtobufCodecTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testObjectMap() throws Exception {
+        ObjectMap objectMap = new ObjectMap("string", "value")
+                .append("int", 1)
+                .append("negative", -1)
+                .append("long", 1L << 40)
+                .append("double", 0.5)
+                .append("float", 1.5f)
+                .append("boolean", true)
+                .append("null", null)
+                .append("bytes", new byte[]{1, 2, 3})
+                .append("list", Arrays.asList("a", 1, null, Arrays.asList(1L, 2L)))
+                .append("map", new ObjectMap("nested", new ObjectMap("deep", "value")))
+                .append("ints", new int[]{1, -2, 3})
+                .append("longs", new long[]{1L << 50, -1L})
+                .append("doubles", new double[]{0.1, -0.2})
+                .append("emptyLongs", new long[0])
+                .append("unicode", "á中😀")
+                .append("unpairedSurrogate", "a\uD800b")
+                .append("bean", new Bean("bean", 3));
+        // Enough entries to promote the map and grow the buffers of the encoder
+        for (int i = 0; i < 100; i++) {
+            objectMap.put("key" + i, Collections.singletonMap("value", i));
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ProtobufCodec.write(objectMap, outputStream);
+        byte[] bytes = outputStream.toByteArray();
+        UnknownFieldSet.parseFrom(bytes);
+
+        ObjectMap decoded = ProtobufCodec.readObjectMap(new ByteArrayInputStream(bytes));
+        assertEquals(new ArrayList<>(objectMap.keySet()), new ArrayList<>(decoded.keySet()));
+        for (String key : Arrays.asList("string", "int", "negative", "long", "double", "float", "boolean", "list",
+                "map", "unicode", "key99")) {
+            assertEquals(key, json(objectMap.get(key)), json(decoded.get(key)));
+        }
+        assertEquals("a?b", decoded.get("unpairedSurrogate"));
+        assertNull(decoded.get("null"));
+        assertTrue(decoded.containsKey("null"));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) decoded.get("bytes"));
+        assertArrayEquals(new int[]{1, -2, 3}, (int[]) decoded.get("ints"));
+        assertArrayEquals(new long[]{1L << 50, -1L}, (long[]) decoded.get("longs"));
+        assertArrayEquals(new double[]{0.1, -0.2}, (double[]) decoded.get("doubles"), 0);
+        assertArrayEquals(new long[0], (long[]) decoded.get("emptyLongs"));
+        Map<String, Object> bean = new LinkedHashMap<>();
+        bean.put("name", "bean");
+        bean.put("count", 3);
+        assertEquals(bean, decoded.get("bean"));
+        assertEquals(objectMap.getAsLongArray("longs").length, decoded.getAsLongArray("longs").length);
+    }
+
+    @Test
+    public void testQueryResponse() throws Exception {
+        QueryResult<ObjectMap> queryResult = new QueryResult<>("id", 12, 2, 100, "warning", null,
+                Arrays.asList(new ObjectMap("id", 1), new ObjectMap("id", 2)));
+        QueryTimings timings = new QueryTimings();
+        timings.setDispatchNanos(1);
+        timings.setFirstBatchNanos(2);
+        timings.setFetchNanos(3);
+        timings.setConversionNanos(4);
+        timings.setCountNanos(5);
+        timings.setWriterNanos(6);
+        timings.setTotalNanos(1L << 40);
+        queryResult.setTimings(timings);
+        queryResult.setContinuationToken("token");
+        QueryResult<Integer> empty = new QueryResult<>("empty");
+        QueryOptions queryOptions = new QueryOptions("limit", 2).append("include", Arrays.asList("id"));
+        QueryResponse<QueryResult<?>> queryResponse = new QueryResponse<>(queryOptions,
+                Arrays.<QueryResult<?>>asList(queryResult, empty));
+        queryResponse.setTime(34);
+
+        byte[] bytes = ProtobufCodec.encode(queryResponse);
+        UnknownFieldSet.parseFrom(bytes);
+        QueryResponse<QueryResult<Object>> decoded = ProtobufCodec.decodeQueryResponse(bytes);
+
+        assertEquals(34, decoded.getTime());
+        assertEquals("v2", decoded.getApiVersion());
+        assertEquals("", decoded.getError());
+        assertEquals(queryOptions.toJson(), decoded.getQueryOptions().toJson());
+        assertEquals(2, decoded.getResponse().size());
+
+        QueryResult<Object> first = decoded.getResponse().get(0);
+        assertEquals("id", first.getId());
+        assertEquals(12, first.getDbTime());
+        assertEquals(2, first.getNumResults());
+        assertEquals(100, first.getNumTotalResults());
+        assertEquals("warning", first.getWarningMsg());
+        assertNull(first.getErrorMsg());
+        assertEquals(ObjectMap.class.getCanonicalName(), first.getResultType());
+        assertEquals(json(queryResult.getResult()), json(first.getResult()));
+        assertEquals(json(timings), json(first.getTimings()));
+        assertEquals("token", first.getContinuationToken());
+
+        QueryResult<Object> second = decoded.getResponse().get(1);
+        assertEquals("empty", second.getId());
+        assertEquals(-1, second.getDbTime());
+        assertEquals(-1, second.getNumTotalResults());
+        assertNull(second.getTimings());
+        assertNull(second.getContinuationToken());
+        assertTrue(second.getResult().isEmpty());
+    }
+
+    @Test
+    public void testIncrementalWrite() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ProtobufQueryResultWriter<ObjectMap> writer = new ProtobufQueryResultWriter<>(outputStream, 64);
+        List<ObjectMap> results = new ArrayList<>();
+        writer.open();
+        for (int i = 0; i < 50; i++) {
+            ObjectMap result = new ObjectMap("id", i).append("name", "name" + i);
+            writer.write(result);
+            results.add(result);
+        }
+        writer.close();
+        QueryResult<ObjectMap> queryResult = new QueryResult<>("incremental", 5, 50, 50, null, null,
+                Collections.<ObjectMap>emptyList());
+        ProtobufCodec.writeWithoutResults(queryResult, outputStream);
+
+        QueryResult<Object> decoded = ProtobufCodec.readQueryResult(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals("incremental", decoded.getId());
+        assertEquals(5, decoded.getDbTime());
+        assertEquals(50, decoded.getNumResults());
+        assertEquals(json(results), json(decoded.getResult()));
+    }
+
+    @Test
+    public void testQueryResponseOfOtherTypes() throws Exception {
+        QueryResponse<String> queryResponse = new QueryResponse<>(null, Arrays.asList("not a QueryResult"));
+        thrown.expect(IllegalArgumentException.class);
+        ProtobufCodec.encode(queryResponse);
+    }
+
+    /**
+     * ObjectMap does not implement equals, so values are compared by their JSON representation.
+     */
+    private static String json(Object value) throws Exception {
+        return JsonCodec.writer().writeValueAsString(value);
+    }
+
+    public static class Bean {
+        private String name;
+        private int count;
+
+        public Bean(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.datastore.core.ColumnarResult;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Fills a {@link ColumnarResult} from the rows of a scan. HBase stores bytes, so the type of each column is declared
+ * and its cells are decoded as written by {@link Bytes}: integers of 1, 2, 4 or 8 bytes, floats or doubles, and UTF-8
+ * strings. Missing cells are nulls.
+ */
+final class HBaseColumnarReader {
+
+    private final Map<String, ColumnarResult.Type> columns;
+    private final byte[][] families;
+    private final byte[][] qualifiers;
+
+    /**
+     * @param columns the types of the columns, keyed by "family:qualifier"
+     */
+    HBaseColumnarReader(Map<String, ColumnarResult.Type> columns) {
+        this.columns = columns;
+        this.families = new byte[columns.size()][];
+        this.qualifiers = new byte[columns.size()][];
+        int i = 0;
+        for (String column : columns.keySet()) {
+            String[] parts = column.split(":", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Column " + column + " is not of the form family:qualifier");
+            }
+            families[i] = Bytes.toBytes(parts[0]);
+            qualifiers[i] = Bytes.toBytes(parts[1]);
+            i++;
+        }
+    }
+
+    /**
+     * @param limit maximum number of rows to read, 0 for all of them
+     */
+    ColumnarResult read(Iterator<Result> rows, int limit) {
+        ColumnarResult columnarResult = new ColumnarResult(columns);
+        ColumnarResult.Type[] types = columns.values().toArray(new ColumnarResult.Type[columns.size()]);
+        Object[] row = new Object[types.length];
+        while ((limit <= 0 || columnarResult.getNumRows() < limit) && rows.hasNext()) {
+            Result result = rows.next();
+            for (int i = 0; i < types.length; i++) {
+                byte[] value = result.getValue(families[i], qualifiers[i]);
+                row[i] = value == null ? null : decode(value, types[i], i);
+            }
+            columnarResult.addRow(row);
+        }
+        return columnarResult;
+    }
+
+    private Object decode(byte[] value, ColumnarResult.Type type, int column) {
+        switch (type) {
+            case LONG:
+                switch (value.length) {
+                    case Bytes.SIZEOF_LONG:
+                        return Bytes.toLong(value);
+                    case Bytes.SIZEOF_INT:
+                        return Bytes.toInt(value);
+                    case Bytes.SIZEOF_SHORT:
+                        return Bytes.toShort(value);
+                    case Bytes.SIZEOF_BYTE:
+                        return value[0];
+                    default:
+                        break;
+                }
+                break;
+            case DOUBLE:
+                if (value.length == Bytes.SIZEOF_DOUBLE) {
+                    return Bytes.toDouble(value);
+                } else if (value.length == Bytes.SIZEOF_FLOAT) {
+                    return Bytes.toFloat(value);
+                }
+                break;
+            default:
+                return Bytes.toString(value);
+        }
+        throw new IllegalArgumentException("A value of " + value.length + " bytes of column "
+                + Bytes.toString(families[column]) + ":" + Bytes.toString(qualifiers[column])
+                + " can not be read as " + type);
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.DataCollection;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+
+/**
+ * {@link DataCollection} backed by an {@link HBaseTable}. Rows are looked up by key: a query has either a
+ * {@link #ROW_KEY}, or a {@link #START_ROW} and an {@link #END_ROW} to scan. Counting is only supported for the whole
+ * table. HBase has no way to query the distinct values of a column, so {@link #distinct(String, Query)} always throws
+ * an UnsupportedOperationException.
+ *
+ * @param <T> the type of the elements
+ */
+public class HBaseDataCollection<T> implements DataCollection<T> {
+
+    public static final String ROW_KEY = "rowKey";
+    public static final String START_ROW = "startRow";
+    public static final String END_ROW = "endRow";
+
+    private final HBaseTable table;
+    private final ComplexTypeConverter<T, Result> converter;
+    private final Function<T, Put> putConverter;
+    private final Executor executor;
+
+    HBaseDataCollection(HBaseTable table, ComplexTypeConverter<T, Result> converter, Function<T, Put> putConverter,
+                        Executor executor) {
+        this.table = Objects.requireNonNull(table);
+        this.converter = Objects.requireNonNull(converter);
+        this.putConverter = putConverter;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public QueryResult<T> find(Query query, QueryOptions options) {
+        try {
+            if (query != null && query.containsKey(ROW_KEY)) {
+                QueryTimings timings = QueryTimings.start();
+                List<Result> rows = table.find(query.getString(ROW_KEY), options).getResult();
+                List<T> list = rows.isEmpty()
+                        ? Collections.<T>emptyList()
+                        : Collections.singletonList(converter.convertToDataModelType(rows.get(0)));
+                return endQuery(list, timings);
+            } else if (query != null && query.containsKey(START_ROW) && query.containsKey(END_ROW)) {
+                // Reading the whole result releases the scanner
+                QueryResult<T> queryResult = table.stream(query.getString(START_ROW), query.getString(END_ROW), null,
+                        converter, options);
+                queryResult.getResult();
+                return queryResult;
+            } else {
+                throw new IllegalArgumentException("HBase queries need a " + ROW_KEY + ", or a " + START_ROW
+                        + " and an " + END_ROW);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public QueryResult<Long> count(Query query) {
+        if (query != null && !query.isEmpty()) {
+            throw new UnsupportedOperationException("Only the rows of the whole table can be counted");
+        }
+        return table.count();
+    }
+
+    @Override
+    public QueryResult<Object> distinct(String field, Query query) {
+        throw new UnsupportedOperationException("HBase does not support querying distinct values");
+    }
+
+    @Override
+    public QueryResult<Long> insert(List<T> elements, QueryOptions options) {
+        if (putConverter == null) {
+            throw new UnsupportedOperationException("No converter to HBase rows has been provided");
+        }
+        QueryTimings timings = QueryTimings.start();
+        List<Put> puts = new ArrayList<>(elements.size());
+        for (T element : elements) {
+            puts.add(putConverter.apply(element));
+        }
+        try {
+            table.nativeQuery().insert(puts);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return endQuery(Collections.singletonList((long) puts.size()), timings);
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public HBaseTable getTable() {
+        return table;
+    }
+
+    private static <R> QueryResult<R> endQuery(List<R> result, QueryTimings timings) {
+        long totalNanos = timings.stop();
+        QueryResult<R> queryResult = new QueryResult<>(null, (int) TimeUnit.NANOSECONDS.toMillis(totalNanos),
+                result.size(), result.size(), null, null, result);
+        queryResult.setTimings(timings);
+        return queryResult;
+    }
+
+}
@@ -18,11 +18,17 @@ package org.opencb.datastore.hbase;
 
 import com.google.protobuf.ServiceException;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import org.apache.hadoop.hbase.NamespaceDescriptor;
 import org.apache.hadoop.hbase.ZooKeeperConnectionException;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.DataStoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +43,7 @@ public class HBaseDataStore {
     private HBaseAdmin hbaseClient;
     private NamespaceDescriptor namespace;
     private HBaseConfiguration hbaseConfiguration;
+    private ExecutorService executor;
 
     protected Logger logger;
 
@@ -55,7 +62,8 @@ public class HBaseDataStore {
     }
 
     private void init() {
-        hbaseTables = new HashMap<>();
+        hbaseTables = new ConcurrentHashMap<>();
+        executor = DataStoreExecutors.newExecutor(namespace.getName(), hbaseConfiguration);
         logger = LoggerFactory.getLogger(HBaseDataStore.class);
     }
 
@@ -69,6 +77,24 @@ public class HBaseDataStore {
         return hbaseTables.get(tableName);
     }
 
+    /**
+     * Returns the table as a {@link org.opencb.datastore.core.DataCollection} whose asynchronous queries run on the
+     * executor of this datastore, configured with {@link DataStoreExecutors#ASYNC_THREADS} and
+     * {@link DataStoreExecutors#ASYNC_QUEUE_SIZE}.
+     *
+     * @param tableName the name of a table created with {@link #createTable}
+     * @param converter converts the rows read
+     * @param putConverter converts the elements inserted, may be null if the collection is only read
+     */
+    public <T> HBaseDataCollection<T> getDataCollection(String tableName, ComplexTypeConverter<T, Result> converter,
+                                                        Function<T, Put> putConverter) {
+        HBaseTable table = getTable(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Table " + tableName + " has not been created");
+        }
+        return new HBaseDataCollection<>(table, converter, putConverter, executor);
+    }
+
     public boolean test() {
         try {
             HBaseAdmin.checkHBaseAvailable(hbaseClient.getConfiguration());
@@ -83,6 +109,9 @@ public class HBaseDataStore {
 
     public void close() throws IOException {
         logger.info("MongoDataStore: connection closed");
+        if (executor != null) {
+            executor.shutdown();
+        }
         hbaseClient.close();
     }
 
@@ -23,6 +23,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -99,6 +100,25 @@ public class HBaseNativeQuery {
      * @see <a href="https://stackoverflow.com/questions/17981450/row-pagination-with-hbase">Instructions on how to perform pagination in HBase</a>
      */
     public Iterator<Result> find(String startRow, String endRow, List<String> returnFields, QueryOptions options) throws IOException {
+        return scan(startRow, endRow, returnFields, options).iterator();
+    }
+
+    /**
+     * Same as {@link #find(String, String, List, QueryOptions)}, but returns the scanner itself so it can be closed
+     * by the caller once the results have been read.
+     *
+     * @param startRow First row key to query
+     * @param endRow Last row key to query
+     * @param returnFields List of fields to return, in pairs of format cf:col
+     * @param options
+     * @return the scanner over the rows, to be closed by the caller
+     * @throws IOException
+     */
+    public ResultScanner scan(String startRow, String endRow, List<String> returnFields, QueryOptions options) throws IOException {
+        return table.getScanner(createScan(startRow, endRow, returnFields, options));
+    }
+
+    Scan createScan(String startRow, String endRow, List<String> returnFields, QueryOptions options) {
         Scan scan = new Scan(startRow.getBytes(), endRow.getBytes());
         
         if (returnFields != null) {
@@ -129,11 +149,33 @@ public class HBaseNativeQuery {
             }
         }
         
-        ResultScanner scanres = table.getScanner(scan);
-        return scanres.iterator();
+        return scan;
+    }
+
+    /**
+     * Runs a scan built by the caller, like those compiled by {@link HBaseQueryCompiler}.
+     *
+     * @param scan the scan to run
+     * @return the scanner over the rows, to be closed by the caller
+     * @throws IOException
+     */
+    public ResultScanner scan(Scan scan) throws IOException {
+        return table.getScanner(scan);
+    }
+
+    /**
+     * Writes the given rows. HTable buffers writes and is not thread-safe, so concurrent inserts are serialized.
+     *
+     * @param puts Rows to write
+     * @throws IOException
+     */
+    public void insert(List<Put> puts) throws IOException {
+        synchronized (table) {
+            table.put(puts);
+            table.flushCommits();
+        }
     }
 
-    
     private Get getReturnFields(Get get, QueryOptions options) {
         // Select which fields are excluded and included in the query
         if(options != null) {
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.*;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.datastore.core.QueryCompiler;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryParam;
+import org.opencb.datastore.core.QueryShape;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles queries into HBase scans. Parameters are bound either to the row key, see {@link #ROW_KEY}, or to a column
+ * given as family:qualifier:
+ * <pre>
+ *     HBaseQueryCompiler&lt;VariantParam&gt; compiler = new HBaseQueryCompiler&lt;&gt;(VariantParam.class)
+ *             .bind(VariantParam.REGION, HBaseQueryCompiler.ROW_KEY, Operator.PREFIX)
+ *             .bind(VariantParam.TYPE, "d:type", Operator.EQ);
+ *     Scan scan = compiler.compile(query, options);
+ * </pre>
+ * Conditions on the row key narrow the start and stop rows of the scan, except NE and REGEX which become row filters.
+ * Conditions on columns become {@link SingleColumnValueFilter}s that skip the rows without the column. All the filters,
+ * and a {@link PageFilter} for the limit option, are combined in a {@link FilterList} that must pass all of them.
+ *
+ * Row keys are compared as the UTF-8 bytes of the values. Column values are compared as the bytes written by
+ * {@link Bytes} for the type of the parameter, so ranges on numeric columns are only correct for non-negative values.
+ *
+ * Columns of the include option are added to the scan, together with the filtered columns which would otherwise be
+ * missing for the filters. The exclude option is not supported by HBase scans and is ignored.
+ */
+public class HBaseQueryCompiler<E extends Enum<E> & QueryParam> extends QueryCompiler<E, Scan> {
+
+    public static final String ROW_KEY = "rowKey";
+
+    public HBaseQueryCompiler(Class<E> enumType) {
+        this(enumType, DEFAULT_CACHE_SIZE);
+    }
+
+    public HBaseQueryCompiler(Class<E> enumType, int cacheSize) {
+        super(enumType, cacheSize);
+    }
+
+    @Override
+    public HBaseQueryCompiler<E> bind(E param, String field, Operator operator) {
+        super.bind(param, field, operator);
+        return this;
+    }
+
+    @Override
+    protected void checkBinding(E param, String field, Operator operator) {
+        if (operator == Operator.EXISTS) {
+            throw new IllegalArgumentException("EXISTS is not supported by HBase scans");
+        }
+        if (ROW_KEY.equals(field)) {
+            if (operator == Operator.NIN) {
+                throw new IllegalArgumentException("NIN is not supported on the row key");
+            }
+        } else if (field.indexOf(':') <= 0 || field.indexOf(':') == field.length() - 1) {
+            throw new IllegalArgumentException("Column " + field + " is not in the format family:qualifier");
+        }
+    }
+
+    @Override
+    protected Template<E, Scan> compileTemplate(QueryShape<E> shape, List<Binding<E>> bindings) {
+        List<Binding<E>> rowBindings = new ArrayList<>();
+        List<ColumnBinding<E>> columnBindings = new ArrayList<>();
+        List<byte[][]> columns = new ArrayList<>();
+        for (String field : shape.getInclude()) {
+            columns.add(column(field));
+        }
+        for (Binding<E> binding : bindings) {
+            if (ROW_KEY.equals(binding.getField())) {
+                rowBindings.add(binding);
+            } else {
+                ColumnBinding<E> columnBinding = new ColumnBinding<>(binding);
+                columnBindings.add(columnBinding);
+                if (!shape.getInclude().isEmpty() && !shape.getInclude().contains(binding.getField())) {
+                    columns.add(new byte[][]{columnBinding.family, columnBinding.qualifier});
+                }
+            }
+        }
+        return new HBaseTemplate<>(rowBindings, columnBindings, columns);
+    }
+
+    private static byte[][] column(String field) {
+        int colon = field.indexOf(':');
+        if (colon <= 0 || colon == field.length() - 1) {
+            throw new IllegalArgumentException("Column " + field + " is not in the format family:qualifier");
+        }
+        return new byte[][]{Bytes.toBytes(field.substring(0, colon)), Bytes.toBytes(field.substring(colon + 1))};
+    }
+
+    private static final class ColumnBinding<E> {
+
+        private final E param;
+        private final Operator operator;
+        private final byte[] family;
+        private final byte[] qualifier;
+
+        ColumnBinding(Binding<E> binding) {
+            byte[][] column = column(binding.getField());
+            this.param = binding.getParam();
+            this.operator = binding.getOperator();
+            this.family = column[0];
+            this.qualifier = column[1];
+        }
+
+        Filter filter(Object value) {
+            List<Object> values = asList(value);
+            switch (operator) {
+                case EQ:
+                case IN:
+                    if (values == null) {
+                        return filter(CompareFilter.CompareOp.EQUAL, value);
+                    }
+                    return filters(FilterList.Operator.MUST_PASS_ONE, CompareFilter.CompareOp.EQUAL, values);
+                case NE:
+                case NIN:
+                    if (values == null) {
+                        return filter(CompareFilter.CompareOp.NOT_EQUAL, value);
+                    }
+                    return filters(FilterList.Operator.MUST_PASS_ALL, CompareFilter.CompareOp.NOT_EQUAL, values);
+                case GT:
+                    return filter(CompareFilter.CompareOp.GREATER, value);
+                case GTE:
+                    return filter(CompareFilter.CompareOp.GREATER_OR_EQUAL, value);
+                case LT:
+                    return filter(CompareFilter.CompareOp.LESS, value);
+                case LTE:
+                    return filter(CompareFilter.CompareOp.LESS_OR_EQUAL, value);
+                case PREFIX:
+                    return filter(new BinaryPrefixComparator(toBytes(value)));
+                case REGEX:
+                    return filter(new RegexStringComparator(String.valueOf(value)));
+                default:
+                    throw new IllegalArgumentException("Operator " + operator + " is not supported on columns");
+            }
+        }
+
+        private Filter filters(FilterList.Operator listOperator, CompareFilter.CompareOp compareOp,
+                               List<Object> values) {
+            FilterList filters = new FilterList(listOperator);
+            for (Object value : values) {
+                filters.addFilter(filter(compareOp, value));
+            }
+            return filters;
+        }
+
+        private Filter filter(CompareFilter.CompareOp compareOp, Object value) {
+            SingleColumnValueFilter filter = new SingleColumnValueFilter(family, qualifier, compareOp,
+                    new BinaryComparator(toBytes(value)));
+            filter.setFilterIfMissing(true);
+            return filter;
+        }
+
+        private Filter filter(ByteArrayComparable comparator) {
+            SingleColumnValueFilter filter = new SingleColumnValueFilter(family, qualifier,
+                    CompareFilter.CompareOp.EQUAL, comparator);
+            filter.setFilterIfMissing(true);
+            return filter;
+        }
+    }
+
+    private static final class HBaseTemplate<E> implements Template<E, Scan> {
+
+        private final List<Binding<E>> rowBindings;
+        private final List<ColumnBinding<E>> columnBindings;
+        private final List<byte[][]> columns;
+
+        HBaseTemplate(List<Binding<E>> rowBindings, List<ColumnBinding<E>> columnBindings, List<byte[][]> columns) {
+            this.rowBindings = rowBindings;
+            this.columnBindings = columnBindings;
+            this.columns = columns;
+        }
+
+        @Override
+        public Scan bind(Map<E, Object> values, QueryOptions options) {
+            Scan scan = new Scan();
+            List<Filter> filters = new ArrayList<>(columnBindings.size() + 1);
+            byte[] start = null;
+            byte[] stop = null;
+            for (Binding<E> binding : rowBindings) {
+                Object value = values.get(binding.getParam());
+                List<Object> list = asList(value);
+                byte[] row = list == null ? rowKey(value) : null;
+                switch (binding.getOperator()) {
+                    case EQ:
+                    case IN:
+                        if (list == null) {
+                            start = max(start, row);
+                            stop = min(stop, next(row));
+                        } else {
+                            // The scan covers the smallest to the biggest row, the filter skips the others
+                            FilterList rows = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+                            byte[] first = null;
+                            byte[] last = null;
+                            for (Object element : list) {
+                                byte[] key = rowKey(element);
+                                first = first == null ? key : min(first, key);
+                                last = last == null ? key : max(last, key);
+                                rows.addFilter(new RowFilter(CompareFilter.CompareOp.EQUAL, new BinaryComparator(key)));
+                            }
+                            if (first == null) {
+                                // No value can match
+                                filters.add(new PageFilter(0));
+                            } else {
+                                start = max(start, first);
+                                stop = min(stop, next(last));
+                                filters.add(rows);
+                            }
+                        }
+                        break;
+                    case NE:
+                        filters.add(new RowFilter(CompareFilter.CompareOp.NOT_EQUAL, new BinaryComparator(row)));
+                        break;
+                    case GT:
+                        start = max(start, next(row));
+                        break;
+                    case GTE:
+                        start = max(start, row);
+                        break;
+                    case LT:
+                        stop = min(stop, row);
+                        break;
+                    case LTE:
+                        stop = min(stop, next(row));
+                        break;
+                    case PREFIX:
+                        start = max(start, row);
+                        byte[] end = increment(row);
+                        if (end != null) {
+                            stop = min(stop, end);
+                        }
+                        break;
+                    case REGEX:
+                        filters.add(new RowFilter(CompareFilter.CompareOp.EQUAL,
+                                new RegexStringComparator(String.valueOf(value))));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Operator " + binding.getOperator()
+                                + " is not supported on the row key");
+                }
+            }
+            if (start != null && stop != null && Bytes.compareTo(start, stop) >= 0) {
+                // Empty range, HBase would read a single row if start and stop were equal
+                scan.setStartRow(start);
+                scan.setStopRow(next(start));
+                filters.add(new PageFilter(0));
+            } else {
+                if (start != null) {
+                    scan.setStartRow(start);
+                }
+                if (stop != null) {
+                    scan.setStopRow(stop);
+                }
+            }
+
+            for (ColumnBinding<E> binding : columnBindings) {
+                filters.add(binding.filter(values.get(binding.param)));
+            }
+            for (byte[][] column : columns) {
+                scan.addColumn(column[0], column[1]);
+            }
+
+            if (options != null) {
+                int limit = options.getInt("limit", 0);
+                if (limit > 0) {
+                    filters.add(new PageFilter(limit));
+                }
+                int maxVersions = options.getInt("maxVersions", 0);
+                if (maxVersions > 0) {
+                    scan.setMaxVersions(maxVersions);
+                }
+            }
+            if (!filters.isEmpty()) {
+                scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, filters));
+            }
+            return scan;
+        }
+    }
+
+    private static byte[] rowKey(Object value) {
+        return Bytes.toBytes(String.valueOf(value));
+    }
+
+    private static byte[] toBytes(Object value) {
+        if (value instanceof Long) {
+            return Bytes.toBytes((Long) value);
+        } else if (value instanceof Double) {
+            return Bytes.toBytes((Double) value);
+        } else if (value instanceof Boolean) {
+            return Bytes.toBytes((Boolean) value);
+        }
+        return Bytes.toBytes(String.valueOf(value));
+    }
+
+    /**
+     * @return the smallest row key after the given one
+     */
+    private static byte[] next(byte[] row) {
+        byte[] next = new byte[row.length + 1];
+        System.arraycopy(row, 0, next, 0, row.length);
+        return next;
+    }
+
+    /**
+     * @return the smallest row key after all those starting with the prefix, or null if there is none
+     */
+    private static byte[] increment(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xff) {
+                byte[] end = new byte[i + 1];
+                System.arraycopy(prefix, 0, end, 0, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] max(byte[] a, byte[] b) {
+        return a == null || Bytes.compareTo(b, a) > 0 ? b : a;
+    }
+
+    private static byte[] min(byte[] a, byte[] b) {
+        return a == null || Bytes.compareTo(b, a) < 0 ? b : a;
+    }
+
+}
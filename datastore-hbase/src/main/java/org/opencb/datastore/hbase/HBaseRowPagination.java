@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.datastore.core.ContinuationToken;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Pagination of a scan by row key, used when the options contain a {@link QueryOptions#CONTINUATION_TOKEN}. The token
+ * holds the last row returned and the next page restarts the scan right after it, so it costs the same as the first
+ * one. A PageFilter only limits the rows returned by each region, so the limit is also enforced here, which makes the
+ * page boundaries exact.
+ *
+ * An instance keeps the state of a single scan.
+ */
+final class HBaseRowPagination {
+
+    /**
+     * Appended to a row key to get the closest row before it, as done by the reversed scanners of the HBase client.
+     */
+    private static final byte[] MAX_BYTES = new byte[9];
+
+    static {
+        Arrays.fill(MAX_BYTES, (byte) 0xff);
+    }
+
+    private final byte[] lastRow;
+    private final int limit;
+
+    private QueryResult<?> queryResult;
+    private boolean exhausted;
+    private int count;
+
+    HBaseRowPagination(QueryOptions options) {
+        List<Object> values = ContinuationToken.get(options);
+        if (values != null && (values.size() != 1 || !(values.get(0) instanceof String))) {
+            throw new IllegalArgumentException("Continuation token does not hold a row key");
+        }
+        try {
+            lastRow = values == null ? null : Base64.getDecoder().decode((String) values.get(0));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Continuation token does not hold a row key", e);
+        }
+        limit = options.getInt("limit", 0);
+    }
+
+    /**
+     * Moves the start of the scan past the last row of the previous page.
+     */
+    void seek(Scan scan) {
+        if (lastRow == null) {
+            return;
+        }
+        byte[] start = scan.getStartRow();
+        byte[] stop = scan.getStopRow();
+        if (scan.isReversed()) {
+            byte[] before = closestRowBefore(lastRow);
+            if (before.length == 0 || stop.length > 0 && Bytes.compareTo(before, stop) < 0) {
+                exhausted = true;
+            } else if (start.length == 0 || Bytes.compareTo(before, start) < 0) {
+                scan.setStartRow(before);
+            }
+        } else {
+            byte[] after = Bytes.add(lastRow, new byte[]{0});
+            if (stop.length > 0 && Bytes.compareTo(after, stop) >= 0) {
+                exhausted = true;
+            } else if (Bytes.compareTo(after, start) > 0) {
+                scan.setStartRow(after);
+            }
+        }
+    }
+
+    /**
+     * @param queryResult the result of the scan, which receives the token of the next page once the limit is reached
+     */
+    void setQueryResult(QueryResult<?> queryResult) {
+        this.queryResult = queryResult;
+    }
+
+    /**
+     * Returns the rows up to the limit, recording the last one.
+     */
+    Iterator<Result> track(Iterator<Result> iterator) {
+        return new Iterator<Result>() {
+            @Override
+            public boolean hasNext() {
+                return !exhausted && (limit <= 0 || count < limit) && iterator.hasNext();
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Result result = iterator.next();
+                if (++count == limit && queryResult != null) {
+                    queryResult.setContinuationToken(ContinuationToken.encode(
+                            Collections.singletonList(Base64.getEncoder().encodeToString(result.getRow()))));
+                }
+                return result;
+            }
+        };
+    }
+
+    private static byte[] closestRowBefore(byte[] row) {
+        if (row.length == 0) {
+            return HConstants.EMPTY_BYTE_ARRAY;
+        }
+        if (row[row.length - 1] == 0) {
+            return Arrays.copyOf(row, row.length - 1);
+        }
+        byte[] before = Arrays.copyOf(row, row.length + MAX_BYTES.length);
+        before[row.length - 1]--;
+        System.arraycopy(MAX_BYTES, 0, before, row.length, MAX_BYTES.length);
+        return before;
+    }
+
+}
@@ -17,18 +17,34 @@
 package org.opencb.datastore.hbase;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.NamespaceDescriptor;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.opencb.datastore.core.ColumnarResult;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.ContinuationToken;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.QueryTimings;
+import org.opencb.datastore.core.StreamingQueryResult;
+import org.opencb.datastore.core.cache.CacheKey;
+import org.opencb.datastore.core.cache.SingleFlight;
 
 /**
  *
@@ -39,15 +55,15 @@ public class HBaseTable {
     private HBaseAdmin admin;
     private NamespaceDescriptor namespace;
     private HTable table;
+    private final String name;
     
     private HBaseNativeQuery hbaseNativeQuery;
+    private volatile SingleFlight singleFlight;
 
-    private long start;
-    private long end;
-    
     HBaseTable(HBaseAdmin admin, NamespaceDescriptor namespace, String tableName, String[] columnFamilies) throws IOException {
         this.admin = admin;
         this.namespace = namespace;
+        this.name = namespace.getName() + ":" + tableName;
         
         if (!admin.tableExists(tableName)) {
             table = createTable(admin, namespace, tableName, columnFamilies);
@@ -72,32 +88,37 @@ public class HBaseTable {
     }
     
     private QueryResult createQueryResult() {
+        // The query result is the context of the call, tables are shared by all the threads
         QueryResult queryResult = new QueryResult();
-        start = System.currentTimeMillis();
+        queryResult.setTimings(QueryTimings.start());
 
         return queryResult;
     }
 
     private QueryResult prepareQueryResult(List result, Object resultType, QueryResult queryResult) {
-        end = System.currentTimeMillis();
+        long totalNanos = queryResult.getTimings().stop();
 
         queryResult.setResult(result);
         queryResult.setResultType(resultType.getClass().getCanonicalName());
-        queryResult.setDbTime((int)(end-start));
+        queryResult.setDbTime((int) TimeUnit.NANOSECONDS.toMillis(totalNanos));
 
         return queryResult;
     }
 
     public QueryResult count() {
-        QueryResult queryResult = createQueryResult();
-        try {
-            long l = hbaseNativeQuery.count();
-            queryResult = prepareQueryResult(Arrays.asList(l), Long.class, queryResult);
-        } catch (Throwable ex) {
-            queryResult = prepareQueryResult(null, Long.class, queryResult);
-            queryResult.setErrorMsg(ex.getMessage());
-        }
-        return queryResult;
+        return coalesced(() -> {
+            QueryResult queryResult = createQueryResult();
+            try {
+                long l = hbaseNativeQuery.count();
+                queryResult = prepareQueryResult(Arrays.asList(l), Long.class, queryResult);
+                // Counting is the only phase of this query
+                queryResult.getTimings().setCountNanos(queryResult.getTimings().getTotalNanos());
+            } catch (Throwable ex) {
+                queryResult = prepareQueryResult(null, Long.class, queryResult);
+                queryResult.setErrorMsg(ex.getMessage());
+            }
+            return queryResult;
+        }, "count");
     }
 
     // TODO How to do this with HBase?
@@ -108,18 +129,31 @@ public class HBaseTable {
 //        return prepareQueryResult(l, List.class, queryResult);
 //    }
 
-    public QueryResult find(String rowkey, QueryOptions options) throws IOException {
-        QueryResult queryResult = createQueryResult();
-        Result r = hbaseNativeQuery.find(rowkey, null, options);
-//        return prepareQueryResult(l, BasicDBList.class, queryResult);
-        return queryResult;
+    public QueryResult<Result> find(String rowkey, QueryOptions options) throws IOException {
+        return find(rowkey, (List<String>) null, options);
     }
 
-    public QueryResult find(String rowkey, List<String> returnFields, QueryOptions options) throws IOException {
-        QueryResult queryResult = createQueryResult();
-        Result r = hbaseNativeQuery.find(rowkey, returnFields, options);
-//        return prepareQueryResult(l, BasicDBList.class, queryResult);
-        return queryResult;
+    /**
+     * Reads a single row, whose result is empty if it does not exist.
+     */
+    public QueryResult<Result> find(String rowkey, List<String> returnFields, QueryOptions options) throws IOException {
+        try {
+            return coalesced(() -> {
+                QueryResult<Result> queryResult = createQueryResult();
+                try {
+                    Result r = hbaseNativeQuery.find(rowkey, returnFields, options);
+                    List<Result> result = r == null || r.isEmpty()
+                            ? Collections.<Result>emptyList() : Collections.singletonList(r);
+                    queryResult = prepareQueryResult(result, Result.class, queryResult);
+                    queryResult.setNumResults(result.size());
+                    return queryResult;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "find", rowkey, returnFields, options);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     public QueryResult find(String startRow, String endRow, QueryOptions options) throws IOException {
@@ -136,6 +170,122 @@ public class HBaseTable {
         return queryResult;
     }
     
+    /**
+     * Scans the rows between the given keys, reading them while the result is consumed instead of loading them in
+     * memory. The result must be closed to release the scanner.
+     *
+     * With a {@link QueryOptions#CONTINUATION_TOKEN} at most limit rows are returned, and the result holds the token
+     * of the next page once they have been read.
+     */
+    public StreamingQueryResult<Result> stream(String startRow, String endRow, List<String> returnFields,
+                                               QueryOptions options) throws IOException {
+        return stream(hbaseNativeQuery.createScan(startRow, endRow, returnFields, options), options);
+    }
+
+    public <T> StreamingQueryResult<T> stream(String startRow, String endRow, List<String> returnFields,
+                                              ComplexTypeConverter<T, Result> converter, QueryOptions options) throws IOException {
+        return stream(hbaseNativeQuery.createScan(startRow, endRow, returnFields, options), converter, options);
+    }
+
+    /**
+     * Runs a scan, like those compiled by {@link HBaseQueryCompiler}, reading the rows while the result is consumed.
+     * The result must be closed to release the scanner.
+     */
+    public StreamingQueryResult<Result> stream(Scan scan) throws IOException {
+        return stream(scan, (QueryOptions) null);
+    }
+
+    public <T> StreamingQueryResult<T> stream(Scan scan, ComplexTypeConverter<T, Result> converter) throws IOException {
+        return stream(scan, converter, null);
+    }
+
+    /**
+     * Same as {@link #stream(Scan)}, paginated when the options contain a {@link QueryOptions#CONTINUATION_TOKEN}.
+     */
+    public StreamingQueryResult<Result> stream(Scan scan, QueryOptions options) throws IOException {
+        StreamingQueryResult<Result> queryResult = stream(scan, result -> result, options);
+        queryResult.setResultType(Result.class.getCanonicalName());
+        return queryResult;
+    }
+
+    public <T> StreamingQueryResult<T> stream(Scan scan, ComplexTypeConverter<T, Result> converter,
+                                              QueryOptions options) throws IOException {
+        return stream(scan, converter::convertToDataModelType, options);
+    }
+
+    private <T> StreamingQueryResult<T> stream(Scan scan, Function<Result, T> converter, QueryOptions options)
+            throws IOException {
+        if (!ContinuationToken.isRequested(options)) {
+            ResultScanner scanner = hbaseNativeQuery.scan(scan);
+            return new StreamingQueryResult<>(null, scanner.iterator(), converter, scanner, null);
+        }
+        HBaseRowPagination pagination = new HBaseRowPagination(options);
+        pagination.seek(scan);
+        ResultScanner scanner = hbaseNativeQuery.scan(scan);
+        StreamingQueryResult<T> queryResult = new StreamingQueryResult<>(null, pagination.track(scanner.iterator()),
+                converter, scanner, null);
+        pagination.setQueryResult(queryResult);
+        return queryResult;
+    }
+
+    /**
+     * Scans the rows between the given keys reading the given cells into a {@link ColumnarResult}, whose columns are
+     * filled straight from the scanner without keeping the rows. At most limit rows are read if one is set.
+     *
+     * @param columns the types of the columns to read, keyed by "family:qualifier", in the order of the columns
+     * @return a result with a single ColumnarResult, whose number of rows is the number of results
+     */
+    public QueryResult<ColumnarResult> findColumnar(String startRow, String endRow,
+                                                    Map<String, ColumnarResult.Type> columns, QueryOptions options)
+            throws IOException {
+        if (columns == null || columns.isEmpty()) {
+            throw new IllegalArgumentException("A columnar find needs the columns to read");
+        }
+        QueryResult<ColumnarResult> queryResult = createQueryResult();
+        QueryTimings timings = queryResult.getTimings();
+        HBaseColumnarReader reader = new HBaseColumnarReader(columns);
+        ResultScanner scanner = hbaseNativeQuery.scan(
+                hbaseNativeQuery.createScan(startRow, endRow, new ArrayList<>(columns.keySet()), options));
+        timings.setDispatchNanos(timings.elapsedNanos());
+        ColumnarResult columnarResult;
+        try {
+            long readStart = System.nanoTime();
+            // A PageFilter only limits the rows returned by each region
+            columnarResult = reader.read(timings.timeFetch(scanner.iterator()),
+                    options != null ? options.getInt("limit", 0) : 0);
+            timings.setConversionNanos(System.nanoTime() - readStart - timings.fetchedNanos());
+        } finally {
+            scanner.close();
+        }
+        queryResult = prepareQueryResult(Collections.singletonList(columnarResult), columnarResult, queryResult);
+        queryResult.setNumResults(columnarResult.getNumRows());
+        queryResult.setNumTotalResults(columnarResult.getNumRows());
+        return queryResult;
+    }
+
+    /**
+     * Runs the query, or waits for the identical query already running if a SingleFlight is set.
+     */
+    private <T> QueryResult<T> coalesced(Supplier<QueryResult<T>> query, String operation, Object... parameters) {
+        SingleFlight singleFlight = this.singleFlight;
+        if (singleFlight == null) {
+            return query.get();
+        }
+        return singleFlight.execute(CacheKey.of(name, operation, parameters), query);
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Sets the layer that coalesces identical counts and row reads running at the same time, so they are sent once to
+     * HBase and share the result. Scans are read while they are consumed and always run on their own.
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
     /**
      * Create a new Native instance.  This is a convenience method.
      *
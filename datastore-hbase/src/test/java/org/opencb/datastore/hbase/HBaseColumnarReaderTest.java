@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.opencb.datastore.core.ColumnarResult;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HBaseColumnarReaderTest {
+
+    @Test
+    public void testRead() throws Exception {
+        Map<String, ColumnarResult.Type> columns = new LinkedHashMap<>();
+        columns.put("d:count", ColumnarResult.Type.LONG);
+        columns.put("d:score", ColumnarResult.Type.DOUBLE);
+        columns.put("d:name", ColumnarResult.Type.STRING);
+        HBaseColumnarReader reader = new HBaseColumnarReader(columns);
+
+        Result first = Result.create(new Cell[]{
+                cell("a", "count", Bytes.toBytes(1L << 40)),
+                cell("a", "name", Bytes.toBytes("first")),
+                cell("a", "score", Bytes.toBytes(0.5))});
+        Result second = Result.create(new Cell[]{
+                cell("b", "count", Bytes.toBytes(7)),
+                cell("b", "score", Bytes.toBytes(1.5f))});
+        Result third = Result.create(new Cell[]{cell("c", "name", Bytes.toBytes("third"))});
+
+        // The limit is enforced even if the region servers return more rows
+        ColumnarResult columnarResult = reader.read(Arrays.asList(first, second, third).iterator(), 2);
+        assertEquals(2, columnarResult.getNumRows());
+        assertArrayEquals(new long[]{1L << 40, 7}, columnarResult.getColumn("d:count").getLongs());
+        assertArrayEquals(new double[]{0.5, 1.5}, columnarResult.getColumn("d:score").getDoubles(), 0);
+        assertEquals("first", columnarResult.getColumn("d:name").getString(0));
+        assertTrue(columnarResult.getColumn("d:name").isNull(1));
+
+        assertEquals(3, reader.read(Arrays.asList(first, second, third).iterator(), 0).getNumRows());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLength() throws Exception {
+        HBaseColumnarReader reader = new HBaseColumnarReader(
+                Collections.singletonMap("d:count", ColumnarResult.Type.LONG));
+        reader.read(Arrays.asList(Result.create(new Cell[]{cell("a", "count", new byte[3])})).iterator(), 0);
+    }
+
+    private static Cell cell(String row, String qualifier, byte[] value) {
+        return new KeyValue(Bytes.toBytes(row), Bytes.toBytes("d"), Bytes.toBytes(qualifier), value);
+    }
+
+}
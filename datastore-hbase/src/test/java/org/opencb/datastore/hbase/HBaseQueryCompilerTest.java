@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.*;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryCompiler.Operator;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryParam;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HBaseQueryCompilerTest {
+
+    enum VariantParam implements QueryParam {
+        REGION("region", Type.TEXT),
+        FROM("from", Type.TEXT),
+        IDS("ids", Type.TEXT_ARRAY),
+        TYPE("type", Type.TEXT),
+        QUALITY("quality", Type.DECIMAL);
+
+        private final String key;
+        private final Type type;
+
+        VariantParam(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+
+        @Override public String key() {return key;}
+        @Override public String description() {return "";}
+        @Override public Type type() {return type;}
+    }
+
+    private final HBaseQueryCompiler<VariantParam> compiler = new HBaseQueryCompiler<>(VariantParam.class)
+            .bind(VariantParam.REGION, HBaseQueryCompiler.ROW_KEY, Operator.PREFIX)
+            .bind(VariantParam.FROM, HBaseQueryCompiler.ROW_KEY, Operator.GTE)
+            .bind(VariantParam.IDS, HBaseQueryCompiler.ROW_KEY, Operator.IN)
+            .bind(VariantParam.TYPE, "d:type", Operator.EQ)
+            .bind(VariantParam.QUALITY, "d:qual", Operator.GT);
+
+    @Test
+    public void testRowKeyRange() throws Exception {
+        Scan scan = compiler.compile(new Query("region", "1_"), null);
+        assertEquals("1_", Bytes.toString(scan.getStartRow()));
+        assertEquals("1`", Bytes.toString(scan.getStopRow()));
+        assertNull(scan.getFilter());
+
+        scan = compiler.compile(new Query("region", "1_").append("from", "1_0005"), new QueryOptions("limit", 10));
+        assertEquals("1_0005", Bytes.toString(scan.getStartRow()));
+        assertEquals("1`", Bytes.toString(scan.getStopRow()));
+        List<Filter> filters = ((FilterList) scan.getFilter()).getFilters();
+        assertEquals(1, filters.size());
+        assertEquals(10, ((PageFilter) filters.get(0)).getPageSize());
+
+        scan = compiler.compile(new Query("ids", "b,a,c"), null);
+        assertEquals("a", Bytes.toString(scan.getStartRow()));
+        assertArrayEquals(Bytes.add(Bytes.toBytes("c"), new byte[1]), scan.getStopRow());
+        FilterList rows = (FilterList) ((FilterList) scan.getFilter()).getFilters().get(0);
+        assertEquals(FilterList.Operator.MUST_PASS_ONE, rows.getOperator());
+        assertEquals(3, rows.getFilters().size());
+    }
+
+    @Test
+    public void testEmptyRange() throws Exception {
+        Scan scan = compiler.compile(new Query("region", "1_").append("from", "2"), null);
+        List<Filter> filters = ((FilterList) scan.getFilter()).getFilters();
+        assertEquals(0, ((PageFilter) filters.get(0)).getPageSize());
+    }
+
+    @Test
+    public void testColumnFilters() throws Exception {
+        Scan scan = compiler.compile(new Query("type", "SNV").append("quality", "30.5"),
+                new QueryOptions("include", "d:id"));
+        List<Filter> filters = ((FilterList) scan.getFilter()).getFilters();
+        assertEquals(2, filters.size());
+        SingleColumnValueFilter type = (SingleColumnValueFilter) filters.get(0);
+        assertEquals("type", Bytes.toString(type.getQualifier()));
+        assertEquals(CompareFilter.CompareOp.EQUAL, type.getOperator());
+        assertArrayEquals(Bytes.toBytes("SNV"), type.getComparator().getValue());
+        assertTrue(type.getFilterIfMissing());
+        SingleColumnValueFilter quality = (SingleColumnValueFilter) filters.get(1);
+        assertEquals(CompareFilter.CompareOp.GREATER, quality.getOperator());
+        assertArrayEquals(Bytes.toBytes(30.5), quality.getComparator().getValue());
+
+        // The filtered columns are read too
+        assertEquals(3, scan.getFamilyMap().get(Bytes.toBytes("d")).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidColumn() throws Exception {
+        compiler.bind(VariantParam.TYPE, "type", Operator.EQ);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class HBaseRowPaginationTest {
+
+    @Test
+    public void testPages() throws Exception {
+        HBaseRowPagination first = new HBaseRowPagination(options(""));
+        Scan scan = new Scan(Bytes.toBytes("a"), Bytes.toBytes("z"));
+        first.seek(scan);
+        assertEquals("a", Bytes.toString(scan.getStartRow()));
+
+        QueryResult<Result> queryResult = new QueryResult<>();
+        first.setQueryResult(queryResult);
+        Iterator<Result> rows = first.track(Arrays.asList(row("b"), row("c"), row("d")).iterator());
+        assertEquals("b", Bytes.toString(rows.next().getRow()));
+        assertNull(queryResult.getContinuationToken());
+        assertEquals("c", Bytes.toString(rows.next().getRow()));
+        // The limit is enforced even if the region servers return more rows
+        assertFalse(rows.hasNext());
+        String token = queryResult.getContinuationToken();
+        assertNotNull(token);
+
+        HBaseRowPagination next = new HBaseRowPagination(options(token));
+        scan = new Scan(Bytes.toBytes("a"), Bytes.toBytes("z"));
+        next.seek(scan);
+        assertArrayEquals(Bytes.add(Bytes.toBytes("c"), new byte[1]), scan.getStartRow());
+        assertEquals("z", Bytes.toString(scan.getStopRow()));
+
+        scan = new Scan(Bytes.toBytes("a"), Bytes.toBytes("c\0"));
+        next = new HBaseRowPagination(options(token));
+        next.seek(scan);
+        assertFalse(next.track(Arrays.asList(row("d")).iterator()).hasNext());
+    }
+
+    @Test
+    public void testReversedPages() throws Exception {
+        QueryResult<Result> queryResult = new QueryResult<>();
+        HBaseRowPagination first = new HBaseRowPagination(options(""));
+        first.setQueryResult(queryResult);
+        Iterator<Result> rows = first.track(Arrays.asList(row("d"), row("c")).iterator());
+        rows.next();
+        rows.next();
+
+        Scan scan = new Scan(Bytes.toBytes("z"), Bytes.toBytes("a"));
+        scan.setReversed(true);
+        new HBaseRowPagination(options(queryResult.getContinuationToken())).seek(scan);
+        byte[] start = scan.getStartRow();
+        assertTrue(Bytes.compareTo(start, Bytes.toBytes("c")) < 0);
+        assertTrue(Bytes.compareTo(start, Bytes.toBytes("bzzz")) > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidToken() throws Exception {
+        new HBaseRowPagination(options("token"));
+    }
+
+    private static QueryOptions options(String token) {
+        return new QueryOptions("limit", 2).append(QueryOptions.CONTINUATION_TOKEN, token);
+    }
+
+    private static Result row(String row) {
+        return Result.create(new Cell[]{new KeyValue(Bytes.toBytes(row), Bytes.toBytes("d"), Bytes.toBytes("q"),
+                Bytes.toBytes(1))});
+    }
+
+}
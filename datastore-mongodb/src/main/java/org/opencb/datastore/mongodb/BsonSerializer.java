@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.SpillableResultList;
+
+/**
+ * Serializes the documents spilled to disk by a {@link SpillableResultList} as BSON, the same encoding they are read
+ * from the database with. Results of other types are spilled as the documents they are converted from, with
+ * {@link SpillableResultList#add(Object, java.util.function.Function, SpillableResultList.Serializer)}, and converted
+ * when they are read, so converters do not need to convert them back to documents.
+ *
+ * @param <T> the type of the results
+ */
+class BsonSerializer<T> implements SpillableResultList.Serializer<T> {
+
+    private final DBCollection dbCollection;
+    private final ComplexTypeConverter<T, DBObject> converter;
+
+    BsonSerializer(DBCollection dbCollection, ComplexTypeConverter<T, DBObject> converter) {
+        this.dbCollection = dbCollection;
+        this.converter = converter;
+    }
+
+    static BsonSerializer<DBObject> forDocuments(DBCollection dbCollection) {
+        return new BsonSerializer<>(dbCollection, null);
+    }
+
+    @Override
+    public byte[] serialize(T value) {
+        if (converter != null) {
+            throw new UnsupportedOperationException("Converted results are spilled as the documents they come from");
+        }
+        // Encoders keep state while encoding, so they are not shared
+        return new DefaultDBEncoder().encode((DBObject) value);
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        DBObject dbObject = new DefaultDBDecoder().decode(bytes, dbCollection);
+        return converter != null ? converter.convertToDataModelType(dbObject) : (T) dbObject;
+    }
+
+}
@@ -21,15 +21,33 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import com.mongodb.*;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
+import org.opencb.datastore.core.ColumnarResult;
 import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.ContinuationToken;
+import org.opencb.datastore.core.ParallelConverter;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.core.QueryResultWriter;
+import org.opencb.datastore.core.QueryTimings;
+import org.opencb.datastore.core.SpillableResultList;
+import org.opencb.datastore.core.StreamingQueryResult;
+import org.opencb.datastore.core.cache.CacheKey;
+import org.opencb.datastore.core.cache.QueryResultCache;
+import org.opencb.datastore.core.cache.SingleFlight;
 
 /**
+ * Instances are cached by {@link MongoDataStore} and shared by all the threads querying a collection, so the state of
+ * each call, like its {@link QueryTimings}, is kept in local variables. A QueryResultWriter, if set, receives the results
+ * of every query run while it is set and must be thread-safe if queries are run concurrently.
+ *
  * @author Ignacio Medina &lt;imedina@ebi.ac.uk&gt;
  * @author Cristina Yenyxe Gonzalez Garcia &lt;cyenyxe@ebi.ac.uk&gt;
  */
@@ -45,17 +63,29 @@ public class MongoDBCollection {
     public static final String SKIP_COUNT = "skipCount";
     public static final String BATCH_SIZE = "batchSize";
     public static final String ELEM_MATCH = "elemMatch";
+    /**
+     * Number of results of a find kept on the heap, the following ones are spilled to a temporary file. It counts
+     * results, not bytes, so it should be chosen according to the size of the documents. The result list is then a
+     * {@link SpillableResultList} that should be closed once it is no longer needed.
+     */
+    public static final String SPILL_AFTER_RESULTS = "spillAfterResults";
+    /**
+     * Pages a find by the sort values of its last document instead of skipping, see {@link MongoDBKeysetPagination}.
+     */
+    public static final String CONTINUATION_TOKEN = QueryOptions.CONTINUATION_TOKEN;
 
     public static final String UPSERT = "upsert";
     public static final String MULTI = "multi";
 
-    private DBCollection dbCollection;
+    private static final int DEFAULT_BATCH_SIZE = 100;
 
-    private long start;
-    private long end;
+    private DBCollection dbCollection;
 
     private MongoDBNativeQuery mongoDBNativeQuery;
-    private QueryResultWriter<DBObject> queryResultWriter;
+    private volatile QueryResultWriter<DBObject> queryResultWriter;
+    private volatile ForkJoinPool conversionPool;
+    private volatile QueryResultCache queryResultCache;
+    private volatile SingleFlight singleFlight;
 
     private ObjectMapper objectMapper;
     private ObjectWriter objectWriter;
@@ -75,20 +105,22 @@ public class MongoDBCollection {
     }
 
 
-    private void startQuery() {
-        start = System.currentTimeMillis();
+    private QueryTimings startQuery() {
+        return QueryTimings.start();
     }
 
-    private <T> QueryResult<T> endQuery(List result) {
+    private <T> QueryResult<T> endQuery(List result, QueryTimings timings) {
         int numResults = (result != null) ? result.size() : 0;
-        return endQuery(result, numResults);
+        return endQuery(result, numResults, timings);
     }
 
-    private <T> QueryResult<T> endQuery(List result, int numTotalResults) {
-        end = System.currentTimeMillis();
+    private <T> QueryResult<T> endQuery(List result, int numTotalResults, QueryTimings timings) {
+        long totalNanos = timings.stop();
         int numResults = (result != null) ? result.size() : 0;
 
-        QueryResult<T> queryResult = new QueryResult(null, (int) (end-start), numResults, numTotalResults, null, null, result);
+        QueryResult<T> queryResult = new QueryResult(null, (int) TimeUnit.NANOSECONDS.toMillis(totalNanos), numResults,
+                numTotalResults, null, null, result);
+        queryResult.setTimings(timings);
         // If a converter is provided, convert DBObjects to the requested type
 //        if (converter != null) {
 //            List convertedResult = new ArrayList<>(numResults);
@@ -105,40 +137,59 @@ public class MongoDBCollection {
     }
 
     public QueryResult<Long> count() {
-        startQuery();
-        long l = mongoDBNativeQuery.count();
-        return endQuery(Arrays.asList(l));
+        return cached(() -> {
+            QueryTimings timings = startQuery();
+            long l = mongoDBNativeQuery.count();
+            return endQuery(Arrays.asList(l), timings);
+        }, "count");
     }
 
     public QueryResult<Long> count(DBObject query) {
-        startQuery();
-        long l = mongoDBNativeQuery.count(query);
-        return endQuery(Arrays.asList(l));
+        return cached(() -> {
+            QueryTimings timings = startQuery();
+            long l = mongoDBNativeQuery.count(query);
+            return endQuery(Arrays.asList(l), timings);
+        }, "count", cacheKeyOf(query));
+    }
+
+    /**
+     * Counts the documents matching a query compiled by a {@link MongoDBQueryCompiler}.
+     */
+    public QueryResult<Long> count(MongoDBQueryPlan plan) {
+        return count(plan.getFilter());
     }
 
 
 
     public QueryResult<Object> distinct(String key, DBObject query) {
-        startQuery();
-        List<Object> l = mongoDBNativeQuery.distinct(key, query);
-        return endQuery(l);
+        return cached(() -> {
+            QueryTimings timings = startQuery();
+            List<Object> l = mongoDBNativeQuery.distinct(key, query);
+            return endQuery(l, timings);
+        }, "distinct", key, cacheKeyOf(query));
     }
 
     public <T> QueryResult<T> distinct(String key, DBObject query, Class<T> clazz) {
-        startQuery();
-        List<T> l = mongoDBNativeQuery.distinct(key, query);
-        return endQuery(l);
+        return cached(() -> {
+            QueryTimings timings = startQuery();
+            List<T> l = mongoDBNativeQuery.distinct(key, query);
+            return endQuery(l, timings);
+        }, "distinct", key, cacheKeyOf(query));
     }
 
     public <T, O> QueryResult<T> distinct(String key, DBObject query, ComplexTypeConverter< T, O> converter) {
-        startQuery();
-        List<O> distinct = mongoDBNativeQuery.distinct(key, query);
+        return cached(() -> {
+            QueryTimings timings = startQuery();
+            List<O> distinct = mongoDBNativeQuery.distinct(key, query);
 
-        List<T> convertedresultList = new ArrayList<>(distinct.size());
-        for (O o : distinct) {
-            convertedresultList.add(converter.convertToDataModelType(o));
-        }
-        return endQuery(convertedresultList);
+            List<T> convertedresultList;
+            if (conversionPool != null) {
+                convertedresultList = new ParallelConverter<>(converter, conversionPool).convert(distinct.iterator());
+            } else {
+                convertedresultList = converter.convertToDataModelTypes(distinct);
+            }
+            return endQuery(convertedresultList, timings);
+        }, "distinct", key, cacheKeyOf(query), converter.getClass().getName());
     }
 
 
@@ -161,6 +212,18 @@ public class MongoDBCollection {
     }
 
 
+    /**
+     * Runs a query compiled by a {@link MongoDBQueryCompiler}.
+     */
+    public QueryResult<DBObject> find(MongoDBQueryPlan plan, QueryOptions options) {
+        return _find(plan.getFilter(), plan.getProjection(), DBObject.class, null, options);
+    }
+
+    public <T> QueryResult<T> find(MongoDBQueryPlan plan, ComplexTypeConverter<T, DBObject> converter,
+                                   QueryOptions options) {
+        return _find(plan.getFilter(), plan.getProjection(), null, converter, options);
+    }
+
     public List<QueryResult<DBObject>> find(List<DBObject> queries, QueryOptions options) {
         return find(queries, null, options);
     }
@@ -191,109 +254,402 @@ public class MongoDBCollection {
 
     private <T> QueryResult<T> _find(DBObject query, DBObject projection, Class<T> clazz,
                                      ComplexTypeConverter<T, DBObject> converter, QueryOptions options) {
-        startQuery();
+        if (queryResultWriter != null || options != null && options.containsKey(SPILL_AFTER_RESULTS)) {
+            // Results are not kept in a list that can be cached
+            return findNotCached(query, projection, clazz, converter, options);
+        }
+        String resultType = converter != null ? converter.getClass().getName()
+                : clazz != null && !clazz.equals(DBObject.class) ? clazz.getName() : null;
+        Map<String, Object> cachedOptions = null;
+        if (options != null) {
+            cachedOptions = new HashMap<>(options);
+            cachedOptions.remove(TIMEOUT);
+            cachedOptions.remove(BATCH_SIZE);
+        }
+        return cached(() -> findNotCached(query, projection, clazz, converter, options),
+                "find", cacheKeyOf(query), cacheKeyOf(projection), resultType, cachedOptions);
+    }
+
+    private <T> QueryResult<T> findNotCached(DBObject query, DBObject projection, Class<T> clazz,
+                                             ComplexTypeConverter<T, DBObject> converter, QueryOptions options) {
+        QueryTimings timings = startQuery();
 
         /**
          * Getting the cursor and setting the batchSize from options. Default value set to 20.
          */
-        DBCursor cursor = mongoDBNativeQuery.find(query, projection, options);
+        DBCursor cursor;
+        MongoDBKeysetPagination pagination = null;
+        if (ContinuationToken.isRequested(options)) {
+            pagination = new MongoDBKeysetPagination(options);
+            DBObject pageProjection = pagination.projection(projection != null
+                    ? projection : mongoDBNativeQuery.getProjection(null, options));
+            cursor = mongoDBNativeQuery.find(pagination.filter(query), pageProjection, pagination.options(options));
+        } else {
+            cursor = mongoDBNativeQuery.find(query, projection, options);
+        }
+        timings.setDispatchNanos(timings.elapsedNanos());
 
         QueryResult<T> queryResult;
-        List<T> list = new LinkedList<>();
-        if (cursor != null) {
-            if (queryResultWriter != null) {
-                try {
-                    queryResultWriter.open();
-                    while (cursor.hasNext()) {
-                        queryResultWriter.write(cursor.next());
-                    }
-                    queryResultWriter.close();
-                } catch (IOException e) {
-                    cursor.close();
-                    queryResult = endQuery(null);
-                    queryResult.setErrorMsg(e.getMessage() + " " + Arrays.toString(e.getStackTrace()));
-                    return queryResult;
+        List<T> list = newResultList(clazz, converter, options);
+        try {
+            if (cursor != null) {
+                // The cursor sends the query on the first call to hasNext, the time spent reading from the iterator is
+                // the fetch time and the rest of the time spent in the loops is conversion or writer time
+                Iterator<DBObject> iterator = timings.timeFetch(cursor);
+                if (pagination != null) {
+                    iterator = pagination.track(iterator);
                 }
-            } else {
-                if(converter != null) {
-                    while (cursor.hasNext()) {
-                        list.add(converter.convertToDataModelType(cursor.next()));
+                long readStart = System.nanoTime();
+                if (queryResultWriter != null) {
+                    try {
+                        writeResults(iterator, options);
+                    } catch (IOException e) {
+                        cursor.close();
+                        queryResult = endQuery(null, 0, timings);
+                        queryResult.setErrorMsg(e.getMessage() + " " + Arrays.toString(e.getStackTrace()));
+                        return queryResult;
+                    } finally {
+                        timings.setWriterNanos(System.nanoTime() - readStart - timings.fetchedNanos());
                     }
-                }else {
-                    if(clazz != null && !clazz.equals(DBObject.class)) {
-                        DBObject dbObject = null;
-                        while (cursor.hasNext()) {
-                            dbObject = cursor.next();
-                            try {
-                                list.add(objectMapper.readValue(dbObject.toString(), clazz));
-                            } catch (IOException e) {
-                                e.printStackTrace();
+                } else {
+                    if(converter != null) {
+                        if (list instanceof SpillableResultList) {
+                            // Spilled documents are converted when they are read
+                            SpillableResultList<T> spillableList = (SpillableResultList<T>) list;
+                            BsonSerializer<DBObject> documentSerializer = BsonSerializer.forDocuments(dbCollection);
+                            while (iterator.hasNext()) {
+                                spillableList.add(iterator.next(), converter::convertToDataModelType,
+                                        documentSerializer);
+                            }
+                        } else if (conversionPool != null) {
+                            new ParallelConverter<>(converter, conversionPool, batchSize(options))
+                                    .convert(iterator, list);
+                        } else {
+                            while (iterator.hasNext()) {
+                                list.add(converter.convertToDataModelType(iterator.next()));
                             }
                         }
+                    }else {
+                        if(clazz != null && !clazz.equals(DBObject.class)) {
+                            DBObject dbObject = null;
+                            while (iterator.hasNext()) {
+                                dbObject = iterator.next();
+                                try {
+                                    list.add(objectMapper.readValue(dbObject.toString(), clazz));
+                                } catch (IOException e) {
+                                    e.printStackTrace();
+                                }
+                            }
+                        } else {
+                            while (iterator.hasNext()) {
+                                list.add((T) iterator.next());
+                            }
+                        }
+                    }
+                    timings.setConversionNanos(System.nanoTime() - readStart - timings.fetchedNanos());
+                }
+
+                if (options != null && options.getInt(LIMIT) > 0) {
+                    int numTotalResults;
+                    if (options.getBoolean(SKIP_COUNT)) {
+                        numTotalResults = -1;
                     } else {
-                        while (cursor.hasNext()) {
-                            list.add((T) cursor.next());
+                        long countStart = System.nanoTime();
+                        // The cursor of a page only counts the documents after the previous one
+                        DBCursor countCursor = pagination != null ? dbCollection.find(query) : cursor;
+                        try {
+                            numTotalResults = countCursor.maxTime(options.getInt("countTimeout"), TimeUnit.MILLISECONDS)
+                                    .count();
+                        } catch (MongoExecutionTimeoutException e) {
+                            numTotalResults = -1;
                         }
+                        timings.setCountNanos(System.nanoTime() - countStart);
                     }
+                    queryResult = endQuery(list, numTotalResults, timings);
+                } else {
+                    queryResult = endQuery(list, list.size(), timings);
+                }
+                if (pagination != null) {
+                    queryResult.setContinuationToken(pagination.nextToken());
                 }
+                cursor.close();
+            } else {
+                queryResult = endQuery(list, list.size(), timings);
+            }
+        } catch (RuntimeException | Error e) {
+            // Nobody else can close a list spilled to disk
+            if (list instanceof SpillableResultList) {
+                ((SpillableResultList<T>) list).close();
             }
+            throw e;
+        }
+
+        return queryResult;
+    }
+
+    /**
+     * Returns the cached result of the query if there is one, otherwise runs it, or waits for the identical query
+     * already running, and caches the result unless it failed.
+     */
+    private <T> QueryResult<T> cached(Supplier<QueryResult<T>> query, String operation, Object... parameters) {
+        QueryResultCache queryResultCache = this.queryResultCache;
+        SingleFlight singleFlight = this.singleFlight;
+        if (queryResultCache == null && singleFlight == null) {
+            return query.get();
+        }
+        CacheKey key = CacheKey.of(dbCollection.getFullName(), operation, parameters);
+        if (queryResultCache == null) {
+            return singleFlight.execute(key, query);
+        }
+        QueryResult<T> queryResult = queryResultCache.get(key);
+        if (queryResult == null) {
+            Supplier<QueryResult<T>> cachingQuery = () -> {
+                // A write invalidating the collection while the query runs may not be seen by its result
+                long generation = queryResultCache.getGeneration(key.getCollection());
+                QueryResult<T> result = query.get();
+                if (result.getErrorMsg() == null) {
+                    queryResultCache.put(key, result, generation);
+                }
+                return result;
+            };
+            queryResult = singleFlight != null ? singleFlight.execute(key, cachingQuery) : cachingQuery.get();
+        }
+        return queryResult;
+    }
+
+    private static Object cacheKeyOf(DBObject dbObject) {
+        return dbObject == null || dbObject instanceof Map ? dbObject : dbObject.toMap();
+    }
+
+    private void invalidateCache() {
+        if (queryResultCache != null) {
+            queryResultCache.invalidate(dbCollection.getFullName());
+        }
+    }
+
+    /**
+     * Results are spilled to disk when a {@link #SPILL_AFTER_RESULTS} is set and no QueryResultWriter is used.
+     */
+    private <T> List<T> newResultList(Class<T> clazz, ComplexTypeConverter<T, DBObject> converter,
+                                      QueryOptions options) {
+        if (queryResultWriter != null || options == null || !options.containsKey(SPILL_AFTER_RESULTS)) {
+            return new LinkedList<>();
+        }
+        int heapResults = options.getInt(SPILL_AFTER_RESULTS);
+        if (converter != null) {
+            return new SpillableResultList<>(heapResults, new BsonSerializer<>(dbCollection, converter));
+        } else if (clazz != null && !clazz.equals(DBObject.class)) {
+            return new SpillableResultList<>(heapResults, new SpillableResultList.Serializer<T>() {
+                @Override
+                public byte[] serialize(T value) throws IOException {
+                    return objectWriter.writeValueAsBytes(value);
+                }
 
-            if (options != null && options.getInt(LIMIT) > 0) {
-                int numTotalResults;
+                @Override
+                public T deserialize(byte[] bytes) throws IOException {
+                    return objectMapper.readValue(bytes, clazz);
+                }
+            });
+        } else {
+            return (List<T>) new SpillableResultList<>(heapResults, BsonSerializer.forDocuments(dbCollection));
+        }
+    }
+
+    /**
+     * Same as {@link #find(DBObject, DBObject, QueryOptions)}, but the documents are read from the cursor while the
+     * result is consumed instead of being loaded in memory. The result must be closed to release the cursor.
+     */
+    public StreamingQueryResult<DBObject> stream(DBObject query, DBObject projection, QueryOptions options) {
+        return _stream(query, projection, dbObject -> dbObject, options);
+    }
+
+    public <T> StreamingQueryResult<T> stream(DBObject query, DBObject projection, Class<T> clazz,
+                                              QueryOptions options) {
+        if (clazz == null || clazz.equals(DBObject.class)) {
+            return (StreamingQueryResult<T>) stream(query, projection, options);
+        }
+        return _stream(query, projection, dbObject -> {
+            try {
+                return objectMapper.readValue(dbObject.toString(), clazz);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, options);
+    }
+
+    public <T> StreamingQueryResult<T> stream(DBObject query, DBObject projection,
+                                              ComplexTypeConverter<T, DBObject> converter, QueryOptions options) {
+        return _stream(query, projection, converter::convertToDataModelType, options);
+    }
+
+    private <T> StreamingQueryResult<T> _stream(DBObject query, DBObject projection, Function<DBObject, T> converter,
+                                                QueryOptions options) {
+        DBCursor cursor = mongoDBNativeQuery.find(query, projection, options);
+        if (cursor == null) {
+            return new StreamingQueryResult<>(null, Collections.<T>emptyIterator(), null, null);
+        }
+
+        LongSupplier numTotalResultsCounter = null;
+        if (options != null && options.getInt(LIMIT) > 0) {
+            if (options.getBoolean(SKIP_COUNT)) {
+                numTotalResultsCounter = () -> -1;
+            } else {
+                int countTimeout = options.getInt("countTimeout");
+                numTotalResultsCounter = () -> {
+                    try {
+                        return cursor.maxTime(countTimeout, TimeUnit.MILLISECONDS).count();
+                    } catch (MongoExecutionTimeoutException e) {
+                        return -1;
+                    }
+                };
+            }
+        }
+        return new StreamingQueryResult<>(null, cursor, converter, cursor, numTotalResultsCounter);
+    }
+
+
+    /**
+     * Reads the fields of the {@link #INCLUDE} option of the matching documents into a {@link ColumnarResult}, whose
+     * columns are filled straight from the cursor without keeping the documents. Fields can be dotted paths into
+     * nested documents and must hold numbers, dates or strings.
+     *
+     * @return a result with a single ColumnarResult, whose number of rows is the number of results
+     * @throws IllegalArgumentException if no fields are included or a field holds values of other types
+     */
+    public QueryResult<ColumnarResult> findColumnar(DBObject query, QueryOptions options) {
+        List<String> fields = options != null ? options.getAsStringList(INCLUDE, ",") : null;
+        if (fields == null || fields.isEmpty()) {
+            throw new IllegalArgumentException("A columnar find needs the fields to read in the '" + INCLUDE
+                    + "' option");
+        }
+        QueryTimings timings = startQuery();
+        DBCursor cursor = mongoDBNativeQuery.find(query, options);
+        timings.setDispatchNanos(timings.elapsedNanos());
+
+        ColumnarResult columnarResult = new ColumnarResult(fields);
+        String[][] paths = new String[fields.size()][];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = fields.get(i).split("\\.");
+        }
+        Object[] row = new Object[paths.length];
+        int numTotalResults;
+        try {
+            Iterator<DBObject> iterator = timings.timeFetch(cursor);
+            long readStart = System.nanoTime();
+            while (iterator.hasNext()) {
+                DBObject dbObject = iterator.next();
+                for (int i = 0; i < paths.length; i++) {
+                    row[i] = valueOf(dbObject, paths[i]);
+                }
+                columnarResult.addRow(row);
+            }
+            timings.setConversionNanos(System.nanoTime() - readStart - timings.fetchedNanos());
+
+            numTotalResults = columnarResult.getNumRows();
+            if (options.getInt(LIMIT) > 0) {
                 if (options.getBoolean(SKIP_COUNT)) {
                     numTotalResults = -1;
                 } else {
+                    long countStart = System.nanoTime();
                     try {
-                        numTotalResults = cursor.maxTime(options.getInt("countTimeout"), TimeUnit.MILLISECONDS).count();
+                        numTotalResults = cursor.maxTime(options.getInt("countTimeout"), TimeUnit.MILLISECONDS)
+                                .count();
                     } catch (MongoExecutionTimeoutException e) {
                         numTotalResults = -1;
                     }
+                    timings.setCountNanos(System.nanoTime() - countStart);
                 }
-                queryResult = endQuery(list, numTotalResults);
-            } else {
-                queryResult = endQuery(list);
             }
+        } finally {
             cursor.close();
-        } else {
-            queryResult = endQuery(list);
         }
 
+        QueryResult<ColumnarResult> queryResult = endQuery(Collections.singletonList(columnarResult), numTotalResults,
+                timings);
+        queryResult.setNumResults(columnarResult.getNumRows());
         return queryResult;
     }
 
+    private static Object valueOf(DBObject dbObject, String[] path) {
+        Object value = dbObject;
+        for (String key : path) {
+            if (!(value instanceof DBObject) || value instanceof List) {
+                return null;
+            }
+            value = ((DBObject) value).get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Sends the documents to the QueryResultWriter in batches, of the size of the cursor batches if one is set. The
+     * writer is closed even if reading or writing fails, so it can be opened again by the next query.
+     */
+    private void writeResults(Iterator<DBObject> iterator, QueryOptions options) throws IOException {
+        int batchSize = batchSize(options);
+        queryResultWriter.open();
+        try {
+            List<DBObject> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize) {
+                    queryResultWriter.writeBatch(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                queryResultWriter.writeBatch(batch);
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                queryResultWriter.close();
+            } catch (IOException | RuntimeException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+        queryResultWriter.close();
+    }
+
+    private static int batchSize(QueryOptions options) {
+        int batchSize = (options != null) ? options.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE) : DEFAULT_BATCH_SIZE;
+        return batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
 
     public QueryResult<DBObject> aggregate(List<DBObject> operations, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
         QueryResult<DBObject> queryResult;
+        // The aggregation returns all its results at once
         AggregationOutput output = mongoDBNativeQuery.aggregate(operations, options);
+        timings.setDispatchNanos(timings.elapsedNanos());
         Iterator<DBObject> iterator = output.results().iterator();
         List<DBObject> list = new LinkedList<>();
         if (queryResultWriter != null) {
+            long writeStart = System.nanoTime();
             try {
-                queryResultWriter.open();
-                while (iterator.hasNext()) {
-                    queryResultWriter.write(iterator.next());
-                }
-                queryResultWriter.close();
+                writeResults(iterator, options);
             } catch (IOException e) {
-                queryResult = endQuery(list);
+                queryResult = endQuery(list, 0, timings);
                 queryResult.setErrorMsg(e.getMessage() + " " + Arrays.toString(e.getStackTrace()));
                 return queryResult;
+            } finally {
+                timings.setWriterNanos(System.nanoTime() - writeStart);
             }
         } else {
             while (iterator.hasNext()) {
                 list.add(iterator.next());
             }
         }
-        queryResult = endQuery(list);
+        queryResult = endQuery(list, list.size(), timings);
         return queryResult;
     }
 
 
     public QueryResult<WriteResult> insert(DBObject object, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
         WriteResult wr = mongoDBNativeQuery.insert(object, options);
-        QueryResult<WriteResult> queryResult = endQuery(Arrays.asList(wr));
+        invalidateCache();
+        QueryResult<WriteResult> queryResult = endQuery(Arrays.asList(wr), timings);
         if (!wr.getLastError().ok()) {
             queryResult.setErrorMsg(wr.getLastError().getErrorMessage());
         }
@@ -302,15 +658,16 @@ public class MongoDBCollection {
 
     //Bulk insert
     public QueryResult<BulkWriteResult> insert(List<DBObject> objects, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
         BulkWriteResult writeResult = mongoDBNativeQuery.insert(objects, options);
-        QueryResult<BulkWriteResult> queryResult = endQuery(Collections.singletonList(writeResult));
+        invalidateCache();
+        QueryResult<BulkWriteResult> queryResult = endQuery(Collections.singletonList(writeResult), timings);
         return queryResult;
     }
 
 
     public QueryResult<WriteResult> update(DBObject query, DBObject update, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
 
         boolean upsert = false;
         boolean multi = false;
@@ -320,7 +677,8 @@ public class MongoDBCollection {
         }
 
         WriteResult wr = mongoDBNativeQuery.update(query, update, upsert, multi);
-        QueryResult<WriteResult> queryResult = endQuery(Arrays.asList(wr));
+        invalidateCache();
+        QueryResult<WriteResult> queryResult = endQuery(Arrays.asList(wr), timings);
         if (!wr.getLastError().ok()) {
             queryResult.setErrorMsg(wr.getLastError().getErrorMessage());
         }
@@ -329,7 +687,7 @@ public class MongoDBCollection {
 
     //Bulk update
     public QueryResult<BulkWriteResult> update(List<DBObject> queries, List<DBObject> updates, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
 
         boolean upsert = false;
         boolean multi = false;
@@ -339,15 +697,17 @@ public class MongoDBCollection {
         }
 
         BulkWriteResult wr = mongoDBNativeQuery.update(queries, updates, upsert, multi);
-        QueryResult<BulkWriteResult> queryResult = endQuery(Arrays.asList(wr));
+        invalidateCache();
+        QueryResult<BulkWriteResult> queryResult = endQuery(Arrays.asList(wr), timings);
         return queryResult;
     }
 
 
     public QueryResult<WriteResult> remove(DBObject query, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
         WriteResult wr = mongoDBNativeQuery.remove(query);
-        QueryResult<WriteResult> queryResult = endQuery(Arrays.asList(wr));
+        invalidateCache();
+        QueryResult<WriteResult> queryResult = endQuery(Arrays.asList(wr), timings);
         if (!wr.getLastError().ok()) {
             queryResult.setErrorMsg(wr.getLastError().getErrorMessage());
         }
@@ -356,14 +716,15 @@ public class MongoDBCollection {
 
     //Bulk remove
     public QueryResult<BulkWriteResult> remove(List<DBObject> query, QueryOptions options) {
-        startQuery();
+        QueryTimings timings = startQuery();
 
         boolean multi = false;
         if(options != null) {
             multi = options.getBoolean(MULTI);
         }
         BulkWriteResult wr = mongoDBNativeQuery.remove(query, multi);
-        QueryResult<BulkWriteResult> queryResult = endQuery(Arrays.asList(wr));
+        invalidateCache();
+        QueryResult<BulkWriteResult> queryResult = endQuery(Arrays.asList(wr), timings);
 
         return queryResult;
     }
@@ -387,9 +748,10 @@ public class MongoDBCollection {
 
     private <T> QueryResult<T> _findAndModify(DBObject query, DBObject fields, DBObject sort, DBObject update,
                                               QueryOptions options, Class<T> clazz, ComplexTypeConverter<T, DBObject> converter) {
-        startQuery();
+        QueryTimings timings = startQuery();
         DBObject result = mongoDBNativeQuery.findAndModify(query, fields, sort, update, options);
-        QueryResult<T> queryResult = endQuery(Arrays.asList(result));
+        invalidateCache();
+        QueryResult<T> queryResult = endQuery(Arrays.asList(result), timings);
 
         return queryResult;
     }
@@ -397,23 +759,23 @@ public class MongoDBCollection {
 
 
     public QueryResult createIndex(DBObject keys, DBObject options) {
-        startQuery();
+        QueryTimings timings = startQuery();
         mongoDBNativeQuery.createIndex(keys, options);
-        QueryResult queryResult = endQuery(Collections.emptyList());
+        QueryResult queryResult = endQuery(Collections.emptyList(), timings);
         return queryResult;
     }
 
     public QueryResult dropIndex(DBObject keys) {
-        startQuery();
+        QueryTimings timings = startQuery();
         mongoDBNativeQuery.dropIndex(keys);
-        QueryResult queryResult = endQuery(Collections.emptyList());
+        QueryResult queryResult = endQuery(Collections.emptyList(), timings);
         return queryResult;
     }
 
     public QueryResult<DBObject> getIndex() {
-        startQuery();
+        QueryTimings timings = startQuery();
         List<DBObject> index = mongoDBNativeQuery.getIndex();
-        QueryResult<DBObject> queryResult = endQuery(index);
+        QueryResult<DBObject> queryResult = endQuery(index, timings);
         return queryResult;
     }
 
@@ -427,6 +789,47 @@ public class MongoDBCollection {
         this.queryResultWriter = queryResultWriter;
     }
 
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    /**
+     * Sets the cache of the results of finds, counts and distincts. Results of finds are not cached when a
+     * QueryResultWriter is set or they are spilled to disk. Inserts, updates and removes through this class invalidate
+     * the results of the collection, but writes made by other means are only seen once the results expire.
+     *
+     * Converters are identified by their class, so converters of the same class must convert documents the same way.
+     */
+    public void setQueryResultCache(QueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Sets the layer that coalesces identical finds, counts and distincts running at the same time, so they are sent
+     * once to the database and share the result. As with the cache, finds with a QueryResultWriter or spilled to disk
+     * always run on their own.
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    public ForkJoinPool getConversionPool() {
+        return conversionPool;
+    }
+
+    /**
+     * Sets the pool where the results of finds and distincts with a {@link ComplexTypeConverter} are converted, in
+     * batches of {@link #BATCH_SIZE} documents, while the following documents are read. Results are converted in the
+     * calling thread when no pool is set.
+     */
+    public void setConversionPool(ForkJoinPool conversionPool) {
+        this.conversionPool = conversionPool;
+    }
+
     /**
      * Returns a Native instance to MongoDB. This is a convenience method,
      * equivalent to {@code new MongoClientOptions.Native()}.
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBObject;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.DataCollection;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link DataCollection} backed by a {@link MongoDBCollection}. Queries are used as MongoDB query documents and the
+ * documents are converted with the given converter.
+ *
+ * @param <T> the type of the elements
+ */
+public class MongoDBDataCollection<T> implements DataCollection<T> {
+
+    private final MongoDBCollection mongoDBCollection;
+    private final ComplexTypeConverter<T, DBObject> converter;
+    private final Executor executor;
+
+    MongoDBDataCollection(MongoDBCollection mongoDBCollection, ComplexTypeConverter<T, DBObject> converter,
+                          Executor executor) {
+        this.mongoDBCollection = Objects.requireNonNull(mongoDBCollection);
+        this.converter = Objects.requireNonNull(converter);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public QueryResult<T> find(Query query, QueryOptions options) {
+        return mongoDBCollection.find(toDBObject(query), null, converter, options);
+    }
+
+    @Override
+    public QueryResult<Long> count(Query query) {
+        return mongoDBCollection.count(toDBObject(query));
+    }
+
+    @Override
+    public QueryResult<Object> distinct(String field, Query query) {
+        return mongoDBCollection.distinct(field, toDBObject(query));
+    }
+
+    @Override
+    public QueryResult<Long> insert(List<T> elements, QueryOptions options) {
+        List<DBObject> documents = new ArrayList<>(elements.size());
+        for (T element : elements) {
+            documents.add(converter.convertToStorageType(element));
+        }
+        QueryResult<BulkWriteResult> writeResult = mongoDBCollection.insert(documents, options);
+        // The number of inserted documents is unknown, -1, if the write concern does not wait for the server
+        long inserted = writeResult.first().isAcknowledged() ? writeResult.first().getInsertedCount() : -1;
+        QueryResult<Long> queryResult = new QueryResult<>(writeResult.getId(), writeResult.getDbTime(), 1, 1,
+                writeResult.getWarningMsg(), writeResult.getErrorMsg(), Collections.singletonList(inserted));
+        queryResult.setTimings(writeResult.getTimings());
+        return queryResult;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public MongoDBCollection getMongoDBCollection() {
+        return mongoDBCollection;
+    }
+
+    private static DBObject toDBObject(Query query) {
+        return query == null ? new BasicDBObject() : new BasicDBObject(query);
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.opencb.datastore.core.ContinuationToken;
+import org.opencb.datastore.core.QueryOptions;
+
+import java.util.*;
+
+/**
+ * Keyset pagination of a find, used when the options contain a {@link QueryOptions#CONTINUATION_TOKEN}. Documents are
+ * sorted by the requested sort followed by _id, so the order is total, and instead of skipping the previous pages the
+ * query seeks past the sort values of the last document returned:
+ * <pre>
+ *     {$or: [{s1: {$gt: v1}}, {s1: v1, s2: {$gt: v2}}, ..., {s1: v1, ..., _id: {$gt: id}}]}
+ * </pre>
+ * so with an index on the sort fields page N costs the same as page 1. The skip option is ignored. Sort fields are
+ * expected to hold a single value in every document, documents missing them or with arrays may be skipped.
+ *
+ * The sort fields and _id are added to the projection to build the next token, and removed from the documents returned
+ * if they were not requested. An instance keeps the state of a single query.
+ */
+final class MongoDBKeysetPagination {
+
+    private static final String ID = "_id";
+
+    private final List<String> fields = new ArrayList<>();
+    private final List<Boolean> ascending = new ArrayList<>();
+    private final List<Object> lastValues;
+    private final int limit;
+
+    private final Set<String> hiddenFields = new LinkedHashSet<>();
+    private Object[] last;
+    private int count;
+
+    MongoDBKeysetPagination(QueryOptions options) {
+        BasicDBObject sort = (BasicDBObject) options.get(MongoDBCollection.SORT);
+        if (sort != null) {
+            for (Map.Entry<String, Object> entry : sort.entrySet()) {
+                if (!(entry.getValue() instanceof Number)) {
+                    throw new IllegalArgumentException("Continuation tokens require a sort by field values, found "
+                            + entry.getKey() + ": " + entry.getValue());
+                }
+                fields.add(entry.getKey());
+                ascending.add(((Number) entry.getValue()).intValue() >= 0);
+            }
+        }
+        if (!fields.contains(ID)) {
+            fields.add(ID);
+            ascending.add(true);
+        }
+        List<Object> values = ContinuationToken.get(options);
+        if (values != null && values.size() != fields.size()) {
+            throw new IllegalArgumentException("Continuation token does not match the sort " + sort);
+        }
+        lastValues = values;
+        limit = options.getInt(MongoDBCollection.LIMIT, 0);
+    }
+
+    /**
+     * @return the query restricted to the documents after the last one of the previous page
+     */
+    DBObject filter(DBObject query) {
+        if (lastValues == null) {
+            return query;
+        }
+        List<DBObject> seek = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            BasicDBObject condition = new BasicDBObject();
+            for (int j = 0; j < i; j++) {
+                condition.append(fields.get(j), fromToken(lastValues.get(j)));
+            }
+            condition.append(fields.get(i), new BasicDBObject(ascending.get(i) ? "$gt" : "$lt",
+                    fromToken(lastValues.get(i))));
+            seek.add(condition);
+        }
+        DBObject seekFilter = seek.size() == 1 ? seek.get(0) : new BasicDBObject("$or", seek);
+        if (query == null || query.keySet().isEmpty()) {
+            return seekFilter;
+        }
+        return new BasicDBObject("$and", Arrays.asList(query, seekFilter));
+    }
+
+    /**
+     * @return the options with the sort extended with _id and without skip
+     */
+    QueryOptions options(QueryOptions options) {
+        BasicDBObject sort = new BasicDBObject();
+        for (int i = 0; i < fields.size(); i++) {
+            sort.append(fields.get(i), ascending.get(i) ? 1 : -1);
+        }
+        QueryOptions pageOptions = new QueryOptions(options);
+        pageOptions.put(MongoDBCollection.SORT, sort);
+        pageOptions.remove(MongoDBCollection.SKIP);
+        return pageOptions;
+    }
+
+    /**
+     * @return a copy of the projection that also returns the sort fields and _id
+     */
+    DBObject projection(DBObject projection) {
+        BasicDBObject pageProjection = new BasicDBObject(projection.toMap());
+        boolean inclusion = false;
+        for (String key : pageProjection.keySet()) {
+            if (!key.equals(ID) && isTrue(pageProjection.get(key))) {
+                inclusion = true;
+            }
+        }
+        for (String field : fields) {
+            if (field.equals(ID)) {
+                if (pageProjection.containsField(ID) && !isTrue(pageProjection.get(ID))) {
+                    pageProjection.removeField(ID);
+                    hiddenFields.add(ID);
+                }
+            } else if (pageProjection.containsField(field) && !isTrue(pageProjection.get(field))) {
+                pageProjection.removeField(field);
+                hiddenFields.add(field);
+            } else if (inclusion && !isIncluded(pageProjection, field)) {
+                pageProjection.put(field, 1);
+                hiddenFields.add(field);
+            }
+        }
+        return pageProjection;
+    }
+
+    /**
+     * Records the sort values of the documents read and removes the fields that were only projected for them.
+     */
+    Iterator<DBObject> track(Iterator<DBObject> iterator) {
+        return new Iterator<DBObject>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public DBObject next() {
+                DBObject document = iterator.next();
+                last = new Object[fields.size()];
+                for (int i = 0; i < fields.size(); i++) {
+                    last[i] = toToken(get(document, fields.get(i)));
+                }
+                count++;
+                for (String field : hiddenFields) {
+                    removePath(document, field);
+                }
+                return document;
+            }
+        };
+    }
+
+    /**
+     * @return the token of the next page, or null if this page was not full and so there are no more documents
+     */
+    String nextToken() {
+        if (limit <= 0 || count < limit) {
+            return null;
+        }
+        return ContinuationToken.encode(Arrays.asList(last));
+    }
+
+    private static boolean isTrue(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() != 0
+                : value instanceof Boolean ? (Boolean) value : value != null;
+    }
+
+    private static boolean isIncluded(DBObject projection, String field) {
+        for (int dot = field.length(); dot > 0; dot = field.lastIndexOf('.', dot - 1)) {
+            Object value = projection.get(field.substring(0, dot));
+            if (value != null && isTrue(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object get(DBObject document, String path) {
+        Object value = document;
+        for (String key : path.split("\\.")) {
+            if (!(value instanceof DBObject)) {
+                return null;
+            }
+            value = ((DBObject) value).get(key);
+        }
+        return value;
+    }
+
+    private static void removePath(DBObject document, String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            document.removeField(path);
+            return;
+        }
+        Object child = document.get(path.substring(0, dot));
+        if (child instanceof DBObject) {
+            removePath((DBObject) child, path.substring(dot + 1));
+            if (((DBObject) child).keySet().isEmpty()) {
+                document.removeField(path.substring(0, dot));
+            }
+        }
+    }
+
+    /**
+     * ObjectIds and dates are not JSON values, they are kept in the token in MongoDB extended JSON.
+     */
+    private static Object toToken(Object value) {
+        if (value instanceof ObjectId) {
+            return Collections.singletonMap("$oid", ((ObjectId) value).toHexString());
+        } else if (value instanceof Date) {
+            return Collections.singletonMap("$date", ((Date) value).getTime());
+        }
+        return value;
+    }
+
+    private static Object fromToken(Object value) {
+        if (value instanceof Map && ((Map) value).size() == 1) {
+            Map<?, ?> map = (Map) value;
+            if (map.get("$oid") instanceof String) {
+                return new ObjectId((String) map.get("$oid"));
+            } else if (map.get("$date") instanceof Number) {
+                return new Date(((Number) map.get("$date")).longValue());
+            }
+        }
+        return value;
+    }
+
+}
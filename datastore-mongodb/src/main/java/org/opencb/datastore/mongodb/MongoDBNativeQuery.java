@@ -216,7 +216,7 @@ public class MongoDBNativeQuery {
         dbCollection.dropIndex(keys);
     }
 
-    private DBObject getProjection(DBObject projection, QueryOptions options) {
+    DBObject getProjection(DBObject projection, QueryOptions options) {
         // Select which fields are excluded and included in the query
 //      DBObject returnFields = null;
 //      returnFields = new BasicDBObject("_id", 0);
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.opencb.datastore.core.NdJsonQueryResultWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * Writes DBObjects as newline-delimited JSON. ObjectIds and dates are written in the MongoDB extended JSON format, as
+ * {@code DBObject.toString()} does.
+ */
+public class MongoDBNdJsonQueryResultWriter extends NdJsonQueryResultWriter<DBObject> {
+
+    private static final ObjectWriter OBJECT_WRITER;
+
+    static {
+        SimpleModule module = new SimpleModule("MongoDBExtendedJson");
+        module.addSerializer(ObjectId.class, new ObjectIdSerializer());
+        module.addSerializer(Date.class, new DateSerializer());
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(module);
+        OBJECT_WRITER = objectMapper.writer();
+    }
+
+    public MongoDBNdJsonQueryResultWriter(Path path) {
+        this(path, Compression.NONE, DEFAULT_BUFFER_SIZE);
+    }
+
+    public MongoDBNdJsonQueryResultWriter(Path path, Compression compression, int bufferSize) {
+        super(path, compression, bufferSize, OBJECT_WRITER);
+    }
+
+    private static class ObjectIdSerializer extends JsonSerializer<ObjectId> {
+        @Override
+        public void serialize(ObjectId value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("$oid", value.toHexString());
+            generator.writeEndObject();
+        }
+    }
+
+    private static class DateSerializer extends JsonSerializer<Date> {
+        private static final DateTimeFormatter FORMATTER =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+        @Override
+        public void serialize(Date value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("$date", FORMATTER.format(value.toInstant()));
+            generator.writeEndObject();
+        }
+    }
+
+}
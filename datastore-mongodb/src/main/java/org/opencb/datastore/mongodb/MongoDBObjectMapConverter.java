@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.StringPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts documents to {@link ObjectMap}s, nested documents included, and back. Arrays are converted to lists and any
+ * other value is kept as read by the driver.
+ *
+ * The driver creates new strings for the field names and values of every document, so a large result repeats the same
+ * strings once per document. With a {@link StringPool} field names and short string values are deduplicated while the
+ * documents are converted.
+ */
+public class MongoDBObjectMapConverter implements ComplexTypeConverter<ObjectMap, DBObject> {
+
+    private final StringPool stringPool;
+
+    public MongoDBObjectMapConverter() {
+        this(null);
+    }
+
+    /**
+     * @param stringPool the pool of the field names and string values, or null to keep them as read
+     */
+    public MongoDBObjectMapConverter(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    @Override
+    public ObjectMap convertToDataModelType(DBObject dbObject) {
+        if (dbObject == null) {
+            return null;
+        }
+        ObjectMap objectMap = new ObjectMap(dbObject.keySet().size());
+        for (String key : dbObject.keySet()) {
+            objectMap.put(intern(key), toDataModelValue(dbObject.get(key)));
+        }
+        return objectMap;
+    }
+
+    @Override
+    public DBObject convertToStorageType(ObjectMap objectMap) {
+        return objectMap == null ? null : toDocument(objectMap);
+    }
+
+    private Object toDataModelValue(Object value) {
+        if (value instanceof String) {
+            return intern((String) value);
+        } else if (value instanceof BasicDBList) {
+            BasicDBList dbList = (BasicDBList) value;
+            List<Object> list = new ArrayList<>(dbList.size());
+            for (Object element : dbList) {
+                list.add(toDataModelValue(element));
+            }
+            return list;
+        } else if (value instanceof DBObject) {
+            return convertToDataModelType((DBObject) value);
+        }
+        return value;
+    }
+
+    private String intern(String string) {
+        return stringPool != null ? stringPool.intern(string) : string;
+    }
+
+    private static BasicDBObject toDocument(Map<?, ?> map) {
+        BasicDBObject document = new BasicDBObject(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            document.put(String.valueOf(entry.getKey()), toStorageValue(entry.getValue()));
+        }
+        return document;
+    }
+
+    private static Object toStorageValue(Object value) {
+        if (value instanceof Map && !(value instanceof DBObject)) {
+            return toDocument((Map<?, ?>) value);
+        } else if (value instanceof List && !(value instanceof BasicDBList)) {
+            BasicDBList dbList = new BasicDBList();
+            for (Object element : (List<?>) value) {
+                dbList.add(toStorageValue(element));
+            }
+            return dbList;
+        }
+        return value;
+    }
+
+}
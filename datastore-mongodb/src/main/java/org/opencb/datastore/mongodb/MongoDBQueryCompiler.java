@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.opencb.datastore.core.*;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles queries into MongoDB filters. Parameters are bound to document fields, which may be dotted paths:
+ * <pre>
+ *     MongoDBQueryCompiler&lt;VariantParam&gt; compiler = new MongoDBQueryCompiler&lt;&gt;(VariantParam.class)
+ *             .bind(VariantParam.CHROMOSOME, "chr", Operator.EQ)
+ *             .bind(VariantParam.START, "start", Operator.GTE)
+ *             .bind(VariantParam.END, "start", Operator.LTE);
+ *     MongoDBQueryPlan plan = compiler.compile(query, options);
+ *     QueryResult&lt;DBObject&gt; result = mongoDBCollection.find(plan, options);
+ * </pre>
+ * Parameters bound to the same field are combined in a single condition, like {start: {$gte: 1, $lte: 100}}. EQ on
+ * array parameters and IN match any of the values, NIN none of them, and PREFIX is an anchored regular expression.
+ *
+ * The include and exclude options are compiled into a projection.
+ */
+public class MongoDBQueryCompiler<E extends Enum<E> & QueryParam> extends QueryCompiler<E, MongoDBQueryPlan> {
+
+    public MongoDBQueryCompiler(Class<E> enumType) {
+        this(enumType, DEFAULT_CACHE_SIZE);
+    }
+
+    public MongoDBQueryCompiler(Class<E> enumType, int cacheSize) {
+        super(enumType, cacheSize);
+    }
+
+    @Override
+    public MongoDBQueryCompiler<E> bind(E param, String field, Operator operator) {
+        super.bind(param, field, operator);
+        return this;
+    }
+
+    @Override
+    protected Template<E, MongoDBQueryPlan> compileTemplate(QueryShape<E> shape, List<Binding<E>> bindings) {
+        // Group the bindings by field, the conditions of a field with repeated operators are combined with $and
+        Map<String, List<Binding<E>>> fields = new LinkedHashMap<>();
+        for (Binding<E> binding : bindings) {
+            fields.computeIfAbsent(binding.getField(), field -> new ArrayList<>()).add(binding);
+        }
+        List<FieldTemplate<E>> combined = new ArrayList<>(fields.size());
+        List<Binding<E>> and = new ArrayList<>();
+        for (Map.Entry<String, List<Binding<E>>> entry : fields.entrySet()) {
+            Set<Operator> operators = EnumSet.noneOf(Operator.class);
+            boolean repeated = false;
+            for (Binding<E> binding : entry.getValue()) {
+                // EQ and IN may both become $in, NE and NIN $nin
+                Operator operator = binding.getOperator();
+                operator = operator == Operator.IN ? Operator.EQ : operator == Operator.NIN ? Operator.NE : operator;
+                repeated |= !operators.add(operator);
+            }
+            if (repeated) {
+                and.addAll(entry.getValue());
+            } else {
+                combined.add(new FieldTemplate<>(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        BasicDBObject projection = null;
+        if (!shape.getInclude().isEmpty() || !shape.getExclude().isEmpty()) {
+            // Same projection as MongoDBNativeQuery builds from the options, which is not done for a given one
+            projection = new BasicDBObject("_id", 0);
+            for (String field : shape.getInclude()) {
+                projection.put(field, 1);
+            }
+            for (String field : shape.getExclude()) {
+                projection.put(field, 0);
+            }
+        }
+        return new MongoDBTemplate<>(combined, and, projection);
+    }
+
+    @Override
+    protected void checkBinding(E param, String field, Operator operator) {
+        if (operator == Operator.EXISTS && param.type() != QueryParam.Type.BOOLEAN) {
+            throw new IllegalArgumentException("EXISTS needs a BOOLEAN parameter, " + param.key() + " is "
+                    + param.type());
+        }
+    }
+
+    private static final class MongoDBTemplate<E> implements Template<E, MongoDBQueryPlan> {
+
+        private final FieldTemplate<E>[] fields;
+        private final List<Binding<E>> and;
+        private final BasicDBObject projection;
+
+        @SuppressWarnings("unchecked")
+        MongoDBTemplate(List<FieldTemplate<E>> fields, List<Binding<E>> and, BasicDBObject projection) {
+            this.fields = fields.toArray(new FieldTemplate[fields.size()]);
+            this.and = and;
+            this.projection = projection;
+        }
+
+        @Override
+        public MongoDBQueryPlan bind(Map<E, Object> values, QueryOptions options) {
+            BasicDBObject filter = new BasicDBObject();
+            for (FieldTemplate<E> field : fields) {
+                filter.put(field.field, field.bind(values));
+            }
+            if (!and.isEmpty()) {
+                List<DBObject> conditions = new ArrayList<>(and.size());
+                for (Binding<E> binding : and) {
+                    BasicDBObject condition = new BasicDBObject();
+                    putCondition(condition, binding.getOperator(), values.get(binding.getParam()));
+                    conditions.add(new BasicDBObject(binding.getField(), simplify(condition)));
+                }
+                filter.put("$and", conditions);
+            }
+            BasicDBObject boundProjection = null;
+            if (projection != null) {
+                boundProjection = new BasicDBObject(projection);
+                BasicDBObject elemMatch = options != null
+                        ? (BasicDBObject) options.get(MongoDBCollection.ELEM_MATCH) : null;
+                if (elemMatch != null) {
+                    String field = elemMatch.keySet().iterator().next();
+                    boundProjection.put(field, elemMatch.get(field));
+                }
+            }
+            return new MongoDBQueryPlan(filter, boundProjection);
+        }
+    }
+
+    /**
+     * The conditions on a field, each with a different operator.
+     */
+    private static final class FieldTemplate<E> {
+
+        private final String field;
+        private final Binding<E>[] bindings;
+
+        @SuppressWarnings("unchecked")
+        FieldTemplate(String field, List<Binding<E>> bindings) {
+            this.field = field;
+            this.bindings = bindings.toArray(new Binding[bindings.size()]);
+        }
+
+        Object bind(Map<E, Object> values) {
+            BasicDBObject condition = new BasicDBObject();
+            for (Binding<E> binding : bindings) {
+                putCondition(condition, binding.getOperator(), values.get(binding.getParam()));
+            }
+            return simplify(condition);
+        }
+    }
+
+    private static void putCondition(BasicDBObject condition, Operator operator, Object value) {
+        List<Object> list = asList(value);
+        switch (operator) {
+            case EQ:
+                condition.put(list != null ? "$in" : "$eq", list != null ? list : value);
+                break;
+            case NE:
+                condition.put(list != null ? "$nin" : "$ne", list != null ? list : value);
+                break;
+            case IN:
+                condition.put("$in", list != null ? list : Collections.singletonList(value));
+                break;
+            case NIN:
+                condition.put("$nin", list != null ? list : Collections.singletonList(value));
+                break;
+            case GT:
+                condition.put("$gt", value);
+                break;
+            case GTE:
+                condition.put("$gte", value);
+                break;
+            case LT:
+                condition.put("$lt", value);
+                break;
+            case LTE:
+                condition.put("$lte", value);
+                break;
+            case PREFIX:
+                condition.put("$regex", "^" + Pattern.quote(String.valueOf(value)));
+                break;
+            case REGEX:
+                condition.put("$regex", String.valueOf(value));
+                break;
+            case EXISTS:
+                condition.put("$exists", value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operator " + operator);
+        }
+    }
+
+    /**
+     * A single $eq condition is written as the value itself, which MongoDB servers before 3.0 require.
+     */
+    private static Object simplify(BasicDBObject condition) {
+        return condition.size() == 1 && condition.containsField("$eq") ? condition.get("$eq") : condition;
+    }
+
+}
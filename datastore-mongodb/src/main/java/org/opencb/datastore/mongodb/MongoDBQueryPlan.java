@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.DBObject;
+
+/**
+ * A query compiled by {@link MongoDBQueryCompiler}: the filter and projection to pass to {@link MongoDBCollection}.
+ */
+public final class MongoDBQueryPlan {
+
+    private final DBObject filter;
+    private final DBObject projection;
+
+    MongoDBQueryPlan(DBObject filter, DBObject projection) {
+        this.filter = filter;
+        this.projection = projection;
+    }
+
+    public DBObject getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the projection of the include or exclude options, or null if they are not set
+     */
+    public DBObject getProjection() {
+        return projection;
+    }
+
+    @Override
+    public String toString() {
+        return "MongoDBQueryPlan{" +
+                "filter=" + filter +
+                ", projection=" + projection +
+                '}';
+    }
+
+}
@@ -17,7 +17,11 @@
 package org.opencb.datastore.mongodb;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import com.mongodb.*;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.DataStoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,11 +38,12 @@ import org.slf4j.LoggerFactory;
 
 public class MongoDataStore {
 
-    private Map<String, MongoDBCollection> mongoDBCollections = new HashMap<>();
+    private Map<String, MongoDBCollection> mongoDBCollections = new ConcurrentHashMap<>();
 
     private MongoClient mongoClient;
     private DB db;
     private MongoDBConfiguration mongoDBConfiguration;
+    private ExecutorService executor;
 
     protected Logger logger = LoggerFactory.getLogger(MongoDataStore.class);
 
@@ -46,6 +51,7 @@ public class MongoDataStore {
         this.mongoClient = mongoClient;
         this.db = db;
         this.mongoDBConfiguration = mongoDBConfiguration;
+        this.executor = DataStoreExecutors.newExecutor(db.getName(), mongoDBConfiguration);
     }
 
     public boolean testConnection() {
@@ -55,12 +61,34 @@ public class MongoDataStore {
 
 
     public MongoDBCollection getCollection(String collection) {
-        if(!mongoDBCollections.containsKey(collection)) {
-            MongoDBCollection mongoDBCollection = new MongoDBCollection(db.getCollection(collection));
-            mongoDBCollections.put(collection, mongoDBCollection);
-            logger.debug("MongoDataStore: new MongoDB collection '{}' created", collection);
-        }
-        return mongoDBCollections.get(collection);
+        return mongoDBCollections.computeIfAbsent(collection, name -> {
+            logger.debug("MongoDataStore: new MongoDB collection '{}' created", name);
+            return new MongoDBCollection(db.getCollection(name));
+        });
+    }
+
+    /**
+     * Returns the collection as a {@link org.opencb.datastore.core.DataCollection} whose asynchronous queries run on
+     * the executor of this datastore, configured with {@link DataStoreExecutors#ASYNC_THREADS} and
+     * {@link DataStoreExecutors#ASYNC_QUEUE_SIZE}.
+     */
+    public <T> MongoDBDataCollection<T> getDataCollection(String collection,
+                                                          ComplexTypeConverter<T, DBObject> converter) {
+        return new MongoDBDataCollection<>(getCollection(collection), converter, executor);
+    }
+
+    public MongoDBDataCollection<DBObject> getDataCollection(String collection) {
+        return getDataCollection(collection, new ComplexTypeConverter<DBObject, DBObject>() {
+            @Override
+            public DBObject convertToDataModelType(DBObject object) {
+                return object;
+            }
+
+            @Override
+            public DBObject convertToStorageType(DBObject object) {
+                return object;
+            }
+        });
     }
 
     public MongoDBCollection createCollection(String collectionName) {
@@ -72,8 +100,12 @@ public class MongoDataStore {
 
     public void dropCollection(String collectionName) {
         if(db.getCollectionNames().contains(collectionName)) {
-            db.getCollection(collectionName).drop();
-            mongoDBCollections.remove(collectionName);
+            DBCollection dbCollection = db.getCollection(collectionName);
+            dbCollection.drop();
+            MongoDBCollection mongoDBCollection = mongoDBCollections.remove(collectionName);
+            if (mongoDBCollection != null && mongoDBCollection.getQueryResultCache() != null) {
+                mongoDBCollection.getQueryResultCache().invalidate(dbCollection.getFullName());
+            }
         }
     }
 
@@ -93,6 +125,7 @@ public class MongoDataStore {
 
     void close() {
         logger.info("MongoDataStore: connection closed");
+        executor.shutdown();
         mongoClient.close();
     }
 
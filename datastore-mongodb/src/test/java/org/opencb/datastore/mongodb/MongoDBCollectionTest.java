@@ -20,14 +20,35 @@ import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import com.mongodb.*;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
+import org.opencb.datastore.core.AsyncQueryResultWriter;
+import org.opencb.datastore.core.ColumnarResult;
 import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.datastore.core.ObjectMap;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.core.QueryResultWriter;
+import org.opencb.datastore.core.QueryTimings;
+import org.opencb.datastore.core.SpillableResultList;
+import org.opencb.datastore.core.StreamingQueryResult;
+import org.opencb.datastore.core.aggregation.AggregatingQueryResultWriter;
+import org.opencb.datastore.core.aggregation.Aggregation;
+import org.opencb.datastore.core.cache.CacheKey;
+import org.opencb.datastore.core.cache.LruQueryResultCache;
+import org.opencb.datastore.core.cache.QueryResultCache;
+import org.opencb.datastore.core.cache.SingleFlight;
 
 import static org.junit.Assert.*;
 
@@ -172,6 +193,20 @@ public class MongoDBCollectionTest {
 //        System.out.println("queryResult 'include' = " + queryResult);
     }
 
+    @Test
+    public void testFindTimings() throws Exception {
+        QueryOptions queryOptions = new QueryOptions("limit", 10);
+        QueryResult<DBObject> queryResult = mongoDBCollection.find(new BasicDBObject(), queryOptions);
+        QueryTimings timings = queryResult.getTimings();
+        assertNotNull(timings);
+        assertTrue(timings.getFirstBatchNanos() > 0);
+        assertTrue(timings.getCountNanos() > 0);
+        assertEquals(0, timings.getWriterNanos());
+        assertTrue(timings.getTotalNanos() >= timings.getDispatchNanos() + timings.getFirstBatchNanos()
+                + timings.getFetchNanos() + timings.getConversionNanos() + timings.getCountNanos());
+        assertEquals(TimeUnit.NANOSECONDS.toMillis(timings.getTotalNanos()), queryResult.getDbTime());
+    }
+
     @Test
     public void testFind1() throws Exception {
         DBObject dbObject = new BasicDBObject("id", 4);
@@ -242,6 +277,189 @@ public class MongoDBCollectionTest {
         assertEquals("resultType must be 'com.mongodb.BasicDBObject'", "com.mongodb.BasicDBObject", queryResultList.get(0).getResultType());
     }
 
+    @Test
+    public void testStream() throws Exception {
+        QueryOptions queryOptions = new QueryOptions("limit", 10).append("skip", 5);
+        int n = 0;
+        try (StreamingQueryResult<DBObject> queryResult = mongoDBCollection.stream(new BasicDBObject(), null, queryOptions)) {
+            for (DBObject dbObject : queryResult) {
+                assertEquals(5 + n, dbObject.get("id"));
+                n++;
+            }
+            assertEquals(10, queryResult.getNumResults());
+            assertEquals(N, queryResult.getNumTotalResults());
+        }
+        assertEquals(10, n);
+    }
+
+    @Test
+    public void testStreamConverter() throws Exception {
+        QueryOptions queryOptions = new QueryOptions("limit", 20);
+        ComplexTypeConverter<Integer, DBObject> converter = new ComplexTypeConverter<Integer, DBObject>() {
+            @Override
+            public Integer convertToDataModelType(DBObject object) {
+                return (Integer) object.get("age");
+            }
+
+            @Override
+            public DBObject convertToStorageType(Integer object) {
+                return null;
+            }
+        };
+        StreamingQueryResult<Integer> queryResult = mongoDBCollection.stream(new BasicDBObject(), null, converter, queryOptions);
+        assertEquals(4, queryResult.stream().limit(5).mapToInt(Integer::intValue).max().getAsInt());
+        queryResult.close();
+        assertEquals(5, queryResult.getNumResults());
+    }
+
+    @Test
+    public void testFindSpill() throws Exception {
+        QueryOptions queryOptions = new QueryOptions(MongoDBCollection.SPILL_AFTER_RESULTS, 10);
+        QueryResult<DBObject> queryResult = mongoDBCollection.find(new BasicDBObject(), queryOptions);
+        try (SpillableResultList<DBObject> result = (SpillableResultList<DBObject>) queryResult.getResult()) {
+            assertTrue(result.isSpilled());
+            assertEquals(N, result.size());
+            for (int i = 0; i < N; i++) {
+                assertEquals(i, result.get(i).get("id"));
+                assertEquals("John", result.get(i).get("name"));
+            }
+        }
+    }
+
+    @Test
+    public void testFindSpillConverted() throws Exception {
+        // The converter can not convert back to documents, spilled documents are converted when they are read
+        ComplexTypeConverter<Integer, DBObject> converter = new ComplexTypeConverter<Integer, DBObject>() {
+            @Override
+            public Integer convertToDataModelType(DBObject object) {
+                return (Integer) object.get("id");
+            }
+
+            @Override
+            public DBObject convertToStorageType(Integer object) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        QueryOptions queryOptions = new QueryOptions(MongoDBCollection.SPILL_AFTER_RESULTS, 10);
+        QueryResult<Integer> queryResult = mongoDBCollection.find(new BasicDBObject(), null, converter, queryOptions);
+        try (SpillableResultList<Integer> result = (SpillableResultList<Integer>) queryResult.getResult()) {
+            assertTrue(result.isSpilled());
+            assertEquals(N, result.size());
+            for (int i = 0; i < N; i++) {
+                assertEquals(i, result.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testFindContinuationToken() throws Exception {
+        // Ages repeat, so documents with the same age are ordered by _id
+        QueryOptions queryOptions = new QueryOptions(MongoDBCollection.INCLUDE, "id")
+                .append(MongoDBCollection.SORT, new BasicDBObject("age", -1))
+                .append(MongoDBCollection.LIMIT, 64)
+                .append(MongoDBCollection.SKIP, 1000)
+                .append(MongoDBCollection.CONTINUATION_TOKEN, "");
+        Set<Object> ids = new HashSet<>();
+        int pages = 0;
+        String token;
+        do {
+            QueryResult<DBObject> queryResult = mongoDBCollection.find(new BasicDBObject(), queryOptions);
+            assertEquals(N, queryResult.getNumTotalResults());
+            for (DBObject dbObject : queryResult.getResult()) {
+                assertEquals(Collections.singleton("id"), dbObject.keySet());
+                // The age is id % 5, and there are N / 5 documents of each age
+                assertEquals(4 - ids.size() / (N / 5), (int) dbObject.get("id") % 5);
+                assertTrue(ids.add(dbObject.get("id")));
+            }
+            token = queryResult.getContinuationToken();
+            queryOptions.put(MongoDBCollection.CONTINUATION_TOKEN, token);
+            pages++;
+        } while (token != null);
+        assertEquals(N, ids.size());
+        assertEquals(N / 64 + 1, pages);
+    }
+
+    @Test
+    public void testConcurrentFind() throws Exception {
+        int threads = 64;
+        int queriesPerThread = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                // Each caller spends a different time converting, which must be included in its own dbTime only
+                int delay = 1 + i % 8;
+                ComplexTypeConverter<Integer, DBObject> converter = new ComplexTypeConverter<Integer, DBObject>() {
+                    @Override
+                    public Integer convertToDataModelType(DBObject object) {
+                        try {
+                            Thread.sleep(delay);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return (Integer) object.get("id");
+                    }
+
+                    @Override
+                    public DBObject convertToStorageType(Integer object) {
+                        return null;
+                    }
+                };
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    assertSame(mongoDBCollection, mongoDataStore.getCollection("test"));
+                    for (int j = 0; j < queriesPerThread; j++) {
+                        int id = j % N;
+                        QueryResult<Integer> queryResult = mongoDBCollection.find(new BasicDBObject("id", id), null,
+                                converter, null);
+                        assertEquals(Collections.singletonList(id), queryResult.getResult());
+                        assertTrue(queryResult.getDbTime() >= delay);
+                        assertTrue(queryResult.getTimings().getConversionNanos() >= TimeUnit.MILLISECONDS.toNanos(delay));
+                        assertTrue(queryResult.getTimings().getTotalNanos()
+                                >= queryResult.getTimings().getConversionNanos());
+                    }
+                    return queriesPerThread;
+                }));
+            }
+            int queries = 0;
+            for (Future<Integer> future : futures) {
+                queries += future.get(1, TimeUnit.MINUTES);
+            }
+            assertEquals(threads * queriesPerThread, queries);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFindParallelConversion() throws Exception {
+        ComplexTypeConverter<Integer, DBObject> converter = new ComplexTypeConverter<Integer, DBObject>() {
+            @Override
+            public Integer convertToDataModelType(DBObject object) {
+                return (Integer) object.get("id");
+            }
+
+            @Override
+            public DBObject convertToStorageType(Integer object) {
+                return null;
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        mongoDBCollection.setConversionPool(pool);
+        try {
+            QueryResult<Integer> queryResult = mongoDBCollection.find(new BasicDBObject(), null, converter,
+                    new QueryOptions(MongoDBCollection.BATCH_SIZE, 7));
+            assertEquals(N, queryResult.getNumResults());
+            for (int i = 0; i < N; i++) {
+                assertEquals(i, queryResult.getResult().get(i).intValue());
+            }
+        } finally {
+            mongoDBCollection.setConversionPool(null);
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void testFind6() throws Exception {
         List<DBObject> dbObjectList = new ArrayList<>(10);
@@ -445,6 +663,154 @@ public class MongoDBCollectionTest {
 
     }
 
+    @Test
+    public void testQueryResultCache() throws Exception {
+        MongoDBCollection mongoDBCollectionCacheTest = createTestCollection("cache_test", 10);
+        QueryResultCache cache = new LruQueryResultCache(1 << 20, 1, TimeUnit.MINUTES);
+        mongoDBCollectionCacheTest.setQueryResultCache(cache);
+
+        QueryOptions queryOptions = new QueryOptions("limit", 5).append("sort", new BasicDBObject("id", 1));
+        QueryOptions sameQueryOptions = new QueryOptions("sort", new BasicDBObject("id", 1)).append("limit", 5)
+                .append(MongoDBCollection.BATCH_SIZE, 3);
+        QueryResult<DBObject> queryResult = mongoDBCollectionCacheTest.find(new BasicDBObject("age", 1), queryOptions);
+        QueryResult<DBObject> cachedResult = mongoDBCollectionCacheTest.find(new BasicDBObject("age", 1),
+                sameQueryOptions);
+        assertEquals(queryResult.getResult(), cachedResult.getResult());
+        assertEquals(10, mongoDBCollectionCacheTest.count().first().longValue());
+        assertEquals(10, mongoDBCollectionCacheTest.count().first().longValue());
+        assertEquals(2, cache.getStats().getHitCount());
+        assertEquals(2, cache.getStats().getMissCount());
+
+        mongoDBCollectionCacheTest.insert(new BasicDBObject("id", 10).append("age", 1), null);
+        assertEquals(0, cache.getStats().getSize());
+        assertEquals(11, mongoDBCollectionCacheTest.count().first().longValue());
+        assertEquals(3, mongoDBCollectionCacheTest.find(new BasicDBObject("age", 1), queryOptions).getNumResults());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        MongoDBCollection mongoDBCollectionSingleFlightTest = createTestCollection("single_flight_test", 100);
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight singleFlight = new SingleFlight() {
+            @Override
+            public <T> QueryResult<T> execute(CacheKey key, Supplier<QueryResult<T>> query) {
+                // The query does not start until the other calls are waiting for it
+                return super.execute(key, () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return query.get();
+                });
+            }
+        };
+        mongoDBCollectionSingleFlightTest.setSingleFlight(singleFlight);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<QueryResult<DBObject>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> mongoDBCollectionSingleFlightTest.find(
+                        new BasicDBObject("age", new BasicDBObject("$gte", 2)),
+                        new QueryOptions("sort", new BasicDBObject("id", 1)))));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (singleFlight.getCoalescedCount() < threads - 1) {
+                assertTrue("Only " + singleFlight.getCoalescedCount() + " calls joined the query",
+                        System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<QueryResult<DBObject>> future : futures) {
+                assertEquals(60, future.get(10, TimeUnit.SECONDS).getNumResults());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(1, singleFlight.getExecutionCount());
+        assertEquals(threads - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void testFindColumnar() throws Exception {
+        QueryOptions queryOptions = new QueryOptions(MongoDBCollection.INCLUDE, Arrays.asList("id", "age", "name"))
+                .append("sort", new BasicDBObject("id", 1))
+                .append("limit", 100);
+        QueryResult<ColumnarResult> queryResult = mongoDBCollection.findColumnar(
+                new BasicDBObject("age", new BasicDBObject("$gte", 3)), queryOptions);
+        assertEquals(100, queryResult.getNumResults());
+        assertEquals(N / 5 * 2, queryResult.getNumTotalResults());
+
+        ColumnarResult columnarResult = queryResult.first();
+        assertEquals(100, columnarResult.getNumRows());
+        long[] ids = columnarResult.getColumn("id").getLongs();
+        long[] ages = columnarResult.getColumn("age").getLongs();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i] % 5, ages[i]);
+        }
+        assertEquals(Collections.singletonList("John"), columnarResult.getColumn("name").getDictionary());
+
+        thrown.expect(IllegalArgumentException.class);
+        mongoDBCollection.findColumnar(new BasicDBObject(), new QueryOptions());
+    }
+
+    @Test
+    public void testAggregatingQueryResultWriter() throws Exception {
+        MongoDBCollection mongoDBCollectionAggregationTest = createTestCollection("aggregation_test", 100);
+        AggregatingQueryResultWriter<DBObject> writer = new AggregatingQueryResultWriter<>(
+                new Aggregation<DBObject>(DBObject::get, Collections.singletonList("age")).count().sum("id"));
+        mongoDBCollectionAggregationTest.setQueryResultWriter(writer);
+        QueryResult<DBObject> queryResult = mongoDBCollectionAggregationTest.find(new BasicDBObject(),
+                new QueryOptions(MongoDBCollection.BATCH_SIZE, 10));
+        assertTrue(queryResult.getResult().isEmpty());
+
+        List<ObjectMap> groups = writer.getResult();
+        assertEquals(5, groups.size());
+        for (ObjectMap group : groups) {
+            long age = group.getLong("age");
+            assertEquals(20L, group.get("count"));
+            // Sum of the ids i * 5 + age, for i from 0 to 19
+            assertEquals(950 + 20 * age, group.getLong("sum(id)"));
+        }
+    }
+
+    @Test
+    public void testWriterFailure() throws Exception {
+        MongoDBCollection mongoDBCollectionWriterTest = createTestCollection("writer_failure_test", 100);
+        AtomicBoolean fail = new AtomicBoolean(true);
+        List<DBObject> written = new ArrayList<>();
+        mongoDBCollectionWriterTest.setQueryResultWriter(new AsyncQueryResultWriter<>(new QueryResultWriter<DBObject>() {
+            @Override
+            public void open() throws IOException {
+            }
+
+            @Override
+            public void write(DBObject elem) throws IOException {
+                if (fail.get()) {
+                    throw new IOException("Disk full");
+                }
+                written.add(elem);
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        }, 10, 1));
+        QueryOptions queryOptions = new QueryOptions(MongoDBCollection.BATCH_SIZE, 10);
+        QueryResult<DBObject> queryResult = mongoDBCollectionWriterTest.find(new BasicDBObject(), queryOptions);
+        assertTrue(queryResult.getErrorMsg().startsWith("Disk full"));
+
+        // The failed query released the writer, so the next one can open it again
+        fail.set(false);
+        queryResult = mongoDBCollectionWriterTest.find(new BasicDBObject(), queryOptions);
+        assertNull(queryResult.getErrorMsg());
+        assertEquals(100, written.size());
+    }
+
     @Test
     public void testCreateIndex() throws Exception {
 
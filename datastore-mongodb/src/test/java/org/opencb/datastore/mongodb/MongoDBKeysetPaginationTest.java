@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.opencb.datastore.core.ContinuationToken;
+import org.opencb.datastore.core.QueryOptions;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class MongoDBKeysetPaginationTest {
+
+    private final ObjectId id = new ObjectId();
+
+    @Test
+    public void testFirstPage() throws Exception {
+        MongoDBKeysetPagination pagination = new MongoDBKeysetPagination(options(""));
+        DBObject query = new BasicDBObject("type", "SNV");
+        assertSame(query, pagination.filter(query));
+
+        QueryOptions pageOptions = pagination.options(options(""));
+        assertEquals(new BasicDBObject("chr", 1).append("pos", -1).append("_id", 1), pageOptions.get("sort"));
+        assertFalse(pageOptions.containsKey(MongoDBCollection.SKIP));
+    }
+
+    @Test
+    public void testNextPage() throws Exception {
+        MongoDBKeysetPagination first = new MongoDBKeysetPagination(options(""));
+        DBObject projection = first.projection(new BasicDBObject("_id", 0).append("pos", 1));
+        assertEquals(new BasicDBObject("pos", 1).append("chr", 1), projection);
+
+        Iterator<DBObject> documents = first.track(Arrays.<DBObject>asList(
+                new BasicDBObject("_id", new ObjectId()).append("chr", "1").append("pos", 200),
+                new BasicDBObject("_id", id).append("chr", "1").append("pos", 100)).iterator());
+        assertEquals(new BasicDBObject("pos", 200), documents.next());
+        assertNull(first.nextToken());
+        assertEquals(new BasicDBObject("pos", 100), documents.next());
+        String token = first.nextToken();
+        assertNotNull(token);
+
+        MongoDBKeysetPagination next = new MongoDBKeysetPagination(options(token));
+        DBObject filter = next.filter(new BasicDBObject("type", "SNV"));
+        DBObject seek = new BasicDBObject("$or", Arrays.asList(
+                new BasicDBObject("chr", new BasicDBObject("$gt", "1")),
+                new BasicDBObject("chr", "1").append("pos", new BasicDBObject("$lt", 100)),
+                new BasicDBObject("chr", "1").append("pos", 100).append("_id", new BasicDBObject("$gt", id))));
+        assertEquals(new BasicDBObject("$and", Arrays.asList(new BasicDBObject("type", "SNV"), seek)), filter);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenOfOtherSort() throws Exception {
+        String token = ContinuationToken.encode(Arrays.asList("1", 100, id.toHexString()));
+        new MongoDBKeysetPagination(new QueryOptions(MongoDBCollection.CONTINUATION_TOKEN, token));
+    }
+
+    private static QueryOptions options(String token) {
+        return new QueryOptions(MongoDBCollection.SORT, new BasicDBObject("chr", 1).append("pos", -1))
+                .append(MongoDBCollection.LIMIT, 2)
+                .append(MongoDBCollection.SKIP, 10)
+                .append(MongoDBCollection.CONTINUATION_TOKEN, token);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.bson.types.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.datastore.core.NdJsonQueryResultWriter;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class MongoDBNdJsonQueryResultWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWrite() throws Exception {
+        Path path = temporaryFolder.newFile("results.json.gz").toPath();
+        MongoDBNdJsonQueryResultWriter writer = new MongoDBNdJsonQueryResultWriter(path,
+                NdJsonQueryResultWriter.Compression.GZIP, 1024);
+
+        List<DBObject> dbObjects = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dbObjects.add(new BasicDBObject("_id", new ObjectId())
+                    .append("id", i)
+                    .append("name", "John")
+                    .append("date", new Date(1420070400000L + i))
+                    .append("nested", new BasicDBObject("values", Arrays.asList(i, "a"))));
+        }
+        writer.open();
+        writer.writeBatch(dbObjects.subList(0, 50));
+        for (DBObject dbObject : dbObjects.subList(50, 100)) {
+            writer.write(dbObject);
+        }
+        writer.close();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(path)), StandardCharsets.UTF_8))) {
+            for (DBObject dbObject : dbObjects) {
+                // Parsing both lines as extended JSON, the output must match DBObject.toString()
+                assertEquals(JSON.parse(dbObject.toString()), JSON.parse(reader.readLine()));
+            }
+            assertNull(reader.readLine());
+        }
+    }
+}
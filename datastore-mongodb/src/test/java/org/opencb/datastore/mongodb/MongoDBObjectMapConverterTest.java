@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.junit.Test;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.StringPool;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MongoDBObjectMapConverterTest {
+
+    private final DBObject document = new BasicDBObject("id", "rs1")
+            .append("filter", "PASS")
+            .append("start", 100)
+            .append("genes", Arrays.asList("BRCA1", "BRCA2"))
+            .append("sample", new BasicDBObject("id", "S1").append("quality", 0.5));
+
+    @Test
+    public void testConvert() throws Exception {
+        MongoDBObjectMapConverter converter = new MongoDBObjectMapConverter();
+        ObjectMap objectMap = converter.convertToDataModelType(decode(document));
+        assertEquals(Arrays.asList("id", "filter", "start", "genes", "sample"), Arrays.asList(objectMap.keySet()
+                .toArray()));
+        assertEquals(Arrays.asList("BRCA1", "BRCA2"), objectMap.getAsStringList("genes"));
+        assertFalse(objectMap.get("genes") instanceof BasicDBList);
+        assertEquals(0.5, objectMap.getMap("sample").get("quality"));
+        assertTrue(objectMap.get("sample") instanceof ObjectMap);
+
+        DBObject storage = converter.convertToStorageType(objectMap);
+        assertEquals(document, storage);
+        assertTrue(storage.get("genes") instanceof BasicDBList);
+    }
+
+    @Test
+    public void testStringPool() throws Exception {
+        MongoDBObjectMapConverter converter = new MongoDBObjectMapConverter(new StringPool());
+        ObjectMap first = converter.convertToDataModelType(decode(document));
+        ObjectMap second = converter.convertToDataModelType(decode(document));
+        assertSame(first.get("filter"), second.get("filter"));
+        assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+        List<Object> genes = (List<Object>) first.get("genes");
+        assertSame(genes.get(1), ((List<Object>) second.get("genes")).get(1));
+        assertSame(first.getMap("sample").get("id"), second.getMap("sample").get("id"));
+    }
+
+    /**
+     * Decoded from BSON, so every document has its own strings, as when read from the database.
+     */
+    private static DBObject decode(DBObject dbObject) {
+        return new DefaultDBDecoder().decode(new DefaultDBEncoder().encode(dbObject), (DBCollection) null);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.datastore.mongodb;
+
+import com.mongodb.BasicDBObject;
+import org.junit.Test;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryCompiler.Operator;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryParam;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MongoDBQueryCompilerTest {
+
+    enum VariantParam implements QueryParam {
+        CHROMOSOME("chromosome", Type.TEXT),
+        START("start", Type.INTEGER),
+        END("end", Type.INTEGER),
+        IDS("ids", Type.TEXT_ARRAY),
+        EXCLUDED_TYPES("excludedTypes", Type.TEXT_ARRAY),
+        GENE("gene", Type.TEXT),
+        ANNOTATED("annotated", Type.BOOLEAN);
+
+        private final String key;
+        private final Type type;
+
+        VariantParam(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+
+        @Override public String key() {return key;}
+        @Override public String description() {return "";}
+        @Override public Type type() {return type;}
+    }
+
+    private final MongoDBQueryCompiler<VariantParam> compiler = new MongoDBQueryCompiler<>(VariantParam.class)
+            .bind(VariantParam.CHROMOSOME, "chr", Operator.EQ)
+            .bind(VariantParam.START, "start", Operator.GTE)
+            .bind(VariantParam.END, "start", Operator.LTE)
+            .bind(VariantParam.IDS, "ids", Operator.EQ)
+            .bind(VariantParam.EXCLUDED_TYPES, "type", Operator.NIN)
+            .bind(VariantParam.GENE, "annot.gene", Operator.PREFIX)
+            .bind(VariantParam.ANNOTATED, "annot", Operator.EXISTS);
+
+    @Test
+    public void testCompile() throws Exception {
+        MongoDBQueryPlan plan = compiler.compile(new Query("chromosome", "1").append("start", "100").append("end", 200)
+                .append("ids", "rs1,rs2").append("excludedTypes", "SV").append("gene", "BRCA.").append("annotated", true),
+                new QueryOptions("include", "chr,start"));
+        BasicDBObject filter = new BasicDBObject("chr", "1")
+                .append("start", new BasicDBObject("$gte", 100L).append("$lte", 200L))
+                .append("ids", new BasicDBObject("$in", Arrays.asList("rs1", "rs2")))
+                .append("type", new BasicDBObject("$nin", Arrays.asList("SV")))
+                .append("annot.gene", new BasicDBObject("$regex", "^\\QBRCA.\\E"))
+                .append("annot", new BasicDBObject("$exists", true));
+        assertEquals(filter, plan.getFilter());
+        assertEquals(new BasicDBObject("_id", 0).append("chr", 1).append("start", 1), plan.getProjection());
+
+        plan = compiler.compile(new Query("chromosome", "2"), new QueryOptions("exclude", Arrays.asList("annot")));
+        assertEquals(new BasicDBObject("chr", "2"), plan.getFilter());
+        assertEquals(new BasicDBObject("_id", 0).append("annot", 0), plan.getProjection());
+
+        BasicDBObject elemMatch = new BasicDBObject("samples", new BasicDBObject("$elemMatch",
+                new BasicDBObject("id", "s1")));
+        plan = compiler.compile(new Query("chromosome", "2"), new QueryOptions("include", "chr")
+                .append("elemMatch", elemMatch));
+        assertEquals(new BasicDBObject("_id", 0).append("chr", 1).append("samples", elemMatch.get("samples")),
+                plan.getProjection());
+        assertNull(compiler.compile(new Query(), null).getProjection());
+    }
+
+    @Test
+    public void testCachedPlans() throws Exception {
+        MongoDBQueryPlan first = compiler.compile(new Query("chromosome", "1").append("start", 1), null);
+        MongoDBQueryPlan second = compiler.compile(new Query("chromosome", "2").append("start", 2), null);
+        assertEquals(1, compiler.getMissCount());
+        assertEquals(1, compiler.getHitCount());
+        // Plans of the same shape do not share their values
+        assertEquals(new BasicDBObject("chr", "1").append("start", new BasicDBObject("$gte", 1L)), first.getFilter());
+        assertEquals(new BasicDBObject("chr", "2").append("start", new BasicDBObject("$gte", 2L)), second.getFilter());
+    }
+
+    @Test
+    public void testRepeatedOperators() throws Exception {
+        MongoDBQueryCompiler<VariantParam> compiler = new MongoDBQueryCompiler<>(VariantParam.class)
+                .bind(VariantParam.START, "start", Operator.GTE)
+                .bind(VariantParam.END, "start", Operator.GTE);
+        MongoDBQueryPlan plan = compiler.compile(new Query("start", 1).append("end", 2), null);
+        assertEquals(new BasicDBObject("$and", Arrays.asList(
+                new BasicDBObject("start", new BasicDBObject("$gte", 1L)),
+                new BasicDBObject("start", new BasicDBObject("$gte", 2L)))), plan.getFilter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExistsOnText() throws Exception {
+        compiler.bind(VariantParam.GENE, "annot.gene", Operator.EXISTS);
+    }
+
+}
@@ -16,10 +16,18 @@
 
 package org.opencb.datastore.mongodb;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 import org.junit.*;
+import org.opencb.datastore.core.Query;
+import org.opencb.datastore.core.QueryResult;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
 
 /**
  * Created by imedina on 13/04/14.
@@ -52,6 +60,26 @@ public class MongoDataStoreTest {
         mongoDataStore.getCollection("JUnitTest");
     }
 
+    @Test
+    public void testGetDataCollection() throws Exception {
+        MongoDBDataCollection<DBObject> dataCollection = mongoDataStore.getDataCollection("JUnitTest");
+        List<DBObject> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(new BasicDBObject("id", i).append("even", i % 2 == 0));
+        }
+        assertEquals(10L, dataCollection.insertAsync(documents, null).get().first().longValue());
+
+        // Several lookups sent at once
+        CompletableFuture<QueryResult<DBObject>> find = dataCollection.findAsync(new Query("id", 3), null);
+        CompletableFuture<QueryResult<Long>> count = dataCollection.countAsync(new Query("even", true));
+        CompletableFuture<QueryResult<Object>> distinct = dataCollection.distinctAsync("even", new Query());
+        CompletableFuture.allOf(find, count, distinct).get();
+
+        assertEquals(3, find.get().first().get("id"));
+        assertEquals(5L, count.get().first().longValue());
+        assertEquals(2, distinct.get().getNumResults());
+    }
+
     @Test
     public void testCreateCollection() throws Exception {
 